@@ -0,0 +1,127 @@
+package com.ensoftcorp.open.commons.algorithms;
+
+import static org.junit.Assert.assertEquals;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.query.Query;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+import com.ensoftcorp.open.commons.analysis.FunctionGraphCache;
+
+/**
+ * Tests that incremental dominance indexing skips functions whose control
+ * flow graph was not changed by the front end
+ *
+ * @author Ben Holland
+ */
+public class DominanceAnalysisTest {
+
+	private AtlasSet<Node> nodes;
+	private Node function;
+	private Node entry;
+	private Node header;
+	private Node exit;
+	private Edge backEdge;
+
+	@Before
+	public void setUp(){
+		nodes = new AtlasHashSet<Node>();
+		function = createNode(XCSG.Function);
+		entry = createControlFlowNode(XCSG.controlFlowRoot);
+		header = createControlFlowNode(XCSG.ControlFlowCondition);
+		Node body = createControlFlowNode();
+		exit = createControlFlowNode(XCSG.controlFlowExitPoint);
+		createControlFlowEdge(entry, header);
+		createControlFlowEdge(header, body);
+		backEdge = createControlFlowEdge(body, header);
+		createControlFlowEdge(header, exit);
+	}
+
+	@After
+	public void tearDown(){
+		// removes the function, its control flow graph, the master entry/exit
+		// nodes and every edge the analysis created
+		Graph created = Query.universe().forwardStep(Common.toQ(nodes))
+				.union(Query.universe().reverseStep(Common.toQ(nodes))).eval();
+		for(Edge edge : new AtlasHashSet<Edge>(created.edges())){
+			Graph.U.delete(edge);
+		}
+		for(Node node : new AtlasHashSet<Node>(created.nodes())){
+			Graph.U.delete(node);
+		}
+	}
+
+	@Test
+	public void testSecondRunIsSkipped(){
+		assertEquals(0, index(1));
+		assertEquals(1, index(1));
+		assertEquals(1, index(2));
+	}
+
+	@Test
+	public void testTagsOfLaterStagesDoNotChangeTheFingerprint(){
+		assertEquals(0, index(1));
+		// tags added by the loop analysis later in the same pass
+		header.tag(XCSG.Loop);
+		header.tag(LoopAnalysis.LOOP_HEADER);
+		header.putAttr(LoopAnalysis.LOOP_HEADER_ID, 0);
+		backEdge.tag(XCSG.ControlFlowBackEdge);
+		backEdge.tag(LoopAnalysis.LOOP_BACK_EDGE);
+		assertEquals(1, index(1));
+		assertEquals(1, index(2));
+	}
+
+	@Test
+	public void testChangedControlFlowIsRecomputed(){
+		assertEquals(0, index(1));
+		createControlFlowEdge(entry, exit);
+		// the control flow graph was changed outside of an indexing operation
+		FunctionGraphCache.clear();
+		assertEquals(0, index(2));
+		assertEquals(1, index(2));
+	}
+
+	/**
+	 * Runs incremental dominance indexing on the test function
+	 * @param parallelism
+	 * @return the number of unchanged functions
+	 */
+	private int index(int parallelism){
+		AtlasSet<Node> functions = new AtlasHashSet<Node>();
+		functions.add(function);
+		return DominanceAnalysis.indexDominance(functions, false, false, true, parallelism, new NullProgressMonitor());
+	}
+
+	private Node createNode(String... tags){
+		Node node = Graph.U.createNode();
+		for(String tag : tags){
+			node.tag(tag);
+		}
+		nodes.add(node);
+		return node;
+	}
+
+	private Node createControlFlowNode(String... tags){
+		Node node = createNode(tags);
+		node.tag(XCSG.ControlFlow_Node);
+		Edge contains = Graph.U.createEdge(function, node);
+		contains.tag(XCSG.Contains);
+		return node;
+	}
+
+	private Edge createControlFlowEdge(Node from, Node to){
+		Edge edge = Graph.U.createEdge(from, to);
+		edge.tag(XCSG.ControlFlow_Edge);
+		return edge;
+	}
+
+}
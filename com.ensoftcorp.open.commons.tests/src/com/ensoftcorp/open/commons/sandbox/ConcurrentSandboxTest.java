@@ -0,0 +1,109 @@
+package com.ensoftcorp.open.commons.sandbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+
+/**
+ * Tests that concurrent adds of the same Atlas element share a single sandbox
+ * mirror and that changes made through any of the returned mirrors are flushed
+ *
+ * @author Ben Holland
+ */
+public class ConcurrentSandboxTest {
+
+	private static final int THREADS = 8;
+	private static final int ROUNDS = 100;
+	private static final String TAG_PREFIX = "concurrent-sandbox-test-";
+
+	private Node from;
+	private Node to;
+	private Edge edge;
+	private ExecutorService executor;
+
+	@Before
+	public void setUp(){
+		from = Graph.U.createNode();
+		to = Graph.U.createNode();
+		edge = Graph.U.createEdge(from, to);
+		executor = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@After
+	public void tearDown(){
+		executor.shutdownNow();
+		Graph.U.delete(edge);
+		Graph.U.delete(from);
+		Graph.U.delete(to);
+	}
+
+	@Test
+	public void testConcurrentAddsShareMirrorsAndFlush() throws Exception {
+		for(int round=0; round<ROUNDS; round++){
+			final ConcurrentSandbox sandbox = new ConcurrentSandbox();
+			List<Future<SandboxGraphElement[]>> futures = new ArrayList<Future<SandboxGraphElement[]>>();
+			for(int thread=0; thread<THREADS; thread++){
+				final String tag = TAG_PREFIX + thread;
+				final boolean edgeFirst = (thread % 2 == 0);
+				futures.add(executor.submit(new Callable<SandboxGraphElement[]>(){
+					@Override
+					public SandboxGraphElement[] call() throws Exception {
+						SandboxEdge sandboxEdge;
+						SandboxNode sandboxNode;
+						if(edgeFirst){
+							sandboxEdge = sandbox.addEdge(edge);
+							sandboxNode = sandbox.addNode(from);
+						} else {
+							sandboxNode = sandbox.addNode(from);
+							sandboxEdge = sandbox.addEdge(edge);
+						}
+						// the tag sets of sandbox elements are not thread safe
+						synchronized(sandboxNode){
+							sandboxNode.tag(tag);
+						}
+						return new SandboxGraphElement[]{ sandboxNode, sandboxEdge };
+					}
+				}));
+			}
+
+			SandboxNode sandboxNode = null;
+			SandboxEdge sandboxEdge = null;
+			for(Future<SandboxGraphElement[]> future : futures){
+				SandboxGraphElement[] mirrors = future.get();
+				if(sandboxNode == null){
+					sandboxNode = (SandboxNode) mirrors[0];
+					sandboxEdge = (SandboxEdge) mirrors[1];
+				}
+				assertSame(sandboxNode, mirrors[0]);
+				assertSame(sandboxEdge, mirrors[1]);
+			}
+			assertSame(sandboxNode, sandboxEdge.from());
+			assertSame(sandboxNode, sandbox.node(from));
+			assertEquals(2, sandbox.universe().nodes().size());
+			assertEquals(1, sandbox.universe().edges().size());
+
+			sandbox.flush();
+			for(int thread=0; thread<THREADS; thread++){
+				String tag = TAG_PREFIX + thread;
+				assertTrue("Missing " + tag + " in round " + round, from.taggedWith(tag));
+				from.untag(tag);
+			}
+		}
+	}
+
+}
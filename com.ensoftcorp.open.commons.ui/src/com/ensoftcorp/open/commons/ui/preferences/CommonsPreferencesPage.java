@@ -4,6 +4,8 @@ import org.eclipse.jface.preference.BooleanFieldEditor;
 import org.eclipse.jface.preference.FieldEditorPreferencePage;
 import org.eclipse.jface.preference.FileFieldEditor;
 import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.preference.IntegerFieldEditor;
+import org.eclipse.jface.preference.StringFieldEditor;
 import org.eclipse.jface.util.IPropertyChangeListener;
 import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchPreferencePage;
@@ -23,7 +25,24 @@ public class CommonsPreferencesPage extends FieldEditorPreferencePage implements
 	private static final String CONSTRUCT_ICFG_DESCRIPTION = "Construct inter-procedural control flow graphs (ICFGs)";
 	private static final String COMPUTE_CONTROL_FLOW_GRAPH_DOMINANCE_DESCRIPTION = "Compute control flow graph dominance";
 	private static final String COMPUTE_EXCEPTIONAL_CONTROL_FLOW_GRAPH_DOMINANCE_TREES_DESCRIPTION = "Compute exceptional control flow graph dominance";
+	private static final String CODEMAP_STAGE_PARALLELISM_DESCRIPTION = "Concurrent prioritized codemap stages (1 for serial)";
+	private static final String DOMINANCE_ANALYSIS_PARALLELISM_DESCRIPTION = "Dominance analysis worker threads (1 for serial)";
+	private static final String INDEXED_DOMINANCE_ENGINE_DESCRIPTION = "Compute dominance with the primitive int-indexed engine";
+	private static final String INCREMENTAL_DOMINANCE_ANALYSIS_DESCRIPTION = "Only recompute dominance for functions whose control flow graph changed";
 	private static final String ADD_MASTER_ENTRY_EXIT_CONTAINMENT_RELATIONSHIPS_DESCRIPTION = "Add master entry/exit containment relationships";
+	private static final String FUNCTION_GRAPH_CACHE_DESCRIPTION = "Cache function control flow and data flow graphs";
+	private static final String FUNCTION_GRAPH_CACHE_CAPACITY_DESCRIPTION = "Function graph cache capacity (total nodes and edges)";
+	private static final String ANALYZER_PARALLELISM_DESCRIPTION = "Concurrent analyzers (1 for serial)";
+	private static final String ANALYZER_TIMEOUT_DESCRIPTION = "Analyzer timeout in seconds (0 for no timeout)";
+	private static final String ANALYZER_RESULT_STORE_DESCRIPTION = "Persist analyzer results between sessions (requires address normalization)";
+	private static final String COMPUTE_LOOP_IDENTIFICATION_DESCRIPTION = "Identify loops, loopbacks and loop reentries of control flow graphs";
+	private static final String LOOP_IDENTIFICATION_PARALLELISM_DESCRIPTION = "Loop identification worker threads (1 for serial)";
+	private static final String ICFG_CONSTRUCTION_PARALLELISM_DESCRIPTION = "ICFG construction worker threads (1 for serial)";
+	private static final String CALL_RESOLUTION_TABLE_DESCRIPTION = "Resolve call site targets from a precomputed table (cleared on index changes)";
+	private static final String CALL_RESOLUTION_TABLE_PARALLELISM_DESCRIPTION = "Call resolution table worker threads (1 for serial)";
+	private static final String COMPUTE_NAME_INDEX_DESCRIPTION = "Index node names for fast name searches";
+	private static final String NAME_INDEX_ATTRIBUTES_DESCRIPTION = "Additional node attributes to index (comma separated)";
+	private static final String FILTER_PARALLELISM_DESCRIPTION = "Filter evaluation worker threads (1 for serial)";
 	private static final String DISPLAY_FILTER_VIEW_RESULT_CONTAINERS_DESCRIPTION = "Display container relationships in filter view results";
 	
 	private static boolean changeListenerAdded = false;
@@ -58,7 +77,42 @@ public class CommonsPreferencesPage extends FieldEditorPreferencePage implements
 		addField(new BooleanFieldEditor(CommonsPreferences.CONSTRUCT_ICFG, "&" + CONSTRUCT_ICFG_DESCRIPTION, getFieldEditorParent()));
 		addField(new BooleanFieldEditor(CommonsPreferences.COMPUTE_CONTROL_FLOW_GRAPH_DOMINANCE, "&" + COMPUTE_CONTROL_FLOW_GRAPH_DOMINANCE_DESCRIPTION, getFieldEditorParent()));
 		addField(new BooleanFieldEditor(CommonsPreferences.COMPUTE_EXCEPTIONAL_CONTROL_FLOW_GRAPH_DOMINANCE_TREES, "&" + COMPUTE_EXCEPTIONAL_CONTROL_FLOW_GRAPH_DOMINANCE_TREES_DESCRIPTION, getFieldEditorParent()));
+		IntegerFieldEditor codemapStageParallelism = new IntegerFieldEditor(CommonsPreferences.CODEMAP_STAGE_PARALLELISM, "&" + CODEMAP_STAGE_PARALLELISM_DESCRIPTION, getFieldEditorParent());
+		codemapStageParallelism.setValidRange(1, 64);
+		addField(codemapStageParallelism);
+		IntegerFieldEditor dominanceAnalysisParallelism = new IntegerFieldEditor(CommonsPreferences.DOMINANCE_ANALYSIS_PARALLELISM, "&" + DOMINANCE_ANALYSIS_PARALLELISM_DESCRIPTION, getFieldEditorParent());
+		dominanceAnalysisParallelism.setValidRange(1, 256);
+		addField(dominanceAnalysisParallelism);
+		addField(new BooleanFieldEditor(CommonsPreferences.INDEXED_DOMINANCE_ENGINE, "&" + INDEXED_DOMINANCE_ENGINE_DESCRIPTION, getFieldEditorParent()));
+		addField(new BooleanFieldEditor(CommonsPreferences.INCREMENTAL_DOMINANCE_ANALYSIS, "&" + INCREMENTAL_DOMINANCE_ANALYSIS_DESCRIPTION, getFieldEditorParent()));
 		addField(new BooleanFieldEditor(CommonsPreferences.ADD_MASTER_ENTRY_EXIT_CONTAINMENT_RELATIONSHIPS, "&" + ADD_MASTER_ENTRY_EXIT_CONTAINMENT_RELATIONSHIPS_DESCRIPTION, getFieldEditorParent()));
+		addField(new BooleanFieldEditor(CommonsPreferences.FUNCTION_GRAPH_CACHE, "&" + FUNCTION_GRAPH_CACHE_DESCRIPTION, getFieldEditorParent()));
+		IntegerFieldEditor functionGraphCacheCapacity = new IntegerFieldEditor(CommonsPreferences.FUNCTION_GRAPH_CACHE_CAPACITY, "&" + FUNCTION_GRAPH_CACHE_CAPACITY_DESCRIPTION, getFieldEditorParent());
+		functionGraphCacheCapacity.setValidRange(0, Integer.MAX_VALUE);
+		addField(functionGraphCacheCapacity);
+		IntegerFieldEditor analyzerParallelism = new IntegerFieldEditor(CommonsPreferences.ANALYZER_PARALLELISM, "&" + ANALYZER_PARALLELISM_DESCRIPTION, getFieldEditorParent());
+		analyzerParallelism.setValidRange(1, 64);
+		addField(analyzerParallelism);
+		IntegerFieldEditor analyzerTimeout = new IntegerFieldEditor(CommonsPreferences.ANALYZER_TIMEOUT, "&" + ANALYZER_TIMEOUT_DESCRIPTION, getFieldEditorParent());
+		analyzerTimeout.setValidRange(0, Integer.MAX_VALUE);
+		addField(analyzerTimeout);
+		addField(new BooleanFieldEditor(CommonsPreferences.ANALYZER_RESULT_STORE, "&" + ANALYZER_RESULT_STORE_DESCRIPTION, getFieldEditorParent()));
+		addField(new BooleanFieldEditor(CommonsPreferences.COMPUTE_LOOP_IDENTIFICATION, "&" + COMPUTE_LOOP_IDENTIFICATION_DESCRIPTION, getFieldEditorParent()));
+		IntegerFieldEditor loopIdentificationParallelism = new IntegerFieldEditor(CommonsPreferences.LOOP_IDENTIFICATION_PARALLELISM, "&" + LOOP_IDENTIFICATION_PARALLELISM_DESCRIPTION, getFieldEditorParent());
+		loopIdentificationParallelism.setValidRange(1, 256);
+		addField(loopIdentificationParallelism);
+		IntegerFieldEditor icfgConstructionParallelism = new IntegerFieldEditor(CommonsPreferences.ICFG_CONSTRUCTION_PARALLELISM, "&" + ICFG_CONSTRUCTION_PARALLELISM_DESCRIPTION, getFieldEditorParent());
+		icfgConstructionParallelism.setValidRange(1, 256);
+		addField(icfgConstructionParallelism);
+		addField(new BooleanFieldEditor(CommonsPreferences.CALL_RESOLUTION_TABLE, "&" + CALL_RESOLUTION_TABLE_DESCRIPTION, getFieldEditorParent()));
+		IntegerFieldEditor callResolutionTableParallelism = new IntegerFieldEditor(CommonsPreferences.CALL_RESOLUTION_TABLE_PARALLELISM, "&" + CALL_RESOLUTION_TABLE_PARALLELISM_DESCRIPTION, getFieldEditorParent());
+		callResolutionTableParallelism.setValidRange(1, 256);
+		addField(callResolutionTableParallelism);
+		addField(new BooleanFieldEditor(CommonsPreferences.COMPUTE_NAME_INDEX, "&" + COMPUTE_NAME_INDEX_DESCRIPTION, getFieldEditorParent()));
+		addField(new StringFieldEditor(CommonsPreferences.NAME_INDEX_ATTRIBUTES, "&" + NAME_INDEX_ATTRIBUTES_DESCRIPTION, getFieldEditorParent()));
+		IntegerFieldEditor filterParallelism = new IntegerFieldEditor(CommonsPreferences.FILTER_PARALLELISM, "&" + FILTER_PARALLELISM_DESCRIPTION, getFieldEditorParent());
+		filterParallelism.setValidRange(1, 256);
+		addField(filterParallelism);
 		addField(new BooleanFieldEditor(CommonsPreferences.DISPLAY_FILTER_VIEW_RESULT_CONTAINERS, "&" + DISPLAY_FILTER_VIEW_RESULT_CONTAINERS_DESCRIPTION, getFieldEditorParent()));
 	}
 	
@@ -6,7 +6,9 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
@@ -45,6 +47,8 @@ import com.ensoftcorp.open.commons.analyzers.Analyzer;
 import com.ensoftcorp.open.commons.analyzers.Analyzer.Result;
 import com.ensoftcorp.open.commons.analyzers.Analyzers;
 import com.ensoftcorp.open.commons.analyzers.Analyzers.AnalyzerResultChangedCallback;
+import com.ensoftcorp.open.commons.analyzers.BlockingResultSink;
+import com.ensoftcorp.open.commons.analyzers.ResultSink;
 import com.ensoftcorp.open.commons.ui.log.Log;
 import com.ensoftcorp.open.commons.ui.utilities.DisplayUtils;
 import com.ensoftcorp.open.commons.utilities.selection.GraphSelectionListenerView;
@@ -84,6 +88,36 @@ public class DashboardView extends GraphSelectionListenerView {
 	private Button uninitializedFilterCheckbox;
 	private ScrolledComposite workQueueScrolledComposite;
 	
+	/**
+	 * The maximum number of results buffered between an analyzer computing
+	 * results for the dashboard and the dashboard
+	 */
+	private static final int RESULT_BUFFER_CAPACITY = 1024;
+	
+	/**
+	 * The interval in milliseconds between progressive updates of a work item
+	 * while its results are being computed
+	 */
+	private static final int RESULT_RENDER_INTERVAL = 250;
+	
+	/**
+	 * The maximum number of streamed results listed in a work item while its
+	 * results are being computed, the remaining results are only counted
+	 */
+	private static final int STREAMED_RESULT_ROW_LIMIT = 100;
+	
+	/**
+	 * The number of visible rows of a work item's streamed result list
+	 */
+	private static final int STREAMED_RESULT_VISIBLE_ROWS = 8;
+	
+	// the expand items and streamed result lists of the displayed work items and
+	// the sinks of the analyzers streaming results to the dashboard, only
+	// accessed on the UI thread
+	private Map<WorkItem,ExpandItem> workItemExpandItems = new HashMap<WorkItem,ExpandItem>();
+	private Map<WorkItem,org.eclipse.swt.widgets.List> workItemStreamedResultRows = new HashMap<WorkItem,org.eclipse.swt.widgets.List>();
+	private Set<BlockingResultSink> resultSinks = new HashSet<BlockingResultSink>();
+	
 	private static boolean needsRefresh = false;
 	
 	public static void refreshRequired(){
@@ -388,9 +422,9 @@ public class DashboardView extends GraphSelectionListenerView {
 		// mark any work items that are completed as initialized
 		for(WorkItem workItem : workItems){
 			if(!workItem.isInitialized()){
-				Analyzer analyzer = workItem.getAnalyzer();
-				if(Analyzers.hasCachedResult(analyzer)){
-					List<Result> results = Analyzers.getAnalyzerResults(analyzer);
+				// results may be cleared concurrently by a new indexing run
+				List<Result> results = Analyzers.getAnalyzerResults(workItem.getAnalyzer());
+				if(results != null){
 					workItem.initialize(results);
 				}
 			}
@@ -401,6 +435,9 @@ public class DashboardView extends GraphSelectionListenerView {
 		org.eclipse.swt.graphics.Point origin = workQueueScrolledComposite.getOrigin();
 
 		// create a new composite to store the work items on
+		workItemExpandItems.clear();
+		workItemStreamedResultRows.clear();
+		Control previousWorkQueueComposite = workQueueScrolledComposite.getContent();
 		Composite workQueueComposite = new Composite(workQueueScrolledComposite, SWT.NONE);
 		workQueueComposite.setLayout(new GridLayout(1, false));
 
@@ -445,6 +482,9 @@ public class DashboardView extends GraphSelectionListenerView {
 		
 		workQueueScrolledComposite.setContent(workQueueComposite);
 		workQueueScrolledComposite.setMinSize(workQueueComposite.computeSize(SWT.DEFAULT, SWT.DEFAULT));
+		if(previousWorkQueueComposite != null){
+			previousWorkQueueComposite.dispose();
+		}
 		
 		// set the scroll position on redraw
 		workQueueScrolledComposite.getVerticalBar().setSelection(scrollPosition);
@@ -457,11 +497,8 @@ public class DashboardView extends GraphSelectionListenerView {
 		
 		ExpandItem workItemExpandBarItem = new ExpandItem(workItemExpandBar, SWT.NONE);
 		workItemExpandBarItem.setExpanded(workItem.isExpanded());
-		String initializedState = "";
-		if(!workItem.isInitialized()){
-			initializedState = " [RESULTS PENDING]";
-		}
-		workItemExpandBarItem.setText(workItem.getAnalyzer().getCategory() + ": " + workItem.getAnalyzer().getName() + initializedState);
+		workItemExpandBarItem.setText(getWorkItemTitle(workItem));
+		workItemExpandItems.put(workItem, workItemExpandBarItem);
 		
 		Composite workItemComposite = new Composite(workItemExpandBar, SWT.NONE);
 		workItemExpandBarItem.setControl(workItemComposite);
@@ -500,6 +537,10 @@ public class DashboardView extends GraphSelectionListenerView {
 			}
 		});
 		
+		if(workItem.isStreaming()){
+			addStreamedResultRows(workItem, workItemComposite);
+		}
+		
 		Composite workItemResultsComposite = new Composite(workItemComposite, SWT.NONE);
 		workItemResultsComposite.setLayout(new GridLayout(1, false));
 		workItemResultsComposite.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true, 1, 1));
@@ -511,36 +552,16 @@ public class DashboardView extends GraphSelectionListenerView {
 			@Override
 			public void widgetSelected(SelectionEvent e) {
 				Analyzer analyzer = workItem.getAnalyzer();
-				if(Analyzers.hasCachedResult(analyzer)){
+				if(workItem.isStreaming()){
+					// show the results found so far
+					DisplayUtils.show(Analyzer.getAllResults(workItem.getStreamedResults()), analyzer.getName());
+				} else if(Analyzers.hasCachedResult(analyzer)){
 					List<Result> results = Analyzers.getAnalyzerResults(analyzer);
 					DisplayUtils.show(Analyzer.getAllResults(results), analyzer.getName());
 				} else {
 					Boolean answer = DisplayUtils.promptBoolean("Result has not been computed.", "Would you like to compute it now?");
 					if(answer != null && answer.booleanValue() == true){
-						Job job = new Job("Analyzing: " + analyzer.getName()){
-							@Override
-							protected IStatus run(IProgressMonitor monitor) {
-								Log.info("Analyzing: " + analyzer.getName());
-								List<Result> results = analyzer.getResults(Query.universe()); // TODO: update context
-								
-								// initailize the work item and cache the results
-								workItem.initialize(results);
-								Analyzers.cacheResults(analyzer, results);
-								
-								// show the newly compute results
-								DisplayUtils.show(Analyzer.getAllResults(results), analyzer.getName());
-								
-								// update the work items
-								Display.getDefault().syncExec(new Runnable(){
-									@Override
-									public void run() {
-										refreshWorkItems();
-									}
-								});
-								return Status.OK_STATUS;
-							}
-						};
-						job.schedule();
+						computeResults(workItem);
 					}
 				}
 			}
@@ -565,6 +586,180 @@ public class DashboardView extends GraphSelectionListenerView {
 		workItemExpandBar.addExpandListener(expandAdapter);
 	}
 
+	/**
+	 * Lists the results the work item's analyzer has found so far, up to the
+	 * streamed result row limit. Double clicking a row shows the result.
+	 * 
+	 * @param workItem
+	 * @param workItemComposite
+	 */
+	private void addStreamedResultRows(final WorkItem workItem, Composite workItemComposite) {
+		Label streamedResultsLabel = new Label(workItemComposite, SWT.NONE);
+		streamedResultsLabel.setLayoutData(new GridData(SWT.LEFT, SWT.TOP, false, false, 1, 1));
+		streamedResultsLabel.setText("Results Found So Far (first " + STREAMED_RESULT_ROW_LIMIT + " listed):");
+		
+		final org.eclipse.swt.widgets.List streamedResultRows = new org.eclipse.swt.widgets.List(workItemComposite, SWT.BORDER | SWT.SINGLE | SWT.V_SCROLL);
+		GridData streamedResultRowsLayoutData = new GridData(SWT.FILL, SWT.FILL, true, false, 1, 1);
+		streamedResultRowsLayoutData.heightHint = streamedResultRows.getItemHeight() * STREAMED_RESULT_VISIBLE_ROWS;
+		streamedResultRows.setLayoutData(streamedResultRowsLayoutData);
+		addStreamedResultRows(streamedResultRows, workItem);
+		streamedResultRows.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetDefaultSelected(SelectionEvent e) {
+				int row = streamedResultRows.getSelectionIndex();
+				// rows are listed in the order the results were found
+				if(row >= 0 && workItem.isStreaming()){
+					for(Result result : workItem.getStreamedResults(row, 1)){
+						DisplayUtils.show(result.getQ(), result.getDisplayLabel());
+					}
+				}
+			}
+		});
+		workItemStreamedResultRows.put(workItem, streamedResultRows);
+	}
+	
+	/**
+	 * Appends the labels of the work item's streamed results that are not
+	 * listed yet until the list reaches the streamed result row limit
+	 * 
+	 * @param streamedResultRows
+	 * @param workItem
+	 */
+	private static void addStreamedResultRows(org.eclipse.swt.widgets.List streamedResultRows, WorkItem workItem) {
+		int listed = streamedResultRows.getItemCount();
+		for(Result result : workItem.getStreamedResults(listed, STREAMED_RESULT_ROW_LIMIT - listed)){
+			String label = result.getDisplayLabel();
+			streamedResultRows.add(label == null ? "" : label);
+		}
+	}
+
+	private String getWorkItemTitle(WorkItem workItem) {
+		String initializedState = "";
+		if(workItem.isStreaming()){
+			initializedState = " [" + workItem.getStreamedResultCount() + " RESULTS SO FAR]";
+		} else if(!workItem.isInitialized()){
+			initializedState = " [RESULTS PENDING]";
+		}
+		return workItem.getAnalyzer().getCategory() + ": " + workItem.getAnalyzer().getName() + initializedState;
+	}
+	
+	/**
+	 * Computes the results of the work item's analyzer in the background. The
+	 * analyzer streams its results through a bounded buffer that is drained
+	 * on the UI thread, so the work item is updated as results are found and
+	 * the analyzer blocks if the dashboard falls behind. The results are only
+	 * stored once, in a list shared by the analyzer job and the work item
+	 * that becomes the cached results. The dashboard only keeps the labels of
+	 * the first results it lists.
+	 * 
+	 * @param workItem
+	 */
+	private void computeResults(final WorkItem workItem) {
+		final Analyzer analyzer = workItem.getAnalyzer();
+		final BlockingResultSink sink = new BlockingResultSink(RESULT_BUFFER_CAPACITY);
+		final AtomicBoolean completed = new AtomicBoolean(false);
+		// evaluated on the job thread so the UI thread never evaluates results
+		final AtomicBoolean foundNodes = new AtomicBoolean(false);
+		final List<Result> results = Collections.synchronizedList(new ArrayList<Result>());
+		resultSinks.add(sink);
+		workItem.beginStreaming(results);
+		
+		Job job = new Job("Analyzing: " + analyzer.getName()){
+			@Override
+			protected IStatus run(final IProgressMonitor monitor) {
+				Log.info("Analyzing: " + analyzer.getName());
+				try {
+					analyzer.streamResults(Query.universe(), new ResultSink(){ // TODO: update context
+						@Override
+						public boolean accept(Result result) {
+							if(monitor.isCanceled()){
+								return false;
+							}
+							boolean hasNodes = !foundNodes.get() && !result.getQ().eval().nodes().isEmpty();
+							if(!sink.accept(result)){
+								return false;
+							}
+							if(hasNodes){
+								foundNodes.set(true);
+							}
+							results.add(result);
+							return true;
+						}
+					});
+					if(monitor.isCanceled() || sink.isCanceled()){
+						return Status.CANCEL_STATUS;
+					}
+					
+					// cache the results
+					Analyzers.cacheResults(analyzer, results);
+					completed.set(true);
+				} finally {
+					sink.close();
+				}
+				
+				// show the newly computed results
+				DisplayUtils.show(Analyzer.getAllResults(results), analyzer.getName());
+				return Status.OK_STATUS;
+			}
+		};
+		
+		// progressively add the streamed results to the work item
+		final Display display = Display.getDefault();
+		display.timerExec(RESULT_RENDER_INTERVAL, new Runnable(){
+			@Override
+			public void run() {
+				if(sink.isCanceled() || workQueueScrolledComposite.isDisposed()){
+					resultSinks.remove(sink);
+					sink.cancel();
+					return;
+				}
+				// the drained results are already stored in the shared result list,
+				// draining only lets the analyzer continue
+				List<Result> batch = new ArrayList<Result>();
+				sink.drainTo(batch, RESULT_BUFFER_CAPACITY);
+				if(sink.isDone()){
+					resultSinks.remove(sink);
+					if(completed.get()){
+						workItem.completeStreaming(!foundNodes.get());
+					} else {
+						workItem.cancelStreaming();
+					}
+					refreshWorkItems();
+				} else {
+					// the title and the streamed result list of the work item
+					// change while streaming
+					ExpandItem workItemExpandItem = workItemExpandItems.get(workItem);
+					if(!batch.isEmpty() && workItemExpandItem != null && !workItemExpandItem.isDisposed()){
+						workItemExpandItem.setText(getWorkItemTitle(workItem));
+					}
+					org.eclipse.swt.widgets.List streamedResultRows = workItemStreamedResultRows.get(workItem);
+					if(!batch.isEmpty() && streamedResultRows != null && !streamedResultRows.isDisposed()){
+						addStreamedResultRows(streamedResultRows, workItem);
+					}
+					display.timerExec(RESULT_RENDER_INTERVAL, this);
+				}
+			}
+		});
+		job.schedule();
+		refreshWorkItems();
+	}
+	
+	/**
+	 * Stops any analyzers that are streaming results to the dashboard
+	 */
+	private void cancelResultStreams() {
+		for(BlockingResultSink sink : resultSinks){
+			sink.cancel();
+		}
+		resultSinks.clear();
+	}
+
+	@Override
+	public void dispose() {
+		cancelResultStreams();
+		super.dispose();
+	}
+
 	@Override
 	public void setFocus() {
 		if(needsRefresh){
@@ -580,6 +775,7 @@ public class DashboardView extends GraphSelectionListenerView {
 	public void indexBecameUnaccessible() {
 		try {
 			enableUI(false);
+			cancelResultStreams();
 			Analyzers.clearCachedResults();
 			loadWorkItems();
 			categorizeWorkItems();
@@ -1,5 +1,6 @@
 package com.ensoftcorp.open.commons.ui.views.dashboard;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import com.ensoftcorp.open.commons.analyzers.Analyzer;
@@ -11,6 +12,13 @@ public class WorkItem implements Comparable<WorkItem> {
 	private boolean reviewed = false;
 	private boolean empty = false;
 	private List<Result> results = null;
+	
+	/**
+	 * The results found so far by a running analyzer. The list is appended to
+	 * by the analyzer job and becomes the work item's results once the
+	 * analyzer completes, so streamed results are only stored once.
+	 */
+	private List<Result> streamedResults = null;
 	private Analyzer analyzer;
 
 	public WorkItem(Analyzer analyzer){
@@ -62,11 +70,85 @@ public class WorkItem implements Comparable<WorkItem> {
 	
 	public void initialize(List<Result> results){
 		this.results = results;
-		if(Analyzer.getAllResults(results).eval().nodes().isEmpty()){
-			this.empty = true;
+		this.empty = true;
+		for(Result result : results){
+			if(!result.getQ().eval().nodes().isEmpty()){
+				this.empty = false;
+				break;
+			}
 		}
 	}
 	
+	/**
+	 * Returns true while the work item's results are being computed
+	 * @return
+	 */
+	public boolean isStreaming(){
+		return streamedResults != null;
+	}
+	
+	/**
+	 * Starts tracking the results of an analyzer run as they are found
+	 * @param results a synchronized list the analyzer job appends its results to
+	 */
+	public void beginStreaming(List<Result> results){
+		streamedResults = results;
+	}
+	
+	/**
+	 * Returns a snapshot of the results found so far by the running analyzer
+	 * @return
+	 */
+	public List<Result> getStreamedResults(){
+		synchronized (streamedResults) {
+			return new ArrayList<Result>(streamedResults);
+		}
+	}
+	
+	/**
+	 * Returns a snapshot of at most the given number of results found so far
+	 * by the running analyzer, starting at the given index
+	 * @param fromIndex
+	 * @param maxCount
+	 * @return
+	 */
+	public List<Result> getStreamedResults(int fromIndex, int maxCount){
+		synchronized (streamedResults) {
+			int toIndex = Math.min(streamedResults.size(), fromIndex + maxCount);
+			if(fromIndex >= toIndex){
+				return new ArrayList<Result>();
+			}
+			return new ArrayList<Result>(streamedResults.subList(fromIndex, toIndex));
+		}
+	}
+	
+	/**
+	 * Returns the number of results found so far by the running analyzer
+	 * @return
+	 */
+	public int getStreamedResultCount(){
+		return streamedResults.size();
+	}
+	
+	/**
+	 * Initializes the work item with the streamed results once the analyzer
+	 * has completed
+	 * @param empty true if none of the results contain nodes, computed by the
+	 *            analyzer job as results were accepted
+	 */
+	public void completeStreaming(boolean empty){
+		this.results = streamedResults;
+		this.empty = empty;
+		this.streamedResults = null;
+	}
+	
+	/**
+	 * Discards the streamed results of a canceled analyzer run
+	 */
+	public void cancelStreaming(){
+		this.streamedResults = null;
+	}
+	
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -4,12 +4,17 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.SashForm;
 import org.eclipse.swt.custom.ScrolledComposite;
@@ -27,6 +32,7 @@ import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Combo;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.ExpandBar;
 import org.eclipse.swt.widgets.ExpandItem;
 import org.eclipse.swt.widgets.Group;
@@ -77,6 +83,12 @@ public class CompositeFilterView extends ViewPart {
 	private Set<SelectedFilterState> selectedFilters = new HashSet<SelectedFilterState>();
 	private Set<ApplicableFilterState> applicableFilters = new HashSet<ApplicableFilterState>();
 	
+	// the composite result is evaluated in a background job, the current
+	// result remains displayed until the evaluation completes
+	private FilterResultChain resultChain = new FilterResultChain();
+	private Job evaluationJob = null;
+	private Map<SelectedFilterState,Group> filterImpactGroups = new HashMap<SelectedFilterState,Group>();
+	
 	private Comparator<SelectedFilterState> selectedFilterComparator = new FilterNodeImpactComparator().reversed();
 	private Comparator<ApplicableFilterState> applicableFilterComparator = new ApplicableFilterNameComparator();
 
@@ -643,6 +655,7 @@ public class CompositeFilterView extends ViewPart {
 		
 		refreshSelectedFilters();
 		refreshApplicableFilters();
+		updateResults();
 	}
 	
 	private void refreshApplicableFilters() {
@@ -833,6 +846,7 @@ public class CompositeFilterView extends ViewPart {
 					selectedFilters.add(new SelectedFilterState(filter, true, selectedRootset, true));
 					refreshSelectedFilters();
 					refreshApplicableFilters();
+					updateResults();
 				}
 			});
 			
@@ -878,6 +892,7 @@ public class CompositeFilterView extends ViewPart {
 		int scrollPosition = selectedFiltersScrolledComposite.getVerticalBar().getSelection();
 		org.eclipse.swt.graphics.Point origin = selectedFiltersScrolledComposite.getOrigin();
 		
+		filterImpactGroups.clear();
 		Composite selectedFiltersContentComposite = new Composite(selectedFiltersScrolledComposite, SWT.NONE);
 		selectedFiltersContentComposite.setLayout(new GridLayout(1, false));
 		
@@ -923,6 +938,7 @@ public class CompositeFilterView extends ViewPart {
 			Group selectedFilterImpactGroup = new Group(selectedFilterComposite, SWT.NONE);
 			selectedFilterImpactGroup.setLayout(new GridLayout(3, false));
 			selectedFilterImpactGroup.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false, 1, 1));
+			filterImpactGroups.put(selectedFilterState, selectedFilterImpactGroup);
 			updateFilterImpact(selectedFilterState, selectedFilterImpactGroup);
 
 			Button toggleFilterActivationButton = new Button(selectedFilterImpactGroup, SWT.NONE);
@@ -1338,6 +1354,7 @@ public class CompositeFilterView extends ViewPart {
 					selectedFilters.remove(selectedFilterState);
 					refreshSelectedFilters();
 					refreshApplicableFilters();
+					updateResults();
 				}
 			});
 			
@@ -1378,13 +1395,8 @@ public class CompositeFilterView extends ViewPart {
 
 	private void updateFilterResult(SelectedFilterState selectedFilterState, Filter filter, Label validationLabel, Group selectedFilterImpactGroup) {
 		if(validateFilterParameters(selectedFilterState, filter, validationLabel, selectedFilterImpactGroup)){
-			try {
-				selectedFilterState.updateFilterResult();
-				updateFilterImpact(selectedFilterState, selectedFilterImpactGroup);
-			} catch (InvalidFilterParameterException ex) {
-				// should never happen
-				Log.warning("Invalid Filter Configuration", ex);
-			}
+			// the filter result is computed by the evaluation job
+			updateResults();
 		}
 	}
 
@@ -1398,31 +1410,83 @@ public class CompositeFilterView extends ViewPart {
 		}
 	}
 	
+	/**
+	 * Schedules the evaluation of the selected filters, cancelling any
+	 * evaluation in progress. Filters whose parameters have not changed reuse
+	 * their memoized results and only the stages of the result chain
+	 * downstream of a changed filter are recomputed.
+	 */
 	private void updateResults() {
-		ArrayList<Q> filteredResults = new ArrayList<Q>();
-		for(SelectedFilterState filter : selectedFilters){
+		if(evaluationJob != null){
+			evaluationJob.cancel();
+		}
+		
+		// snapshot the selected filters and their parameters on the UI thread
+		final Graph rootset = selectedRootset;
+		final List<SelectedFilterState> filters = new ArrayList<SelectedFilterState>(selectedFilters);
+		final Map<SelectedFilterState,Map<String,Object>> parameters = new HashMap<SelectedFilterState,Map<String,Object>>();
+		final Set<SelectedFilterState> enabledFilters = new HashSet<SelectedFilterState>();
+		for(SelectedFilterState filter : filters){
+			parameters.put(filter, filter.snapshotParameters());
 			if(filter.isEnabled()){
-				filteredResults.add(Common.toQ(filter.getFilteredRootset()));
+				enabledFilters.add(filter);
 			}
 		}
-		Q result;
-		if(filteredResults.isEmpty()){
-			result = Common.toQ(selectedRootset);
-		} else if(filteredResults.size() == 1){
-			result = filteredResults.get(0);
-		} else {
-			Q first = filteredResults.remove(0);
-			Q[] rest = new Q[filteredResults.size()];
-			filteredResults.toArray(rest);
-			result = first.intersection(rest);
-		}
-		evaluatedResult = result.eval();
+		final Display display = resultGroup.getDisplay();
 		
-		if(evaluatedResult.nodes().isEmpty() && evaluatedResult.edges().isEmpty()){
-			resultGroup.setText("Result: (empty)");
-		} else {
-			resultGroup.setText("Result: (" + evaluatedResult.nodes().size() + " nodes, " + evaluatedResult.edges().size() + " edges)");
-		}
+		evaluationJob = new Job("Evaluating Filters"){
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				final Job job = this;
+				List<SelectedFilterState> evaluatedFilters = new ArrayList<SelectedFilterState>();
+				Map<SelectedFilterState,Graph> filterResults = new HashMap<SelectedFilterState,Graph>();
+				for(SelectedFilterState filter : filters){
+					if(monitor.isCanceled()){
+						return Status.CANCEL_STATUS;
+					}
+					try {
+						filter.getFilter().checkParameters(parameters.get(filter));
+						// chain the results computed for this snapshot, not the
+						// shared filter state which a newer evaluation may replace
+						Graph filterResult = filter.updateFilterResult(parameters.get(filter));
+						if(enabledFilters.contains(filter) && filterResult != null){
+							evaluatedFilters.add(filter);
+							filterResults.put(filter, filterResult);
+						}
+					} catch (InvalidFilterParameterException e){
+						// the filter is disabled until its parameters are valid
+					} catch (Exception e){
+						Log.warning("Error evaluating " + filter.getFilter().getName() + " filter", e);
+					}
+				}
+				final Graph result = resultChain.evaluate(rootset, evaluatedFilters, filterResults, monitor);
+				if(result == null){
+					return Status.CANCEL_STATUS;
+				}
+				display.asyncExec(new Runnable(){
+					@Override
+					public void run() {
+						// a newer evaluation replaces this result
+						if(evaluationJob != job || resultGroup.isDisposed()){
+							return;
+						}
+						evaluatedResult = result;
+						if(evaluatedResult.nodes().isEmpty() && evaluatedResult.edges().isEmpty()){
+							resultGroup.setText("Result: (empty)");
+						} else {
+							resultGroup.setText("Result: (" + evaluatedResult.nodes().size() + " nodes, " + evaluatedResult.edges().size() + " edges)");
+						}
+						for(Map.Entry<SelectedFilterState,Group> entry : filterImpactGroups.entrySet()){
+							if(!entry.getValue().isDisposed()){
+								updateFilterImpact(entry.getKey(), entry.getValue());
+							}
+						}
+					}
+				});
+				return Status.OK_STATUS;
+			}
+		};
+		evaluationJob.schedule();
 	}
 
 	private boolean validateFilterParameters(SelectedFilterState selectedFilterState, Filter filter, Label validationLabel, Group selectedFilterImpactGroup) {
@@ -1456,4 +1520,12 @@ public class CompositeFilterView extends ViewPart {
 	public void setFocus() {
 		
 	}
+	
+	@Override
+	public void dispose() {
+		if(evaluationJob != null){
+			evaluationJob.cancel();
+		}
+		super.dispose();
+	}
 }
@@ -0,0 +1,103 @@
+package com.ensoftcorp.open.commons.ui.views.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.script.Common;
+
+/**
+ * Combines the results of the enabled selected filters into the composite
+ * filter result as a chain of intersections. Each stage memoizes its result
+ * keyed by the identity of its upstream result and of the filter result it
+ * intersects (filter results are memoized by their parameters), so only the
+ * stages downstream of a changed filter are recomputed.
+ *
+ * @author Ben Holland
+ */
+public class FilterResultChain {
+
+	private static class Stage {
+		private final SelectedFilterState filter;
+		private final Graph upstream;
+		private final Graph filterResult;
+		private final Graph result;
+
+		public Stage(SelectedFilterState filter, Graph upstream, Graph filterResult, Graph result) {
+			this.filter = filter;
+			this.upstream = upstream;
+			this.filterResult = filterResult;
+			this.result = result;
+		}
+	}
+
+	private List<Stage> stages = new ArrayList<Stage>();
+
+	/**
+	 * Returns the intersection of the filtered rootsets of the given filters,
+	 * or the rootset if there are no filters. Filters keep their position in
+	 * the chain and newly enabled filters are appended to the end, so editing
+	 * a filter only recomputes the stages after it.
+	 *
+	 * @param rootset
+	 * @param filters the enabled filters with a filtered rootset
+	 * @param filterResults the filtered rootsets computed for the filters
+	 * @param monitor
+	 * @return the result or null if the monitor was cancelled
+	 */
+	public synchronized Graph evaluate(Graph rootset, List<SelectedFilterState> filters, Map<SelectedFilterState,Graph> filterResults, IProgressMonitor monitor){
+		List<SelectedFilterState> orderedFilters = new ArrayList<SelectedFilterState>();
+		for(Stage stage : stages){
+			if(filters.contains(stage.filter)){
+				orderedFilters.add(stage.filter);
+			}
+		}
+		for(SelectedFilterState filter : filters){
+			if(!orderedFilters.contains(filter)){
+				orderedFilters.add(filter);
+			}
+		}
+
+		List<Stage> evaluatedStages = new ArrayList<Stage>();
+		Graph upstream = rootset;
+		try {
+			for(int i=0; i<orderedFilters.size(); i++){
+				if(monitor.isCanceled()){
+					return null;
+				}
+				// use the result computed by the caller, the filter state may
+				// already hold the result of a newer evaluation
+				SelectedFilterState filter = filters.get(filters.indexOf(orderedFilters.get(i)));
+				Graph filterResult = filterResults.get(filter);
+				Stage stage = i < stages.size() ? stages.get(i) : null;
+				if(stage == null || stage.filter != filter || stage.upstream != upstream || stage.filterResult != filterResult){
+					Graph result;
+					if(i == 0){
+						// filter results are already a subset of the rootset
+						result = filterResult;
+					} else {
+						result = Common.toQ(upstream).intersection(Common.toQ(filterResult)).eval();
+					}
+					stage = new Stage(filter, upstream, filterResult, result);
+				}
+				evaluatedStages.add(stage);
+				upstream = stage.result;
+			}
+			return upstream;
+		} finally {
+			// the evaluated prefix of the chain remains valid if cancelled
+			stages = evaluatedStages;
+		}
+	}
+
+	/**
+	 * Discards the memoized stages
+	 */
+	public synchronized void clear(){
+		stages = new ArrayList<Stage>();
+	}
+
+}
@@ -12,6 +12,8 @@ public class SelectedFilterState extends FilterState {
 
 	private Graph rootset;
 	private Graph filteredRootset;
+	private Map<String,Object> evaluatedParameters;
+	private Map<String,Object> latestParameters;
 	private long nodeImpact = 0;
 	private long edgeImpact = 0;
 	private boolean isEnabled;
@@ -32,28 +34,89 @@ public class SelectedFilterState extends FilterState {
 		this.isEnabled = isEnabled;
 	}
 	
-	public long getNodeImpact() {
+	public synchronized long getNodeImpact() {
 		return nodeImpact;
 	}
 
-	public long getEdgeImpact() {
+	public synchronized long getEdgeImpact() {
 		return edgeImpact;
 	}
 	
-	public Graph getFilteredRootset(){
+	public synchronized Graph getFilteredRootset(){
 		return filteredRootset;
 	}
+	
+	public Graph getRootset(){
+		return rootset;
+	}
+	
+	/**
+	 * Returns true if the filtered rootset was computed with the given
+	 * parameters, in which case it does not need to be updated
+	 * @param parameters
+	 * @return
+	 */
+	public synchronized boolean isFilterResultCurrent(Map<String,Object> parameters){
+		return filteredRootset != null && evaluatedParameters != null && evaluatedParameters.equals(parameters);
+	}
+
+	/**
+	 * Returns a snapshot of the filter parameters and records it as the latest
+	 * snapshot. Only the evaluation of the latest snapshot updates the
+	 * filtered rootset, so an older evaluation that finishes late cannot
+	 * replace a newer result.
+	 * @return
+	 */
+	public synchronized Map<String,Object> snapshotParameters(){
+		latestParameters = new HashMap<String,Object>(filterParameters);
+		return latestParameters;
+	}
 
-	public void updateFilterResult() throws InvalidFilterParameterException {
+	public Graph updateFilterResult() throws InvalidFilterParameterException {
+		return updateFilterResult(snapshotParameters());
+	}
+	
+	/**
+	 * Computes the filtered rootset for a snapshot of the filter parameters
+	 * taken with {@link #snapshotParameters()}. The result is memoized, so
+	 * updating with the parameters the current result was computed with does
+	 * not run the filter again. The filter runs without holding the lock, so
+	 * this may be called from a background job. The memoized result is only
+	 * replaced if the snapshot is still the latest snapshot.
+	 * 
+	 * @param parameters
+	 * @return the filtered rootset for the given parameters
+	 * @throws InvalidFilterParameterException
+	 */
+	public Graph updateFilterResult(Map<String,Object> parameters) throws InvalidFilterParameterException {
+		synchronized (this) {
+			if(isFilterResultCurrent(parameters)){
+				return filteredRootset;
+			}
+		}
+		Graph result;
 		try {
-			filteredRootset = filter.filter(Common.toQ(rootset), filterParameters).eval();
-			nodeImpact = rootset.nodes().size() - filteredRootset.nodes().size();
-			edgeImpact = rootset.edges().size() - filteredRootset.edges().size();
+			result = filter.filter(Common.toQ(rootset), parameters).eval();
 		} catch (InvalidFilterParameterException e) {
-			nodeImpact = 0;
-			edgeImpact = 0;
+			synchronized (this) {
+				if(parameters == latestParameters){
+					filteredRootset = null;
+					evaluatedParameters = null;
+					nodeImpact = 0;
+					edgeImpact = 0;
+				}
+			}
 			throw e;
 		}
+		synchronized (this) {
+			if(parameters == latestParameters){
+				filteredRootset = result;
+				evaluatedParameters = parameters;
+				nodeImpact = rootset.nodes().size() - result.nodes().size();
+				edgeImpact = rootset.edges().size() - result.edges().size();
+			}
+		}
+		return result;
 	}
 	
 }
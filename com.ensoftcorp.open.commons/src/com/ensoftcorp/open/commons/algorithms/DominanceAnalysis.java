@@ -1,13 +1,23 @@
 package com.ensoftcorp.open.commons.algorithms;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.SubMonitor;
 
 import com.ensoftcorp.atlas.core.db.graph.Edge;
 import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
 import com.ensoftcorp.atlas.core.db.graph.Node;
 import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
 import com.ensoftcorp.atlas.core.db.set.AtlasSet;
@@ -16,6 +26,7 @@ import com.ensoftcorp.atlas.core.query.Query;
 import com.ensoftcorp.atlas.core.script.Common;
 import com.ensoftcorp.atlas.core.xcsg.XCSG;
 import com.ensoftcorp.open.commons.algorithms.dominance.DominatorTree;
+import com.ensoftcorp.open.commons.algorithms.dominance.IndexedDominatorTree;
 import com.ensoftcorp.open.commons.algorithms.dominance.PostDominatorTree;
 import com.ensoftcorp.open.commons.analysis.CommonQueries;
 import com.ensoftcorp.open.commons.codemap.PrioritizedCodemapStage;
@@ -91,6 +102,19 @@ public class DominanceAnalysis extends PrioritizedCodemapStage {
 	@XCSG_Extension
 	public static final String POST_DOMINANCE_FRONTIER_EDGE = "pdom-frontier";
 	
+	/**
+	 * Attribute applied to a function recording the fingerprint of the control
+	 * flow graph its dominance relationships were last computed for. Functions
+	 * whose fingerprint is unchanged are skipped by incremental indexing.
+	 */
+	@XCSG_Extension
+	public static final String DOMINANCE_FINGERPRINT = "dominance-fingerprint";
+	
+	/**
+	 * The number of functions the parallel indexer processes at a time
+	 */
+	private static final int COMMIT_BATCH_SIZE = 256;
+	
 	public DominanceAnalysis() {}
 	
 	public static Q getDominatorTreeEdges(){
@@ -123,58 +147,431 @@ public class DominanceAnalysis extends PrioritizedCodemapStage {
 	public String[] getCodemapStageDependencies() {
 		return new String[]{};
 	}
+	
+	/**
+	 * Dominance analysis creates edges in the Atlas graph (and manages its
+	 * own worker threads), so it does not overlap other codemap stages
+	 */
+	@Override
+	public boolean isGraphWritingExclusive() {
+		return true;
+	}
 
 	@Override
 	public boolean performIndexing(IProgressMonitor monitor) {
 		boolean exceptional = CommonsPreferences.isComputeExceptionalControlFlowGraphDominanceEnabled();
 		boolean runIndexer = CommonsPreferences.isComputeControlFlowGraphDominanceEnabled() || exceptional;
 		boolean includeContainment = CommonsPreferences.isMasterEntryExitContainmentRelationshipsEnabled();
+		boolean incremental = CommonsPreferences.isIncrementalDominanceAnalysisEnabled();
 		if(runIndexer){
 			Log.info("Computing Control Flow Graph Dominator Trees");
 			AtlasSet<Node> functions = Query.resolve(null, Query.universe().nodes(XCSG.Function).eval().nodes());
-			SubMonitor task = SubMonitor.convert(monitor, (int) functions.size());
-			int functionsCompleted = 0;
-			for(Node function : functions){
-				Q cfg;
-				if(exceptional){
-					cfg = CommonQueries.excfg(function);
-				} else {
-					cfg = CommonQueries.cfg(function);
+			int parallelism = CommonsPreferences.getDominanceAnalysisParallelism();
+			int functionsUnchanged = indexDominance(functions, exceptional, includeContainment, incremental, parallelism, monitor);
+			if(incremental){
+				Log.info("Reused the dominance relationships of " + functionsUnchanged + " unchanged functions");
+			}
+		}
+		return runIndexer;
+	}
+	
+	/**
+	 * Computes and commits the dominance relationships of the given functions
+	 * 
+	 * @param functions
+	 * @param exceptional
+	 * @param includeContainment
+	 * @param incremental
+	 * @param parallelism
+	 * @param monitor
+	 * @return the number of functions whose dominance relationships were unchanged
+	 */
+	/*package*/ static int indexDominance(AtlasSet<Node> functions, boolean exceptional, boolean includeContainment, boolean incremental, int parallelism, IProgressMonitor monitor){
+		if(parallelism > 1){
+			return performParallelIndexing(functions, exceptional, includeContainment, incremental, parallelism, monitor);
+		} else {
+			return performSerialIndexing(functions, exceptional, includeContainment, incremental, monitor);
+		}
+	}
+	
+	/**
+	 * Computes and commits the dominance relationships of each function one
+	 * function at a time on the indexing thread
+	 * 
+	 * @param functions
+	 * @param exceptional
+	 * @param includeContainment
+	 * @param incremental
+	 * @param monitor
+	 * @return the number of functions whose dominance relationships were unchanged
+	 */
+	private static int performSerialIndexing(AtlasSet<Node> functions, boolean exceptional, boolean includeContainment, boolean incremental, IProgressMonitor monitor){
+		SubMonitor task = SubMonitor.convert(monitor, (int) functions.size());
+		int functionsCompleted = 0;
+		int functionsUnchanged = 0;
+		for(Node function : functions){
+			FunctionControlFlow controlFlow = new FunctionControlFlow(function, exceptional);
+			if(controlFlow.isEmpty()){
+				// nothing to compute
+				task.setWorkRemaining(((int) functions.size())-(functionsCompleted++));
+				continue;
+			} else {
+				try {
+					String fingerprint = controlFlow.getFingerprint();
+					if(incremental && controlFlow.isUnchanged(fingerprint)){
+						functionsUnchanged++;
+					} else {
+						UniqueEntryExitGraph uexg = controlFlow.toUniqueEntryExitGraph(includeContainment);
+						DominanceRelationships dominance = new DominanceRelationships(uexg);
+						dominance.setFunction(function, fingerprint);
+						commitDominance(dominance);
+					}
+				} catch (Exception e){
+					Log.error("Error computing control flow graph dominance tree", e);
 				}
-				Graph g = cfg.eval();
-				AtlasSet<Node> roots;
-				if(exceptional){
-					roots = cfg.roots().eval().nodes();
-				} else {
-					roots = cfg.nodes(XCSG.controlFlowRoot).eval().nodes();
+				if(monitor.isCanceled()){
+					Log.warning("Cancelled: Computing Control Flow Graph Dominator Trees");
+					break;
+				}
+				task.setWorkRemaining(((int) functions.size())-(functionsCompleted++));
+			}
+		}
+		return functionsUnchanged;
+	}
+	
+	/**
+	 * Computes the dominance relationships of each function on a work stealing
+	 * pool of worker threads. Workers only read the index and compute in
+	 * memory, the index is only modified by the indexing thread while no
+	 * worker is running. The functions are processed in batches, each in four
+	 * phases:
+	 * 
+	 * 1) workers read and fingerprint the control flow graphs,
+	 * 2) the indexing thread creates (or reuses) the master entry/exit nodes
+	 * and edges of the changed functions,
+	 * 3) workers compute the dominance relationships of the resulting unique
+	 * entry/exit graphs,
+	 * 4) the indexing thread commits the idom, ipdom, dom-frontier and
+	 * pdom-frontier edges in submission order.
+	 * 
+	 * Each phase waits for every task of the previous phase, so the resulting
+	 * edges are identical to those produced by the serial indexer.
+	 * 
+	 * @param functions
+	 * @param exceptional
+	 * @param includeContainment
+	 * @param incremental
+	 * @param parallelism
+	 * @param monitor
+	 * @return the number of functions whose dominance relationships were unchanged
+	 */
+	private static int performParallelIndexing(AtlasSet<Node> functions, final boolean exceptional, final boolean includeContainment, final boolean incremental, int parallelism, final IProgressMonitor monitor){
+		SubMonitor task = SubMonitor.convert(monitor, (int) functions.size());
+		ForkJoinPool workers = new ForkJoinPool(parallelism);
+		List<Future<FunctionControlFlow>> controlFlows = new ArrayList<Future<FunctionControlFlow>>(COMMIT_BATCH_SIZE);
+		List<Future<DominanceRelationships>> relationships = new ArrayList<Future<DominanceRelationships>>(COMMIT_BATCH_SIZE);
+		int functionsUnchanged = 0;
+		int functionsCompleted = 0;
+		try {
+			Iterator<Node> remainingFunctions = functions.iterator();
+			while(remainingFunctions.hasNext()){
+				if(monitor.isCanceled()){
+					Log.warning("Cancelled: Computing Control Flow Graph Dominator Trees");
+					break;
 				}
-				AtlasSet<Node> exits;
 				
-				if(exceptional){
-					exits = cfg.leaves().eval().nodes();
-				} else {
-					exits = cfg.nodes(XCSG.controlFlowExitPoint).eval().nodes();
+				// phase 1: read and fingerprint the control flow graphs
+				while(remainingFunctions.hasNext() && controlFlows.size() < COMMIT_BATCH_SIZE){
+					final Node function = remainingFunctions.next();
+					controlFlows.add(workers.submit(new Callable<FunctionControlFlow>(){
+						@Override
+						public FunctionControlFlow call() throws Exception {
+							if(monitor.isCanceled()){
+								return null;
+							}
+							FunctionControlFlow controlFlow = new FunctionControlFlow(function, exceptional);
+							if(controlFlow.isEmpty()){
+								// nothing to compute
+								return null;
+							}
+							controlFlow.fingerprint = controlFlow.getFingerprint();
+							controlFlow.unchanged = incremental && controlFlow.isUnchanged(controlFlow.fingerprint);
+							return controlFlow;
+						}
+					}));
+				}
+				List<FunctionControlFlow> changed = new ArrayList<FunctionControlFlow>(controlFlows.size());
+				for(Future<FunctionControlFlow> controlFlow : controlFlows){
+					try {
+						FunctionControlFlow result = controlFlow.get();
+						if(result != null){
+							if(result.unchanged){
+								functionsUnchanged++;
+							} else {
+								changed.add(result);
+							}
+						}
+					} catch (ExecutionException e){
+						Log.error("Error computing control flow graph dominance tree", e.getCause());
+					}
+				}
+				functionsCompleted += controlFlows.size();
+				controlFlows.clear();
+				if(monitor.isCanceled()){
+					Log.warning("Cancelled: Computing Control Flow Graph Dominator Trees");
+					break;
 				}
-				if(g.nodes().isEmpty() || roots.isEmpty() || exits.isEmpty()){
-					// nothing to compute
-					task.setWorkRemaining(((int) functions.size())-(functionsCompleted++));
-					continue;
-				} else {
+				
+				// phase 2: create the master entry/exit nodes and edges (no worker is running)
+				for(final FunctionControlFlow controlFlow : changed){
+					final UniqueEntryExitGraph uexg;
 					try {
-						UniqueEntryExitGraph uexg = new UniqueEntryExitControlFlowGraph(g, roots, exits, includeContainment);
-						computeDominance(uexg);
+						uexg = controlFlow.toUniqueEntryExitGraph(includeContainment);
 					} catch (Exception e){
 						Log.error("Error computing control flow graph dominance tree", e);
+						continue;
+					}
+					
+					// phase 3: compute the dominance relationships in memory
+					relationships.add(workers.submit(new Callable<DominanceRelationships>(){
+						@Override
+						public DominanceRelationships call() throws Exception {
+							DominanceRelationships dominance = new DominanceRelationships(uexg);
+							dominance.setFunction(controlFlow.function, controlFlow.fingerprint);
+							return dominance;
+						}
+					}));
+				}
+				List<DominanceRelationships> batch = new ArrayList<DominanceRelationships>(relationships.size());
+				for(Future<DominanceRelationships> dominance : relationships){
+					try {
+						batch.add(dominance.get());
+					} catch (ExecutionException e){
+						Log.error("Error computing control flow graph dominance tree", e.getCause());
 					}
-					if(monitor.isCanceled()){
-						Log.warning("Cancelled: Computing Control Flow Graph Dominator Trees");
-						break;
+				}
+				relationships.clear();
+				
+				// phase 4: commit in submission order (no worker is running)
+				for(DominanceRelationships dominance : batch){
+					try {
+						commitDominance(dominance);
+					} catch (Exception e){
+						Log.error("Error committing control flow graph dominance tree", e);
 					}
-					task.setWorkRemaining(((int) functions.size())-(functionsCompleted++));
 				}
+				task.setWorkRemaining(((int) functions.size())-functionsCompleted);
+			}
+		} catch (InterruptedException e){
+			Log.warning("Interrupted: Computing Control Flow Graph Dominator Trees", e);
+			Thread.currentThread().interrupt();
+		} finally {
+			workers.shutdownNow();
+			try {
+				// the index must not be modified after this stage completes
+				workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e){
+				Thread.currentThread().interrupt();
 			}
 		}
-		return runIndexer;
+		return functionsUnchanged;
+	}
+	
+	/**
+	 * The control flow graph of a function along with the roots and exits
+	 * used to construct its unique entry/exit graph
+	 */
+	private static class FunctionControlFlow {
+		private Node function;
+		private boolean exceptional;
+		private Graph cfg;
+		private AtlasSet<Node> roots;
+		private AtlasSet<Node> exits;
+		
+		/**
+		 * The fingerprint of the control flow graph and whether the function's
+		 * dominance relationships are unchanged, recorded by the parallel
+		 * indexer's read phase
+		 */
+		private String fingerprint = null;
+		private boolean unchanged = false;
+		
+		public FunctionControlFlow(Node function, boolean exceptional){
+			this.function = function;
+			this.exceptional = exceptional;
+			Q cfg;
+			if(exceptional){
+				cfg = CommonQueries.excfg(function);
+			} else {
+				cfg = CommonQueries.cfg(function);
+			}
+			this.cfg = cfg.eval();
+			if(exceptional){
+				this.roots = cfg.roots().eval().nodes();
+			} else {
+				this.roots = cfg.nodes(XCSG.controlFlowRoot).eval().nodes();
+			}
+			if(exceptional){
+				this.exits = cfg.leaves().eval().nodes();
+			} else {
+				this.exits = cfg.nodes(XCSG.controlFlowExitPoint).eval().nodes();
+			}
+		}
+		
+		public boolean isEmpty(){
+			return cfg.nodes().isEmpty() || roots.isEmpty() || exits.isEmpty();
+		}
+		
+		public UniqueEntryExitGraph toUniqueEntryExitGraph(boolean includeContainment){
+			return new UniqueEntryExitControlFlowGraph(cfg, roots, exits, includeContainment);
+		}
+		
+		/**
+		 * Returns a fingerprint of the front end structure of the control flow
+		 * graph consisting of the node and edge counts and an order independent
+		 * hash of the address and front end tags of each node, the endpoints
+		 * and front end tags of each edge and the roots and exits. Tags and
+		 * attributes added by codemap stages (loop, dominance and other
+		 * toolbox tags) are not part of the fingerprint, so it only changes
+		 * when the front end changes the control flow graph.
+		 * 
+		 * @return
+		 */
+		public String getFingerprint(){
+			long hash = 0;
+			for(Node node : cfg.nodes()){
+				long nodeHash = addressHash(node);
+				nodeHash = 31 * nodeHash + tagsHash(node);
+				hash += mix(nodeHash);
+			}
+			for(Edge edge : cfg.edges()){
+				long edgeHash = addressHash(edge.from());
+				edgeHash = 31 * edgeHash + addressHash(edge.to());
+				edgeHash = 31 * edgeHash + tagsHash(edge);
+				hash += mix(edgeHash ^ EDGE_SALT);
+			}
+			for(Node root : roots){
+				hash += mix(addressHash(root) ^ ROOT_SALT);
+			}
+			for(Node exit : exits){
+				hash += mix(addressHash(exit) ^ EXIT_SALT);
+			}
+			return (exceptional ? "excfg" : "cfg") + ":" + cfg.nodes().size() + ":" + cfg.edges().size() + ":" + Long.toHexString(hash);
+		}
+		
+		/**
+		 * Returns true if the function's dominance relationships were computed
+		 * for a control flow graph with the given fingerprint and are still
+		 * present in the index
+		 * 
+		 * @param fingerprint
+		 * @return
+		 */
+		public boolean isUnchanged(String fingerprint){
+			Object previousFingerprint = function.getAttr(DOMINANCE_FINGERPRINT);
+			if(previousFingerprint == null || !previousFingerprint.equals(fingerprint)){
+				return false;
+			}
+			// each root is immediately dominated by the master entry node
+			return !Query.universe().edges(DOMINATOR_TREE_EDGE).successors(Common.toQ(roots)).eval().nodes().isEmpty();
+		}
+		
+		private static final long EDGE_SALT = 0x9E3779B97F4A7C15L;
+		private static final long ROOT_SALT = 0xC2B2AE3D27D4EB4FL;
+		private static final long EXIT_SALT = 0x165667B19E3779F9L;
+		
+		/**
+		 * The control flow tags assigned by the front ends, the only tags that
+		 * are part of a fingerprint
+		 */
+		private static final String[] FRONT_END_TAGS = new String[]{
+			XCSG.ControlFlow_Node, XCSG.ControlFlowCondition, 
+			XCSG.controlFlowRoot, XCSG.controlFlowExitPoint,
+			XCSG.ControlFlow_Edge, XCSG.ExceptionalControlFlow_Edge
+		};
+		
+		private static long addressHash(GraphElement graphElement){
+			return graphElement.address().toAddressString().hashCode();
+		}
+		
+		private static long tagsHash(GraphElement graphElement){
+			long hash = 0;
+			for(String tag : FRONT_END_TAGS){
+				if(graphElement.taggedWith(tag)){
+					hash += tag.hashCode();
+				}
+			}
+			return hash;
+		}
+		
+		/**
+		 * The finalizer of the SplitMix64 generator, spreads the bits of each
+		 * element hash before they are summed
+		 */
+		private static long mix(long value){
+			value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+			value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+			return value ^ (value >>> 31);
+		}
+	}
+	
+	/**
+	 * The in-memory dominance relationships of a unique entry/exit graph. The
+	 * dominance frontiers are computed eagerly so that no work remains to be
+	 * done when the relationships are committed to the index.
+	 */
+	private static class DominanceRelationships {
+		private AtlasSet<Node> nodes;
+		private Map<Node,Node> idoms;
+		private Map<Node,Set<Node>> dominanceFrontier;
+		private Map<Node,Node> postIdoms;
+		private Map<Node,Set<Node>> postDominanceFrontier;
+		
+		/**
+		 * The function the relationships were computed for and the fingerprint
+		 * of its control flow graph, null if not computed by the indexer
+		 */
+		private Node function = null;
+		private String fingerprint = null;
+		private boolean replacesPrevious = false;
+		
+		public DominanceRelationships(UniqueEntryExitGraph ucfg){
+			this(ucfg, CommonsPreferences.isIndexedDominanceEngineEnabled());
+		}
+		
+		public DominanceRelationships(UniqueEntryExitGraph ucfg, boolean indexedEngine){
+			this.nodes = ucfg.nodes();
+			if(indexedEngine){
+				IndexedDominatorTree dominatorTree = new IndexedDominatorTree(ucfg, false);
+				this.idoms = dominatorTree.getIdoms();
+				this.dominanceFrontier = dominatorTree.getDominanceFrontiers();
+				IndexedDominatorTree postDominatorTree = new IndexedDominatorTree(ucfg, true);
+				this.postIdoms = postDominatorTree.getIdoms();
+				this.postDominanceFrontier = postDominatorTree.getDominanceFrontiers();
+			} else {
+				DominatorTree dominatorTree = new DominatorTree(ucfg);
+				this.idoms = dominatorTree.getIdoms();
+				this.dominanceFrontier = dominatorTree.getDominanceFrontiers();
+				PostDominatorTree postDominatorTree = new PostDominatorTree(ucfg);
+				this.postIdoms = postDominatorTree.getIdoms();
+				this.postDominanceFrontier = postDominatorTree.getDominanceFrontiers();
+			}
+		}
+		
+		/**
+		 * Records the function and control flow graph fingerprint these
+		 * relationships were computed for. If the function's relationships were
+		 * previously computed for a different fingerprint, the stale
+		 * relationships are removed when these are committed.
+		 * 
+		 * @param function
+		 * @param fingerprint
+		 */
+		public void setFunction(Node function, String fingerprint){
+			this.function = function;
+			this.fingerprint = fingerprint;
+			this.replacesPrevious = function.hasAttr(DOMINANCE_FINGERPRINT);
+		}
 	}
 	
 	/**
@@ -402,11 +799,30 @@ public class DominanceAnalysis extends PrioritizedCodemapStage {
 	 * @return
 	 */
 	public static Graph computeDominance(UniqueEntryExitGraph ucfg) {
+		return commitDominance(new DominanceRelationships(ucfg));
+	}
+	
+	/**
+	 * Returns a graph of all dominance relationship edges
+	 * @param ucfg
+	 * @param indexedEngine if true the primitive int-indexed Lengauer-Tarjan engine ({@link IndexedDominatorTree}) is used
+	 * @return
+	 */
+	public static Graph computeDominance(UniqueEntryExitGraph ucfg, boolean indexedEngine) {
+		return commitDominance(new DominanceRelationships(ucfg, indexedEngine));
+	}
+	
+	/**
+	 * Creates (or reuses existing) dominance relationship edges in the index
+	 * 
+	 * @param dominance
+	 * @return a graph of all dominance relationship edges
+	 */
+	private static Graph commitDominance(DominanceRelationships dominance) {
 		AtlasSet<Edge> dominanceEdges = new AtlasHashSet<Edge>();
 		
-		// compute the immediate dominator tree (idom)
-		DominatorTree dominatorTree = new DominatorTree(ucfg);
-		for(Entry<Node,Node> entry : dominatorTree.getIdoms().entrySet()) {
+		// commit the immediate dominator tree (idom)
+		for(Entry<Node,Node> entry : dominance.idoms.entrySet()) {
 			Node fromNode = entry.getKey();
 			Node toNode = entry.getValue();
 			Q idomEdges = Query.universe().edges(DOMINATOR_TREE_EDGE);
@@ -419,9 +835,8 @@ public class DominanceAnalysis extends PrioritizedCodemapStage {
 			dominanceEdges.add(idomEdge);
 		}
 		
-		// compute the dominance frontier
-		DominatorTree.Multimap<Node> dominanceFrontier = dominatorTree.getDominanceFrontiers();
-		for(Entry<Node, Set<Node>> entry : dominanceFrontier.entrySet()){
+		// commit the dominance frontier
+		for(Entry<Node, Set<Node>> entry : dominance.dominanceFrontier.entrySet()){
 			Node fromNode = entry.getKey();
 			for(Node toNode : entry.getValue()){
 				Q dominanceFrontierEdges = Query.universe().edges(DOMINANCE_FRONTIER_EDGE);
@@ -435,9 +850,8 @@ public class DominanceAnalysis extends PrioritizedCodemapStage {
 			}
 		}
 		
-		// compute the post-dominator tree (postdom)
-		PostDominatorTree postDominatorTree = new PostDominatorTree(ucfg);
-		for(Entry<Node,Node> entry : postDominatorTree.getIdoms().entrySet()) {
+		// commit the post-dominator tree (postdom)
+		for(Entry<Node,Node> entry : dominance.postIdoms.entrySet()) {
 			Node fromNode = entry.getValue();
 			Node toNode = entry.getKey();
 			Q postdomEdges = Query.universe().edges(POST_DOMINATOR_TREE_EDGE);
@@ -450,9 +864,8 @@ public class DominanceAnalysis extends PrioritizedCodemapStage {
 			dominanceEdges.add(postdomEdge);
 		}
 		
-		// compute the post-dominance frontier
-		PostDominatorTree.Multimap<Node> postDominanceFrontier = postDominatorTree.getDominanceFrontiers();
-		for(Entry<Node, Set<Node>> entry : postDominanceFrontier.entrySet()){
+		// commit the post-dominance frontier
+		for(Entry<Node, Set<Node>> entry : dominance.postDominanceFrontier.entrySet()){
 			Node fromNode = entry.getKey();
 			for(Node toNode : entry.getValue()){
 				Q dominanceFrontierEdges = Query.universe().edges(POST_DOMINANCE_FRONTIER_EDGE);
@@ -466,7 +879,35 @@ public class DominanceAnalysis extends PrioritizedCodemapStage {
 			}
 		}
 		
+		if(dominance.function != null){
+			if(dominance.replacesPrevious){
+				removeStaleDominanceEdges(dominance.nodes, dominanceEdges);
+			}
+			dominance.function.putAttr(DOMINANCE_FINGERPRINT, dominance.fingerprint);
+		}
+		
 		return Common.toQ(dominanceEdges).eval();
 	}
+	
+	/**
+	 * Deletes the dominance relationship edges incident to the given nodes
+	 * that are not in the current set of dominance relationship edges
+	 * 
+	 * @param nodes
+	 * @param current
+	 */
+	private static void removeStaleDominanceEdges(AtlasSet<Node> nodes, AtlasSet<Edge> current){
+		Q dominanceEdges = Query.universe().edges(DOMINATOR_TREE_EDGE, DOMINANCE_FRONTIER_EDGE, POST_DOMINATOR_TREE_EDGE, POST_DOMINANCE_FRONTIER_EDGE);
+		Q incidentEdges = dominanceEdges.forwardStep(Common.toQ(nodes)).union(dominanceEdges.reverseStep(Common.toQ(nodes)));
+		AtlasSet<Edge> staleEdges = new AtlasHashSet<Edge>();
+		for(Edge edge : incidentEdges.eval().edges()){
+			if(!current.contains(edge)){
+				staleEdges.add(edge);
+			}
+		}
+		for(Edge staleEdge : staleEdges){
+			Graph.U.delete(staleEdge);
+		}
+	}
 
 }
\ No newline at end of file
@@ -3,12 +3,19 @@ package com.ensoftcorp.open.commons.algorithms;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.core.runtime.NullProgressMonitor;
 
 import com.ensoftcorp.atlas.core.db.graph.Edge;
 import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.GraphElement.NodeDirection;
 import com.ensoftcorp.atlas.core.db.graph.Node;
 import com.ensoftcorp.atlas.core.db.graph.UncheckedGraph;
 import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
@@ -20,6 +27,7 @@ import com.ensoftcorp.atlas.core.script.Common;
 import com.ensoftcorp.atlas.core.xcsg.XCSG;
 import com.ensoftcorp.open.commons.analysis.CallSiteAnalysis;
 import com.ensoftcorp.open.commons.analysis.CommonQueries;
+import com.ensoftcorp.open.commons.log.Log;
 import com.ensoftcorp.open.commons.utilities.NodeSourceCorrespondenceSorter;
 import com.ensoftcorp.open.commons.xcsg.XCSG_Extension;
 
@@ -98,6 +106,18 @@ public class ICFG {
 	 * @param callResolutionStrategy The call resolution strategy to use
 	 */
 	public ICFG(Node entryPointFunction, AtlasSet<Node> functionsToExpand, CallResolutionStrategy callResolutionStrategy) {
+		this(entryPointFunction, functionsToExpand, new ConstructionContext(callResolutionStrategy, 1));
+	}
+	
+	/**
+	 * Compute the ICFG given an entry point function and a set of functions to
+	 * expand using a construction context that may be shared between the
+	 * construction of several ICFGs
+	 * @param entryPointFunction The function to start the ICFG at
+	 * @param functionsToExpand If this is empty then all functions with non-empty CFGs will be expanded
+	 * @param context The construction context, which provides the call resolution strategy
+	 */
+	public ICFG(Node entryPointFunction, AtlasSet<Node> functionsToExpand, ConstructionContext context) {
 		// check argument
 		if(entryPointFunction == null || !entryPointFunction.taggedWith(XCSG.Function)) {
 			throw new IllegalArgumentException("Entry point function is invalid.");
@@ -119,9 +139,10 @@ public class ICFG {
 		}
 		
 		// check argument
-		if(callResolutionStrategy == null) {
-			throw new IllegalArgumentException("Call resolution strategy is invalid.");
+		if(context == null) {
+			throw new IllegalArgumentException("Construction context is invalid.");
 		}
+		CallResolutionStrategy callResolutionStrategy = context.getCallResolutionStrategy();
 		
 		// step 1) use call summaries (i.e. call graph) to scan ahead and find all functions in the ICFG
 		//         we can do this because if a call summary edge exists from one function to another
@@ -153,10 +174,12 @@ public class ICFG {
 			}
 		}
 		
-		// step 2) remove functions that empty CFGs (such as library functions that are not indexed)
+		// step 2) compute the CFG summary of each function (in parallel) and
+		//         remove functions that empty CFGs (such as library functions that are not indexed)
+		Map<Node,CFG> functionCFGs = context.getCFGs(icfgFunctions);
 		AtlasSet<Node> emptyCFGFunctions = new AtlasHashSet<Node>();
 		for(Node icfgFunction : icfgFunctions) {
-			if(CommonQueries.isEmpty(Common.toQ(icfgFunction).children().nodes(XCSG.ControlFlow_Node))) {
+			if(!functionCFGs.containsKey(icfgFunction)) {
 				emptyCFGFunctions.add(icfgFunction);
 			}
 		}
@@ -164,17 +187,16 @@ public class ICFG {
 			icfgFunctions.remove(emptyCFGFunction);
 		}
 		
-		// step 3) for each function compute the CFG and add the CFG to the ICFG
-		Map<Node,CFG> functionCFGs = new HashMap<Node,CFG>();
+		// step 3) for each function add the CFG to the ICFG
 		for(Node icfgFunction : icfgFunctions) {
-			CFG cfg = new CFG(icfgFunction, callResolutionStrategy);
-			functionCFGs.put(icfgFunction, cfg);
+			CFG cfg = functionCFGs.get(icfgFunction);
 			icfgNodes.addAll(cfg.getCFG().nodes());
 			icfgEdges.addAll(cfg.getCFG().edges());
 		}
 		
 		// step 4) for each callsite that resolves to an expandable target in each CFG
-		//         create the ICFG edges and then remove the old successor edges
+		//         request the ICFG edges and then remove the old successor edges
+		List<EdgeRequest> edgeRequests = new ArrayList<EdgeRequest>();
 		for(Node icfgFunction : icfgFunctions) {
 			CFG cfg = functionCFGs.get(icfgFunction);
 			
@@ -197,14 +219,11 @@ public class ICFG {
 						CFG targetCFG = functionCFGs.get(callsiteTarget);
 	
 						// link up the callsite cf node to the CFG root and the CFG leaves to the callsite cf node successor
-						Edge icfgEntryEdge = getOrCreateICFGEntryEdge(callsiteControlFlowNode, targetCFG.getControlFlowRoot(), callResolutionStrategy);
-						icfgEntryEdge.putAttr(ICFGCallsiteAttribute, callsiteID);
-						icfgEdges.add(icfgEntryEdge);
+						edgeRequests.add(new EdgeRequest(ICFGEntryEdge, callsiteControlFlowNode, targetCFG.getControlFlowRoot(), callsiteID));
 						
 						// remove the old successor edges
 						AtlasSet<Node> callsiteControlFlowNodeSuccessors = new AtlasHashSet<Node>();
-						AtlasSet<Edge> successorEdges = Common.toQ(cfg.getCFG()).forwardStep(Common.toQ(callsiteControlFlowNode)).eval().edges();
-						for(Edge successorEdge : successorEdges) {
+						for(Edge successorEdge : cfg.getSuccessorEdges(callsiteControlFlowNode)) {
 							icfgEdges.remove(successorEdge);
 							callsiteControlFlowNodeSuccessors.add(successorEdge.to());
 						}
@@ -212,35 +231,242 @@ public class ICFG {
 						// link of the cfg exits to each of the cfg node successor
 						for(Node targetCFGExit : targetCFG.getControlFlowExits()) {
 							for(Node callsiteControlFlowNodeSuccessor : callsiteControlFlowNodeSuccessors) {
-								Edge icfgExitEdge = getOrCreateICFGExitEdge(targetCFGExit, callsiteControlFlowNodeSuccessor, callResolutionStrategy);
-								icfgExitEdge.putAttr(ICFGCallsiteAttribute, callsiteID);
-								icfgEdges.add(icfgExitEdge);
+								edgeRequests.add(new EdgeRequest(ICFGExitEdge, targetCFGExit, callsiteControlFlowNodeSuccessor, callsiteID));
 							}
 						}
 					}
 				}
 			}
 		}
+		
+		// step 5) find or create all of the requested ICFG edges in a single batch
+		for(Edge icfgEdge : context.commitEdges(edgeRequests)) {
+			icfgEdges.add(icfgEdge);
+		}
 	}
 	
-	private Edge getOrCreateICFGEntryEdge(Node callsiteControlFlowNode, Node cfgRoot, CallResolutionStrategy callResolutionStrategy) {
-		Q icfgEntryEdges = Query.universe().edges(ICFGEntryEdge).edges(callResolutionStrategy.getStrategyTagName());
-		Edge icfgEntryEdge = icfgEntryEdges.between(Common.toQ(callsiteControlFlowNode), Common.toQ(cfgRoot)).eval().edges().one();
-		if(icfgEntryEdge == null) {
-			icfgEntryEdge = Graph.U.createEdge(callsiteControlFlowNode, cfgRoot);
-			icfgEntryEdge.tag(ICFGEntryEdge);
-		}
-		return icfgEntryEdge;
+	/**
+	 * State shared between ICFG constructions that use the same call
+	 * resolution strategy. The context caches the CFG summary of each function
+	 * so that functions shared by several ICFGs are only summarized once, and
+	 * indexes the existing ICFG edges of the call resolution strategy so that
+	 * existing edges can be found without querying the universe.
+	 * 
+	 * CFG summaries are extracted on a pool of worker threads that only read
+	 * from the index. All ICFG edges are created or updated in batches by the
+	 * thread constructing the ICFG, after the workers have finished.
+	 * 
+	 * @author Ben Holland
+	 */
+	public static class ConstructionContext {
+		
+		private CallResolutionStrategy callResolutionStrategy;
+		private int parallelism;
+		
+		/**
+		 * CFG summaries by function, functions with empty CFGs are recorded
+		 * separately
+		 */
+		private Map<Node,CFG> functionCFGs = new HashMap<Node,CFG>();
+		private AtlasSet<Node> emptyCFGFunctions = new AtlasHashSet<Node>();
+		
+		/**
+		 * Existing ICFG edges of the call resolution strategy, built on demand
+		 */
+		private Map<EdgeKey,Edge> existingEdges = null;
+		
+		/**
+		 * Creates a new construction context
+		 * @param callResolutionStrategy The call resolution strategy to use
+		 * @param parallelism The number of worker threads used to extract CFG summaries (1 for serial)
+		 */
+		public ConstructionContext(CallResolutionStrategy callResolutionStrategy, int parallelism) {
+			if(callResolutionStrategy == null) {
+				throw new IllegalArgumentException("Call resolution strategy is invalid.");
+			}
+			this.callResolutionStrategy = callResolutionStrategy;
+			this.parallelism = Math.max(1, parallelism);
+		}
+		
+		/**
+		 * Returns the call resolution strategy
+		 * @return
+		 */
+		public CallResolutionStrategy getCallResolutionStrategy() {
+			return callResolutionStrategy;
+		}
+		
+		/**
+		 * Returns the CFG summaries of the given functions, functions with
+		 * empty CFGs are omitted
+		 * @param functions
+		 * @return
+		 */
+		private Map<Node,CFG> getCFGs(AtlasSet<Node> functions) {
+			List<Node> missingFunctions = new ArrayList<Node>();
+			for(Node function : functions) {
+				if(!functionCFGs.containsKey(function) && !emptyCFGFunctions.contains(function)) {
+					missingFunctions.add(function);
+				}
+			}
+			if(parallelism > 1 && missingFunctions.size() > 1) {
+				extractParallel(missingFunctions);
+			} else {
+				for(Node function : missingFunctions) {
+					try {
+						record(function, CFG.extract(function, callResolutionStrategy));
+					} catch (Exception e) {
+						Log.error("Error extracting the control flow graph of " + function.getAttr(XCSG.name), e);
+						emptyCFGFunctions.add(function);
+					}
+				}
+			}
+			Map<Node,CFG> result = new HashMap<Node,CFG>();
+			for(Node function : functions) {
+				CFG cfg = functionCFGs.get(function);
+				if(cfg != null) {
+					result.put(function, cfg);
+				}
+			}
+			return result;
+		}
+		
+		/**
+		 * Extracts the CFG summaries of the given functions on a work stealing
+		 * pool of worker threads
+		 * @param functions
+		 */
+		private void extractParallel(List<Node> functions) {
+			ForkJoinPool workers = new ForkJoinPool(Math.min(parallelism, functions.size()));
+			try {
+				List<Future<CFG>> summaries = new ArrayList<Future<CFG>>(functions.size());
+				for(final Node function : functions) {
+					summaries.add(workers.submit(new Callable<CFG>() {
+						@Override
+						public CFG call() throws Exception {
+							return CFG.extract(function, callResolutionStrategy);
+						}
+					}));
+				}
+				for(int i=0; i<functions.size(); i++) {
+					Node function = functions.get(i);
+					try {
+						record(function, summaries.get(i).get());
+					} catch (ExecutionException e) {
+						Log.error("Error extracting the control flow graph of " + function.getAttr(XCSG.name), e.getCause());
+						emptyCFGFunctions.add(function);
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted extracting control flow graphs", e);
+			} finally {
+				workers.shutdownNow();
+				try {
+					// the index must not be modified while workers are still reading it
+					workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		
+		private void record(Node function, CFG cfg) {
+			if(cfg == null) {
+				emptyCFGFunctions.add(function);
+			} else {
+				functionCFGs.put(function, cfg);
+			}
+		}
+		
+		/**
+		 * Finds or creates the ICFG edge for each request and updates the
+		 * callsite attribute of each edge
+		 * @param edgeRequests
+		 * @return the requested edges
+		 */
+		private AtlasSet<Edge> commitEdges(List<EdgeRequest> edgeRequests) {
+			if(existingEdges == null) {
+				existingEdges = new HashMap<EdgeKey,Edge>();
+				String strategyTag = callResolutionStrategy.getStrategyTagName();
+				for(String edgeType : new String[] { ICFGEntryEdge, ICFGExitEdge }) {
+					for(Edge edge : Query.universe().edges(edgeType).edges(strategyTag).eval().edges()) {
+						existingEdges.put(new EdgeKey(edgeType, edge.from(), edge.to(), strategyTag), edge);
+					}
+				}
+			}
+			AtlasSet<Edge> edges = new AtlasHashSet<Edge>();
+			for(EdgeRequest edgeRequest : edgeRequests) {
+				EdgeKey key = new EdgeKey(edgeRequest.edgeType, edgeRequest.from, edgeRequest.to, callResolutionStrategy.getStrategyTagName());
+				Edge edge = existingEdges.get(key);
+				if(edge == null) {
+					edge = Graph.U.createEdge(edgeRequest.from, edgeRequest.to);
+					edge.tag(edgeRequest.edgeType);
+					edge.tag(callResolutionStrategy.getStrategyTagName());
+					existingEdges.put(key, edge);
+				}
+				edge.putAttr(ICFGCallsiteAttribute, edgeRequest.callsiteID);
+				edges.add(edge);
+			}
+			return edges;
+		}
 	}
 	
-	private Edge getOrCreateICFGExitEdge(Node cfgExit, Node callsiteControlFlowNodeSuccessor, CallResolutionStrategy callResolutionStrategy) {
-		Q icfgExitEdges = Query.universe().edges(ICFGExitEdge).edges(callResolutionStrategy.getStrategyTagName());
-		Edge icfgExitEdge = icfgExitEdges.between(Common.toQ(cfgExit), Common.toQ(callsiteControlFlowNodeSuccessor)).eval().edges().one();
-		if(icfgExitEdge == null) {
-			icfgExitEdge = Graph.U.createEdge(cfgExit, callsiteControlFlowNodeSuccessor);
-			icfgExitEdge.tag(ICFGExitEdge);
-		}
-		return icfgExitEdge;
+	/**
+	 * An ICFG entry or exit edge to be found or created
+	 */
+	private static class EdgeRequest {
+		private String edgeType;
+		private Node from;
+		private Node to;
+		private String callsiteID;
+		
+		public EdgeRequest(String edgeType, Node from, Node to, String callsiteID) {
+			this.edgeType = edgeType;
+			this.from = from;
+			this.to = to;
+			this.callsiteID = callsiteID;
+		}
+	}
+	
+	/**
+	 * Identifies an ICFG edge by its type, endpoints and call resolution strategy
+	 */
+	private static class EdgeKey {
+		private String edgeType;
+		private Node from;
+		private Node to;
+		private String strategyTag;
+		
+		public EdgeKey(String edgeType, Node from, Node to, String strategyTag) {
+			this.edgeType = edgeType;
+			this.from = from;
+			this.to = to;
+			this.strategyTag = strategyTag;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + edgeType.hashCode();
+			result = prime * result + from.hashCode();
+			result = prime * result + to.hashCode();
+			result = prime * result + strategyTag.hashCode();
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			EdgeKey other = (EdgeKey) obj;
+			return edgeType.equals(other.edgeType) && from.equals(other.from) && to.equals(other.to) && strategyTag.equals(other.strategyTag);
+		}
 	}
 	
 	private static class CFG {
@@ -250,6 +476,20 @@ public class ICFG {
 		private AtlasSet<Node> controlFlowExits;
 		private Map<Node,Node> callsiteControlFlowNodes;
 		private Map<Node,AtlasSet<Node>> callsiteTargets;
+		private Map<Node,AtlasSet<Edge>> successorEdges;
+		
+		/**
+		 * Extracts the CFG summary of the given function
+		 * @param function
+		 * @param callResolutionStrategy
+		 * @return the summary or null if the function has an empty CFG
+		 */
+		public static CFG extract(Node function, CallResolutionStrategy callResolutionStrategy) {
+			if(CommonQueries.isEmpty(Common.toQ(function).children().nodes(XCSG.ControlFlow_Node))) {
+				return null;
+			}
+			return new CFG(function, callResolutionStrategy);
+		}
 		
 		public CFG(Node function, CallResolutionStrategy callResolutionStrategy) {
 			this.function = function;
@@ -264,6 +504,12 @@ public class ICFG {
 				this.callsiteControlFlowNodes.put(callsite, cfNode);
 				this.callsiteTargets.put(callsite, callResolutionStrategy.getCallsiteTargets(callsite));
 			}
+			this.successorEdges = new HashMap<Node,AtlasSet<Edge>>();
+			for(Node cfNode : callsiteControlFlowNodes.values()) {
+				if(!successorEdges.containsKey(cfNode)) {
+					successorEdges.put(cfNode, new AtlasHashSet<Edge>(cfg.edges(cfNode, NodeDirection.OUT)));
+				}
+			}
 		}
 
 		@SuppressWarnings("unused")
@@ -290,10 +536,18 @@ public class ICFG {
 		public Map<Node, AtlasSet<Node>> getCallsiteTargets() {
 			return callsiteTargets;
 		}
+		
+		public AtlasSet<Edge> getSuccessorEdges(Node controlFlowNode) {
+			return successorEdges.get(controlFlowNode);
+		}
 	}
 	
 	/**
 	 * An interface to define alternate strategies for call summary and callsite resolution
+	 * 
+	 * Implementations must be thread safe, when a construction context has a
+	 * parallelism greater than 1 the CFG summaries are extracted on worker
+	 * threads that call {@link #getCallsiteTargets(Node)} concurrently.
 	 * @author Ben Holland
 	 */
 	public static abstract class CallResolutionStrategy {
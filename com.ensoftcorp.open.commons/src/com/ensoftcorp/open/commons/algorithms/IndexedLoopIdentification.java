@@ -0,0 +1,453 @@
+package com.ensoftcorp.open.commons.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+
+/**
+ * An implementation of the loop identification algorithm from Wei et al. that
+ * operates entirely over primitive arrays. The results are equivalent to those
+ * of {@link LoopIdentification}, including the identification of irreducible
+ * loops and loop reentries.
+ *
+ * The nodes of the graph are first mapped to dense integer ids and the edges
+ * are packed into compressed sparse row (CSR) adjacency arrays. The traversal
+ * state, depth first search path positions and innermost loop headers are all
+ * int arrays, so the graph is only read once when it is indexed and the
+ * analysis itself never touches the Atlas graph. This makes it safe to run
+ * many instances concurrently from worker threads.
+ *
+ * "A New Algorithm for Identifying Loops in Decompilation". Static Analysis
+ * Lecture Notes in Computer Science Volume 4634, 2007, pp 170-183
+ * http://link.springer.com/chapter/10.1007%2F978-3-540-74061-2_11
+ * http://www.lenx.100871.net/papers/loop-SAS.pdf
+ *
+ * @author Ben Holland
+ */
+public class IndexedLoopIdentification {
+
+	/**
+	 * Sentinel for an unassigned id or loop header
+	 */
+	public static final int NONE = -1;
+
+	/**
+	 * Nodes by id
+	 */
+	private Node[] nodes;
+
+	/**
+	 * Ids by node
+	 */
+	private Map<Node,Integer> ids;
+
+	/**
+	 * CSR successor adjacency, edges are indexed by their position in the
+	 * successors array
+	 */
+	private int[] successorOffsets;
+	private int[] successors;
+	private Edge[] edges;
+
+	/**
+	 * The node's position in the DFSP (depth first search path) by id, 0 if
+	 * the node is not on the current path
+	 */
+	private int[] dfsp;
+
+	/**
+	 * True if the node has been traversed by id
+	 */
+	private boolean[] traversed;
+
+	/**
+	 * The innermost loop header by id, NONE if the node is not in a loop
+	 */
+	private int[] innermostLoopHeaders;
+
+	/**
+	 * Loop header, irreducible loop header and reentry node flags by id
+	 */
+	private boolean[] loopHeaders;
+	private boolean[] irreducible;
+	private boolean[] reentryNodes;
+
+	/**
+	 * Loopback and reentry edge flags by edge index
+	 */
+	private boolean[] loopbacks;
+	private boolean[] reentryEdges;
+
+	/**
+	 * True if any loop was found
+	 */
+	private boolean hasLoops = false;
+
+	/**
+	 * Identifies all loop headers, loopbacks, reentries and loop nesting of
+	 * the graph reachable from the given root
+	 *
+	 * NOTE: Handles both natural and irreducible loops
+	 *
+	 * @param graph
+	 * @param root
+	 */
+	public IndexedLoopIdentification(Graph graph, Node root) {
+		if(graph == null){
+			throw new IllegalArgumentException("Parameter graph is null.");
+		}
+		if(root == null){
+			throw new IllegalArgumentException("Parameter root is null.");
+		}
+		index(graph);
+		Integer rootId = ids.get(root);
+		if(rootId == null){
+			throw new IllegalArgumentException("Parameter root is not contained in the graph.");
+		}
+		identifyLoops(rootId);
+	}
+
+	/**
+	 * Returns the number of indexed nodes
+	 * @return
+	 */
+	public int size(){
+		return nodes.length;
+	}
+
+	/**
+	 * Returns the node with the given id
+	 * @param id
+	 * @return
+	 */
+	public Node getNode(int id){
+		return nodes[id];
+	}
+
+	/**
+	 * Returns the id of the given node or -1 if the node is not indexed
+	 * @param node
+	 * @return
+	 */
+	public int getId(Node node){
+		Integer id = ids.get(node);
+		return id == null ? NONE : id;
+	}
+
+	/**
+	 * Returns the number of indexed edges
+	 * @return
+	 */
+	public int getEdgeCount(){
+		return edges.length;
+	}
+
+	/**
+	 * Returns the edge with the given edge index
+	 * @param edgeIndex
+	 * @return
+	 */
+	public Edge getEdge(int edgeIndex){
+		return edges[edgeIndex];
+	}
+
+	/**
+	 * Returns true if at least one loop was identified
+	 * @return
+	 */
+	public boolean hasLoops(){
+		return hasLoops;
+	}
+
+	/**
+	 * Returns the id of the innermost loop header of the node with the given
+	 * id, or -1 if the node is not contained in a loop
+	 * @param id
+	 * @return
+	 */
+	public int getInnermostLoopHeader(int id){
+		return innermostLoopHeaders[id];
+	}
+
+	/**
+	 * Returns true if the node with the given id is a loop header
+	 * @param id
+	 * @return
+	 */
+	public boolean isLoopHeader(int id){
+		return loopHeaders[id];
+	}
+
+	/**
+	 * Returns true if the node with the given id is the header of an
+	 * irreducible loop
+	 * @param id
+	 * @return
+	 */
+	public boolean isIrreducible(int id){
+		return irreducible[id];
+	}
+
+	/**
+	 * Returns true if the node with the given id is a loop reentry node
+	 * @param id
+	 * @return
+	 */
+	public boolean isReentryNode(int id){
+		return reentryNodes[id];
+	}
+
+	/**
+	 * Returns true if the edge with the given edge index is a loopback edge
+	 * @param edgeIndex
+	 * @return
+	 */
+	public boolean isLoopback(int edgeIndex){
+		return loopbacks[edgeIndex];
+	}
+
+	/**
+	 * Returns true if the edge with the given edge index is a loop reentry
+	 * edge
+	 * @param edgeIndex
+	 * @return
+	 */
+	public boolean isReentryEdge(int edgeIndex){
+		return reentryEdges[edgeIndex];
+	}
+
+	public AtlasSet<Node> getLoopHeaders() {
+		return toNodeSet(loopHeaders);
+	}
+
+	public AtlasSet<Node> getReentryNodes() {
+		return toNodeSet(reentryNodes);
+	}
+
+	public AtlasSet<Node> getIrreducible() {
+		return toNodeSet(irreducible);
+	}
+
+	public AtlasSet<Edge> getReentryEdges() {
+		return toEdgeSet(reentryEdges);
+	}
+
+	public AtlasSet<Edge> getLoopbacks() {
+		return toEdgeSet(loopbacks);
+	}
+
+	public Map<Node, Node> getInnermostLoopHeaders() {
+		Map<Node, Node> result = new HashMap<Node, Node>();
+		for(int id=0; id<nodes.length; id++){
+			if(innermostLoopHeaders[id] != NONE){
+				result.put(nodes[id], nodes[innermostLoopHeaders[id]]);
+			}
+		}
+		return result;
+	}
+
+	private AtlasSet<Node> toNodeSet(boolean[] flags){
+		AtlasSet<Node> result = new AtlasHashSet<Node>();
+		for(int id=0; id<flags.length; id++){
+			if(flags[id]){
+				result.add(nodes[id]);
+			}
+		}
+		return result;
+	}
+
+	private AtlasSet<Edge> toEdgeSet(boolean[] flags){
+		AtlasSet<Edge> result = new AtlasHashSet<Edge>();
+		for(int e=0; e<flags.length; e++){
+			if(flags[e]){
+				result.add(edges[e]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Maps the nodes of the graph to dense ids and packs the edges into CSR
+	 * successor arrays
+	 *
+	 * @param graph
+	 */
+	private void index(Graph graph){
+		ids = new HashMap<Node,Integer>();
+		List<Node> nodesById = new ArrayList<Node>((int) graph.nodes().size());
+		for(Node node : graph.nodes()){
+			assign(node, nodesById);
+		}
+		int edgeCount = (int) graph.edges().size();
+		int[] edgeFrom = new int[edgeCount];
+		int[] edgeTo = new int[edgeCount];
+		Edge[] edgesByIndex = new Edge[edgeCount];
+		int e = 0;
+		for(Edge edge : graph.edges()){
+			edgeFrom[e] = assign(edge.from(), nodesById);
+			edgeTo[e] = assign(edge.to(), nodesById);
+			edgesByIndex[e] = edge;
+			e++;
+		}
+		nodes = nodesById.toArray(new Node[nodesById.size()]);
+		int nodeCount = nodes.length;
+
+		successorOffsets = new int[nodeCount + 1];
+		for(int i=0; i<e; i++){
+			successorOffsets[edgeFrom[i] + 1]++;
+		}
+		for(int i=0; i<nodeCount; i++){
+			successorOffsets[i + 1] += successorOffsets[i];
+		}
+		successors = new int[e];
+		edges = new Edge[e];
+		int[] successorCursor = Arrays.copyOf(successorOffsets, nodeCount);
+		for(int i=0; i<e; i++){
+			int position = successorCursor[edgeFrom[i]]++;
+			successors[position] = edgeTo[i];
+			edges[position] = edgesByIndex[i];
+		}
+	}
+
+	/**
+	 * Returns the id of the given node, assigning the next id if necessary
+	 */
+	private int assign(Node node, List<Node> nodesById){
+		Integer id = ids.get(node);
+		if(id == null){
+			id = nodesById.size();
+			ids.put(node, id);
+			nodesById.add(node);
+		}
+		return id;
+	}
+
+	/**
+	 * An iterative depth first traversal from the root equivalent to the
+	 * recursive loop_dfs procedure of the paper. The explicit stack holds the
+	 * node at each position of the depth first search path along with the
+	 * index of the next outgoing edge to visit.
+	 *
+	 * @param root
+	 */
+	private void identifyLoops(int root){
+		int nodeCount = nodes.length;
+		dfsp = new int[nodeCount];
+		traversed = new boolean[nodeCount];
+		innermostLoopHeaders = new int[nodeCount];
+		Arrays.fill(innermostLoopHeaders, NONE);
+		loopHeaders = new boolean[nodeCount];
+		irreducible = new boolean[nodeCount];
+		reentryNodes = new boolean[nodeCount];
+		loopbacks = new boolean[edges.length];
+		reentryEdges = new boolean[edges.length];
+
+		int[] pathNodes = new int[nodeCount];
+		int[] pathCursors = new int[nodeCount];
+		traversed[root] = true;
+		dfsp[root] = 1;
+		pathNodes[0] = root;
+		pathCursors[0] = successorOffsets[root];
+		int depth = 1;
+
+		while(depth > 0){
+			int b0 = pathNodes[depth - 1];
+			int e = pathCursors[depth - 1];
+			if(e < successorOffsets[b0 + 1]){
+				pathCursors[depth - 1] = e + 1;
+				int b = successors[e];
+				if(!traversed[b]){
+					// Paper Case A
+					// new, the innermost header of b is woven into b0 once b is finished
+					traversed[b] = true;
+					dfsp[b] = depth + 1;
+					pathNodes[depth] = b;
+					pathCursors[depth] = successorOffsets[b];
+					depth++;
+				} else if(dfsp[b] > 0){
+					// Paper Case B
+					// Mark b as a loop header
+					loopbacks[e] = true;
+					loopHeaders[b] = true;
+					hasLoops = true;
+					tagLoopHeader(b0, b);
+				} else {
+					int h = innermostLoopHeaders[b];
+					if(h == NONE){
+						// Paper Case C
+						// do nothing
+						continue;
+					}
+					if(dfsp[h] > 0){
+						// Paper Case D
+						// h in DFSP(b0)
+						tagLoopHeader(b0, h);
+					} else {
+						// Paper Case E
+						// h not in DFSP(b0)
+						reentryNodes[b] = true;
+						reentryEdges[e] = true;
+						irreducible[h] = true;
+						while((h = innermostLoopHeaders[h]) != NONE){
+							if(dfsp[h] > 0){
+								tagLoopHeader(b0, h);
+								break;
+							}
+							irreducible[h] = true;
+						}
+					}
+				}
+			} else {
+				// b0 is finished, pop it from the depth first search path
+				dfsp[b0] = 0;
+				depth--;
+				if(depth > 0){
+					tagLoopHeader(pathNodes[depth - 1], innermostLoopHeaders[b0]);
+				}
+			}
+		}
+
+		// the traversal state is not needed after the analysis
+		dfsp = null;
+		traversed = null;
+	}
+
+	/**
+	 * Weaves the loop header h into the loop header list of b, ordered by
+	 * position in the depth first search path
+	 *
+	 * @param b
+	 * @param h
+	 */
+	private void tagLoopHeader(int b, int h){
+		if(h == NONE || h == b){
+			return;
+		}
+		int cur1 = b;
+		int cur2 = h;
+		int ih;
+		while((ih = innermostLoopHeaders[cur1]) != NONE){
+			if(ih == cur2){
+				return;
+			}
+			if(dfsp[ih] < dfsp[cur2]){
+				innermostLoopHeaders[cur1] = cur2;
+				cur1 = cur2;
+				cur2 = ih;
+			} else {
+				cur1 = ih;
+			}
+		}
+		innermostLoopHeaders[cur1] = cur2;
+		loopHeaders[cur2] = true;
+	}
+
+}
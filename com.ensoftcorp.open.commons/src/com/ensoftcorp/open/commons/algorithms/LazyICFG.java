@@ -0,0 +1,615 @@
+package com.ensoftcorp.open.commons.algorithms;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.core.query.Query;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+import com.ensoftcorp.open.commons.algorithms.ICFG.CallResolutionStrategy;
+import com.ensoftcorp.open.commons.algorithms.ICFG.DefaultCallResolutionStrategy;
+import com.ensoftcorp.open.commons.analysis.CommonQueries;
+
+/**
+ * A demand driven interprocedural control flow graph. Unlike {@link ICFG},
+ * which materializes the control flow graph of every reachable function and
+ * creates ICFG entry and exit edges in the index up front, a LazyICFG only
+ * summarizes the control flow graph of a function when a traversal reaches
+ * one of its nodes. Callsites are spliced into the control flow graphs of
+ * their targets when the successors or predecessors of the callsite's control
+ * flow node are requested, so the cost of a forward or backward exploration
+ * is proportional to the region of the ICFG that is actually visited.
+ *
+ * The interprocedural entry and exit edges are virtual, they are not created
+ * in the index and are only exposed through getSuccessors and
+ * getPredecessors. Accordingly nodes() returns the nodes discovered so far and
+ * edges() returns the intraprocedural control flow edges discovered so far.
+ *
+ * The successors and predecessors are the same as those of the ICFG of the
+ * entry point function with the same functions to expand and call resolution
+ * strategy, wrapped with a master entry and exit node. A LazyICFG never
+ * modifies the index, the master entry and exit nodes are either supplied by
+ * the caller or are the existing master nodes of the entry point function's
+ * {@link UniqueEntryExitControlFlowGraph}. Function summaries are kept in a
+ * least recently used cache and are recomputed if they are evicted.
+ *
+ * Note: a LazyICFG is not thread safe.
+ *
+ * @author Ben Holland
+ */
+public class LazyICFG implements UniqueEntryExitGraph {
+
+	/**
+	 * The default maximum number of cached function summaries
+	 */
+	public static final int DEFAULT_SUMMARY_CACHE_CAPACITY = 256;
+
+	private Node entryPointFunction;
+	private AtlasSet<Node> functionsToExpand;
+	private CallResolutionStrategy callResolutionStrategy;
+	private Node masterEntry;
+	private Node masterExit;
+
+	/**
+	 * The nodes and intraprocedural edges discovered so far
+	 */
+	private AtlasSet<Node> nodes = new AtlasHashSet<Node>();
+	private AtlasSet<Edge> edges = new AtlasHashSet<Edge>();
+
+	/**
+	 * Access ordered map of function summaries, the first entry is the least
+	 * recently used
+	 */
+	private LinkedHashMap<Node,FunctionSummary> summaries;
+
+	/**
+	 * Functions with empty control flow graphs
+	 */
+	private AtlasSet<Node> emptyFunctions = new AtlasHashSet<Node>();
+
+	/**
+	 * The containing function of each control flow node of a cached summary,
+	 * entries are removed along with the evicted summaries
+	 */
+	private Map<Node,Node> containingFunctions = new HashMap<Node,Node>();
+
+	/**
+	 * The functions reachable from the entry point function in the call graph
+	 * and the callers of each of them, built on demand
+	 */
+	private AtlasSet<Node> icfgFunctions = null;
+	private Map<Node,AtlasSet<Node>> callers = null;
+
+	/**
+	 * The callsite control flow nodes and return sites of each function,
+	 * built on demand
+	 */
+	private Map<Node,CallerLinks> callerLinks = new HashMap<Node,CallerLinks>();
+
+	/**
+	 * Creates a lazy ICFG given an entry point function and all functions
+	 * expandable using the default call resolution strategy. The entry point
+	 * function must already have the master entry and exit nodes of a
+	 * {@link UniqueEntryExitControlFlowGraph} (for example after dominance
+	 * indexing).
+	 * @param entryPointFunction
+	 */
+	public LazyICFG(Node entryPointFunction) {
+		this(entryPointFunction, Common.empty().eval().nodes());
+	}
+
+	/**
+	 * Creates a lazy ICFG given an entry point function and a set of functions
+	 * to expand using the default call resolution strategy. The entry point
+	 * function must already have the master entry and exit nodes of a
+	 * {@link UniqueEntryExitControlFlowGraph}.
+	 * @param entryPointFunction
+	 * @param functionsToExpand
+	 */
+	public LazyICFG(Node entryPointFunction, AtlasSet<Node> functionsToExpand) {
+		this(entryPointFunction, functionsToExpand, new DefaultCallResolutionStrategy());
+	}
+
+	/**
+	 * Creates a lazy ICFG given an entry point function and a set of functions
+	 * to expand as well as a call resolution strategy. The master entry and
+	 * exit nodes are the existing master nodes of the entry point function's
+	 * {@link UniqueEntryExitControlFlowGraph}.
+	 *
+	 * @param entryPointFunction The function to start the ICFG at
+	 * @param functionsToExpand If this is empty then all functions with non-empty CFGs will be expanded
+	 * @param callResolutionStrategy The call resolution strategy to use
+	 */
+	public LazyICFG(Node entryPointFunction, AtlasSet<Node> functionsToExpand, CallResolutionStrategy callResolutionStrategy) {
+		this(entryPointFunction, functionsToExpand, callResolutionStrategy, DEFAULT_SUMMARY_CACHE_CAPACITY);
+	}
+
+	/**
+	 * Creates a lazy ICFG given an entry point function and a set of functions
+	 * to expand as well as a call resolution strategy and summary cache
+	 * capacity. The master entry and exit nodes are the existing master nodes
+	 * of the entry point function's {@link UniqueEntryExitControlFlowGraph}.
+	 *
+	 * @param entryPointFunction The function to start the ICFG at
+	 * @param functionsToExpand If this is empty then all functions with non-empty CFGs will be expanded
+	 * @param callResolutionStrategy The call resolution strategy to use
+	 * @param summaryCacheCapacity The maximum number of cached function summaries
+	 */
+	public LazyICFG(Node entryPointFunction, AtlasSet<Node> functionsToExpand, CallResolutionStrategy callResolutionStrategy, int summaryCacheCapacity) {
+		this(entryPointFunction, functionsToExpand, callResolutionStrategy, summaryCacheCapacity, null, null);
+	}
+
+	/**
+	 * Creates a lazy ICFG given an entry point function, a set of functions to
+	 * expand, a call resolution strategy, a summary cache capacity and the
+	 * nodes to use as the master entry and exit nodes. A master node that is
+	 * not given is the existing master node of the entry point function's
+	 * {@link UniqueEntryExitControlFlowGraph}, the master nodes are never
+	 * created.
+	 *
+	 * @param entryPointFunction The function to start the ICFG at
+	 * @param functionsToExpand If this is empty then all functions with non-empty CFGs will be expanded
+	 * @param callResolutionStrategy The call resolution strategy to use
+	 * @param summaryCacheCapacity The maximum number of cached function summaries
+	 * @param masterEntry The node preceding the roots of the entry point function
+	 * @param masterExit The node succeeding the exits of the entry point function
+	 */
+	public LazyICFG(Node entryPointFunction, AtlasSet<Node> functionsToExpand, CallResolutionStrategy callResolutionStrategy, final int summaryCacheCapacity, Node masterEntry, Node masterExit) {
+		// check argument
+		if(entryPointFunction == null || !entryPointFunction.taggedWith(XCSG.Function)) {
+			throw new IllegalArgumentException("Entry point function is invalid.");
+		}
+		if(CommonQueries.isEmpty(Common.toQ(entryPointFunction).children().nodes(XCSG.ControlFlow_Node))) {
+			throw new IllegalArgumentException("Entry point function cannot have an emtpy CFG.");
+		}
+
+		// check argument
+		if(functionsToExpand == null) {
+			throw new IllegalArgumentException("Function to expand is invalid.");
+		} else {
+			for(Node function : functionsToExpand) {
+				if(!function.taggedWith(XCSG.Function)) {
+					throw new IllegalArgumentException("Function to expand is invalid.");
+				}
+			}
+		}
+
+		// check argument
+		if(callResolutionStrategy == null) {
+			throw new IllegalArgumentException("Call resolution strategy is invalid.");
+		}
+
+		// check argument
+		if(summaryCacheCapacity < 1) {
+			throw new IllegalArgumentException("Summary cache capacity must be positive.");
+		}
+
+		this.entryPointFunction = entryPointFunction;
+		this.functionsToExpand = new AtlasHashSet<Node>(functionsToExpand);
+		this.callResolutionStrategy = callResolutionStrategy;
+		this.summaries = new LinkedHashMap<Node,FunctionSummary>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Node,FunctionSummary> eldest) {
+				if(size() > summaryCacheCapacity) {
+					for(Node node : eldest.getValue().getCFG().nodes()) {
+						containingFunctions.remove(node);
+					}
+					return true;
+				}
+				return false;
+			}
+		};
+
+		if(masterEntry == null) {
+			masterEntry = getMasterNode(entryPointFunction, UniqueEntryExitControlFlowGraph.UniqueEntryExitCFG_Master_Entry);
+			if(masterEntry == null) {
+				throw new IllegalArgumentException("Entry point function has no master entry node, a master entry node must be supplied.");
+			}
+		}
+		if(masterExit == null) {
+			masterExit = getMasterNode(entryPointFunction, UniqueEntryExitControlFlowGraph.UniqueEntryExitCFG_Master_Exit);
+			if(masterExit == null) {
+				throw new IllegalArgumentException("Entry point function has no master exit node, a master exit node must be supplied.");
+			}
+		}
+		this.masterEntry = masterEntry;
+		this.masterExit = masterExit;
+		this.nodes.add(masterEntry);
+		this.nodes.add(masterExit);
+	}
+
+	/**
+	 * Returns the existing master node with the given tag of the function's
+	 * unique entry/exit control flow graph, or null if it does not exist
+	 * @param function
+	 * @param masterTag
+	 * @return
+	 */
+	private static Node getMasterNode(Node function, String masterTag) {
+		Node masterNode = Common.toQ(function).children().nodes(masterTag).eval().nodes().one();
+		if(masterNode == null) {
+			Q cfg = CommonQueries.cfg(function);
+			masterNode = Query.universe().predecessors(cfg).union(Query.universe().successors(cfg))
+					.nodes(masterTag).eval().nodes().one();
+		}
+		return masterNode;
+	}
+
+	/**
+	 * Returns the entry point function
+	 * @return
+	 */
+	public Node getEntryPointFunction() {
+		return entryPointFunction;
+	}
+
+	/**
+	 * Returns the functions that are reachable from the entry point function
+	 * in the call graph, functions with empty control flow graphs are
+	 * included. Only the call graph is explored, no control flow graphs are
+	 * summarized.
+	 * @return
+	 */
+	public AtlasSet<Node> getReachableCallGraphFunctions() {
+		return new AtlasHashSet<Node>(getReachableFunctions());
+	}
+
+	/**
+	 * Returns the number of function summaries currently cached
+	 * @return
+	 */
+	public int getCachedSummaryCount() {
+		return summaries.size();
+	}
+
+	/**
+	 * Gets the successors of a given node, splicing in the control flow graphs
+	 * of the targets of callsites as they are reached
+	 * @param node
+	 * @return Successors of node
+	 */
+	@Override
+	public AtlasSet<Node> getSuccessors(Node node) {
+		AtlasSet<Node> successors = new AtlasHashSet<Node>();
+		if(node.equals(masterEntry)) {
+			successors.add(getSummary(entryPointFunction).getRoot());
+		} else if(!node.equals(masterExit)) {
+			FunctionSummary summary = getSummary(getContainingFunction(node));
+			if(summary != null) {
+				AtlasSet<Node> expandedTargets = getExpandedTargets(summary, node);
+				if(expandedTargets.isEmpty()) {
+					for(Edge edge : summary.getOutEdges(node)) {
+						successors.add(edge.to());
+						edges.add(edge);
+					}
+				} else {
+					// link up the callsite cf node to the CFG roots of the targets
+					for(Node target : expandedTargets) {
+						successors.add(getSummary(target).getRoot());
+					}
+				}
+				if(summary.getExits().contains(node)) {
+					// link the cfg exits to the successors of the callsites of the function
+					successors.addAll(getCallerLinks(summary.getFunction()).getReturnSites());
+					if(summary.getFunction().equals(entryPointFunction)) {
+						successors.add(masterExit);
+					}
+				}
+			}
+		}
+		nodes.addAll(successors);
+		return successors;
+	}
+
+	/**
+	 * Gets the predecessors of a given node, splicing in the control flow
+	 * graphs of the targets of callsites as they are reached
+	 * @param node
+	 * @return Predecessors of node
+	 */
+	@Override
+	public AtlasSet<Node> getPredecessors(Node node) {
+		AtlasSet<Node> predecessors = new AtlasHashSet<Node>();
+		if(node.equals(masterExit)) {
+			predecessors.addAll(getSummary(entryPointFunction).getExits());
+		} else if(!node.equals(masterEntry)) {
+			FunctionSummary summary = getSummary(getContainingFunction(node));
+			if(summary != null) {
+				for(Edge edge : summary.getInEdges(node)) {
+					Node predecessor = edge.from();
+					AtlasSet<Node> expandedTargets = getExpandedTargets(summary, predecessor);
+					if(expandedTargets.isEmpty()) {
+						predecessors.add(predecessor);
+						edges.add(edge);
+					} else {
+						// the callsite returns to the node from the CFG exits of the targets
+						for(Node target : expandedTargets) {
+							predecessors.addAll(getSummary(target).getExits());
+						}
+					}
+				}
+				if(node.equals(summary.getRoot())) {
+					// the function is entered from the callsites of the function
+					predecessors.addAll(getCallerLinks(summary.getFunction()).getCallsiteControlFlowNodes());
+					if(summary.getFunction().equals(entryPointFunction)) {
+						predecessors.add(masterEntry);
+					}
+				}
+			}
+		}
+		nodes.addAll(predecessors);
+		return predecessors;
+	}
+
+	@Override
+	public Node getEntryNode() {
+		return masterEntry;
+	}
+
+	@Override
+	public Node getExitNode() {
+		return masterExit;
+	}
+
+	/**
+	 * Returns the nodes discovered so far
+	 */
+	@Override
+	public AtlasSet<Node> nodes() {
+		return nodes;
+	}
+
+	/**
+	 * Returns the intraprocedural control flow edges discovered so far, the
+	 * interprocedural edges are virtual and are not included
+	 */
+	@Override
+	public AtlasSet<Edge> edges() {
+		return edges;
+	}
+
+	/**
+	 * Returns the containing function of a control flow node
+	 * @param node
+	 * @return
+	 */
+	private Node getContainingFunction(Node node) {
+		Node function = containingFunctions.get(node);
+		if(function == null) {
+			function = CommonQueries.getContainingFunction(node);
+		}
+		return function;
+	}
+
+	/**
+	 * Returns the targets of the callsites of a control flow node that are
+	 * expanded in the ICFG
+	 * @param summary
+	 * @param controlFlowNode
+	 * @return
+	 */
+	private AtlasSet<Node> getExpandedTargets(FunctionSummary summary, Node controlFlowNode) {
+		AtlasSet<Node> expandedTargets = new AtlasHashSet<Node>();
+		AtlasSet<Node> targets = summary.getCallsiteTargets(controlFlowNode);
+		if(targets != null) {
+			for(Node target : targets) {
+				if(isExpanded(target)) {
+					expandedTargets.add(target);
+				}
+			}
+		}
+		return expandedTargets;
+	}
+
+	/**
+	 * Returns true if the function is reachable from the entry point function
+	 * and has a non-empty control flow graph
+	 * @param function
+	 * @return
+	 */
+	private boolean isExpanded(Node function) {
+		return getReachableFunctions().contains(function) && getSummary(function) != null;
+	}
+
+	/**
+	 * Returns the summary of the function, or null if the function has an
+	 * empty control flow graph
+	 * @param function
+	 * @return
+	 */
+	private FunctionSummary getSummary(Node function) {
+		if(function == null || emptyFunctions.contains(function)) {
+			return null;
+		}
+		FunctionSummary summary = summaries.get(function);
+		if(summary == null) {
+			if(CommonQueries.isEmpty(Common.toQ(function).children().nodes(XCSG.ControlFlow_Node))) {
+				emptyFunctions.add(function);
+				return null;
+			}
+			summary = new FunctionSummary(function, callResolutionStrategy);
+			for(Node node : summary.getCFG().nodes()) {
+				containingFunctions.put(node, function);
+			}
+			summaries.put(function, summary);
+		}
+		return summary;
+	}
+
+	/**
+	 * Uses call summaries (i.e. call graph) to find all functions reachable
+	 * from the entry point function along with their callers
+	 * @return
+	 */
+	private AtlasSet<Node> getReachableFunctions() {
+		if(icfgFunctions == null) {
+			icfgFunctions = new AtlasHashSet<Node>();
+			callers = new HashMap<Node,AtlasSet<Node>>();
+			final boolean expandAll = functionsToExpand.isEmpty();
+			Deque<Node> worklist = new ArrayDeque<Node>();
+			icfgFunctions.add(entryPointFunction);
+			worklist.add(entryPointFunction);
+			while(!worklist.isEmpty()) {
+				Node function = worklist.removeFirst();
+				for(Node successor : callResolutionStrategy.getCallSuccessors(function)) {
+					// callers are recorded for every successor, since a callsite
+					// may call back into the entry point function
+					AtlasSet<Node> successorCallers = callers.get(successor);
+					if(successorCallers == null) {
+						successorCallers = new AtlasHashSet<Node>();
+						callers.put(successor, successorCallers);
+					}
+					successorCallers.add(function);
+					if(expandAll || functionsToExpand.contains(successor)) {
+						if(icfgFunctions.add(successor)) {
+							worklist.add(successor);
+						}
+					}
+				}
+			}
+		}
+		return icfgFunctions;
+	}
+
+	/**
+	 * Returns the callsite control flow nodes that call the function and the
+	 * return sites the function's exits return to
+	 * @param function
+	 * @return
+	 */
+	private CallerLinks getCallerLinks(Node function) {
+		CallerLinks links = callerLinks.get(function);
+		if(links == null) {
+			links = new CallerLinks();
+			getReachableFunctions();
+			AtlasSet<Node> functionCallers = callers.get(function);
+			if(functionCallers != null && isExpanded(function)) {
+				for(Node caller : functionCallers) {
+					FunctionSummary callerSummary = getSummary(caller);
+					if(callerSummary == null) {
+						continue;
+					}
+					for(Node callsiteControlFlowNode : callerSummary.getCallsiteControlFlowNodes()) {
+						if(callerSummary.getCallsiteTargets(callsiteControlFlowNode).contains(function)) {
+							links.callsiteControlFlowNodes.add(callsiteControlFlowNode);
+							for(Edge successorEdge : callerSummary.getOutEdges(callsiteControlFlowNode)) {
+								links.returnSites.add(successorEdge.to());
+							}
+						}
+					}
+				}
+			}
+			callerLinks.put(function, links);
+		}
+		return links;
+	}
+
+	/**
+	 * The callsite control flow nodes calling a function and the successors
+	 * of those callsite control flow nodes
+	 */
+	private static class CallerLinks {
+		private AtlasSet<Node> callsiteControlFlowNodes = new AtlasHashSet<Node>();
+		private AtlasSet<Node> returnSites = new AtlasHashSet<Node>();
+
+		public AtlasSet<Node> getCallsiteControlFlowNodes() {
+			return callsiteControlFlowNodes;
+		}
+
+		public AtlasSet<Node> getReturnSites() {
+			return returnSites;
+		}
+	}
+
+	/**
+	 * A summary of the control flow graph of a function, including the
+	 * adjacency of each control flow node and the targets of its callsites
+	 */
+	private static class FunctionSummary {
+		private static final AtlasSet<Edge> NO_EDGES = new AtlasHashSet<Edge>();
+
+		private Node function;
+		private Graph cfg;
+		private Node root;
+		private AtlasSet<Node> exits;
+		private Map<Node,AtlasSet<Edge>> outEdges = new HashMap<Node,AtlasSet<Edge>>();
+		private Map<Node,AtlasSet<Edge>> inEdges = new HashMap<Node,AtlasSet<Edge>>();
+		private Map<Node,AtlasSet<Node>> callsiteTargets = new HashMap<Node,AtlasSet<Node>>();
+
+		public FunctionSummary(Node function, CallResolutionStrategy callResolutionStrategy) {
+			this.function = function;
+			this.cfg = CommonQueries.cfg(function).eval();
+			this.root = Common.toQ(cfg).nodes(XCSG.controlFlowRoot).eval().nodes().one();
+			this.exits = new AtlasHashSet<Node>(Common.toQ(cfg).nodes(XCSG.controlFlowExitPoint).eval().nodes());
+			for(Edge edge : cfg.edges()) {
+				add(outEdges, edge.from(), edge);
+				add(inEdges, edge.to(), edge);
+			}
+			AtlasSet<Node> callsites = CommonQueries.localDeclarations(Common.toQ(cfg)).nodes(XCSG.CallSite).eval().nodes();
+			for(Node callsite : callsites) {
+				Node cfNode = Common.toQ(callsite).parent().eval().nodes().one();
+				AtlasSet<Node> targets = callsiteTargets.get(cfNode);
+				if(targets == null) {
+					targets = new AtlasHashSet<Node>();
+					callsiteTargets.put(cfNode, targets);
+				}
+				targets.addAll(callResolutionStrategy.getCallsiteTargets(callsite));
+			}
+		}
+
+		private static void add(Map<Node,AtlasSet<Edge>> adjacency, Node node, Edge edge) {
+			AtlasSet<Edge> nodeEdges = adjacency.get(node);
+			if(nodeEdges == null) {
+				nodeEdges = new AtlasHashSet<Edge>();
+				adjacency.put(node, nodeEdges);
+			}
+			nodeEdges.add(edge);
+		}
+
+		public Node getFunction() {
+			return function;
+		}
+
+		public Graph getCFG() {
+			return cfg;
+		}
+
+		public Node getRoot() {
+			return root;
+		}
+
+		public AtlasSet<Node> getExits() {
+			return exits;
+		}
+
+		public AtlasSet<Edge> getOutEdges(Node node) {
+			AtlasSet<Edge> nodeEdges = outEdges.get(node);
+			return nodeEdges != null ? nodeEdges : NO_EDGES;
+		}
+
+		public AtlasSet<Edge> getInEdges(Node node) {
+			AtlasSet<Edge> nodeEdges = inEdges.get(node);
+			return nodeEdges != null ? nodeEdges : NO_EDGES;
+		}
+
+		public Iterable<Node> getCallsiteControlFlowNodes() {
+			return callsiteTargets.keySet();
+		}
+
+		public AtlasSet<Node> getCallsiteTargets(Node controlFlowNode) {
+			return callsiteTargets.get(controlFlowNode);
+		}
+	}
+
+}
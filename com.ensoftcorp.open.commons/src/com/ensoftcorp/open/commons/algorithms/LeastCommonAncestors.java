@@ -0,0 +1,748 @@
+package com.ensoftcorp.open.commons.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.indexing.IIndexListener;
+import com.ensoftcorp.atlas.core.indexing.IndexingUtil;
+import com.ensoftcorp.open.commons.analysis.FunctionGraphCache;
+
+/**
+ * Answers least common ancestor and least common child queries over a fixed
+ * graph after a one time preprocessing of the graph.
+ *
+ * The least common ancestors of a set of nodes are the common ancestors
+ * (including the nodes themselves) that have no successor which is also a
+ * common ancestor, the least common children are defined symmetrically. These
+ * are the same results as intersecting the reverse (or forward) traversals of
+ * each node and taking the leaves (or roots) of the intersection.
+ *
+ * The graph's nodes are mapped to dense integer ids and the edges are packed
+ * into compressed sparse row (CSR) adjacency arrays. Each direction is indexed
+ * on first use:
+ * <ul>
+ * <li>If every node has at most one parent (for example a dominator tree) the
+ * forest is indexed by an Euler tour with a sparse table for range minimum
+ * queries, so the least common ancestor of two nodes is constant time.</li>
+ * <li>Otherwise the strongly connected components are condensed and each
+ * component is labeled with a bitset of the nodes it can reach, so the common
+ * ancestors of k nodes are the intersection of k bitsets.</li>
+ * <li>If the bitset labels would exceed MAXIMUM_LABEL_WORDS the queries fall
+ * back to a traversal of the CSR arrays per queried node.</li>
+ * </ul>
+ *
+ * Instances are immutable once indexed and may be shared between threads.
+ *
+ * @author Ben Holland
+ */
+public class LeastCommonAncestors {
+
+	/**
+	 * Sentinel for an unassigned id
+	 */
+	private static final int NONE = -1;
+
+	/**
+	 * The maximum total number of words (8 bytes each) of bitset labels
+	 */
+	private static final long MAXIMUM_LABEL_WORDS = 4 * 1024 * 1024;
+
+	/**
+	 * The maximum number of function graphs whose indexes are cached
+	 */
+	private static final int MAXIMUM_CACHED_FUNCTIONS = 64;
+
+	/**
+	 * Nodes by id
+	 */
+	private Node[] nodes;
+
+	/**
+	 * Ids by node
+	 */
+	private Map<Node,Integer> ids;
+
+	/**
+	 * CSR successor adjacency
+	 */
+	private int[] successorOffsets;
+	private int[] successors;
+
+	/**
+	 * CSR predecessor adjacency
+	 */
+	private int[] predecessorOffsets;
+	private int[] predecessors;
+
+	/**
+	 * Indexes of the ancestors and descendants of each node, built on demand
+	 */
+	private Index ancestorIndex = null;
+	private Index descendantIndex = null;
+
+	/**
+	 * Indexes the given graph
+	 * @param graph
+	 */
+	public LeastCommonAncestors(Graph graph) {
+		index(graph);
+	}
+
+	/**
+	 * Returns the least common ancestors of the given children
+	 * @param children
+	 * @return
+	 */
+	public AtlasSet<Node> leastCommonAncestors(AtlasSet<Node> children) {
+		return toNodes(getAncestorIndex().lowest(toIds(children)));
+	}
+
+	/**
+	 * Returns the least common children of the given parents
+	 * @param parents
+	 * @return
+	 */
+	public AtlasSet<Node> leastCommonChildren(AtlasSet<Node> parents) {
+		return toNodes(getDescendantIndex().lowest(toIds(parents)));
+	}
+
+	/**
+	 * Returns a least common ancestor of both child1 and child2 or null if
+	 * they have no common ancestor
+	 * @param child1
+	 * @param child2
+	 * @return
+	 */
+	public Node leastCommonAncestor(Node child1, Node child2) {
+		return first(getAncestorIndex().lowest(toIds(child1, child2)));
+	}
+
+	/**
+	 * Returns a least common child of both parent1 and parent2 or null if they
+	 * have no common child
+	 * @param parent1
+	 * @param parent2
+	 * @return
+	 */
+	public Node leastCommonChild(Node parent1, Node parent2) {
+		return first(getDescendantIndex().lowest(toIds(parent1, parent2)));
+	}
+
+	/**
+	 * Returns the number of indexed nodes
+	 * @return
+	 */
+	public int size() {
+		return nodes.length;
+	}
+
+	private synchronized Index getAncestorIndex() {
+		if(ancestorIndex == null){
+			ancestorIndex = createIndex(predecessorOffsets, predecessors, successorOffsets, successors);
+		}
+		return ancestorIndex;
+	}
+
+	private synchronized Index getDescendantIndex() {
+		if(descendantIndex == null){
+			descendantIndex = createIndex(successorOffsets, successors, predecessorOffsets, predecessors);
+		}
+		return descendantIndex;
+	}
+
+	/**
+	 * Creates the cheapest index that supports the shape of the graph
+	 *
+	 * @param upOffsets the CSR adjacency towards the ancestors being queried
+	 * @param up
+	 * @param downOffsets the CSR adjacency away from the ancestors being queried
+	 * @param down
+	 * @return
+	 */
+	private Index createIndex(int[] upOffsets, int[] up, int[] downOffsets, int[] down) {
+		Index index = TreeIndex.build(nodes.length, upOffsets, downOffsets, down);
+		if(index == null){
+			index = BitsetIndex.build(nodes.length, upOffsets, up, downOffsets, down);
+		}
+		if(index == null){
+			index = new TraversalIndex(nodes.length, upOffsets, up, downOffsets, down);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the ids of the given nodes or null if any node is not indexed
+	 */
+	private int[] toIds(AtlasSet<Node> nodeSet) {
+		int[] query = new int[(int) nodeSet.size()];
+		int k = 0;
+		for(Node node : nodeSet){
+			Integer id = ids.get(node);
+			if(id == null){
+				return null;
+			}
+			query[k++] = id;
+		}
+		return query;
+	}
+
+	private int[] toIds(Node node1, Node node2) {
+		Integer id1 = ids.get(node1);
+		Integer id2 = ids.get(node2);
+		if(id1 == null || id2 == null){
+			return null;
+		}
+		return new int[]{ id1, id2 };
+	}
+
+	private AtlasSet<Node> toNodes(int[] result) {
+		AtlasSet<Node> nodeSet = new AtlasHashSet<Node>();
+		for(int id : result){
+			nodeSet.add(nodes[id]);
+		}
+		return nodeSet;
+	}
+
+	private Node first(int[] result) {
+		return result.length == 0 ? null : nodes[result[0]];
+	}
+
+	/**
+	 * Maps the graph's nodes to dense ids and builds the CSR adjacency arrays
+	 *
+	 * @param graph
+	 */
+	private void index(Graph graph) {
+		ids = new HashMap<Node,Integer>();
+		List<Node> nodesById = new ArrayList<Node>((int) graph.nodes().size());
+		for(Node node : graph.nodes()){
+			ids.put(node, nodesById.size());
+			nodesById.add(node);
+		}
+		nodes = nodesById.toArray(new Node[nodesById.size()]);
+		int nodeCount = nodes.length;
+
+		int edgeCount = (int) graph.edges().size();
+		int[] edgeFrom = new int[edgeCount];
+		int[] edgeTo = new int[edgeCount];
+		int e = 0;
+		for(Edge edge : graph.edges()){
+			Integer from = ids.get(edge.from());
+			Integer to = ids.get(edge.to());
+			if(from == null || to == null){
+				continue; // dangling edge
+			}
+			edgeFrom[e] = from;
+			edgeTo[e] = to;
+			e++;
+		}
+
+		successorOffsets = new int[nodeCount + 1];
+		predecessorOffsets = new int[nodeCount + 1];
+		for(int i=0; i<e; i++){
+			successorOffsets[edgeFrom[i] + 1]++;
+			predecessorOffsets[edgeTo[i] + 1]++;
+		}
+		for(int i=0; i<nodeCount; i++){
+			successorOffsets[i + 1] += successorOffsets[i];
+			predecessorOffsets[i + 1] += predecessorOffsets[i];
+		}
+		successors = new int[e];
+		predecessors = new int[e];
+		int[] successorCursor = Arrays.copyOf(successorOffsets, nodeCount);
+		int[] predecessorCursor = Arrays.copyOf(predecessorOffsets, nodeCount);
+		for(int i=0; i<e; i++){
+			successors[successorCursor[edgeFrom[i]]++] = edgeTo[i];
+			predecessors[predecessorCursor[edgeTo[i]]++] = edgeFrom[i];
+		}
+	}
+
+	/**
+	 * An index of the ancestors of each node in one direction of the graph
+	 */
+	private static abstract class Index {
+		/**
+		 * Returns the ids of the lowest common ancestors of the given ids, a
+		 * null query (a node that is not in the graph) has no ancestors
+		 */
+		abstract int[] lowest(int[] query);
+	}
+
+	/**
+	 * An Euler tour of a forest with a sparse table over the tour for range
+	 * minimum depth queries
+	 */
+	private static final class TreeIndex extends Index {
+		private final int[] first;
+		private final int[] depth;
+		private final int[] tree;
+		private final int[][] table;
+		private final int[] leaves;
+
+		private TreeIndex(int[] first, int[] depth, int[] tree, int[] euler, int length, int[] leaves) {
+			this.first = first;
+			this.depth = depth;
+			this.tree = tree;
+			this.leaves = leaves;
+			int levels = length == 0 ? 1 : (32 - Integer.numberOfLeadingZeros(length));
+			table = new int[levels][];
+			table[0] = Arrays.copyOf(euler, length);
+			for(int k=1; k<levels; k++){
+				int span = 1 << (k - 1);
+				int[] previous = table[k - 1];
+				int[] current = new int[length - (1 << k) + 1];
+				for(int i=0; i<current.length; i++){
+					int a = previous[i];
+					int b = previous[i + span];
+					current[i] = depth[a] <= depth[b] ? a : b;
+				}
+				table[k] = current;
+			}
+		}
+
+		/**
+		 * Returns the index if every node has at most one parent and the graph
+		 * is acyclic, otherwise null
+		 */
+		static TreeIndex build(int n, int[] upOffsets, int[] downOffsets, int[] down) {
+			for(int i=0; i<n; i++){
+				if(upOffsets[i + 1] - upOffsets[i] > 1){
+					return null;
+				}
+			}
+			int[] first = new int[n];
+			int[] depth = new int[n];
+			int[] tree = new int[n];
+			int[] euler = new int[Math.max(1, 2 * n - 1)];
+			int[] stack = new int[n];
+			int[] cursor = new int[n];
+			int length = 0;
+			int visited = 0;
+			int trees = 0;
+			for(int root=0; root<n; root++){
+				if(upOffsets[root + 1] != upOffsets[root]){
+					continue;
+				}
+				int sp = 0;
+				stack[sp] = root;
+				cursor[sp] = downOffsets[root];
+				sp++;
+				depth[root] = 0;
+				tree[root] = trees;
+				first[root] = length;
+				euler[length++] = root;
+				visited++;
+				while(sp > 0){
+					int u = stack[sp - 1];
+					if(cursor[sp - 1] < downOffsets[u + 1]){
+						// every node has a single parent, so each child is visited once
+						int v = down[cursor[sp - 1]++];
+						depth[v] = depth[u] + 1;
+						tree[v] = trees;
+						first[v] = length;
+						euler[length++] = v;
+						visited++;
+						stack[sp] = v;
+						cursor[sp] = downOffsets[v];
+						sp++;
+					} else {
+						sp--;
+						if(sp > 0){
+							euler[length++] = stack[sp - 1];
+						}
+					}
+				}
+				trees++;
+			}
+			if(visited != n){
+				// the unvisited nodes lie on cycles
+				return null;
+			}
+			int leafCount = 0;
+			int[] leaves = new int[n];
+			for(int i=0; i<n; i++){
+				if(downOffsets[i + 1] == downOffsets[i]){
+					leaves[leafCount++] = i;
+				}
+			}
+			return new TreeIndex(first, depth, tree, euler, length, Arrays.copyOf(leaves, leafCount));
+		}
+
+		private int lca(int a, int b) {
+			if(tree[a] != tree[b]){
+				return NONE;
+			}
+			int l = Math.min(first[a], first[b]);
+			int r = Math.max(first[a], first[b]);
+			int k = 31 - Integer.numberOfLeadingZeros(r - l + 1);
+			int x = table[k][l];
+			int y = table[k][r - (1 << k) + 1];
+			return depth[x] <= depth[y] ? x : y;
+		}
+
+		@Override
+		int[] lowest(int[] query) {
+			if(query == null){
+				return new int[0];
+			}
+			if(query.length == 0){
+				// every node is a common ancestor of nothing
+				return leaves;
+			}
+			int result = query[0];
+			for(int i=1; i<query.length && result != NONE; i++){
+				result = lca(result, query[i]);
+			}
+			return result == NONE ? new int[0] : new int[]{ result };
+		}
+	}
+
+	/**
+	 * An index that computes the set of common ancestors as a bitset and
+	 * returns the members with no child in the set
+	 */
+	private static abstract class ClosureIndex extends Index {
+		protected final int n;
+		protected final int words;
+		private final int[] downOffsets;
+		private final int[] down;
+
+		ClosureIndex(int n, int[] downOffsets, int[] down) {
+			this.n = n;
+			this.words = (n + 63) >>> 6;
+			this.downOffsets = downOffsets;
+			this.down = down;
+		}
+
+		/**
+		 * Returns the bitset of common ancestors of a non-empty query
+		 */
+		abstract long[] common(int[] query);
+
+		@Override
+		int[] lowest(int[] query) {
+			if(query == null){
+				return new int[0];
+			}
+			long[] common;
+			if(query.length == 0){
+				common = new long[words];
+				Arrays.fill(common, -1L);
+				if((n & 63) != 0){
+					common[words - 1] = (1L << n) - 1;
+				}
+			} else {
+				common = common(query);
+			}
+			int count = 0;
+			int[] result = new int[16];
+			for(int w=0; w<words; w++){
+				long bits = common[w];
+				while(bits != 0){
+					int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+					bits &= bits - 1;
+					boolean lowest = true;
+					for(int d=downOffsets[i]; d<downOffsets[i + 1]; d++){
+						int child = down[d];
+						if((common[child >>> 6] & (1L << child)) != 0){
+							lowest = false;
+							break;
+						}
+					}
+					if(lowest){
+						if(count == result.length){
+							result = Arrays.copyOf(result, count * 2);
+						}
+						result[count++] = i;
+					}
+				}
+			}
+			return Arrays.copyOf(result, count);
+		}
+	}
+
+	/**
+	 * Labels each strongly connected component with the bitset of nodes it
+	 * can reach, the components are found with an iterative Tarjan's
+	 * algorithm which completes each component after every component it can
+	 * reach
+	 */
+	private static final class BitsetIndex extends ClosureIndex {
+		private final int[] component;
+		private final long[][] labels;
+
+		private BitsetIndex(int n, int[] downOffsets, int[] down, int[] component, long[][] labels) {
+			super(n, downOffsets, down);
+			this.component = component;
+			this.labels = labels;
+		}
+
+		/**
+		 * Returns the index or null if the labels would exceed MAXIMUM_LABEL_WORDS
+		 */
+		static BitsetIndex build(int n, int[] upOffsets, int[] up, int[] downOffsets, int[] down) {
+			int words = (n + 63) >>> 6;
+			long maximumComponents = MAXIMUM_LABEL_WORDS / Math.max(1, words);
+			int[] number = new int[n];
+			Arrays.fill(number, NONE);
+			int[] low = new int[n];
+			int[] component = new int[n];
+			Arrays.fill(component, NONE);
+			boolean[] onStack = new boolean[n];
+			int[] tarjanStack = new int[n];
+			int tsp = 0;
+			int[] callStack = new int[n];
+			int[] cursor = new int[n];
+			List<long[]> labels = new ArrayList<long[]>();
+			int counter = 0;
+			for(int s=0; s<n; s++){
+				if(number[s] != NONE){
+					continue;
+				}
+				int sp = 0;
+				callStack[sp] = s;
+				cursor[sp] = upOffsets[s];
+				sp++;
+				number[s] = low[s] = counter++;
+				tarjanStack[tsp++] = s;
+				onStack[s] = true;
+				while(sp > 0){
+					int u = callStack[sp - 1];
+					if(cursor[sp - 1] < upOffsets[u + 1]){
+						int v = up[cursor[sp - 1]++];
+						if(number[v] == NONE){
+							number[v] = low[v] = counter++;
+							tarjanStack[tsp++] = v;
+							onStack[v] = true;
+							callStack[sp] = v;
+							cursor[sp] = upOffsets[v];
+							sp++;
+						} else if(onStack[v]){
+							low[u] = Math.min(low[u], number[v]);
+						}
+					} else {
+						sp--;
+						if(low[u] == number[u]){
+							if(labels.size() >= maximumComponents){
+								return null;
+							}
+							int c = labels.size();
+							long[] label = new long[words];
+							int end = tsp;
+							int member;
+							do {
+								member = tarjanStack[--tsp];
+								onStack[member] = false;
+								component[member] = c;
+								label[member >>> 6] |= 1L << member;
+							} while(member != u);
+							// every other component reachable from this one is complete
+							for(int i=tsp; i<end; i++){
+								int m = tarjanStack[i];
+								for(int p=upOffsets[m]; p<upOffsets[m + 1]; p++){
+									int reached = component[up[p]];
+									if(reached != c){
+										long[] reachedLabel = labels.get(reached);
+										for(int w=0; w<words; w++){
+											label[w] |= reachedLabel[w];
+										}
+									}
+								}
+							}
+							labels.add(label);
+						}
+						if(sp > 0){
+							int parent = callStack[sp - 1];
+							low[parent] = Math.min(low[parent], low[u]);
+						}
+					}
+				}
+			}
+			return new BitsetIndex(n, downOffsets, down, component, labels.toArray(new long[labels.size()][]));
+		}
+
+		@Override
+		long[] common(int[] query) {
+			long[] common = Arrays.copyOf(labels[component[query[0]]], words);
+			for(int i=1; i<query.length; i++){
+				long[] label = labels[component[query[i]]];
+				for(int w=0; w<words; w++){
+					common[w] &= label[w];
+				}
+			}
+			return common;
+		}
+	}
+
+	/**
+	 * Computes the common ancestors with a breadth first traversal per queried
+	 * node, used when the graph is too large to label
+	 */
+	private static final class TraversalIndex extends ClosureIndex {
+		private final int[] upOffsets;
+		private final int[] up;
+
+		TraversalIndex(int n, int[] upOffsets, int[] up, int[] downOffsets, int[] down) {
+			super(n, downOffsets, down);
+			this.upOffsets = upOffsets;
+			this.up = up;
+		}
+
+		@Override
+		long[] common(int[] query) {
+			int[] counts = new int[n];
+			int[] visited = new int[n];
+			int[] queue = new int[n];
+			for(int q=0; q<query.length; q++){
+				int mark = q + 1;
+				int head = 0;
+				int tail = 0;
+				queue[tail++] = query[q];
+				visited[query[q]] = mark;
+				while(head < tail){
+					int u = queue[head++];
+					counts[u]++;
+					for(int p=upOffsets[u]; p<upOffsets[u + 1]; p++){
+						int v = up[p];
+						if(visited[v] != mark){
+							visited[v] = mark;
+							queue[tail++] = v;
+						}
+					}
+				}
+			}
+			long[] common = new long[words];
+			for(int i=0; i<n; i++){
+				if(counts[i] == query.length){
+					common[i >>> 6] |= 1L << i;
+				}
+			}
+			return common;
+		}
+	}
+
+	private static final class Key {
+		private final FunctionGraphCache.Kind kind;
+		private final Node function;
+
+		private Key(FunctionGraphCache.Kind kind, Node function){
+			this.kind = kind;
+			this.function = function;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + kind.hashCode();
+			result = prime * result + function.hashCode();
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			Key other = (Key) obj;
+			return kind == other.kind && function.equals(other.function);
+		}
+	}
+
+	/**
+	 * Access ordered map of function graph indexes, the first entry is the
+	 * least recently used
+	 */
+	private static final LinkedHashMap<Key,LeastCommonAncestors> CACHE = new LinkedHashMap<Key,LeastCommonAncestors>(16, 0.75f, true){
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key,LeastCommonAncestors> eldest) {
+			return size() > MAXIMUM_CACHED_FUNCTIONS;
+		}
+	};
+
+	private static IIndexListener indexListener = null;
+
+	/**
+	 * Returns the (possibly cached) index of the given kind of function
+	 * graph. The most recently used function graph indexes are cached until
+	 * the index changes.
+	 *
+	 * @param kind
+	 * @param function
+	 * @return
+	 */
+	public static LeastCommonAncestors forFunction(FunctionGraphCache.Kind kind, Node function) {
+		registerIndexListener();
+		Key key = new Key(kind, function);
+		synchronized (CACHE){
+			LeastCommonAncestors index = CACHE.get(key);
+			if(index != null){
+				return index;
+			}
+		}
+		// index outside of the lock, concurrent misses on the same key
+		// index the same graph and the last one wins
+		LeastCommonAncestors index = new LeastCommonAncestors(FunctionGraphCache.get(kind, function));
+		synchronized (CACHE){
+			CACHE.put(key, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Removes all cached function graph indexes
+	 */
+	public static void clearCache() {
+		synchronized (CACHE){
+			CACHE.clear();
+		}
+	}
+
+	/**
+	 * Registers an index listener that clears the cache when the index changes
+	 */
+	private static synchronized void registerIndexListener(){
+		if(indexListener == null){
+			indexListener = new IIndexListener(){
+				@Override
+				public void indexOperationCancelled(IndexOperation op) {
+					clearCache();
+				}
+
+				@Override
+				public void indexOperationComplete(IndexOperation op) {
+					clearCache();
+				}
+
+				@Override
+				public void indexOperationError(IndexOperation op, Throwable error) {
+					clearCache();
+				}
+
+				@Override
+				public void indexOperationScheduled(IndexOperation op) {}
+
+				@Override
+				public void indexOperationStarted(IndexOperation op) {
+					clearCache();
+				}
+			};
+			IndexingUtil.addListener(indexListener);
+		}
+	}
+
+}
@@ -0,0 +1,380 @@
+package com.ensoftcorp.open.commons.algorithms;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.SubMonitor;
+
+import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.core.query.Query;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+import com.ensoftcorp.open.commons.analysis.CommonQueries;
+import com.ensoftcorp.open.commons.codemap.PrioritizedCodemapStage;
+import com.ensoftcorp.open.commons.log.Log;
+import com.ensoftcorp.open.commons.preferences.CommonsPreferences;
+import com.ensoftcorp.open.commons.xcsg.XCSG_Extension;
+
+/**
+ * Primary interface for identifying the loops of control flow graphs. This
+ * also acts as a code map stage to pre-compute the loop headers, loopbacks,
+ * loop reentries and innermost loop headers of every function using
+ * {@link IndexedLoopIdentification}, so that they can be queried directly from
+ * the index afterwards.
+ * 
+ * Functions whose loops are not already described in the index by the
+ * language front end (for example Jimple) are also given the standard XCSG
+ * loop vocabulary consumed by the rest of the toolbox: loop headers are
+ * tagged XCSG.Loop, loopbacks are tagged XCSG.ControlFlowBackEdge and each
+ * loop header has an XCSG.LoopChild edge to each node (including nested loop
+ * headers) whose innermost loop header it is.
+ *
+ * @author Ben Holland
+ */
+public class LoopAnalysis extends PrioritizedCodemapStage {
+
+	/**
+	 * The unique identifier for the loop identification codemap stage
+	 */
+	public static final String IDENTIFIER = "com.ensoftcorp.open.commons.loops";
+
+	/**
+	 * Used to tag the control flow edges that loop back to a loop header
+	 */
+	@XCSG_Extension
+	public static final String LOOP_BACK_EDGE = "loopback";
+
+	/**
+	 * Used to tag the control flow edges that enter an irreducible loop at a
+	 * node other than its loop header
+	 */
+	@XCSG_Extension
+	public static final String LOOP_REENTRY_EDGE = "loop-reentry";
+
+	/**
+	 * Used to tag the nodes that are the destination of a loop reentry edge
+	 */
+	@XCSG_Extension
+	public static final String LOOP_REENTRY_NODE = "loop-reentry-node";
+
+	/**
+	 * Used to tag the control flow nodes that are loop headers
+	 */
+	@XCSG_Extension
+	public static final String LOOP_HEADER = "loop-header";
+
+	/**
+	 * Used to tag the loop headers of irreducible loops
+	 */
+	@XCSG_Extension
+	public static final String IRREDUCIBLE_LOOP_HEADER = "irreducible-loop-header";
+
+	/**
+	 * Integer attribute applied to each loop header that uniquely identifies
+	 * the loop in the index
+	 */
+	@XCSG_Extension
+	public static final String LOOP_HEADER_ID = "loop-header-id";
+
+	/**
+	 * Integer attribute applied to each node contained in a loop recording
+	 * the loop header id of its innermost loop header
+	 */
+	@XCSG_Extension
+	public static final String LOOP_MEMBER_ID = "loop-member-id";
+
+	/**
+	 * The number of functions whose loops are committed to the index at a time
+	 */
+	private static final int COMMIT_BATCH_SIZE = 256;
+
+	public LoopAnalysis() {}
+
+	public static Q getLoopBackEdges(){
+		return Query.universe().edges(LOOP_BACK_EDGE).retainEdges();
+	}
+
+	public static Q getLoopReentryEdges(){
+		return Query.universe().edges(LOOP_REENTRY_EDGE).retainEdges();
+	}
+
+	public static Q getLoopHeaders(){
+		return Query.universe().nodes(LOOP_HEADER);
+	}
+
+	public static Q getIrreducibleLoopHeaders(){
+		return Query.universe().nodes(IRREDUCIBLE_LOOP_HEADER);
+	}
+
+	/**
+	 * Returns the nodes whose innermost loop header is the given loop header
+	 * @param loopHeader
+	 * @return
+	 */
+	public static Q getInnermostLoopMembers(Node loopHeader){
+		Object id = loopHeader.getAttr(LOOP_HEADER_ID);
+		if(id == null){
+			return Common.empty();
+		}
+		return Query.universe().selectNode(LOOP_MEMBER_ID, id);
+	}
+
+	@Override
+	public String getDisplayName() {
+		return "Identifying Control Flow Graph Loops";
+	}
+
+	@Override
+	public String getIdentifier() {
+		return IDENTIFIER;
+	}
+
+	@Override
+	public String[] getCodemapStageDependencies() {
+		return new String[]{};
+	}
+
+	/**
+	 * Loop identification tags and attributes nodes and edges in the Atlas
+	 * graph (and manages its own worker threads), so it does not overlap
+	 * other codemap stages
+	 */
+	@Override
+	public boolean isGraphWritingExclusive() {
+		return true;
+	}
+
+	@Override
+	public boolean performIndexing(IProgressMonitor monitor) {
+		boolean runIndexer = CommonsPreferences.isComputeLoopIdentificationEnabled();
+		if(runIndexer){
+			Log.info("Identifying Control Flow Graph Loops");
+			AtlasSet<Node> functions = Query.resolve(null, Query.universe().nodes(XCSG.Function).eval().nodes());
+			int parallelism = CommonsPreferences.getLoopIdentificationParallelism();
+			if(parallelism > 1){
+				performParallelIndexing(functions, parallelism, monitor);
+			} else {
+				performSerialIndexing(functions, monitor);
+			}
+		}
+		return runIndexer;
+	}
+
+	/**
+	 * Identifies the loops of each function one function at a time on the
+	 * indexing thread
+	 *
+	 * @param functions
+	 * @param monitor
+	 */
+	private static void performSerialIndexing(AtlasSet<Node> functions, IProgressMonitor monitor){
+		SubMonitor task = SubMonitor.convert(monitor, (int) functions.size());
+		List<IndexedLoopIdentification> batch = new ArrayList<IndexedLoopIdentification>(COMMIT_BATCH_SIZE);
+		int nextLoopHeaderId = 0;
+		int functionsCompleted = 0;
+		for(Node function : functions){
+			if(monitor.isCanceled()){
+				Log.warning("Cancelled: Identifying Control Flow Graph Loops");
+				return;
+			}
+			try {
+				IndexedLoopIdentification loops = identifyLoops(function);
+				if(loops != null){
+					batch.add(loops);
+					if(batch.size() >= COMMIT_BATCH_SIZE){
+						nextLoopHeaderId = commitLoops(batch, nextLoopHeaderId);
+					}
+				}
+			} catch (Exception e){
+				Log.error("Error identifying control flow graph loops", e);
+			}
+			task.setWorkRemaining(((int) functions.size())-(functionsCompleted++));
+		}
+		commitLoops(batch, nextLoopHeaderId);
+	}
+
+	/**
+	 * Identifies the loops of each function on a work stealing pool of worker
+	 * threads. Workers only read control flow graphs from the index and
+	 * identify loops on int indexed snapshots. The functions are processed in
+	 * batches: a batch is submitted to the workers and every worker task of
+	 * the batch is completed before the indexing thread commits the batch (in
+	 * submission order), so the index is never read by a worker while it is
+	 * being modified.
+	 *
+	 * @param functions
+	 * @param parallelism
+	 * @param monitor
+	 */
+	private static void performParallelIndexing(AtlasSet<Node> functions, int parallelism, final IProgressMonitor monitor){
+		SubMonitor task = SubMonitor.convert(monitor, (int) functions.size());
+		ForkJoinPool workers = new ForkJoinPool(parallelism);
+		List<Future<IndexedLoopIdentification>> results = new ArrayList<Future<IndexedLoopIdentification>>(COMMIT_BATCH_SIZE);
+		List<IndexedLoopIdentification> batch = new ArrayList<IndexedLoopIdentification>(COMMIT_BATCH_SIZE);
+		int nextLoopHeaderId = 0;
+		int functionsCompleted = 0;
+		try {
+			Iterator<Node> remainingFunctions = functions.iterator();
+			while(remainingFunctions.hasNext()){
+				if(monitor.isCanceled()){
+					Log.warning("Cancelled: Identifying Control Flow Graph Loops");
+					return;
+				}
+				while(remainingFunctions.hasNext() && results.size() < COMMIT_BATCH_SIZE){
+					final Node function = remainingFunctions.next();
+					results.add(workers.submit(new Callable<IndexedLoopIdentification>(){
+						@Override
+						public IndexedLoopIdentification call() throws Exception {
+							if(monitor.isCanceled()){
+								return null;
+							}
+							return identifyLoops(function);
+						}
+					}));
+				}
+
+				// wait for the whole batch before committing, collecting in
+				// submission order so that loop header ids are the same as a
+				// serial run regardless of the order the workers finish in
+				for(Future<IndexedLoopIdentification> result : results){
+					try {
+						IndexedLoopIdentification loops = result.get();
+						if(loops != null){
+							batch.add(loops);
+						}
+					} catch (ExecutionException e){
+						Log.error("Error identifying control flow graph loops", e.getCause());
+					}
+				}
+				functionsCompleted += results.size();
+				results.clear();
+				if(monitor.isCanceled()){
+					Log.warning("Cancelled: Identifying Control Flow Graph Loops");
+					return;
+				}
+				nextLoopHeaderId = commitLoops(batch, nextLoopHeaderId);
+				task.setWorkRemaining(((int) functions.size())-functionsCompleted);
+			}
+		} catch (InterruptedException e){
+			Log.warning("Interrupted: Identifying Control Flow Graph Loops", e);
+			Thread.currentThread().interrupt();
+		} finally {
+			workers.shutdownNow();
+			try {
+				// the index must not be modified after this stage completes
+				workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Identifies the loops of the control flow graph of the given function
+	 *
+	 * @param function
+	 * @return the identified loops or null if the function has no control
+	 *         flow graph or no loops
+	 */
+	private static IndexedLoopIdentification identifyLoops(Node function){
+		Q cfg = CommonQueries.cfg(function);
+		Node root = cfg.nodes(XCSG.controlFlowRoot).eval().nodes().one();
+		if(root == null){
+			// nothing to compute
+			return null;
+		}
+		IndexedLoopIdentification loops = new IndexedLoopIdentification(cfg.eval(), root);
+		return loops.hasLoops() ? loops : null;
+	}
+
+	/**
+	 * Commits the loop headers, loopbacks, reentries and innermost loop
+	 * headers of a batch of functions to the index and clears the batch
+	 *
+	 * @param batch
+	 * @param nextLoopHeaderId
+	 * @return the next unused loop header id
+	 */
+	private static int commitLoops(List<IndexedLoopIdentification> batch, int nextLoopHeaderId){
+		for(IndexedLoopIdentification loops : batch){
+			// front ends that describe loops (C, C++ and Java source) already
+			// tag the loop headers, those loops are not described again
+			boolean describeLoops = true;
+			for(int id=0; id<loops.size(); id++){
+				if(loops.isLoopHeader(id) && loops.getNode(id).taggedWith(XCSG.Loop)){
+					describeLoops = false;
+					break;
+				}
+			}
+			int[] loopHeaderIds = new int[loops.size()];
+			for(int id=0; id<loops.size(); id++){
+				if(loops.isLoopHeader(id)){
+					Node loopHeader = loops.getNode(id);
+					loopHeaderIds[id] = nextLoopHeaderId++;
+					loopHeader.tag(LOOP_HEADER);
+					loopHeader.putAttr(LOOP_HEADER_ID, loopHeaderIds[id]);
+					if(loops.isIrreducible(id)){
+						loopHeader.tag(IRREDUCIBLE_LOOP_HEADER);
+					}
+					if(describeLoops){
+						loopHeader.tag(XCSG.Loop);
+					}
+				}
+			}
+			for(int id=0; id<loops.size(); id++){
+				int innermostLoopHeader = loops.getInnermostLoopHeader(id);
+				if(innermostLoopHeader != IndexedLoopIdentification.NONE){
+					loops.getNode(id).putAttr(LOOP_MEMBER_ID, loopHeaderIds[innermostLoopHeader]);
+					if(describeLoops){
+						addLoopChildEdge(loops.getNode(innermostLoopHeader), loops.getNode(id));
+					}
+				}
+				if(loops.isReentryNode(id)){
+					loops.getNode(id).tag(LOOP_REENTRY_NODE);
+				}
+			}
+			for(int e=0; e<loops.getEdgeCount(); e++){
+				if(loops.isLoopback(e)){
+					loops.getEdge(e).tag(LOOP_BACK_EDGE);
+					if(describeLoops){
+						loops.getEdge(e).tag(XCSG.ControlFlowBackEdge);
+					}
+				}
+				if(loops.isReentryEdge(e)){
+					loops.getEdge(e).tag(LOOP_REENTRY_EDGE);
+				}
+			}
+		}
+		batch.clear();
+		return nextLoopHeaderId;
+	}
+
+	/**
+	 * Creates an XCSG.LoopChild edge from the loop header to the loop member
+	 * if one does not already exist (for example from a previous run)
+	 *
+	 * @param loopHeader
+	 * @param member
+	 */
+	private static void addLoopChildEdge(Node loopHeader, Node member){
+		for(Edge loopChild : member.in(XCSG.LoopChild)){
+			if(loopChild.from().equals(loopHeader)){
+				return;
+			}
+		}
+		Edge loopChild = Graph.U.createEdge(loopHeader, member);
+		loopChild.tag(XCSG.LoopChild);
+	}
+
+}
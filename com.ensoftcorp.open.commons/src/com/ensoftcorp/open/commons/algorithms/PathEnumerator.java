@@ -1,9 +1,28 @@
 package com.ensoftcorp.open.commons.algorithms;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
 
 import org.jgrapht.DirectedGraph;
 import org.jgrapht.GraphPath;
@@ -11,6 +30,7 @@ import org.jgrapht.alg.shortestpath.AllDirectedPaths;
 import org.jgrapht.graph.DirectedPseudograph;
 
 import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Graph;
 import com.ensoftcorp.atlas.core.db.graph.Node;
 import com.ensoftcorp.atlas.core.db.set.AtlasSet;
 import com.ensoftcorp.atlas.core.query.Q;
@@ -21,10 +41,41 @@ import com.ensoftcorp.open.commons.analysis.CommonQueries;
 /**
  * Utilities for enumerating paths through a CFG
  * 
+ * The getPaths methods materialize every simple path at once. For large
+ * functions the paths can instead be iterated lazily (iteratePaths and
+ * streamPaths), enumerated in parallel (enumeratePaths) or counted without
+ * enumerating them (countPaths). The lazy and parallel enumerators index the
+ * graph into compressed sparse row (CSR) arrays, skip nodes that cannot reach
+ * a target, and support limits on the number and length of paths as well as
+ * cancellation.
+ * 
  * @author Ben Holland
  */
 public class PathEnumerator {
 	
+	/**
+	 * The number of search steps between checks for cancellation
+	 */
+	private static final int CANCELLATION_CHECK_INTERVAL = 1024;
+	
+	/**
+	 * The parallel enumerator only splits the search at branch points within
+	 * this many nodes of the source
+	 */
+	private static final int MAXIMUM_SPLIT_DEPTH = 32;
+	
+	/**
+	 * A thread-safe consumer of paths found by the parallel enumerator
+	 */
+	public static interface PathHandler {
+		/**
+		 * Accepts a path, returns false to stop the enumeration
+		 * @param path
+		 * @return
+		 */
+		public boolean accept(List<Node> path);
+	}
+	
 	/**
 	 * Returns a string representing the path through the CFG
 	 * @param path
@@ -88,6 +139,514 @@ public class PathEnumerator {
 		return result;
 	}
 	
+	/**
+	 * Returns a lazy iterator over the simple paths through the CFG of the
+	 * given function from the control flow root to the control flow exits
+	 * @param function
+	 * @return
+	 */
+	public static Iterator<List<Node>> iteratePaths(Node function){
+		Q cfg = CommonQueries.cfg(function);
+		return iteratePaths(cfg, cfg.nodes(XCSG.controlFlowRoot).eval().nodes(), cfg.nodes(XCSG.controlFlowExitPoint).eval().nodes(), 
+				Long.MAX_VALUE, Integer.MAX_VALUE, new NullProgressMonitor());
+	}
+	
+	/**
+	 * Returns a lazy iterator over the simple paths through the CFG from a set
+	 * of source nodes to the set of target nodes (the same paths as getPaths).
+	 * Only the current path is held in memory, each path is created as it is
+	 * returned.
+	 * 
+	 * @param cfg
+	 * @param sources
+	 * @param targets
+	 * @param maxPaths the maximum number of paths to return
+	 * @param maxLength the maximum number of nodes in a path
+	 * @param monitor the iterator ends early if the monitor is canceled
+	 * @return
+	 */
+	public static Iterator<List<Node>> iteratePaths(Q cfg, AtlasSet<Node> sources, AtlasSet<Node> targets, long maxPaths, int maxLength, IProgressMonitor monitor){
+		return new PathIterator(new PathGraph(cfg.eval(), sources, targets), maxPaths, maxLength, monitor);
+	}
+	
+	/**
+	 * Returns a lazy sequential stream of the simple paths through the CFG
+	 * from a set of source nodes to the set of target nodes
+	 * 
+	 * @param cfg
+	 * @param sources
+	 * @param targets
+	 * @param maxPaths the maximum number of paths to return
+	 * @param maxLength the maximum number of nodes in a path
+	 * @param monitor the stream ends early if the monitor is canceled
+	 * @return
+	 */
+	public static Stream<List<Node>> streamPaths(Q cfg, AtlasSet<Node> sources, AtlasSet<Node> targets, long maxPaths, int maxLength, IProgressMonitor monitor){
+		Iterator<List<Node>> paths = iteratePaths(cfg, sources, targets, maxPaths, maxLength, monitor);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(paths, Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+	
+	/**
+	 * Enumerates the simple paths through the CFG from a set of source nodes to
+	 * the set of target nodes on a fork join pool, splitting the search at
+	 * branch points near the sources. Paths are passed to the handler as they
+	 * are found (from multiple threads and in no particular order).
+	 * 
+	 * @param cfg
+	 * @param sources
+	 * @param targets
+	 * @param maxPaths the maximum number of paths to enumerate
+	 * @param maxLength the maximum number of nodes in a path
+	 * @param parallelism the number of worker threads
+	 * @param handler
+	 * @param monitor the enumeration stops early if the monitor is canceled
+	 * @return the number of paths passed to the handler
+	 */
+	public static long enumeratePaths(Q cfg, AtlasSet<Node> sources, AtlasSet<Node> targets, long maxPaths, int maxLength, int parallelism, PathHandler handler, IProgressMonitor monitor){
+		PathGraph graph = new PathGraph(cfg.eval(), sources, targets);
+		ParallelSearch search = new ParallelSearch(graph, maxPaths, maxLength, handler, monitor);
+		ForkJoinPool workers = new ForkJoinPool(Math.max(1, parallelism));
+		try {
+			List<PathTask> tasks = new ArrayList<PathTask>(graph.sources.length);
+			for(int source : graph.sources){
+				tasks.add(new PathTask(search, new int[]{ source }));
+			}
+			workers.invoke(new RecursiveAction(){
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+		} finally {
+			workers.shutdownNow();
+			try {
+				workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return Math.min(search.paths.get(), maxPaths);
+	}
+	
+	/**
+	 * Returns the number of paths through the CFG of the given function from
+	 * the control flow root to the control flow exits, ignoring loop back
+	 * edges (see countPaths(Q, AtlasSet, AtlasSet))
+	 * @param function
+	 * @return
+	 */
+	public static BigInteger countPaths(Node function){
+		return countPaths(CommonQueries.cfg(function));
+	}
+	
+	/**
+	 * Returns the number of paths through the CFG from the control flow root
+	 * to the control flow exits, ignoring loop back edges
+	 * @param cfg
+	 * @return
+	 */
+	public static BigInteger countPaths(Q cfg){
+		return countPaths(cfg, cfg.nodes(XCSG.controlFlowRoot).eval().nodes(), cfg.nodes(XCSG.controlFlowExitPoint).eval().nodes());
+	}
+	
+	/**
+	 * Returns the exact number of paths from a set of source nodes to the set
+	 * of target nodes in the graph without its back edges, without
+	 * enumerating the paths. Back edges are the edges to an ancestor in a
+	 * depth first search from the sources, which for a reducible CFG are the
+	 * loop back edges. For acyclic graphs this is the number of paths
+	 * returned by getPaths.
+	 * 
+	 * The count is computed with dynamic programming in a single depth first
+	 * search, the number of paths from a node is the sum of the number of
+	 * paths from each of its successors (plus one if the node is a target).
+	 * 
+	 * @param cfg
+	 * @param sources
+	 * @param targets
+	 * @return
+	 */
+	public static BigInteger countPaths(Q cfg, AtlasSet<Node> sources, AtlasSet<Node> targets){
+		PathGraph graph = new PathGraph(cfg.eval(), sources, targets);
+		int n = graph.nodes.length;
+		BigInteger[] counts = new BigInteger[n];
+		boolean[] onStack = new boolean[n];
+		int[] stack = new int[n];
+		int[] cursor = new int[n];
+		BigInteger total = BigInteger.ZERO;
+		for(int source : graph.sources){
+			if(counts[source] == null){
+				int sp = 0;
+				stack[sp] = source;
+				cursor[sp] = graph.successorOffsets[source];
+				onStack[source] = true;
+				sp++;
+				while(sp > 0){
+					int u = stack[sp - 1];
+					if(cursor[sp - 1] < graph.successorOffsets[u + 1]){
+						int v = graph.successors[cursor[sp - 1]++];
+						if(counts[v] == null && !onStack[v]){
+							stack[sp] = v;
+							cursor[sp] = graph.successorOffsets[v];
+							onStack[v] = true;
+							sp++;
+						}
+					} else {
+						// every successor is finished, except the targets of back edges
+						BigInteger count = graph.targets[u] ? BigInteger.ONE : BigInteger.ZERO;
+						for(int s=graph.successorOffsets[u]; s<graph.successorOffsets[u + 1]; s++){
+							int v = graph.successors[s];
+							if(!onStack[v]){
+								count = count.add(counts[v]);
+							}
+						}
+						counts[u] = count;
+						onStack[u] = false;
+						sp--;
+					}
+				}
+			}
+			total = total.add(counts[source]);
+		}
+		return total;
+	}
+	
+	/**
+	 * A graph indexed by dense node ids with CSR successor adjacency
+	 */
+	private static class PathGraph {
+		private final Node[] nodes;
+		private final int[] successorOffsets;
+		private final int[] successors;
+		private final int[] sources;
+		private final boolean[] targets;
+		
+		/**
+		 * True if a target is reachable from the node
+		 */
+		private final boolean[] viable;
+		
+		public PathGraph(Graph graph, AtlasSet<Node> sourceNodes, AtlasSet<Node> targetNodes){
+			Map<Node,Integer> ids = new HashMap<Node,Integer>();
+			List<Node> nodesById = new ArrayList<Node>((int) graph.nodes().size());
+			for(Node node : graph.nodes()){
+				ids.put(node, nodesById.size());
+				nodesById.add(node);
+			}
+			nodes = nodesById.toArray(new Node[nodesById.size()]);
+			int n = nodes.length;
+			
+			int edgeCount = (int) graph.edges().size();
+			int[] edgeFrom = new int[edgeCount];
+			int[] edgeTo = new int[edgeCount];
+			int e = 0;
+			for(Edge edge : graph.edges()){
+				Integer from = ids.get(edge.from());
+				Integer to = ids.get(edge.to());
+				if(from == null || to == null){
+					continue; // dangling edge
+				}
+				edgeFrom[e] = from;
+				edgeTo[e] = to;
+				e++;
+			}
+			successorOffsets = new int[n + 1];
+			int[] predecessorOffsets = new int[n + 1];
+			for(int i=0; i<e; i++){
+				successorOffsets[edgeFrom[i] + 1]++;
+				predecessorOffsets[edgeTo[i] + 1]++;
+			}
+			for(int i=0; i<n; i++){
+				successorOffsets[i + 1] += successorOffsets[i];
+				predecessorOffsets[i + 1] += predecessorOffsets[i];
+			}
+			successors = new int[e];
+			int[] predecessors = new int[e];
+			int[] successorCursor = Arrays.copyOf(successorOffsets, n);
+			int[] predecessorCursor = Arrays.copyOf(predecessorOffsets, n);
+			for(int i=0; i<e; i++){
+				successors[successorCursor[edgeFrom[i]]++] = edgeTo[i];
+				predecessors[predecessorCursor[edgeTo[i]]++] = edgeFrom[i];
+			}
+			
+			List<Integer> sourceIds = new ArrayList<Integer>();
+			for(Node source : sourceNodes){
+				Integer id = ids.get(source);
+				if(id != null){
+					sourceIds.add(id);
+				}
+			}
+			sources = new int[sourceIds.size()];
+			for(int i=0; i<sources.length; i++){
+				sources[i] = sourceIds.get(i);
+			}
+			
+			// mark the targets and every node that reaches a target
+			targets = new boolean[n];
+			viable = new boolean[n];
+			int[] queue = new int[n];
+			int tail = 0;
+			for(Node target : targetNodes){
+				Integer id = ids.get(target);
+				if(id != null && !targets[id]){
+					targets[id] = true;
+					viable[id] = true;
+					queue[tail++] = id;
+				}
+			}
+			for(int head=0; head<tail; head++){
+				int v = queue[head];
+				for(int p=predecessorOffsets[v]; p<predecessorOffsets[v + 1]; p++){
+					int u = predecessors[p];
+					if(!viable[u]){
+						viable[u] = true;
+						queue[tail++] = u;
+					}
+				}
+			}
+		}
+		
+		public List<Node> toPath(int[] path, int length){
+			List<Node> result = new ArrayList<Node>(length);
+			for(int i=0; i<length; i++){
+				result.add(nodes[path[i]]);
+			}
+			return result;
+		}
+	}
+	
+	/**
+	 * A depth first search over simple paths that stops at each path found
+	 */
+	private static class PathIterator implements Iterator<List<Node>> {
+		private final PathGraph graph;
+		private final long maxPaths;
+		private final int maxLength;
+		private final IProgressMonitor monitor;
+		
+		private final int[] path;
+		private final int[] cursor;
+		private final boolean[] onPath;
+		private int depth = 0;
+		private int nextSource = 0;
+		private long paths = 0;
+		private int steps = 0;
+		private List<Node> next = null;
+		private boolean done = false;
+		
+		public PathIterator(PathGraph graph, long maxPaths, int maxLength, IProgressMonitor monitor){
+			this.graph = graph;
+			this.maxPaths = maxPaths;
+			this.maxLength = Math.min(maxLength, graph.nodes.length);
+			this.monitor = monitor;
+			this.path = new int[graph.nodes.length];
+			this.cursor = new int[graph.nodes.length];
+			this.onPath = new boolean[graph.nodes.length];
+		}
+		
+		@Override
+		public boolean hasNext() {
+			if(next == null && !done){
+				next = advance();
+				done = next == null;
+			}
+			return next != null;
+		}
+
+		@Override
+		public List<Node> next() {
+			if(!hasNext()){
+				throw new NoSuchElementException();
+			}
+			List<Node> result = next;
+			next = null;
+			return result;
+		}
+		
+		private void push(int v){
+			path[depth] = v;
+			cursor[depth] = graph.successorOffsets[v];
+			onPath[v] = true;
+			depth++;
+		}
+		
+		/**
+		 * Searches for the next path, returns null if there are no more paths
+		 */
+		private List<Node> advance(){
+			if(paths >= maxPaths || maxLength <= 0){
+				return null;
+			}
+			while(true){
+				if(++steps == CANCELLATION_CHECK_INTERVAL){
+					steps = 0;
+					if(monitor.isCanceled()){
+						return null;
+					}
+				}
+				if(depth == 0){
+					// start the search from the next source
+					if(nextSource == graph.sources.length){
+						return null;
+					}
+					int source = graph.sources[nextSource++];
+					if(graph.viable[source]){
+						push(source);
+						if(graph.targets[source]){
+							paths++;
+							return graph.toPath(path, depth);
+						}
+					}
+					continue;
+				}
+				int u = path[depth - 1];
+				if(depth < maxLength && cursor[depth - 1] < graph.successorOffsets[u + 1]){
+					int v = graph.successors[cursor[depth - 1]++];
+					if(!onPath[v] && graph.viable[v]){
+						push(v);
+						if(graph.targets[v]){
+							paths++;
+							return graph.toPath(path, depth);
+						}
+					}
+				} else {
+					onPath[u] = false;
+					depth--;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * The state shared by the tasks of a parallel enumeration
+	 */
+	private static class ParallelSearch {
+		private final PathGraph graph;
+		private final long maxPaths;
+		private final int maxLength;
+		private final PathHandler handler;
+		private final IProgressMonitor monitor;
+		private final AtomicLong paths = new AtomicLong(0);
+		private final AtomicBoolean stopped = new AtomicBoolean(false);
+		
+		public ParallelSearch(PathGraph graph, long maxPaths, int maxLength, PathHandler handler, IProgressMonitor monitor){
+			this.graph = graph;
+			this.maxPaths = maxPaths;
+			this.maxLength = Math.min(maxLength, graph.nodes.length);
+			this.handler = handler;
+			this.monitor = monitor;
+		}
+		
+		public boolean isStopped(){
+			if(!stopped.get() && monitor.isCanceled()){
+				stopped.set(true);
+			}
+			return stopped.get();
+		}
+		
+		/**
+		 * Passes the path to the handler unless the enumeration has stopped
+		 */
+		public void found(int[] path, int length){
+			if(stopped.get()){
+				return;
+			}
+			if(paths.incrementAndGet() > maxPaths){
+				stopped.set(true);
+				return;
+			}
+			if(!handler.accept(graph.toPath(path, length))){
+				stopped.set(true);
+			}
+		}
+	}
+	
+	/**
+	 * Searches the simple paths that extend a prefix, forking a task for each
+	 * successor at branch points within MAXIMUM_SPLIT_DEPTH nodes of the
+	 * source while other workers are idle
+	 */
+	private static class PathTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final ParallelSearch search;
+		private final int[] prefix;
+		
+		public PathTask(ParallelSearch search, int[] prefix){
+			this.search = search;
+			this.prefix = prefix;
+		}
+
+		@Override
+		protected void compute() {
+			PathGraph graph = search.graph;
+			int n = graph.nodes.length;
+			int top = prefix[prefix.length - 1];
+			if(search.isStopped() || !graph.viable[top] || search.maxLength <= 0){
+				return;
+			}
+			int[] path = Arrays.copyOf(prefix, n);
+			int[] cursor = new int[n];
+			boolean[] onPath = new boolean[n];
+			for(int node : prefix){
+				onPath[node] = true;
+			}
+			int base = prefix.length;
+			int depth = base;
+			cursor[depth - 1] = graph.successorOffsets[top];
+			if(graph.targets[top]){
+				search.found(path, depth);
+			}
+			int steps = 0;
+			while(depth >= base){
+				if(++steps == CANCELLATION_CHECK_INTERVAL){
+					steps = 0;
+					if(search.isStopped()){
+						return;
+					}
+				}
+				int u = path[depth - 1];
+				if(depth < search.maxLength && cursor[depth - 1] < graph.successorOffsets[u + 1]){
+					if(depth < MAXIMUM_SPLIT_DEPTH && cursor[depth - 1] == graph.successorOffsets[u] 
+							&& graph.successorOffsets[u + 1] - graph.successorOffsets[u] > 1
+							&& ForkJoinTask.getSurplusQueuedTaskCount() <= 1){
+						// split the branch point into a task per successor
+						List<PathTask> tasks = new ArrayList<PathTask>();
+						for(int s=graph.successorOffsets[u]; s<graph.successorOffsets[u + 1]; s++){
+							int v = graph.successors[s];
+							if(!onPath[v] && graph.viable[v]){
+								int[] extended = Arrays.copyOf(path, depth + 1);
+								extended[depth] = v;
+								tasks.add(new PathTask(search, extended));
+							}
+						}
+						invokeAll(tasks);
+						cursor[depth - 1] = graph.successorOffsets[u + 1];
+						continue;
+					}
+					int v = graph.successors[cursor[depth - 1]++];
+					if(!onPath[v] && graph.viable[v]){
+						path[depth] = v;
+						cursor[depth] = graph.successorOffsets[v];
+						onPath[v] = true;
+						depth++;
+						if(graph.targets[v]){
+							search.found(path, depth);
+							if(search.stopped.get()){
+								return;
+							}
+						}
+					}
+				} else {
+					onPath[u] = false;
+					depth--;
+				}
+			}
+		}
+	}
+	
 	/**
 	 * Convenience method to make a JGraphT DirectedGraph from a query 
 	 * 
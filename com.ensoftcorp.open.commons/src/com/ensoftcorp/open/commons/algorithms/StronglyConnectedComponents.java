@@ -1,23 +1,15 @@
 package com.ensoftcorp.open.commons.algorithms;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-
-import org.jgrapht.alg.DirectedNeighborIndex;
-import org.jgrapht.alg.KosarajuStrongConnectivityInspector;
-import org.jgrapht.alg.interfaces.StrongConnectivityAlgorithm;
-import org.jgrapht.graph.DirectedPseudograph;
-import org.jgrapht.graph.SimpleDirectedGraph;
-import org.jgrapht.traverse.DepthFirstIterator;
+import java.util.NoSuchElementException;
 
 import com.ensoftcorp.atlas.core.db.graph.Edge;
 import com.ensoftcorp.atlas.core.db.graph.Graph;
-import com.ensoftcorp.atlas.core.db.graph.GraphElement.EdgeDirection;
 import com.ensoftcorp.atlas.core.db.graph.Node;
 import com.ensoftcorp.atlas.core.db.graph.operation.InducedGraph;
 import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
@@ -26,15 +18,73 @@ import com.ensoftcorp.atlas.core.db.set.SingletonAtlasSet;
 import com.ensoftcorp.atlas.core.query.Q;
 
 /**
- * A wrapper for the JGraphT implementation of StronglyConnectedComponent (SCC) computations
- * 
+ * Computes the strongly connected components (SCCs) of a graph
+ *
+ * The graph is snapshotted into dense integer node ids with compressed sparse
+ * row (CSR) successor arrays and the components are found with an iterative
+ * implementation of Tarjan's algorithm, so deep graphs cannot overflow the
+ * call stack. Components are numbered in a topological order of the
+ * condensation DAG (the graph with each component collapsed to a single
+ * node), so every edge between two components goes from a lower component id
+ * to a higher component id.
+ *
  * @author Tom Deering, Ben Holland
  */
 public class StronglyConnectedComponents {
+
+	/**
+	 * Sentinel for an unassigned id
+	 */
+	private static final int NONE = -1;
+
 	private Graph graph;
 	private AtlasSet<Node> nodes;
 	private AtlasSet<Edge> edges;
-	private DirectedPseudograph<Node, Edge> jGraph;
+
+	/**
+	 * Nodes by id
+	 */
+	private Node[] nodesById;
+
+	/**
+	 * Ids by node
+	 */
+	private Map<Node,Integer> ids;
+
+	/**
+	 * CSR successor adjacency
+	 */
+	private int[] successorOffsets;
+	private int[] successors;
+
+	/**
+	 * Component by node id
+	 */
+	private int[] component;
+	private int componentCount;
+
+	/**
+	 * Node ids by component
+	 */
+	private int[] memberOffsets;
+	private int[] members;
+
+	/**
+	 * True if the component contains a cycle (more than one node or a self loop)
+	 */
+	private boolean[] cyclic;
+
+	/**
+	 * CSR adjacency of the condensation DAG, without duplicate edges
+	 */
+	private int[] condensationOffsets;
+	private int[] condensationSuccessors;
+
+	/**
+	 * CSR predecessor adjacency of the condensation DAG, built on demand
+	 */
+	private int[] condensationPredecessorOffsets = null;
+	private int[] condensationPredecessors = null;
 
 	public StronglyConnectedComponents(Graph graph) {
 		this.graph = graph;
@@ -62,20 +112,296 @@ public class StronglyConnectedComponents {
 		this.edges = graph.edges();
 		init();
 	}
-	
+
 	private void init() {
-		jGraph = new DirectedPseudograph<Node, Edge>(Edge.class);
-		for (Node node : nodes) {
-			jGraph.addVertex(node);
+		index();
+		findComponents();
+		condense();
+	}
+
+	/**
+	 * Maps the graph's nodes to dense ids and builds the CSR adjacency arrays
+	 */
+	private void index() {
+		ids = new HashMap<Node,Integer>();
+		List<Node> nodeList = new ArrayList<Node>((int) nodes.size());
+		for(Node node : nodes){
+			ids.put(node, nodeList.size());
+			nodeList.add(node);
+		}
+		nodesById = nodeList.toArray(new Node[nodeList.size()]);
+		int n = nodesById.length;
+		int edgeCount = (int) edges.size();
+		int[] edgeFrom = new int[edgeCount];
+		int[] edgeTo = new int[edgeCount];
+		int e = 0;
+		for(Edge edge : edges){
+			Integer from = ids.get(edge.from());
+			Integer to = ids.get(edge.to());
+			if(from == null || to == null){
+				continue; // dangling edge
+			}
+			edgeFrom[e] = from;
+			edgeTo[e] = to;
+			e++;
+		}
+		successorOffsets = new int[n + 1];
+		for(int i=0; i<e; i++){
+			successorOffsets[edgeFrom[i] + 1]++;
+		}
+		for(int i=0; i<n; i++){
+			successorOffsets[i + 1] += successorOffsets[i];
 		}
-		for (Edge edge : edges) {
-			jGraph.addEdge(edge.from(), edge.to(), edge);
+		successors = new int[e];
+		int[] cursor = Arrays.copyOf(successorOffsets, n);
+		for(int i=0; i<e; i++){
+			successors[cursor[edgeFrom[i]]++] = edgeTo[i];
 		}
 	}
-	
+
+	/**
+	 * Iterative Tarjan's algorithm, each component is completed after every
+	 * component reachable from it so the completion order is a reverse
+	 * topological order
+	 */
+	private void findComponents() {
+		int n = nodesById.length;
+		int[] number = new int[n];
+		Arrays.fill(number, NONE);
+		int[] low = new int[n];
+		component = new int[n];
+		Arrays.fill(component, NONE);
+		boolean[] onStack = new boolean[n];
+		int[] tarjanStack = new int[n];
+		int tsp = 0;
+		int[] callStack = new int[n];
+		int[] cursor = new int[n];
+		int counter = 0;
+		int completed = 0;
+		for(int s=0; s<n; s++){
+			if(number[s] != NONE){
+				continue;
+			}
+			int sp = 0;
+			callStack[sp] = s;
+			cursor[sp] = successorOffsets[s];
+			sp++;
+			number[s] = low[s] = counter++;
+			tarjanStack[tsp++] = s;
+			onStack[s] = true;
+			while(sp > 0){
+				int u = callStack[sp - 1];
+				if(cursor[sp - 1] < successorOffsets[u + 1]){
+					int v = successors[cursor[sp - 1]++];
+					if(number[v] == NONE){
+						number[v] = low[v] = counter++;
+						tarjanStack[tsp++] = v;
+						onStack[v] = true;
+						callStack[sp] = v;
+						cursor[sp] = successorOffsets[v];
+						sp++;
+					} else if(onStack[v]){
+						low[u] = Math.min(low[u], number[v]);
+					}
+				} else {
+					sp--;
+					if(low[u] == number[u]){
+						int member;
+						do {
+							member = tarjanStack[--tsp];
+							onStack[member] = false;
+							component[member] = completed;
+						} while(member != u);
+						completed++;
+					}
+					if(sp > 0){
+						int parent = callStack[sp - 1];
+						low[parent] = Math.min(low[parent], low[u]);
+					}
+				}
+			}
+		}
+
+		// renumber the components in topological order
+		componentCount = completed;
+		for(int i=0; i<n; i++){
+			component[i] = componentCount - 1 - component[i];
+		}
+
+		memberOffsets = new int[componentCount + 1];
+		for(int i=0; i<n; i++){
+			memberOffsets[component[i] + 1]++;
+		}
+		for(int c=0; c<componentCount; c++){
+			memberOffsets[c + 1] += memberOffsets[c];
+		}
+		members = new int[n];
+		int[] memberCursor = Arrays.copyOf(memberOffsets, componentCount);
+		for(int i=0; i<n; i++){
+			members[memberCursor[component[i]]++] = i;
+		}
+	}
+
+	/**
+	 * Builds the condensation DAG and marks the cyclic components
+	 */
+	private void condense() {
+		cyclic = new boolean[componentCount];
+		condensationOffsets = new int[componentCount + 1];
+		int[] condensed = new int[Math.max(16, successors.length)];
+		int size = 0;
+		int[] lastSeen = new int[componentCount];
+		Arrays.fill(lastSeen, NONE);
+		for(int c=0; c<componentCount; c++){
+			condensationOffsets[c] = size;
+			cyclic[c] = memberOffsets[c + 1] - memberOffsets[c] > 1;
+			for(int m=memberOffsets[c]; m<memberOffsets[c + 1]; m++){
+				int u = members[m];
+				for(int s=successorOffsets[u]; s<successorOffsets[u + 1]; s++){
+					int v = successors[s];
+					if(v == u){
+						cyclic[c] = true;
+					}
+					int d = component[v];
+					if(d != c && lastSeen[d] != c){
+						lastSeen[d] = c;
+						condensed[size++] = d;
+					}
+				}
+			}
+		}
+		condensationOffsets[componentCount] = size;
+		condensationSuccessors = Arrays.copyOf(condensed, size);
+	}
+
+	/**
+	 * Builds the predecessor adjacency of the condensation DAG
+	 */
+	private synchronized void buildCondensationPredecessors() {
+		if(condensationPredecessors != null){
+			return;
+		}
+		int[] offsets = new int[componentCount + 1];
+		for(int d : condensationSuccessors){
+			offsets[d + 1]++;
+		}
+		for(int c=0; c<componentCount; c++){
+			offsets[c + 1] += offsets[c];
+		}
+		int[] predecessors = new int[condensationSuccessors.length];
+		int[] cursor = Arrays.copyOf(offsets, componentCount);
+		for(int c=0; c<componentCount; c++){
+			for(int s=condensationOffsets[c]; s<condensationOffsets[c + 1]; s++){
+				predecessors[cursor[condensationSuccessors[s]]++] = c;
+			}
+		}
+		condensationPredecessorOffsets = offsets;
+		condensationPredecessors = predecessors;
+	}
+
+	/**
+	 * Returns the number of strongly connected components
+	 * @return
+	 */
+	public int getComponentCount() {
+		return componentCount;
+	}
+
+	/**
+	 * Returns the component of each node indexed by node id (see getId), the
+	 * returned array must not be modified
+	 * @return
+	 */
+	public int[] getComponentIds() {
+		return component;
+	}
+
+	/**
+	 * Returns the component of the given node or -1 if the node is not in the
+	 * graph
+	 * @param node
+	 * @return
+	 */
+	public int getComponent(Node node) {
+		int id = getId(node);
+		return id == NONE ? NONE : component[id];
+	}
+
+	/**
+	 * Returns the id of the given node or -1 if the node is not in the graph
+	 * @param node
+	 * @return
+	 */
+	public int getId(Node node) {
+		Integer id = ids.get(node);
+		return id == null ? NONE : id;
+	}
+
+	/**
+	 * Returns the node with the given id
+	 * @param id
+	 * @return
+	 */
+	public Node getNode(int id) {
+		return nodesById[id];
+	}
+
+	/**
+	 * Returns the nodes of the given component
+	 * @param component
+	 * @return
+	 */
+	public AtlasSet<Node> getComponentNodes(int component) {
+		AtlasSet<Node> result = new AtlasHashSet<Node>();
+		for(int m=memberOffsets[component]; m<memberOffsets[component + 1]; m++){
+			result.add(nodesById[members[m]]);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of nodes in the given component
+	 * @param component
+	 * @return
+	 */
+	public int getComponentSize(int component) {
+		return memberOffsets[component + 1] - memberOffsets[component];
+	}
+
+	/**
+	 * Returns true if the given component contains a cycle, that is it has
+	 * more than one node or its single node has a self loop
+	 * @param component
+	 * @return
+	 */
+	public boolean isCyclic(int component) {
+		return cyclic[component];
+	}
+
+	/**
+	 * Returns the successors of the given component in the condensation DAG,
+	 * every successor has a higher component id
+	 * @param component
+	 * @return
+	 */
+	public int[] getComponentSuccessors(int component) {
+		return Arrays.copyOfRange(condensationSuccessors, condensationOffsets[component], condensationOffsets[component + 1]);
+	}
+
+	/**
+	 * Returns the predecessors of the given component in the condensation
+	 * DAG, every predecessor has a lower component id
+	 * @param component
+	 * @return
+	 */
+	public int[] getComponentPredecessors(int component) {
+		buildCondensationPredecessors();
+		return Arrays.copyOfRange(condensationPredecessors, condensationPredecessorOffsets[component], condensationPredecessorOffsets[component + 1]);
+	}
+
 	/**
 	 * Returns the graph's strongly-connected-components in the graph.
-	 * 
+	 *
 	 * @return
 	 */
 	public List<AtlasHashSet<Node>> findSCCs() {
@@ -83,33 +409,21 @@ public class StronglyConnectedComponents {
 	}
 
 	/**
-	 * Returns the graph's strongly-connected-components in the graph.
-	 * 
-	 * @param includeSingleElementSCCs If true includes SCCs that consist of a single node
+	 * Returns the graph's strongly-connected-components in the graph, in
+	 * topological order.
+	 *
+	 * @param includeSingleElementSCCs If true includes SCCs that consist of a
+	 *        single node, if false a single node SCC is only included if the
+	 *        node has a self loop (so only the cyclic SCCs are returned)
 	 * @return
 	 */
 	public List<AtlasHashSet<Node>> findSCCs(boolean includeSingleElementSCCs) {
-		// note: we have a choice of algorithms:
-		// GabowStrongConnectivityInspector - Allows obtaining the strongly connected components of a directed graph. 
-		// 									  The implemented algorithm follows Cheriyan-Mehlhorn/Gabow's algorithm 
-		// 									  Presented in Path-based depth-first search for strong and biconnected 
-		// 									  components by Gabow (2000). The running time is order of O(|V|+|E|)
-		// KosarajuStrongConnectivityInspector - Complements the ConnectivityInspector class with the capability to 
-		// 										 compute the strongly connected components of a directed graph. The
-		//										 algorithm is implemented after "Cormen et al: Introduction to algorithms",
-		// 										 Chapter 22.5. It has a running time of O(V + E). Unlike ConnectivityInspector,
-		// 										 this class does not implement incremental inspection. The full algorithm is 
-		// 										 executed at the first call of stronglyConnectedSets() or isStronglyConnected().
-		
-		// FIXME: [jdm] includeSingleElementSCCs==false will exclude SCCs of size one (nodes with a self-edge)
-		
-		StrongConnectivityAlgorithm<Node, Edge> sci = new KosarajuStrongConnectivityInspector<Node, Edge>(jGraph);
-		LinkedList<AtlasHashSet<Node>> result = new LinkedList<AtlasHashSet<Node>>();
-		for(Set<Node> scc : sci.stronglyConnectedSets()){
-			if(includeSingleElementSCCs || scc.size() > 1) {
+		List<AtlasHashSet<Node>> result = new ArrayList<AtlasHashSet<Node>>();
+		for(int c=0; c<componentCount; c++){
+			if(includeSingleElementSCCs || cyclic[c]) {
 				AtlasHashSet<Node> set = new AtlasHashSet<Node>();
-				for(Node node : scc){
-					set.add((Node) node);
+				for(int m=memberOffsets[c]; m<memberOffsets[c + 1]; m++){
+					set.add(nodesById[members[m]]);
 				}
 				result.add(set);
 			}
@@ -118,58 +432,23 @@ public class StronglyConnectedComponents {
 	}
 
 	/**
-	 * Returns the graph's roots, which may be single nodes or else root SCCs.
-	 * 
+	 * Returns the graph's roots, which may be single nodes or else root SCCs
+	 * (components without a predecessor outside of the component).
+	 *
 	 * @return
 	 */
 	public List<AtlasSet<Node>> roots() {
-		List<AtlasSet<Node>> roots = new LinkedList<AtlasSet<Node>>();
-
-		DirectedNeighborIndex<Node, Edge> dni = new DirectedNeighborIndex<Node, Edge>(jGraph);
-
-		// Find single-node roots
-		for (Node node : jGraph.vertexSet()) {
-			if (dni.predecessorsOf(node).isEmpty()) {
-				roots.add(new SingletonAtlasSet<Node>(node));
-			}
-		}
-
-		// note: we have a choice of algorithms:
-		// GabowStrongConnectivityInspector - Allows obtaining the strongly connected components of a directed graph. 
-		// 									  The implemented algorithm follows Cheriyan-Mehlhorn/Gabow's algorithm 
-		// 									  Presented in Path-based depth-first search for strong and biconnected 
-		// 									  components by Gabow (2000). The running time is order of O(|V|+|E|)
-		// KosarajuStrongConnectivityInspector - Complements the ConnectivityInspector class with the capability to 
-		// 										 compute the strongly connected components of a directed graph. The
-		//										 algorithm is implemented after "Cormen et al: Introduction to algorithms",
-		// 										 Chapter 22.5. It has a running time of O(V + E). Unlike ConnectivityInspector,
-		// 										 this class does not implement incremental inspection. The full algorithm is 
-		// 										 executed at the first call of stronglyConnectedSets() or isStronglyConnected().
-		
-		// Find root SCCs which are roots from each SCC, pick one representative
-		StrongConnectivityAlgorithm<Node, Edge> sci = new KosarajuStrongConnectivityInspector<Node, Edge>(jGraph);
-		List<Set<Node>> sccs = sci.stronglyConnectedSets();
-
-		AtlasSet<Node> rootSCCSet = new AtlasHashSet<Node>();
-		for (Set<Node> scc : sccs) {
-			boolean rootSCC = true;
-
-			for (Node node : scc) {
-				if (!scc.containsAll(dni.predecessorsOf(node))) {
-					rootSCC = false;
-					break;
+		buildCondensationPredecessors();
+		List<AtlasSet<Node>> roots = new ArrayList<AtlasSet<Node>>();
+		for(int c=0; c<componentCount; c++){
+			if(condensationPredecessorOffsets[c] == condensationPredecessorOffsets[c + 1]){
+				if(getComponentSize(c) == 1){
+					roots.add(new SingletonAtlasSet<Node>(nodesById[members[memberOffsets[c]]]));
+				} else {
+					roots.add(getComponentNodes(c));
 				}
-				rootSCCSet.add(node);
-			}
-
-			if (rootSCC) {
-				roots.add(rootSCCSet);
-				rootSCCSet = new AtlasHashSet<Node>();
-			} else {
-				rootSCCSet.clear();
 			}
 		}
-
 		return roots;
 	}
 
@@ -177,22 +456,22 @@ public class StronglyConnectedComponents {
 	 * Returns an iterator which iterates over the elements of this graph in a
 	 * forward DFS order, after having identified SCCs and converted the graph
 	 * to a DAG.
-	 * 
+	 *
 	 * @return
 	 */
 	public Iterator<Node> forwardDFSIterator() {
-		return new ConvertedDAG(true).dfsIterator();
+		return dfsIterator(true);
 	}
 
 	/**
 	 * Returns an iterator which iterates over the elements of this graph in a
-	 * forward DFS order, after having identified SCCs and converted the graph
+	 * reverse DFS order, after having identified SCCs and converted the graph
 	 * to a DAG.
-	 * 
+	 *
 	 * @return
 	 */
 	public Iterator<Node> reverseDFSIterator() {
-		return new ConvertedDAG(false).dfsIterator();
+		return dfsIterator(false);
 	}
 
 	public Graph getGraph() {
@@ -207,96 +486,71 @@ public class StronglyConnectedComponents {
 		return edges;
 	}
 
-	private class ConvertedDAG {
-		/**
-		 * Translation from nodes to the SCC that they represent
-		 */
-		private Map<Object, AtlasSet<Node>> convertedToSCC;
-
-		/**
-		 * The DAG after converting SCCs into single collapsed nodes
-		 */
-		private SimpleDirectedGraph<Object, Object> dag;
-
-		public ConvertedDAG(boolean forward) {
-			dag = new SimpleDirectedGraph<Object, Object>(Object.class);
-
-			Set<Node> toConvert = new HashSet<Node>(jGraph.vertexSet());
-			List<AtlasHashSet<Node>> sccs = findSCCs();
-			convertedToSCC = new HashMap<Object, AtlasSet<Node>>(sccs.size());
-			Map<AtlasSet<Node>, Object> sccToConverted = new HashMap<AtlasSet<Node>, Object>(sccs.size());
-			Map<Node, Object> elementToConverted = new HashMap<Node, Object>(toConvert.size());
-
-			/*
-			 * Create the nodes of the new DAG
-			 */
-			for (AtlasSet<Node> scc : sccs) {
-				Object replacement = new Object();
-				dag.addVertex(replacement);
-				convertedToSCC.put(replacement, scc);
-				sccToConverted.put(scc, replacement);
-				for (Node node : scc) {
-					elementToConverted.put(node, replacement);
-					toConvert.remove(node);
+	/**
+	 * Returns an iterator over the nodes in a depth first preorder of the
+	 * condensation DAG (or its reverse), the members of each component are
+	 * returned consecutively
+	 *
+	 * @param forward
+	 * @return
+	 */
+	private Iterator<Node> dfsIterator(boolean forward) {
+		int[] offsets;
+		int[] adjacency;
+		if(forward){
+			offsets = condensationOffsets;
+			adjacency = condensationSuccessors;
+		} else {
+			buildCondensationPredecessors();
+			offsets = condensationPredecessorOffsets;
+			adjacency = condensationPredecessors;
+		}
+		final int[] order = new int[nodesById.length];
+		int size = 0;
+		boolean[] visited = new boolean[componentCount];
+		int[] stack = new int[Math.max(1, adjacency.length + componentCount)];
+		for(int i=0; i<componentCount; i++){
+			// start from the roots of the traversed direction first
+			int start = forward ? i : componentCount - 1 - i;
+			int sp = 0;
+			stack[sp++] = start;
+			while(sp > 0){
+				int c = stack[--sp];
+				if(visited[c]){
+					continue;
 				}
-			}
-
-			for (Node node : toConvert) {
-				dag.addVertex(node);
-			}
-
-			/*
-			 * Create the edges of the new DAG
-			 */
-			EdgeDirection originDirection, destDirection;
-			if (forward) {
-				originDirection = EdgeDirection.FROM;
-				destDirection = EdgeDirection.TO;
-			} else {
-				originDirection = EdgeDirection.TO;
-				destDirection = EdgeDirection.FROM;
-			}
-			for (Edge edge : jGraph.edgeSet()) {
-				Object origin = elementToConverted.get(edge.getNode(originDirection));
-				Object dest = elementToConverted.get(edge.getNode(destDirection));
-				if (origin != dest) {
-					dag.addEdge(origin, dest);
+				visited[c] = true;
+				for(int m=memberOffsets[c]; m<memberOffsets[c + 1]; m++){
+					order[size++] = members[m];
+				}
+				// push in reverse so the first neighbor is visited first
+				for(int a=offsets[c + 1] - 1; a>=offsets[c]; a--){
+					if(!visited[adjacency[a]]){
+						stack[sp++] = adjacency[a];
+					}
 				}
 			}
 		}
+		return new Iterator<Node>() {
+			private int next = 0;
 
-		public Iterator<Node> dfsIterator() {
-			final DepthFirstIterator<Object, Object> dfi = new DepthFirstIterator<Object, Object>(dag);
-
-			return new Iterator<Node>() {
-				Iterator<Node> sccIter;
-
-				@Override
-				public boolean hasNext() {
-					return (sccIter != null && sccIter.hasNext()) || dfi.hasNext();
-				}
+			@Override
+			public boolean hasNext() {
+				return next < order.length;
+			}
 
-				@Override
-				public Node next() {
-					if (sccIter != null && sccIter.hasNext()) {
-						return sccIter.next();
-					}
-					sccIter = null;
-
-					Object next = dfi.next();
-					if (next instanceof Node) {
-						return (Node) next;
-					} else {
-						sccIter = convertedToSCC.get(next).iterator();
-						return sccIter.next();
-					}
+			@Override
+			public Node next() {
+				if(!hasNext()){
+					throw new NoSuchElementException();
 				}
+				return nodesById[order[next++]];
+			}
 
-				@Override
-				public void remove() {
-					throw new UnsupportedOperationException();
-				}
-			};
-		}
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
 	}
-}
\ No newline at end of file
+}
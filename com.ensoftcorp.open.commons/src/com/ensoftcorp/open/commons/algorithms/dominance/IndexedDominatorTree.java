@@ -0,0 +1,445 @@
+package com.ensoftcorp.open.commons.algorithms.dominance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.open.commons.algorithms.UniqueEntryExitGraph;
+
+/**
+ * An implementation of the Lengauer-Tarjan algorithm for building the
+ * <a href="http://en.wikipedia.org/wiki/Dominator_%28graph_theory%29">dominator
+ * tree</a> of a graph that operates entirely over primitive arrays.
+ *
+ * The nodes of the unique entry/exit graph are first mapped to dense integer
+ * ids and the successors of each node are packed into compressed sparse row
+ * (CSR) adjacency arrays. The depth first search, semidominator, ancestor, label, bucket and
+ * immediate dominator state are all int arrays, so the algorithm performs a
+ * constant number of allocations regardless of the size of the graph.
+ *
+ * The same engine computes post-dominance by running over the reversed graph
+ * rooted at the master exit node. The results are equivalent to those of
+ * {@link DominatorTree} and {@link PostDominatorTree}.
+ *
+ * @author Ben Holland
+ */
+public class IndexedDominatorTree {
+
+	/**
+	 * Sentinel for an unassigned id or depth first search number
+	 */
+	private static final int NONE = -1;
+
+	/**
+	 * Nodes by id
+	 */
+	private Node[] nodes;
+
+	/**
+	 * Ids by node
+	 */
+	private Map<Node,Integer> ids;
+
+	/**
+	 * CSR successor adjacency (in the direction of the analysis)
+	 */
+	private int[] successorOffsets;
+	private int[] successors;
+
+	/**
+	 * CSR predecessor adjacency (in the direction of the analysis)
+	 */
+	private int[] predecessorOffsets;
+	private int[] predecessors;
+
+	/**
+	 * Depth first search preorder number by id, NONE if unreachable
+	 */
+	private int[] preorder;
+
+	/**
+	 * Ids by depth first search preorder number
+	 */
+	private int[] vertex;
+
+	/**
+	 * Number of nodes reachable from the root
+	 */
+	private int reachable;
+
+	/**
+	 * Immediate dominator preorder number by preorder number, NONE for the root
+	 */
+	private int[] idom;
+
+	/**
+	 * Immediate dominator map, built on demand.
+	 */
+	private Map<Node,Node> idomMap = null;
+
+	/**
+	 * Dominance frontiers, built on demand.
+	 */
+	private DominatorTree.Multimap<Node> dominanceFrontiers = null;
+
+	/**
+	 * Constructs the dominator tree of the given graph rooted at the master
+	 * entry node
+	 *
+	 * @param graph
+	 */
+	public IndexedDominatorTree(UniqueEntryExitGraph graph) {
+		this(graph, false);
+	}
+
+	/**
+	 * Constructs the dominator tree of the given graph
+	 *
+	 * @param graph
+	 * @param postDominance
+	 *            if true, the post-dominator tree is computed over the reversed
+	 *            graph rooted at the master exit node, otherwise the dominator
+	 *            tree is computed rooted at the master entry node
+	 */
+	public IndexedDominatorTree(UniqueEntryExitGraph graph, boolean postDominance) {
+		index(graph, postDominance);
+		Node root = postDominance ? graph.getExitNode() : graph.getEntryNode();
+		dfs(ids.get(root));
+		computeDominators();
+	}
+
+	/**
+	 * Returns the number of indexed nodes (including unreachable nodes)
+	 * @return
+	 */
+	public int size(){
+		return nodes.length;
+	}
+
+	/**
+	 * Returns the node with the given id
+	 * @param id
+	 * @return
+	 */
+	public Node getNode(int id){
+		return nodes[id];
+	}
+
+	/**
+	 * Returns the id of the given node or -1 if the node is not indexed
+	 * @param node
+	 * @return
+	 */
+	public int getId(Node node){
+		Integer id = ids.get(node);
+		return id == null ? NONE : id;
+	}
+
+	/**
+	 * Returns the id of the immediate dominator of the node with the given
+	 * id, or -1 if the node is the root or is unreachable from the root
+	 *
+	 * @param id
+	 * @return
+	 */
+	public int getIdom(int id){
+		int number = preorder[id];
+		if(number == NONE || idom[number] == NONE){
+			return NONE;
+		}
+		return vertex[idom[number]];
+	}
+
+	/**
+	 * Returns the map of immediate dominators
+	 *
+	 * @return the map from each node to its immediate dominator (if it has one).
+	 */
+	public Map<Node,Node> getIdoms() {
+		if(idomMap == null){
+			idomMap = new HashMap<Node,Node>();
+			for(int i=1; i<reachable; i++){
+				idomMap.put(nodes[vertex[i]], nodes[vertex[idom[i]]]);
+			}
+		}
+		return idomMap;
+	}
+
+	/**
+	 * Compute and/or fetch the dominance frontiers as a Multimap.
+	 *
+	 * Each node y is added to the frontier of every node on the dominator tree
+	 * path from each predecessor of y up to (but excluding) the immediate
+	 * dominator of y.
+	 *
+	 * @return a Multimap where the set of nodes mapped to each key node is the
+	 *         set of nodes in the key node's dominance frontier.
+	 */
+	public DominatorTree.Multimap<Node> getDominanceFrontiers() {
+		if(dominanceFrontiers == null){
+			dominanceFrontiers = new DominatorTree.Multimap<Node>();
+			for(int i=0; i<reachable; i++){
+				int y = vertex[i];
+				Node yNode = nodes[y];
+				dominanceFrontiers.get(yNode); // every reachable node has a (possibly empty) frontier
+				for(int p=predecessorOffsets[y]; p<predecessorOffsets[y+1]; p++){
+					int runner = preorder[predecessors[p]];
+					if(runner == NONE){
+						continue; // unreachable predecessor
+					}
+					while(runner != NONE && runner != idom[i]){
+						dominanceFrontiers.get(nodes[vertex[runner]]).add(yNode);
+						runner = idom[runner];
+					}
+				}
+			}
+		}
+		return dominanceFrontiers;
+	}
+
+	/**
+	 * Maps the graph's nodes to dense ids and builds the CSR adjacency arrays.
+	 * 
+	 * The adjacency is built by walking the successors and predecessors of the
+	 * graph's nodes instead of enumerating the graph's edges, since some
+	 * unique entry/exit graphs (for example a lazily expanded interprocedural
+	 * control flow graph) only answer successor and predecessor queries
+	 * completely.
+	 *
+	 * @param graph
+	 * @param reverse
+	 */
+	private void index(UniqueEntryExitGraph graph, boolean reverse){
+		ids = new HashMap<Node,Integer>();
+		List<Node> nodesById = new ArrayList<Node>((int) graph.nodes().size() + 2);
+		assign(graph.getEntryNode(), nodesById);
+		assign(graph.getExitNode(), nodesById);
+		for(Node node : graph.nodes()){
+			assign(node, nodesById);
+		}
+		
+		// every assigned node is visited once, visiting a node may assign
+		// new ids to its neighbors
+		int[] edgeFrom = new int[nodesById.size() * 2];
+		int[] edgeTo = new int[edgeFrom.length];
+		int e = 0;
+		for(int id=0; id<nodesById.size(); id++){
+			Node node = nodesById.get(id);
+			AtlasSet<Node> nodeSuccessors = reverse ? graph.getPredecessors(node) : graph.getSuccessors(node);
+			AtlasSet<Node> nodePredecessors = reverse ? graph.getSuccessors(node) : graph.getPredecessors(node);
+			for(Node successor : nodeSuccessors){
+				if(e == edgeFrom.length){
+					edgeFrom = Arrays.copyOf(edgeFrom, e * 2);
+					edgeTo = Arrays.copyOf(edgeTo, e * 2);
+				}
+				edgeFrom[e] = id;
+				edgeTo[e] = assign(successor, nodesById);
+				e++;
+			}
+			// predecessors are only discovered here, their edges are added
+			// when the predecessors themselves are visited
+			for(Node predecessor : nodePredecessors){
+				assign(predecessor, nodesById);
+			}
+		}
+		nodes = nodesById.toArray(new Node[nodesById.size()]);
+		int nodeCount = nodes.length;
+
+		successorOffsets = new int[nodeCount + 1];
+		predecessorOffsets = new int[nodeCount + 1];
+		for(int i=0; i<e; i++){
+			successorOffsets[edgeFrom[i] + 1]++;
+			predecessorOffsets[edgeTo[i] + 1]++;
+		}
+		for(int i=0; i<nodeCount; i++){
+			successorOffsets[i + 1] += successorOffsets[i];
+			predecessorOffsets[i + 1] += predecessorOffsets[i];
+		}
+		successors = new int[e];
+		predecessors = new int[e];
+		int[] successorCursor = Arrays.copyOf(successorOffsets, nodeCount);
+		int[] predecessorCursor = Arrays.copyOf(predecessorOffsets, nodeCount);
+		for(int i=0; i<e; i++){
+			successors[successorCursor[edgeFrom[i]]++] = edgeTo[i];
+			predecessors[predecessorCursor[edgeTo[i]]++] = edgeFrom[i];
+		}
+	}
+
+	/**
+	 * Returns the id of the given node, assigning the next id if necessary
+	 */
+	private int assign(Node node, List<Node> nodesById){
+		Integer id = ids.get(node);
+		if(id == null){
+			id = nodesById.size();
+			ids.put(node, id);
+			nodesById.add(node);
+		}
+		return id;
+	}
+
+	/**
+	 * Step 1 of Lengauer-Tarjan, an iterative depth first search that assigns
+	 * preorder numbers and depth first spanning tree parents.
+	 *
+	 * @param root
+	 */
+	private void dfs(int root){
+		int n = nodes.length;
+		preorder = new int[n];
+		Arrays.fill(preorder, NONE);
+		vertex = new int[n];
+		parent = new int[n];
+		int[] stack = new int[n];
+		int[] cursor = new int[n];
+
+		preorder[root] = 0;
+		vertex[0] = root;
+		parent[0] = NONE;
+		reachable = 1;
+		int sp = 0;
+		stack[sp++] = root;
+		cursor[root] = successorOffsets[root];
+		while(sp > 0){
+			int v = stack[sp - 1];
+			if(cursor[v] < successorOffsets[v + 1]){
+				int w = successors[cursor[v]++];
+				if(preorder[w] == NONE){
+					preorder[w] = reachable;
+					vertex[reachable] = w;
+					parent[reachable] = preorder[v];
+					reachable++;
+					cursor[w] = successorOffsets[w];
+					stack[sp++] = w;
+				}
+			} else {
+				sp--;
+			}
+		}
+	}
+
+	/**
+	 * Depth first spanning tree parent preorder numbers by preorder number,
+	 * released after the dominators are computed
+	 */
+	private int[] parent;
+
+	/**
+	 * Semidominator preorder numbers by preorder number
+	 */
+	private int[] semi;
+
+	/**
+	 * Forest ancestors and labels used by the eval/link implementation
+	 */
+	private int[] ancestor;
+	private int[] label;
+
+	/**
+	 * Scratch stack used by path compression
+	 */
+	private int[] compressStack;
+
+	/**
+	 * Steps 2, 3, and 4 of Lengauer-Tarjan. All state is indexed by preorder
+	 * number.
+	 */
+	private void computeDominators(){
+		int n = reachable;
+		semi = new int[n];
+		ancestor = new int[n];
+		label = new int[n];
+		idom = new int[n];
+		compressStack = new int[n];
+		int[] bucketHead = new int[n];
+		int[] bucketNext = new int[n];
+		for(int i=0; i<n; i++){
+			semi[i] = i;
+			label[i] = i;
+			ancestor[i] = NONE;
+			bucketHead[i] = NONE;
+		}
+		idom[0] = NONE;
+
+		for(int w=n-1; w>0; w--){
+			int p = parent[w];
+
+			// step 2: compute semidominators
+			int id = vertex[w];
+			for(int i=predecessorOffsets[id]; i<predecessorOffsets[id + 1]; i++){
+				int v = preorder[predecessors[i]];
+				if(v == NONE){
+					continue; // unreachable predecessor
+				}
+				int u = eval(v);
+				if(semi[u] < semi[w]){
+					semi[w] = semi[u];
+				}
+			}
+			bucketNext[w] = bucketHead[semi[w]];
+			bucketHead[semi[w]] = w;
+
+			// link w into the forest via its parent, p
+			ancestor[w] = p;
+
+			// step 3: implicitly compute idominators
+			for(int v=bucketHead[p]; v!=NONE; v=bucketNext[v]){
+				int u = eval(v);
+				idom[v] = (semi[u] < semi[v]) ? u : p;
+			}
+			bucketHead[p] = NONE;
+		}
+
+		// step 4: explicitly compute idominators
+		for(int w=1; w<n; w++){
+			if(idom[w] != semi[w]){
+				idom[w] = idom[idom[w]];
+			}
+		}
+
+		// release the working state
+		parent = null;
+		semi = null;
+		ancestor = null;
+		label = null;
+		compressStack = null;
+	}
+
+	/**
+	 * Returns the vertex with the least semidominator on the forest path from
+	 * the root of v's tree to v (excluding the root), or v if v is a root.
+	 */
+	private int eval(int v){
+		if(ancestor[v] == NONE){
+			return v;
+		}
+		compress(v);
+		return label[v];
+	}
+
+	/**
+	 * Iterative path compression, propagates the least semidominator label
+	 * from the top of the forest path down to v.
+	 */
+	private void compress(int v){
+		int sp = 0;
+		int x = v;
+		while(ancestor[ancestor[x]] != NONE){
+			compressStack[sp++] = x;
+			x = ancestor[x];
+		}
+		while(sp > 0){
+			x = compressStack[--sp];
+			int a = ancestor[x];
+			if(semi[label[a]] < semi[label[x]]){
+				label[x] = label[a];
+			}
+			ancestor[x] = ancestor[a];
+		}
+	}
+
+}
@@ -0,0 +1,503 @@
+package com.ensoftcorp.open.commons.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.indexing.IIndexListener;
+import com.ensoftcorp.atlas.core.indexing.IndexingUtil;
+import com.ensoftcorp.atlas.core.query.Query;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+import com.ensoftcorp.open.commons.analysis.CallSiteAnalysis.LanguageSpecificCallSiteAnalysis;
+import com.ensoftcorp.open.commons.log.Log;
+import com.ensoftcorp.open.commons.preferences.CommonsPreferences;
+
+/**
+ * An opt-in, index scoped table of the resolved targets of every call site and
+ * the resolved call sites of every function, used by {@link CallSiteAnalysis}
+ * when enabled.
+ *
+ * The table is built on first use in a single pass over the call sites and
+ * functions of the index, grouped by language and resolved by the registered
+ * language specific call site analyses on a pool of worker threads. The
+ * resolutions are stored as compressed sparse row (CSR) int arrays, so
+ * answering a query is an array lookup. Call sites and functions that are not
+ * in the table (for example because their language has no registered
+ * analysis) are resolved on demand as before. The table is discarded whenever
+ * the index changes.
+ *
+ * @author Ben Holland
+ */
+public final class CallResolutionTable {
+
+	// hide constructor
+	private CallResolutionTable() {}
+
+	/**
+	 * The number of call sites or functions resolved by each worker task
+	 */
+	private static final int CHUNK_SIZE = 1024;
+
+	private static volatile Table table = null;
+
+	/**
+	 * Incremented whenever the table is invalidated, so that a table built
+	 * while the index changed is discarded
+	 */
+	private static final AtomicLong generation = new AtomicLong(0);
+
+	/**
+	 * The generation in which building the table failed or was invalidated,
+	 * call sites are resolved on demand until the next invalidation
+	 */
+	private static volatile long failedGeneration = -1;
+
+	private static final AtomicLong hits = new AtomicLong(0);
+	private static final AtomicLong misses = new AtomicLong(0);
+	private static final AtomicLong builds = new AtomicLong(0);
+	private static volatile long lastBuildTime = 0;
+
+	private static IIndexListener indexListener = null;
+
+	/**
+	 * The resolved call sites and functions of the index
+	 */
+	private static final class Table {
+		private final Node[] functions;
+		private final Map<Node,Integer> functionIds;
+		private final Node[] callSites;
+		private final Map<Node,Integer> callSiteIds;
+
+		/**
+		 * CSR target function ids by call site id
+		 */
+		private final int[] targetOffsets;
+		private final int[] targets;
+
+		/**
+		 * CSR call site ids by function id
+		 */
+		private final int[] callSiteOffsets;
+		private final int[] functionCallSites;
+
+		private Table(Node[] functions, Map<Node,Integer> functionIds, Node[] callSites, Map<Node,Integer> callSiteIds,
+				int[] targetOffsets, int[] targets, int[] callSiteOffsets, int[] functionCallSites){
+			this.functions = functions;
+			this.functionIds = functionIds;
+			this.callSites = callSites;
+			this.callSiteIds = callSiteIds;
+			this.targetOffsets = targetOffsets;
+			this.targets = targets;
+			this.callSiteOffsets = callSiteOffsets;
+			this.functionCallSites = functionCallSites;
+		}
+	}
+
+	/**
+	 * Returns true if the call resolution table is enabled
+	 * @return
+	 */
+	public static boolean isEnabled(){
+		return CommonsPreferences.isCallResolutionTableEnabled();
+	}
+
+	/**
+	 * Adds the resolved targets of the call site to the given set
+	 * @param callSite
+	 * @param result
+	 * @return true if the call site was resolved by the table, false if the
+	 *         call site must be resolved on demand
+	 */
+	public static boolean addTargets(Node callSite, AtlasSet<Node> result){
+		Table current = getTable();
+		Integer id = current == null ? null : current.callSiteIds.get(callSite);
+		if(id == null){
+			misses.incrementAndGet();
+			return false;
+		}
+		hits.incrementAndGet();
+		for(int i=current.targetOffsets[id]; i<current.targetOffsets[id + 1]; i++){
+			result.add(current.functions[current.targets[i]]);
+		}
+		return true;
+	}
+
+	/**
+	 * Adds the resolved call sites of the function to the given set
+	 * @param function
+	 * @param result
+	 * @return true if the function was resolved by the table, false if the
+	 *         function must be resolved on demand
+	 */
+	public static boolean addCallSites(Node function, AtlasSet<Node> result){
+		Table current = getTable();
+		Integer id = current == null ? null : current.functionIds.get(function);
+		if(id == null){
+			misses.incrementAndGet();
+			return false;
+		}
+		hits.incrementAndGet();
+		for(int i=current.callSiteOffsets[id]; i<current.callSiteOffsets[id + 1]; i++){
+			result.add(current.callSites[current.functionCallSites[i]]);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the table, building it if necessary. A build is attempted at
+	 * most once per generation, if it fails or the index changes while it is
+	 * being built the table is not built again until the next invalidation.
+	 * 
+	 * @return the table or null if it could not be built
+	 */
+	private static Table getTable(){
+		Table current = table;
+		if(current != null){
+			return current;
+		}
+		if(failedGeneration == generation.get()){
+			return null;
+		}
+		registerIndexListener();
+		synchronized (CallResolutionTable.class){
+			if(table == null){
+				long buildGeneration = generation.get();
+				if(failedGeneration == buildGeneration){
+					return null;
+				}
+				long start = System.currentTimeMillis();
+				Table built;
+				try {
+					built = build(CommonsPreferences.getCallResolutionTableParallelism());
+				} catch (Exception e){
+					Log.error("Error building the call resolution table, call sites will be resolved on demand", e);
+					failedGeneration = buildGeneration;
+					return null;
+				}
+				lastBuildTime = System.currentTimeMillis() - start;
+				builds.incrementAndGet();
+				table = built;
+				if(generation.get() != buildGeneration){
+					// the index changed while the table was being built, it is
+					// likely still changing so resolve on demand until the
+					// next invalidation instead of rebuilding on every call
+					table = null;
+					failedGeneration = generation.get();
+					return null;
+				}
+			}
+			return table;
+		}
+	}
+
+	/**
+	 * Resolves every call site and function of the index
+	 * @param parallelism
+	 * @return
+	 */
+	private static Table build(int parallelism) throws InterruptedException, ExecutionException {
+		AtlasSet<Node> universeFunctions = Query.universe().nodes(XCSG.Function).eval().nodes();
+		AtlasSet<Node> universeCallSites = Query.universe().nodes(XCSG.CallSite).eval().nodes();
+
+		// functions are numbered in iteration order so that targets of any
+		// language can be recorded
+		Node[] functions = new Node[(int) universeFunctions.size()];
+		Map<Node,Integer> functionIds = new HashMap<Node,Integer>(functions.length * 2);
+		int functionCount = 0;
+		for(Node function : universeFunctions){
+			functions[functionCount] = function;
+			functionIds.put(function, functionCount++);
+		}
+
+		// call sites and functions are grouped by language, and only those
+		// with a registered language specific analysis are resolved
+		Map<String,List<Node>> callSitesByLanguage = groupByLanguage(universeCallSites);
+		Map<String,List<Node>> functionsByLanguage = groupByLanguage(universeFunctions);
+		List<Node> resolvedCallSites = new ArrayList<Node>();
+		List<Node> resolvedFunctions = new ArrayList<Node>();
+		List<ResolutionTask> tasks = new ArrayList<ResolutionTask>();
+		for(Map.Entry<String,List<Node>> entry : callSitesByLanguage.entrySet()){
+			LanguageSpecificCallSiteAnalysis analysis = getAnalysis(entry.getKey());
+			if(analysis != null){
+				int offset = resolvedCallSites.size();
+				resolvedCallSites.addAll(entry.getValue());
+				for(int i=0; i<entry.getValue().size(); i+=CHUNK_SIZE){
+					tasks.add(new ResolutionTask(analysis, true, resolvedCallSites, offset + i, offset + Math.min(i + CHUNK_SIZE, entry.getValue().size())));
+				}
+			}
+		}
+		for(Map.Entry<String,List<Node>> entry : functionsByLanguage.entrySet()){
+			LanguageSpecificCallSiteAnalysis analysis = getAnalysis(entry.getKey());
+			if(analysis != null){
+				int offset = resolvedFunctions.size();
+				resolvedFunctions.addAll(entry.getValue());
+				for(int i=0; i<entry.getValue().size(); i+=CHUNK_SIZE){
+					tasks.add(new ResolutionTask(analysis, false, resolvedFunctions, offset + i, offset + Math.min(i + CHUNK_SIZE, entry.getValue().size())));
+				}
+			}
+		}
+
+		// call sites are numbered in resolution order
+		Node[] callSites = resolvedCallSites.toArray(new Node[resolvedCallSites.size()]);
+		Map<Node,Integer> callSiteIds = new HashMap<Node,Integer>(callSites.length * 2);
+		for(int i=0; i<callSites.length; i++){
+			callSiteIds.put(callSites[i], i);
+		}
+
+		// resolve the call sites and functions, each task resolves a chunk of
+		// a single language
+		if(parallelism > 1 && tasks.size() > 1){
+			ForkJoinPool workers = new ForkJoinPool(parallelism);
+			try {
+				List<Future<Node[][]>> futures = new ArrayList<Future<Node[][]>>(tasks.size());
+				for(ResolutionTask task : tasks){
+					futures.add(workers.submit(task));
+				}
+				for(int i=0; i<tasks.size(); i++){
+					tasks.get(i).resolutions = futures.get(i).get();
+				}
+			} finally {
+				workers.shutdownNow();
+				workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			}
+		} else {
+			for(ResolutionTask task : tasks){
+				task.resolutions = task.call();
+			}
+		}
+
+		// pack the resolutions into CSR arrays
+		int[] targetOffsets = new int[callSites.length + 1];
+		int[] callSiteOffsets = new int[functions.length + 1];
+		IntList targets = new IntList();
+		IntList functionCallSites = new IntList();
+		int[][] functionCallSiteIds = new int[functions.length][];
+		for(ResolutionTask task : tasks){
+			for(int i=0; i<task.resolutions.length; i++){
+				int node = task.start + i;
+				if(task.callSites){
+					for(Node target : task.resolutions[i]){
+						Integer targetId = functionIds.get(target);
+						if(targetId != null){
+							targets.add(targetId);
+						}
+					}
+					targetOffsets[node + 1] = targets.size();
+				} else {
+					IntList ids = new IntList();
+					for(Node callSite : task.resolutions[i]){
+						Integer callSiteId = callSiteIds.get(callSite);
+						if(callSiteId == null){
+							// a call site of a language without a registered analysis
+							// can not be represented, so the function is resolved on demand
+							ids = null;
+							break;
+						}
+						ids.add(callSiteId);
+					}
+					functionCallSiteIds[functionIds.get(resolvedFunctions.get(node))] = ids == null ? null : ids.toArray();
+				}
+			}
+		}
+		Map<Node,Integer> resolvedFunctionIds = new HashMap<Node,Integer>(functions.length * 2);
+		for(int id=0; id<functions.length; id++){
+			if(functionCallSiteIds[id] != null){
+				resolvedFunctionIds.put(functions[id], id);
+				for(int callSiteId : functionCallSiteIds[id]){
+					functionCallSites.add(callSiteId);
+				}
+			}
+			callSiteOffsets[id + 1] = functionCallSites.size();
+		}
+		return new Table(functions, resolvedFunctionIds, callSites, callSiteIds,
+				targetOffsets, targets.toArray(), callSiteOffsets, functionCallSites.toArray());
+	}
+
+	/**
+	 * Resolves the targets of a range of call sites or the call sites of a
+	 * range of functions of a single language
+	 */
+	private static final class ResolutionTask implements Callable<Node[][]> {
+		private final LanguageSpecificCallSiteAnalysis analysis;
+		private final boolean callSites;
+		private final List<Node> nodes;
+		private final int start;
+		private final int end;
+		private Node[][] resolutions;
+
+		private ResolutionTask(LanguageSpecificCallSiteAnalysis analysis, boolean callSites, List<Node> nodes, int start, int end){
+			this.analysis = analysis;
+			this.callSites = callSites;
+			this.nodes = nodes;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public Node[][] call() {
+			Node[][] result = new Node[end - start][];
+			for(int i=start; i<end; i++){
+				AtlasSet<Node> resolved = callSites ? analysis.getTargets(nodes.get(i)) : analysis.getCallSites(nodes.get(i));
+				Node[] resolvedNodes = new Node[(int) resolved.size()];
+				int j = 0;
+				for(Node node : resolved){
+					resolvedNodes[j++] = node;
+				}
+				result[i - start] = resolvedNodes;
+			}
+			return result;
+		}
+	}
+
+	private static Map<String,List<Node>> groupByLanguage(AtlasSet<Node> nodes){
+		Map<String,List<Node>> nodesByLanguage = new LinkedHashMap<String,List<Node>>();
+		for(Node node : nodes){
+			String language = CallSiteAnalysis.getLanguage(node);
+			if(language != null){
+				List<Node> languageNodes = nodesByLanguage.get(language);
+				if(languageNodes == null){
+					languageNodes = new ArrayList<Node>();
+					nodesByLanguage.put(language, languageNodes);
+				}
+				languageNodes.add(node);
+			}
+		}
+		return nodesByLanguage;
+	}
+
+	private static LanguageSpecificCallSiteAnalysis getAnalysis(String language){
+		try {
+			return CallSiteAnalysis.getLanguageSpecificCallSiteAnalysis(language);
+		} catch (RuntimeException e){
+			// resolved on demand, which reports the missing analysis
+			return null;
+		}
+	}
+
+	/**
+	 * A growable array of ints
+	 */
+	private static final class IntList {
+		private int[] values = new int[16];
+		private int size = 0;
+
+		private void add(int value){
+			if(size == values.length){
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		private int size(){
+			return size;
+		}
+
+		private int[] toArray(){
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * Discards the table, it will be rebuilt on next use
+	 */
+	public static void clear(){
+		// not synchronized so that index listeners are not blocked by a build,
+		// a build that overlaps a clear discards its table
+		generation.incrementAndGet();
+		table = null;
+	}
+
+	/**
+	 * Returns true if the table has been built for the current index
+	 * @return
+	 */
+	public static boolean isBuilt(){
+		return table != null;
+	}
+
+	public static long getHitCount(){
+		return hits.get();
+	}
+
+	public static long getMissCount(){
+		return misses.get();
+	}
+
+	public static long getBuildCount(){
+		return builds.get();
+	}
+
+	/**
+	 * Resets the hit, miss and build counters
+	 */
+	public static void resetStatistics(){
+		hits.set(0);
+		misses.set(0);
+		builds.set(0);
+	}
+
+	/**
+	 * Returns a summary of the table statistics
+	 * @return
+	 */
+	public static String getStatistics(){
+		Table current = table;
+		long hitCount = hits.get();
+		long missCount = misses.get();
+		long requests = hitCount + missCount;
+		double hitRate = requests == 0 ? 0.0 : (100.0 * hitCount / requests);
+		return "Call Resolution Table [call sites: " + (current == null ? 0 : current.callSites.length)
+				+ ", targets: " + (current == null ? 0 : current.targets.length)
+				+ ", builds: " + builds.get()
+				+ ", last build: " + lastBuildTime + "ms"
+				+ ", hits: " + hitCount
+				+ ", misses: " + missCount
+				+ ", hit rate: " + String.format("%.2f", hitRate) + "%]";
+	}
+
+	/**
+	 * Registers an index listener that clears the table when the index changes
+	 */
+	private static synchronized void registerIndexListener(){
+		if(indexListener == null){
+			indexListener = new IIndexListener(){
+				@Override
+				public void indexOperationCancelled(IndexOperation op) {
+					clear();
+				}
+
+				@Override
+				public void indexOperationComplete(IndexOperation op) {
+					// resolutions made while the index was being built may be incomplete
+					clear();
+				}
+
+				@Override
+				public void indexOperationError(IndexOperation op, Throwable error) {
+					clear();
+				}
+
+				@Override
+				public void indexOperationScheduled(IndexOperation op) {}
+
+				@Override
+				public void indexOperationStarted(IndexOperation op) {
+					clear();
+				}
+			};
+			IndexingUtil.addListener(indexListener);
+		}
+	}
+
+}
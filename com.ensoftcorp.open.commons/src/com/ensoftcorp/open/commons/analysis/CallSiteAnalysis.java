@@ -1,8 +1,8 @@
 package com.ensoftcorp.open.commons.analysis;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.ensoftcorp.atlas.core.db.graph.Node;
 import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
@@ -31,7 +31,8 @@ public class CallSiteAnalysis {
 		public abstract AtlasSet<Node> getCallSites(Node function);
 	}
 	
-	private static Map<String,LanguageSpecificCallSiteAnalysis> analysisMap = new HashMap<String,LanguageSpecificCallSiteAnalysis>();
+	// populated lazily, possibly by several ICFG construction workers at once
+	private static Map<String,LanguageSpecificCallSiteAnalysis> analysisMap = new ConcurrentHashMap<String,LanguageSpecificCallSiteAnalysis>();
 	
 	/**
 	 * Returns the set of target functions that the given call sites could resolve to
@@ -49,8 +50,11 @@ public class CallSiteAnalysis {
 	 */
 	public static AtlasSet<Node> getTargets(AtlasSet<Node> callSites){
 		AtlasSet<Node> targets = new AtlasHashSet<Node>();
+		boolean useTable = CallResolutionTable.isEnabled();
 		for(Node callsite : callSites){
-			targets.addAll(getTargets(callsite));
+			if(!useTable || !CallResolutionTable.addTargets(callsite, targets)){
+				targets.addAll(resolveTargets(callsite));
+			}
 		}
 		return targets;
 	}
@@ -62,6 +66,21 @@ public class CallSiteAnalysis {
 	 * @return
 	 */
 	public static AtlasSet<Node> getTargets(Node callSite){
+		if(CallResolutionTable.isEnabled()){
+			AtlasSet<Node> targets = new AtlasHashSet<Node>();
+			if(CallResolutionTable.addTargets(callSite, targets)){
+				return targets;
+			}
+		}
+		return resolveTargets(callSite);
+	}
+	
+	/**
+	 * Resolves the targets of a call site using the language specific analysis
+	 * @param callSite
+	 * @return
+	 */
+	private static AtlasSet<Node> resolveTargets(Node callSite){
 		String language = getRequestedLanguage(callSite);
 		LanguageSpecificCallSiteAnalysis analysis = getLanguageSpecificCallSiteAnalysis(language);
 		return analysis.getTargets(callSite);
@@ -74,8 +93,11 @@ public class CallSiteAnalysis {
 	 */
 	public static AtlasSet<Node> getCallSites(AtlasSet<Node> functions) {
 		AtlasSet<Node> callSites = new AtlasHashSet<Node>();
+		boolean useTable = CallResolutionTable.isEnabled();
 		for (Node function : functions) {
-			callSites.addAll(getCallSites(function));
+			if(!useTable || !CallResolutionTable.addCallSites(function, callSites)){
+				callSites.addAll(resolveCallSites(function));
+			}
 		}
 		return callSites;
 	}
@@ -95,6 +117,21 @@ public class CallSiteAnalysis {
 	 * @return
 	 */
 	public static AtlasSet<Node> getCallSites(Node function){
+		if(CallResolutionTable.isEnabled()){
+			AtlasSet<Node> callSites = new AtlasHashSet<Node>();
+			if(CallResolutionTable.addCallSites(function, callSites)){
+				return callSites;
+			}
+		}
+		return resolveCallSites(function);
+	}
+	
+	/**
+	 * Resolves the call sites of a function using the language specific analysis
+	 * @param function
+	 * @return
+	 */
+	private static AtlasSet<Node> resolveCallSites(Node function){
 		String language = getRequestedLanguage(function);
 		LanguageSpecificCallSiteAnalysis analysis = getLanguageSpecificCallSiteAnalysis(language);
 		return analysis.getCallSites(function);
@@ -105,6 +142,7 @@ public class CallSiteAnalysis {
 	 */
 	public static void clearLanguageSpecificCallSiteAnalyzerCache(){
 		analysisMap.clear();
+		CallResolutionTable.clear();
 	}
 	
 	/**
@@ -112,9 +150,10 @@ public class CallSiteAnalysis {
 	 * @param language
 	 * @return
 	 */
-	private static LanguageSpecificCallSiteAnalysis getLanguageSpecificCallSiteAnalysis(String language) {
-		if(analysisMap.containsKey(language)){
-			return analysisMap.get(language);
+	/*package*/ static LanguageSpecificCallSiteAnalysis getLanguageSpecificCallSiteAnalysis(String language) {
+		LanguageSpecificCallSiteAnalysis cachedAnalysis = analysisMap.get(language);
+		if(cachedAnalysis != null){
+			return cachedAnalysis;
 		}
 		@SuppressWarnings("unchecked")
 		Set<LanguageSpecificCallSiteAnalysis> callSiteAnalyses = (Set<LanguageSpecificCallSiteAnalysis>) 
@@ -126,8 +165,8 @@ public class CallSiteAnalysis {
 			throw new RuntimeException("Multiple language specific call site analyses for " + language + " have been registered.");
 		}
 		LanguageSpecificCallSiteAnalysis analysis = callSiteAnalyses.iterator().next();
-		analysisMap.put(language, analysis);
-		return analysis;
+		cachedAnalysis = analysisMap.putIfAbsent(language, analysis);
+		return cachedAnalysis != null ? cachedAnalysis : analysis;
 	}
 	
 	/**
@@ -136,6 +175,20 @@ public class CallSiteAnalysis {
 	 * @return
 	 */
 	private static String getRequestedLanguage(Node node){
+		String language = getLanguage(node);
+		if(language == null){
+			throw new RuntimeException("Unknown language type");
+		}
+		return language;
+	}
+	
+	/**
+	 * Returns the language of the given node (a call site or function) or null
+	 * if the language is not supported
+	 * @param node
+	 * @return
+	 */
+	/*package*/ static String getLanguage(Node node){
 		if(node.taggedWith(XCSG.Language.Java)){
 			return XCSG.Language.Java;
 		} 
@@ -148,7 +201,7 @@ public class CallSiteAnalysis {
 		if(node.taggedWith(XCSG.Language.CPP)){
 			return XCSG.Language.CPP;
 		}
-		throw new RuntimeException("Unknown language type");
+		return null;
 	}
 	
 }
@@ -20,6 +20,7 @@ import com.ensoftcorp.atlas.core.query.Q;
 import com.ensoftcorp.atlas.core.query.Query;
 import com.ensoftcorp.atlas.core.script.Common;
 import com.ensoftcorp.atlas.core.xcsg.XCSG;
+import com.ensoftcorp.open.commons.algorithms.LeastCommonAncestors;
 
 /**
  * Common queries which are useful for writing larger language agnostic analysis
@@ -224,7 +225,7 @@ public final class CommonQueries {
 	 * @return the query expression
 	 */
 	public static Q nodesContaining(String substring){
-		return nodesMatchingRegex(Query.universe(), ".*" + Pattern.quote(substring) + ".*");
+		return nodesAttributeValuesContaining(XCSG.name, substring);
 	}
 	
 	/**
@@ -236,7 +237,7 @@ public final class CommonQueries {
 	 * @return the query expression
 	 */
 	public static Q nodesContaining(Q context, String substring){
-		return nodesMatchingRegex(context, ".*" + Pattern.quote(substring) + ".*");
+		return nodesAttributeValuesContaining(context, XCSG.name, substring);
 	}
 	
 	/**
@@ -248,7 +249,7 @@ public final class CommonQueries {
 	 * @return the query expression
 	 */
 	public static Q nodesEndingWith(String suffix){
-		return nodesMatchingRegex(Query.universe(), ".*" + Pattern.quote(suffix));
+		return nodesAttributeValuesEndingWith(XCSG.name, suffix);
 	}
 	
 	/**
@@ -260,7 +261,7 @@ public final class CommonQueries {
 	 * @return the query expression
 	 */
 	public static Q nodesEndingWith(Q context, String suffix){
-		return nodesMatchingRegex(context, ".*" + Pattern.quote(suffix));
+		return nodesAttributeValuesEndingWith(context, XCSG.name, suffix);
 	}
 	
 	/**
@@ -272,7 +273,7 @@ public final class CommonQueries {
 	 * @return the query expression
 	 */
 	public static Q nodesMatchingRegex(String regex){
-		return nodesMatchingRegex(Query.universe(), regex);
+		return nodesAttributeValuesMatchingRegex(XCSG.name, regex);
 	}
 	
 	/**
@@ -284,7 +285,7 @@ public final class CommonQueries {
 	 * @return the query expression
 	 */
 	public static Q nodesStartingWith(String prefix){
-		return nodesMatchingRegex(Query.universe(), Pattern.quote(prefix) + ".*");
+		return nodesAttributeValuesStartingWith(XCSG.name, prefix);
 	}
 	
 	/**
@@ -296,7 +297,7 @@ public final class CommonQueries {
 	 * @return the query expression
 	 */
 	public static Q nodesStartingWith(Q context, String prefix){
-		return nodesMatchingRegex(context, Pattern.quote(prefix) + ".*");
+		return nodesAttributeValuesStartingWith(context, XCSG.name, prefix);
 	}
 	
 	/**
@@ -320,7 +321,11 @@ public final class CommonQueries {
 	 * @return the query expression
 	 */
 	public static Q nodesAttributeValuesContaining(String attribute, String substring){
-		return nodesAttributeValuesMatchingRegex(Query.universe(), attribute, ".*" + Pattern.quote(substring) + ".*");
+		AtlasSet<Node> indexed = NameIndex.getNodesContaining(attribute, substring);
+		if(indexed != null){
+			return Common.toQ(new NodeGraph(indexed));
+		}
+		return scanAttributeValues(Query.universe(), attribute, ".*" + Pattern.quote(substring) + ".*");
 	}
 	
 	/**
@@ -332,7 +337,11 @@ public final class CommonQueries {
 	 * @return the query expression
 	 */
 	public static Q nodesAttributeValuesContaining(Q context, String attribute, String substring){
-		return nodesAttributeValuesMatchingRegex(context, attribute, ".*" + Pattern.quote(substring) + ".*");
+		AtlasSet<Node> indexed = NameIndex.getNodesContaining(attribute, substring);
+		if(indexed != null){
+			return retainContext(context, indexed);
+		}
+		return scanAttributeValues(context, attribute, ".*" + Pattern.quote(substring) + ".*");
 	}
 	
 	/**
@@ -344,7 +353,11 @@ public final class CommonQueries {
 	 * @return the query expression
 	 */
 	public static Q nodesAttributeValuesEndingWith(String attribute, String suffix){
-		return nodesAttributeValuesMatchingRegex(Query.universe(), attribute, ".*" + Pattern.quote(suffix));
+		AtlasSet<Node> indexed = NameIndex.getNodesEndingWith(attribute, suffix);
+		if(indexed != null){
+			return Common.toQ(new NodeGraph(indexed));
+		}
+		return scanAttributeValues(Query.universe(), attribute, ".*" + Pattern.quote(suffix));
 	}
 	
 	/**
@@ -356,7 +369,11 @@ public final class CommonQueries {
 	 * @return the query expression
 	 */
 	public static Q nodesAttributeValuesEndingWith(Q context, String attribute, String suffix){
-		return nodesAttributeValuesMatchingRegex(context, attribute, ".*" + Pattern.quote(suffix));
+		AtlasSet<Node> indexed = NameIndex.getNodesEndingWith(attribute, suffix);
+		if(indexed != null){
+			return retainContext(context, indexed);
+		}
+		return scanAttributeValues(context, attribute, ".*" + Pattern.quote(suffix));
 	}
 	
 	/**
@@ -368,7 +385,11 @@ public final class CommonQueries {
 	 * @return the query expression
 	 */
 	public static Q nodesAttributeValuesMatchingRegex(String attribute, String regex){
-		return nodesAttributeValuesMatchingRegex(Query.universe(), attribute, regex);
+		AtlasSet<Node> indexed = NameIndex.getNodesMatchingRegex(attribute, regex);
+		if(indexed != null){
+			return Common.toQ(new NodeGraph(indexed));
+		}
+		return scanAttributeValues(Query.universe(), attribute, regex);
 	}
 	
 	/**
@@ -380,7 +401,11 @@ public final class CommonQueries {
 	 * @return the query expression
 	 */
 	public static Q nodesAttributeValuesStartingWith(String attribute, String prefix){
-		return nodesAttributeValuesMatchingRegex(Query.universe(), attribute, Pattern.quote(prefix) + ".*");
+		AtlasSet<Node> indexed = NameIndex.getNodesStartingWith(attribute, prefix);
+		if(indexed != null){
+			return Common.toQ(new NodeGraph(indexed));
+		}
+		return scanAttributeValues(Query.universe(), attribute, Pattern.quote(prefix) + ".*");
 	}
 	
 	/**
@@ -392,7 +417,11 @@ public final class CommonQueries {
 	 * @return the query expression
 	 */
 	public static Q nodesAttributeValuesStartingWith(Q context, String attribute, String prefix){
-		return nodesAttributeValuesMatchingRegex(context, attribute, Pattern.quote(prefix) + ".*");
+		AtlasSet<Node> indexed = NameIndex.getNodesStartingWith(attribute, prefix);
+		if(indexed != null){
+			return retainContext(context, indexed);
+		}
+		return scanAttributeValues(context, attribute, Pattern.quote(prefix) + ".*");
 	}
 	
 	/**
@@ -404,6 +433,23 @@ public final class CommonQueries {
 	 * @return the query expression
 	 */
 	public static Q nodesAttributeValuesMatchingRegex(Q context, String attribute, String regex){
+		AtlasSet<Node> indexed = NameIndex.getNodesMatchingRegex(attribute, regex);
+		if(indexed != null){
+			return retainContext(context, indexed);
+		}
+		return scanAttributeValues(context, attribute, regex);
+	}
+	
+	/**
+	 * Returns the nodes of the given context whose attribute values match the
+	 * given regular expression by checking the value of every node
+	 * 
+	 * @param context
+	 * @param attribute
+	 * @param regex
+	 * @return the query expression
+	 */
+	private static Q scanAttributeValues(Q context, String attribute, String regex){
 		AtlasSet<Node> result = new AtlasHashSet<Node>();
 		Iterator<Node> iterator = context.eval().nodes().iterator();
 		while (iterator.hasNext()) {
@@ -421,6 +467,24 @@ public final class CommonQueries {
 		return Common.toQ(new NodeGraph(result));
 	}
 	
+	/**
+	 * Returns the name index results that are contained in the given context
+	 * 
+	 * @param context
+	 * @param indexed
+	 * @return the query expression
+	 */
+	private static Q retainContext(Q context, AtlasSet<Node> indexed){
+		AtlasSet<Node> contextNodes = context.eval().nodes();
+		AtlasSet<Node> result = new AtlasHashSet<Node>();
+		for(Node node : indexed){
+			if(contextNodes.contains(node)){
+				result.add(node);
+			}
+		}
+		return Common.toQ(new NodeGraph(result));
+	}
+	
 	/**
 	 * Returns the number of edges contained.
 	 * @param toCount
@@ -655,6 +719,9 @@ public final class CommonQueries {
 	 * @return the data flow graph under the function
 	 */
 	public static Q dfg(Node function) {
+		if(FunctionGraphCache.isEnabled()){
+			return Common.toQ(FunctionGraphCache.dfg(function));
+		}
 		return dfg(Common.toQ(function));
 	}
 	
@@ -673,6 +740,9 @@ public final class CommonQueries {
 	 * @return the control flow graph under the function
 	 */
 	public static Q cfg(Node function) {
+		if(FunctionGraphCache.isEnabled()){
+			return Common.toQ(FunctionGraphCache.cfg(function));
+		}
 		return cfg(Common.toQ(function));
 	}
 	
@@ -691,6 +761,9 @@ public final class CommonQueries {
 	 * @return the control flow graph (including exceptional control flow) under the function
 	 */
 	public static Q excfg(Node function) {
+		if(FunctionGraphCache.isEnabled()){
+			return Common.toQ(FunctionGraphCache.excfg(function));
+		}
 		return excfg(Common.toQ(function));
 	}
 	
@@ -960,73 +1033,97 @@ public final class CommonQueries {
 	 * @return
 	 */
 	public static AtlasSet<Node> syncPoints(AtlasSet<Node> roots, AtlasSet<Node> leaves, Graph graph){
-		Q lcc = Common.toQ(leastCommonChildren(roots, graph));
+		LeastCommonAncestors index = new LeastCommonAncestors(graph);
+		Q lcc = Common.toQ(index.leastCommonChildren(roots));
 		Q lccParents = Common.toQ(graph).predecessors(lcc);
 		Q unsyncedRoots = Common.toQ(graph).reverse(lccParents);
-		Q lca = Common.toQ(leastCommonAncestors(leaves, graph));
+		Q lca = Common.toQ(index.leastCommonAncestors(leaves));
 		Q lcaChildren = Common.toQ(graph).successors(lca);
 		Q unsyncedLeaves = Common.toQ(graph).forward(lcaChildren);
 		graph = Common.toQ(graph).difference(unsyncedRoots, unsyncedLeaves).eval();
+		
+		// each iteration is a lookup in the index of the synchronized graph
+		index = new LeastCommonAncestors(graph);
 		AtlasSet<Node> syncPoints = new AtlasHashSet<Node>();
 		AtlasSet<Node> cutPoints = Common.toQ(graph).leaves().eval().nodes();
 		boolean fixedPoint = false;
 		while(!fixedPoint) {
-			cutPoints = leastCommonAncestors(cutPoints, graph);
-			fixedPoint = syncPoints.addAll(cutPoints);
+			cutPoints = index.leastCommonAncestors(cutPoints);
+			fixedPoint = cutPoints.isEmpty() || !syncPoints.addAll(cutPoints);
 		}
 		return syncPoints;
 	}
 	
 	/**
-	 * Returns the least common children of of the given parents within the given graph
-	 * @param child1
-	 * @param child2
+	 * Returns the least common ancestors of the given children within the given graph
+	 * 
+	 * A one-shot query only traverses the reverse cones of the children.
+	 * Callers making several queries against the same graph should reuse a
+	 * LeastCommonAncestors index of the graph (see LeastCommonAncestors.forFunction
+	 * for function graphs).
+	 * 
+	 * @param children
 	 * @param graph
 	 * @return
 	 */
 	public static AtlasSet<Node> leastCommonAncestors(AtlasSet<Node> children, Graph graph){
-		Graph intersectingParents = graph;
+		Q commonAncestors = null;
 		for(Node child : children) {
-			intersectingParents = Common.toQ(graph).reverse(Common.toQ(child)).intersection(Common.toQ(intersectingParents)).eval();
+			Q ancestors = Common.toQ(graph).reverse(Common.toQ(child));
+			commonAncestors = (commonAncestors == null) ? ancestors : commonAncestors.intersection(ancestors);
+		}
+		if(commonAncestors == null){
+			// every node is common to an empty set of nodes
+			return Common.toQ(graph).leaves().eval().nodes();
 		}
-		return Common.toQ(intersectingParents).leaves().eval().nodes();
+		return commonAncestors.leaves().eval().nodes();
 	}
 	
 	/**
 	 * Returns the least common children of of the given parents within the given graph
-	 * @param child1
-	 * @param child2
+	 * 
+	 * A one-shot query only traverses the forward cones of the parents.
+	 * Callers making several queries against the same graph should reuse a
+	 * LeastCommonAncestors index of the graph (see LeastCommonAncestors.forFunction
+	 * for function graphs).
+	 * 
+	 * @param parents
 	 * @param graph
 	 * @return
 	 */
 	public static AtlasSet<Node> leastCommonChildren(AtlasSet<Node> parents, Graph graph){
-		Graph intersectingChildren = graph;
+		Q commonChildren = null;
 		for(Node parent : parents) {
-			intersectingChildren = Common.toQ(graph).forward(Common.toQ(parent)).intersection(Common.toQ(intersectingChildren)).eval();
+			Q children = Common.toQ(graph).forward(Common.toQ(parent));
+			commonChildren = (commonChildren == null) ? children : commonChildren.intersection(children);
 		}
-		return Common.toQ(intersectingChildren).roots().eval().nodes();
+		if(commonChildren == null){
+			// every node is common to an empty set of nodes
+			return Common.toQ(graph).roots().eval().nodes();
+		}
+		return commonChildren.roots().eval().nodes();
 	}
 	
 	/**
 	 * Returns the least common child of both parent1 and parent2 within the given graph
-	 * @param child1
-	 * @param child2
+	 * @param parent1
+	 * @param parent2
 	 * @param graph
 	 * @return
 	 */
 	public static Node leastCommonChild(Node parent1, Node parent2, Graph graph){
-		return leastCommonAncestor(parent1, parent2, Common.toQ(graph));
+		return leastCommonChild(parent1, parent2, Common.toQ(graph));
 	}
 	
 	/**
-	 * Returns the least common ancestor of both parent1 and parent2 within the given graph
+	 * Returns the least common child of both parent1 and parent2 within the given graph
 	 * @param parent1
 	 * @param parent2
 	 * @param graph
 	 * @return
 	 */
 	public static Node leastCommonChild(Node parent1, Node parent2, Q graph){
-		Q children = graph.reverse(Common.toQ(parent1)).intersection(graph.reverse(Common.toQ(parent2)));
+		Q children = graph.forward(Common.toQ(parent1)).intersection(graph.forward(Common.toQ(parent2)));
 		return children.roots().eval().nodes().one();
 	}
 	
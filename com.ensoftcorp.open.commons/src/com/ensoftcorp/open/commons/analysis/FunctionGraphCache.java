@@ -0,0 +1,294 @@
+package com.ensoftcorp.open.commons.analysis;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.indexing.IIndexListener;
+import com.ensoftcorp.atlas.core.indexing.IndexingUtil;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.open.commons.preferences.CommonsPreferences;
+
+/**
+ * An opt-in, index scoped cache of the evaluated control flow, exceptional
+ * control flow and data flow graphs of individual functions, used by
+ * {@link CommonQueries#cfg(Node)}, {@link CommonQueries#excfg(Node)} and
+ * {@link CommonQueries#dfg(Node)} when enabled.
+ *
+ * The cache is a least recently used cache bounded by the total size (number
+ * of nodes plus number of edges) of the cached graphs. Graphs larger than the
+ * capacity are never cached. The cache is cleared whenever the index changes.
+ *
+ * @author Ben Holland
+ */
+public final class FunctionGraphCache {
+
+	/**
+	 * The kinds of function graphs that are cached
+	 */
+	public static enum Kind {
+		CFG, EXCFG, DFG
+	}
+
+	// hide constructor
+	private FunctionGraphCache() {}
+
+	private static final class Key {
+		private final Kind kind;
+		private final Node function;
+
+		private Key(Kind kind, Node function){
+			this.kind = kind;
+			this.function = function;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + kind.hashCode();
+			result = prime * result + function.hashCode();
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			Key other = (Key) obj;
+			return kind == other.kind && function.equals(other.function);
+		}
+	}
+
+	private static final class Entry {
+		private final Graph graph;
+		private final long size;
+
+		private Entry(Graph graph){
+			this.graph = graph;
+			this.size = graph.nodes().size() + graph.edges().size();
+		}
+	}
+
+	/**
+	 * Access ordered map, the first entry is the least recently used
+	 */
+	private static final LinkedHashMap<Key,Entry> CACHE = new LinkedHashMap<Key,Entry>(16, 0.75f, true);
+
+	/**
+	 * The total size of the cached graphs
+	 */
+	private static long cachedSize = 0;
+
+	private static final AtomicLong hits = new AtomicLong(0);
+	private static final AtomicLong misses = new AtomicLong(0);
+	private static final AtomicLong evictions = new AtomicLong(0);
+
+	private static IIndexListener indexListener = null;
+
+	/**
+	 * Returns true if function graph caching is enabled
+	 * @return
+	 */
+	public static boolean isEnabled(){
+		return CommonsPreferences.isFunctionGraphCacheEnabled();
+	}
+
+	/**
+	 * Returns the (possibly cached) control flow graph of the function
+	 * @param function
+	 * @return
+	 */
+	public static Graph cfg(Node function){
+		return get(Kind.CFG, function);
+	}
+
+	/**
+	 * Returns the (possibly cached) exceptional control flow graph of the
+	 * function
+	 * @param function
+	 * @return
+	 */
+	public static Graph excfg(Node function){
+		return get(Kind.EXCFG, function);
+	}
+
+	/**
+	 * Returns the (possibly cached) data flow graph of the function
+	 * @param function
+	 * @return
+	 */
+	public static Graph dfg(Node function){
+		return get(Kind.DFG, function);
+	}
+
+	/**
+	 * Returns the (possibly cached) function graph of the given kind
+	 *
+	 * @param kind
+	 * @param function
+	 * @return
+	 */
+	public static Graph get(Kind kind, Node function){
+		if(!isEnabled()){
+			return evaluate(kind, function);
+		}
+		registerIndexListener();
+		Key key = new Key(kind, function);
+		synchronized (CACHE){
+			Entry entry = CACHE.get(key);
+			if(entry != null){
+				hits.incrementAndGet();
+				return entry.graph;
+			}
+		}
+		misses.incrementAndGet();
+		// evaluate outside of the lock, concurrent misses on the same key
+		// evaluate the same graph and the last one wins
+		Entry entry = new Entry(evaluate(kind, function));
+		long capacity = CommonsPreferences.getFunctionGraphCacheCapacity();
+		if(entry.size <= capacity){
+			synchronized (CACHE){
+				Entry previous = CACHE.put(key, entry);
+				if(previous != null){
+					cachedSize -= previous.size;
+				}
+				cachedSize += entry.size;
+				Iterator<Map.Entry<Key,Entry>> lru = CACHE.entrySet().iterator();
+				while(cachedSize > capacity && lru.hasNext()){
+					Map.Entry<Key,Entry> eldest = lru.next();
+					if(eldest.getValue() == entry){
+						continue;
+					}
+					cachedSize -= eldest.getValue().size;
+					lru.remove();
+					evictions.incrementAndGet();
+				}
+			}
+		}
+		return entry.graph;
+	}
+
+	private static Graph evaluate(Kind kind, Node function){
+		switch(kind){
+			case CFG:
+				return CommonQueries.cfg(Common.toQ(function)).eval();
+			case EXCFG:
+				return CommonQueries.excfg(Common.toQ(function)).eval();
+			case DFG:
+				return CommonQueries.dfg(Common.toQ(function)).eval();
+			default:
+				throw new IllegalArgumentException("Unknown function graph kind: " + kind);
+		}
+	}
+
+	/**
+	 * Removes all cached graphs
+	 */
+	public static void clear(){
+		synchronized (CACHE){
+			CACHE.clear();
+			cachedSize = 0;
+		}
+	}
+
+	/**
+	 * Returns the number of cached graphs
+	 * @return
+	 */
+	public static int getCachedGraphCount(){
+		synchronized (CACHE){
+			return CACHE.size();
+		}
+	}
+
+	/**
+	 * Returns the total size (nodes plus edges) of the cached graphs
+	 * @return
+	 */
+	public static long getCachedSize(){
+		synchronized (CACHE){
+			return cachedSize;
+		}
+	}
+
+	public static long getHitCount(){
+		return hits.get();
+	}
+
+	public static long getMissCount(){
+		return misses.get();
+	}
+
+	public static long getEvictionCount(){
+		return evictions.get();
+	}
+
+	/**
+	 * Resets the hit, miss and eviction counters
+	 */
+	public static void resetStatistics(){
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+	}
+
+	/**
+	 * Returns a summary of the cache statistics
+	 * @return
+	 */
+	public static String getStatistics(){
+		long hitCount = hits.get();
+		long missCount = misses.get();
+		long requests = hitCount + missCount;
+		double hitRate = requests == 0 ? 0.0 : (100.0 * hitCount / requests);
+		return "Function Graph Cache [graphs: " + getCachedGraphCount()
+				+ ", size: " + getCachedSize()
+				+ ", hits: " + hitCount
+				+ ", misses: " + missCount
+				+ ", evictions: " + evictions.get()
+				+ ", hit rate: " + String.format("%.2f", hitRate) + "%]";
+	}
+
+	/**
+	 * Registers an index listener that clears the cache when the index changes
+	 */
+	private static synchronized void registerIndexListener(){
+		if(indexListener == null){
+			indexListener = new IIndexListener(){
+				@Override
+				public void indexOperationCancelled(IndexOperation op) {
+					clear();
+				}
+
+				@Override
+				public void indexOperationComplete(IndexOperation op) {
+					// graphs cached while the index was being built may be incomplete
+					clear();
+				}
+
+				@Override
+				public void indexOperationError(IndexOperation op, Throwable error) {
+					clear();
+				}
+
+				@Override
+				public void indexOperationScheduled(IndexOperation op) {}
+
+				@Override
+				public void indexOperationStarted(IndexOperation op) {
+					clear();
+				}
+			};
+			IndexingUtil.addListener(indexListener);
+		}
+	}
+
+}
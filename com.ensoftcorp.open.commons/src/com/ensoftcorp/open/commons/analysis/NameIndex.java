@@ -0,0 +1,654 @@
+package com.ensoftcorp.open.commons.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.SubMonitor;
+
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.indexing.IIndexListener;
+import com.ensoftcorp.atlas.core.indexing.IndexingUtil;
+import com.ensoftcorp.atlas.core.query.Query;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+import com.ensoftcorp.open.commons.algorithms.DominanceAnalysis;
+import com.ensoftcorp.open.commons.analyzers.Analyzers;
+import com.ensoftcorp.open.commons.codemap.ICFGConstruction;
+import com.ensoftcorp.open.commons.codemap.PrioritizedCodemapStage;
+import com.ensoftcorp.open.commons.log.Log;
+import com.ensoftcorp.open.commons.preferences.CommonsPreferences;
+
+/**
+ * An in-memory index of node attribute values (XCSG.name and any configured
+ * attributes) used to answer the name queries of CommonQueries without
+ * scanning every node. Each indexed attribute keeps a sorted array of values
+ * for prefix lookups, a sorted array of reversed values for suffix lookups and
+ * a trigram inverted index for substring lookups and regular expression
+ * prefiltering.
+ *
+ * This also acts as a code map stage to build the index after the codemap
+ * stages of this plugin that create nodes have run. The index is dropped when
+ * the index changes and does not reflect nodes created or renamed after it was
+ * built, so scripts and toolbox codemap stages that create or rename nodes
+ * should call clear() to fall back to scanning (or build() to reindex).
+ *
+ * @author Ben Holland
+ */
+public class NameIndex extends PrioritizedCodemapStage {
+
+	/**
+	 * The unique identifier for the name index codemap stage
+	 */
+	public static final String IDENTIFIER = "com.ensoftcorp.open.commons.nameindex";
+
+	private static volatile Map<String,AttributeIndex> indexes = null;
+	private static final AtomicLong generation = new AtomicLong(0);
+	private static IIndexListener indexListener = null;
+
+	public NameIndex() {}
+
+	@Override
+	public String getDisplayName() {
+		return "Indexing Node Names";
+	}
+
+	@Override
+	public String getIdentifier() {
+		return IDENTIFIER;
+	}
+
+	/**
+	 * Dominance analysis (master entry and exit nodes), ICFG construction and
+	 * graph writing exclusive analyzers create new named nodes, so the names
+	 * are indexed after all of them have run
+	 */
+	@Override
+	public String[] getCodemapStageDependencies() {
+		return new String[]{ 
+			DominanceAnalysis.IDENTIFIER, 
+			ICFGConstruction.IDENTIFIER, 
+			Analyzers.IDENTIFIER 
+		};
+	}
+
+	@Override
+	public boolean performIndexing(IProgressMonitor monitor) {
+		boolean runIndexer = CommonsPreferences.isComputeNameIndexEnabled();
+		if(runIndexer){
+			Log.info("Indexing Node Names");
+			Set<String> attributes = new LinkedHashSet<String>();
+			attributes.add(XCSG.name);
+			attributes.addAll(Arrays.asList(CommonsPreferences.getNameIndexAttributes()));
+			build(attributes, monitor);
+		}
+		return runIndexer;
+	}
+
+	/**
+	 * Builds the index over the given node attributes, replacing any existing
+	 * index
+	 *
+	 * @param attributes
+	 * @param monitor
+	 */
+	public static synchronized void build(Set<String> attributes, IProgressMonitor monitor){
+		registerIndexListener();
+		clear();
+		long buildGeneration = generation.get();
+
+		AtlasSet<Node> nodes = Query.universe().eval().nodes();
+		SubMonitor task = SubMonitor.convert(monitor, (int) nodes.size() + attributes.size());
+
+		// collect the string values of each attribute in a single pass
+		Map<String,List<Node>> attributeNodes = new HashMap<String,List<Node>>();
+		Map<String,List<String>> attributeValues = new HashMap<String,List<String>>();
+		for(String attribute : attributes){
+			attributeNodes.put(attribute, new ArrayList<Node>());
+			attributeValues.put(attribute, new ArrayList<String>());
+		}
+		int nodesVisited = 0;
+		for(Node node : nodes){
+			if(monitor.isCanceled()){
+				Log.warning("Cancelled: Indexing Node Names");
+				return;
+			}
+			for(String attribute : attributes){
+				Object value = node.getAttr(attribute);
+				if(value instanceof String){
+					attributeNodes.get(attribute).add(node);
+					attributeValues.get(attribute).add((String) value);
+				}
+			}
+			if(++nodesVisited % 10000 == 0){
+				task.setWorkRemaining(((int) nodes.size()) - nodesVisited + attributes.size());
+			}
+		}
+
+		Map<String,AttributeIndex> result = new HashMap<String,AttributeIndex>();
+		for(String attribute : attributes){
+			if(monitor.isCanceled()){
+				Log.warning("Cancelled: Indexing Node Names");
+				return;
+			}
+			List<Node> indexedNodes = attributeNodes.get(attribute);
+			List<String> indexedValues = attributeValues.get(attribute);
+			result.put(attribute, new AttributeIndex(indexedNodes.toArray(new Node[indexedNodes.size()]),
+					indexedValues.toArray(new String[indexedValues.size()])));
+			task.worked(1);
+		}
+		indexes = result;
+		if(generation.get() != buildGeneration){
+			// the index changed while building
+			indexes = null;
+		}
+	}
+
+	/**
+	 * Drops the index, name queries scan the nodes until it is rebuilt
+	 */
+	public static void clear(){
+		generation.incrementAndGet();
+		indexes = null;
+	}
+
+	/**
+	 * Returns true if the values of the given attribute are indexed
+	 * @param attribute
+	 * @return
+	 */
+	public static boolean isIndexed(String attribute){
+		Map<String,AttributeIndex> current = indexes;
+		return current != null && current.containsKey(attribute);
+	}
+
+	/**
+	 * Returns the nodes whose attribute value starts with the given prefix or
+	 * null if the attribute is not indexed
+	 *
+	 * @param attribute
+	 * @param prefix
+	 * @return
+	 */
+	public static AtlasSet<Node> getNodesStartingWith(String attribute, String prefix){
+		AttributeIndex index = getIndex(attribute);
+		return index == null ? null : index.startingWith(prefix);
+	}
+
+	/**
+	 * Returns the nodes whose attribute value ends with the given suffix or
+	 * null if the attribute is not indexed
+	 *
+	 * @param attribute
+	 * @param suffix
+	 * @return
+	 */
+	public static AtlasSet<Node> getNodesEndingWith(String attribute, String suffix){
+		AttributeIndex index = getIndex(attribute);
+		return index == null ? null : index.endingWith(suffix);
+	}
+
+	/**
+	 * Returns the nodes whose attribute value contains the given substring or
+	 * null if the attribute is not indexed
+	 *
+	 * @param attribute
+	 * @param substring
+	 * @return
+	 */
+	public static AtlasSet<Node> getNodesContaining(String attribute, String substring){
+		AttributeIndex index = getIndex(attribute);
+		return index == null ? null : index.containing(substring);
+	}
+
+	/**
+	 * Returns the nodes whose attribute value matches the given regular
+	 * expression or null if the attribute is not indexed
+	 *
+	 * @param attribute
+	 * @param regex
+	 * @return
+	 */
+	public static AtlasSet<Node> getNodesMatchingRegex(String attribute, String regex){
+		AttributeIndex index = getIndex(attribute);
+		return index == null ? null : index.matchingRegex(regex);
+	}
+
+	private static AttributeIndex getIndex(String attribute){
+		Map<String,AttributeIndex> current = indexes;
+		return current == null ? null : current.get(attribute);
+	}
+
+	/**
+	 * The index of the string values of a single attribute. Each node with a
+	 * value is assigned an entry id, the sorted arrays hold entry ids ordered
+	 * by (reversed) value and the trigram postings hold ascending entry ids.
+	 */
+	private static class AttributeIndex {
+
+		private final Node[] nodes;
+		private final String[] values;
+
+		private final int[] prefixOrder;
+		private final String[] sortedValues;
+
+		private final int[] suffixOrder;
+		private final String[] sortedReversedValues;
+
+		private final Map<Long,int[]> trigrams;
+
+		public AttributeIndex(Node[] nodes, final String[] values){
+			this.nodes = nodes;
+			this.values = values;
+
+			this.prefixOrder = sort(values);
+			this.sortedValues = new String[values.length];
+			for(int i=0; i<prefixOrder.length; i++){
+				sortedValues[i] = values[prefixOrder[i]];
+			}
+
+			String[] reversedValues = new String[values.length];
+			for(int id=0; id<values.length; id++){
+				reversedValues[id] = reverse(values[id]);
+			}
+			this.suffixOrder = sort(reversedValues);
+			this.sortedReversedValues = new String[values.length];
+			for(int i=0; i<suffixOrder.length; i++){
+				sortedReversedValues[i] = reversedValues[suffixOrder[i]];
+			}
+
+			// entries are visited in ascending order, so postings are sorted
+			// and a repeated trigram of the same entry is always the last id
+			Map<Long,Postings> postings = new HashMap<Long,Postings>();
+			for(int id=0; id<values.length; id++){
+				String value = values[id];
+				for(int i=0; i+3<=value.length(); i++){
+					Long trigram = trigram(value, i);
+					Postings entries = postings.get(trigram);
+					if(entries == null){
+						entries = new Postings();
+						postings.put(trigram, entries);
+					}
+					entries.add(id);
+				}
+			}
+			this.trigrams = new HashMap<Long,int[]>(postings.size() * 2);
+			for(Map.Entry<Long,Postings> entry : postings.entrySet()){
+				trigrams.put(entry.getKey(), entry.getValue().toArray());
+			}
+		}
+
+		public AtlasSet<Node> startingWith(String prefix){
+			AtlasSet<Node> result = new AtlasHashSet<Node>();
+			for(int i=lowerBound(sortedValues, prefix); i<sortedValues.length && sortedValues[i].startsWith(prefix); i++){
+				result.add(nodes[prefixOrder[i]]);
+			}
+			return result;
+		}
+
+		public AtlasSet<Node> endingWith(String suffix){
+			AtlasSet<Node> result = new AtlasHashSet<Node>();
+			String reversedSuffix = reverse(suffix);
+			for(int i=lowerBound(sortedReversedValues, reversedSuffix); i<sortedReversedValues.length && sortedReversedValues[i].startsWith(reversedSuffix); i++){
+				result.add(nodes[suffixOrder[i]]);
+			}
+			return result;
+		}
+
+		public AtlasSet<Node> containing(String substring){
+			AtlasSet<Node> result = new AtlasHashSet<Node>();
+			int[] candidates = getCandidates(substring);
+			if(candidates == null){
+				for(int id=0; id<values.length; id++){
+					if(values[id].contains(substring)){
+						result.add(nodes[id]);
+					}
+				}
+			} else {
+				for(int id : candidates){
+					if(values[id].contains(substring)){
+						result.add(nodes[id]);
+					}
+				}
+			}
+			return result;
+		}
+
+		public AtlasSet<Node> matchingRegex(String regex){
+			AtlasSet<Node> result = new AtlasHashSet<Node>();
+			Pattern pattern = Pattern.compile(regex);
+
+			// prefilter with the most selective literal the regex requires
+			int[] candidates = null;
+			for(String literal : getRequiredLiterals(regex)){
+				int[] literalCandidates = getCandidates(literal);
+				if(literalCandidates != null && (candidates == null || literalCandidates.length < candidates.length)){
+					candidates = literalCandidates;
+				}
+			}
+			if(candidates == null){
+				for(int id=0; id<values.length; id++){
+					if(pattern.matcher(values[id]).matches()){
+						result.add(nodes[id]);
+					}
+				}
+			} else {
+				for(int id : candidates){
+					if(pattern.matcher(values[id]).matches()){
+						result.add(nodes[id]);
+					}
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Returns the entries that contain every trigram of the given string,
+		 * a superset of the entries containing the string, or null if the
+		 * string is too short to have a trigram
+		 *
+		 * @param string
+		 * @return
+		 */
+		private int[] getCandidates(String string){
+			if(string.length() < 3){
+				return null;
+			}
+			List<int[]> lists = new ArrayList<int[]>();
+			for(int i=0; i+3<=string.length(); i++){
+				int[] entries = trigrams.get(trigram(string, i));
+				if(entries == null){
+					return new int[0];
+				}
+				lists.add(entries);
+			}
+			// intersect starting from the shortest postings list
+			lists.sort(new Comparator<int[]>(){
+				@Override
+				public int compare(int[] a, int[] b) {
+					return Integer.compare(a.length, b.length);
+				}
+			});
+			int[] candidates = lists.get(0);
+			for(int i=1; i<lists.size() && candidates.length > 0; i++){
+				candidates = intersect(candidates, lists.get(i));
+			}
+			return candidates;
+		}
+	}
+
+	/**
+	 * A growable list of ascending entry ids
+	 */
+	private static class Postings {
+		private int[] ids = new int[4];
+		private int size = 0;
+
+		public void add(int id){
+			if(size > 0 && ids[size-1] == id){
+				return;
+			}
+			if(size == ids.length){
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			ids[size++] = id;
+		}
+
+		public int[] toArray(){
+			return Arrays.copyOf(ids, size);
+		}
+	}
+
+	/**
+	 * Returns the entry ids ordered by the given values
+	 * @param values
+	 * @return
+	 */
+	private static int[] sort(final String[] values){
+		Integer[] order = new Integer[values.length];
+		for(int id=0; id<values.length; id++){
+			order[id] = id;
+		}
+		Arrays.sort(order, new Comparator<Integer>(){
+			@Override
+			public int compare(Integer a, Integer b) {
+				return values[a].compareTo(values[b]);
+			}
+		});
+		int[] result = new int[values.length];
+		for(int i=0; i<order.length; i++){
+			result[i] = order[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the index of the first sorted value that is not less than the
+	 * given key
+	 * @param sorted
+	 * @param key
+	 * @return
+	 */
+	private static int lowerBound(String[] sorted, String key){
+		int low = 0;
+		int high = sorted.length;
+		while(low < high){
+			int mid = (low + high) >>> 1;
+			if(sorted[mid].compareTo(key) < 0){
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the sorted intersection of two sorted arrays
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private static int[] intersect(int[] a, int[] b){
+		int[] result = new int[Math.min(a.length, b.length)];
+		int size = 0;
+		int i = 0;
+		int j = 0;
+		while(i < a.length && j < b.length){
+			if(a[i] < b[j]){
+				i++;
+			} else if(a[i] > b[j]){
+				j++;
+			} else {
+				result[size++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	private static Long trigram(String string, int offset){
+		return (((long) string.charAt(offset)) << 32) | (((long) string.charAt(offset+1)) << 16) | string.charAt(offset+2);
+	}
+
+	private static String reverse(String string){
+		return new StringBuilder(string).reverse().toString();
+	}
+
+	/**
+	 * Returns literal strings that every match of the given regular
+	 * expression must contain. This is conservative: alternations, special
+	 * groups and escapes with arguments give up entirely, and groups,
+	 * character classes and optional characters end the current literal.
+	 *
+	 * @param regex
+	 * @return
+	 */
+	/*package*/ static List<String> getRequiredLiterals(String regex){
+		List<String> literals = new ArrayList<String>();
+		StringBuilder literal = new StringBuilder();
+		int depth = 0;
+		int i = 0;
+		while(i < regex.length()){
+			char c = regex.charAt(i);
+			if(c == '\\' && i + 1 < regex.length()){
+				char escaped = regex.charAt(i + 1);
+				if(escaped == 'Q'){
+					// quoted literal runs until \E or the end of the regex
+					int end = regex.indexOf("\\E", i + 2);
+					if(end == -1){
+						end = regex.length();
+					}
+					if(depth == 0){
+						literal.append(regex, i + 2, end);
+					}
+					i = Math.min(end + 2, regex.length());
+					continue;
+				} else if(Character.isDigit(escaped) || "xucNk".indexOf(escaped) != -1){
+					// escapes with arguments and back references are not parsed
+					return new ArrayList<String>();
+				} else if(Character.isLetter(escaped)){
+					// a character class or boundary (\d, \w, \b, ...)
+					if(depth == 0){
+						addLiteral(literals, literal);
+					}
+					i += 2;
+					continue;
+				} else {
+					if(depth == 0){
+						literal.append(escaped);
+					}
+					i += 2;
+					continue;
+				}
+			}
+			switch(c){
+				case '|':
+					return new ArrayList<String>();
+				case '(':
+					if(i + 1 < regex.length() && regex.charAt(i + 1) == '?'){
+						// inline flags (such as case insensitivity) and special
+						// groups are not parsed
+						return new ArrayList<String>();
+					}
+					if(depth == 0){
+						addLiteral(literals, literal);
+					}
+					depth++;
+					break;
+				case ')':
+					depth--;
+					break;
+				case '[':
+					if(depth == 0){
+						addLiteral(literals, literal);
+					}
+					// skip to the end of the character class
+					i++;
+					if(i < regex.length() && regex.charAt(i) == '^'){
+						i++;
+					}
+					if(i < regex.length() && regex.charAt(i) == ']'){
+						i++;
+					}
+					int nesting = 1;
+					while(i < regex.length() && nesting > 0){
+						char d = regex.charAt(i);
+						if(d == '\\'){
+							i++;
+						} else if(d == '['){
+							nesting++;
+						} else if(d == ']'){
+							nesting--;
+						}
+						if(nesting > 0){
+							i++;
+						}
+					}
+					break;
+				case '?':
+				case '*':
+				case '{':
+					// the preceding character is optional
+					if(depth == 0 && literal.length() > 0){
+						literal.setLength(literal.length() - 1);
+					}
+					if(depth == 0){
+						addLiteral(literals, literal);
+					}
+					if(c == '{'){
+						int end = regex.indexOf('}', i);
+						i = end == -1 ? regex.length() : end;
+					}
+					break;
+				case '+':
+				case '.':
+				case '^':
+				case '$':
+					if(depth == 0){
+						addLiteral(literals, literal);
+					}
+					break;
+				default:
+					if(depth == 0){
+						literal.append(c);
+					}
+					break;
+			}
+			i++;
+		}
+		addLiteral(literals, literal);
+		return literals;
+	}
+
+	private static void addLiteral(List<String> literals, StringBuilder literal){
+		if(literal.length() > 0){
+			literals.add(literal.toString());
+			literal.setLength(0);
+		}
+	}
+
+	/**
+	 * Registers an index listener that drops the index when the index changes
+	 */
+	private static synchronized void registerIndexListener(){
+		if(indexListener == null){
+			indexListener = new IIndexListener(){
+				@Override
+				public void indexOperationCancelled(IndexOperation op) {
+					clear();
+				}
+
+				@Override
+				public void indexOperationComplete(IndexOperation op) {
+					// the index is built by a codemap stage of this operation
+				}
+
+				@Override
+				public void indexOperationError(IndexOperation op, Throwable error) {
+					clear();
+				}
+
+				@Override
+				public void indexOperationScheduled(IndexOperation op) {}
+
+				@Override
+				public void indexOperationStarted(IndexOperation op) {
+					clear();
+				}
+			};
+			IndexingUtil.addListener(indexListener);
+		}
+	}
+
+}
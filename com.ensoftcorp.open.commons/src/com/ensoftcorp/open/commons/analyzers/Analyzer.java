@@ -1,11 +1,15 @@
 package com.ensoftcorp.open.commons.analyzers;
 
 import java.awt.Color;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
+
 import com.ensoftcorp.atlas.core.db.graph.Edge;
 import com.ensoftcorp.atlas.core.db.graph.Graph;
 import com.ensoftcorp.atlas.core.db.graph.Node;
@@ -86,6 +90,20 @@ public abstract class Analyzer {
 		return this.getClass().getSimpleName();
 	}
 	
+	/**
+	 * Returns the version of the analyzer, stored analyzer results are
+	 * discarded when the version changes. Defaults to the version of the
+	 * plugin that contributes the analyzer.
+	 * @return
+	 */
+	public String getVersion(){
+		Bundle bundle = FrameworkUtil.getBundle(this.getClass());
+		if(bundle != null){
+			return bundle.getVersion().toString();
+		}
+		return "0.0.0";
+	}
+	
 	/**
 	 * A category to classify this analyzer under
 	 * @return
@@ -106,6 +124,35 @@ public abstract class Analyzer {
 		return new String[]{};
 	}
 	
+	/**
+	 * Returns true if this analyzer must not run concurrently with any other
+	 * analyzer, for example because it creates nodes or edges or modifies
+	 * tags and attributes in the Atlas graph. Exclusive analyzers are run one
+	 * at a time before the remaining analyzers, which may be run concurrently
+	 * when the analyzer parallelism preference is greater than 1. Exclusive
+	 * analyzers are not subject to the analyzer timeout.
+	 * 
+	 * Defaults to false.
+	 * 
+	 * @return
+	 */
+	public boolean isGraphWritingExclusive(){
+		return false;
+	}
+	
+	/**
+	 * Returns the codec used to store result data that is not null, a String
+	 * or a boxed long, integer, double or boolean in the analyzer result
+	 * store, or null if results with other data are not stored.
+	 * 
+	 * Defaults to null.
+	 * 
+	 * @return
+	 */
+	public ResultDataCodec getResultDataCodec(){
+		return null;
+	}
+	
 	/**
 	 * Returns an array of assumptions made when writing the analyzer
 	 * @return
@@ -120,7 +167,44 @@ public abstract class Analyzer {
 	 * @return
 	 */
 	public abstract List<Result> getResults(Q context);
-	
+
+	/**
+	 * Streams the analyzer's results within a given context into the sink as
+	 * they are found, stopping early once the sink declines a result.
+	 *
+	 * The default implementation emits the results of getResults(context).
+	 * Analyzers that find results incrementally should override this method
+	 * and implement getResults(context) with collectResults(context).
+	 *
+	 * @param context
+	 * @param sink
+	 */
+	public void streamResults(Q context, ResultSink sink){
+		for(Result result : getResults(context)){
+			if(!sink.accept(result)){
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Collects all of the results streamed by streamResults(context, sink)
+	 * into a list
+	 * @param context
+	 * @return
+	 */
+	protected List<Result> collectResults(Q context){
+		final List<Result> results = new ArrayList<Result>();
+		streamResults(context, new ResultSink(){
+			@Override
+			public boolean accept(Result result) {
+				results.add(result);
+				return true;
+			}
+		});
+		return results;
+	}
+
 	/**
 	 * Defines the sorted ordering for the results (by label)
 	 * @return
@@ -0,0 +1,603 @@
+package com.ensoftcorp.open.commons.analyzers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.indexing.IIndexListener;
+import com.ensoftcorp.atlas.core.indexing.IndexingUtil;
+import com.ensoftcorp.atlas.core.query.Query;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+import com.ensoftcorp.open.commons.Activator;
+import com.ensoftcorp.open.commons.analyzers.Analyzer.Result;
+import com.ensoftcorp.open.commons.log.Log;
+import com.ensoftcorp.open.commons.preferences.CommonsPreferences;
+import com.ensoftcorp.open.commons.utilities.WorkspaceUtils;
+import com.ensoftcorp.open.commons.utilities.address.NormalizedAddress;
+
+/**
+ * Persists analyzer results to a compact binary file per analyzer and indexed
+ * project in the plugin state location, so that results survive remapping an
+ * unchanged program and restarting Eclipse. Stores are kept out of the
+ * project so they are not shared or checked in with the source tree.
+ *
+ * Each store records a fingerprint of the index and the identity (class and
+ * name) and version of the analyzer that produced it. A store is only loaded
+ * if all of them match the current index and analyzer, otherwise it is
+ * deleted. The fingerprint is computed once per index on a background job
+ * when indexing ends (or when this class is loaded), results are neither
+ * saved nor loaded until it is available. Results changed during indexing
+ * are saved once the fingerprint of the completed index is known, because
+ * codemap stages that run after the analyzers may still change the index.
+ *
+ * Atlas addresses are not stable across re-indexing, so stores require a
+ * normalized index (see NormalizedAddress). The fingerprint is built from the
+ * normalized addresses and graph elements are stored by their normalized
+ * address. Result data is stored if it is null, a String, a boxed long,
+ * integer, double or boolean or if the analyzer provides a ResultDataCodec.
+ * The results of an analyzer with any other data are not stored, Java
+ * serialization is never used to read a store.
+ *
+ * @author Ben Holland
+ */
+public final class AnalyzerResultStore {
+
+	/**
+	 * The directory containing the stores, relative to the plugin state location
+	 */
+	private static final String STORE_DIRECTORY = "analyzer-results";
+
+	private static final String STORE_EXTENSION = ".bin";
+
+	private static final int MAGIC = 0x41525331; // "ARS1"
+	private static final int FORMAT_VERSION = 3;
+
+	// result data kinds
+	private static final byte NULL_DATA = 0;
+	private static final byte STRING_DATA = 1;
+	private static final byte LONG_DATA = 2;
+	private static final byte INTEGER_DATA = 3;
+	private static final byte DOUBLE_DATA = 4;
+	private static final byte BOOLEAN_DATA = 5;
+	private static final byte CODEC_DATA = 6;
+
+	// hide constructor
+	private AnalyzerResultStore() {}
+
+	/**
+	 * The fingerprint of the current index or null if it has not been
+	 * computed yet or the index is not normalized
+	 */
+	private static String indexFingerprint = null;
+
+	/**
+	 * Incremented whenever indexing starts or ends, a fingerprint computed
+	 * for an earlier generation of the index is discarded
+	 */
+	private static long indexGeneration = 0;
+
+	/**
+	 * Lookup of normalized addresses to graph elements, built on demand
+	 */
+	private static Map<String,GraphElement> normalizedAddresses = null;
+
+	/**
+	 * True while an indexing operation is in progress
+	 */
+	private static boolean indexing = false;
+
+	/**
+	 * Results that changed during the current indexing operation, saved when
+	 * the indexing operation completes
+	 */
+	private static final Map<Analyzer,List<Result>> pending = new HashMap<Analyzer,List<Result>>();
+
+	private static final IIndexListener indexListener = new IIndexListener(){
+		@Override
+		public void indexOperationCancelled(IndexOperation op) {
+			indexingEnded(false);
+		}
+
+		@Override
+		public void indexOperationComplete(IndexOperation op) {
+			indexingEnded(true);
+		}
+
+		@Override
+		public void indexOperationError(IndexOperation op, Throwable error) {
+			indexingEnded(false);
+		}
+
+		@Override
+		public void indexOperationScheduled(IndexOperation op) {}
+
+		@Override
+		public void indexOperationStarted(IndexOperation op) {
+			indexingStarted();
+		}
+	};
+
+	static {
+		IndexingUtil.addListener(indexListener);
+		// fingerprint an index that was restored rather than indexed this session
+		scheduleFingerprint(new HashMap<Analyzer,List<Result>>());
+	}
+
+	/**
+	 * Returns true if persisting analyzer results is enabled
+	 * @return
+	 */
+	public static boolean isEnabled(){
+		return CommonsPreferences.isAnalyzerResultStoreEnabled();
+	}
+
+	/**
+	 * Marks the start of an indexing operation, results changed until the
+	 * operation completes are saved when it completes. Called by the analyzers
+	 * codemap stage in case this class was loaded after the indexing operation
+	 * started.
+	 */
+	/*package*/ static synchronized void indexingStarted(){
+		indexing = true;
+		indexGeneration++;
+		indexFingerprint = null;
+		normalizedAddresses = null;
+		pending.clear();
+	}
+
+	private static void indexingEnded(boolean completed){
+		Map<Analyzer,List<Result>> results = new HashMap<Analyzer,List<Result>>();
+		synchronized (AnalyzerResultStore.class){
+			indexing = false;
+			indexFingerprint = null;
+			normalizedAddresses = null;
+			if(completed){
+				results.putAll(pending);
+			}
+			pending.clear();
+		}
+		scheduleFingerprint(results);
+	}
+
+	/**
+	 * Schedules a background job that fingerprints the current index and then
+	 * saves the given results
+	 * @param results
+	 */
+	private static void scheduleFingerprint(final Map<Analyzer,List<Result>> results){
+		final long generation;
+		synchronized (AnalyzerResultStore.class){
+			indexGeneration++;
+			generation = indexGeneration;
+		}
+		Job job = new Job("Fingerprinting Index"){
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				if(isIndexing()){
+					// the index is fingerprinted again when this indexing ends
+					return Status.CANCEL_STATUS;
+				}
+				String fingerprint = computeIndexFingerprint();
+				synchronized (AnalyzerResultStore.class){
+					if(generation != indexGeneration){
+						// the index changed while it was fingerprinted
+						return Status.CANCEL_STATUS;
+					}
+					indexFingerprint = fingerprint;
+				}
+				for(Map.Entry<Analyzer,List<Result>> entry : results.entrySet()){
+					if(monitor.isCanceled()){
+						return Status.CANCEL_STATUS;
+					}
+					save(entry.getKey(), entry.getValue());
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		job.setSystem(true);
+		job.schedule();
+	}
+
+	/**
+	 * Returns true while an indexing operation is in progress
+	 * @return
+	 */
+	/*package*/ static synchronized boolean isIndexing(){
+		return indexing;
+	}
+
+	/**
+	 * Records the results of an analyzer. The results are saved immediately
+	 * or, if an indexing operation is in progress, when it completes.
+	 *
+	 * @param analyzer
+	 * @param results
+	 */
+	public static void resultsChanged(Analyzer analyzer, List<Result> results){
+		if(!isEnabled()){
+			return;
+		}
+		synchronized (AnalyzerResultStore.class){
+			if(indexing){
+				pending.put(analyzer, results);
+				return;
+			}
+		}
+		save(analyzer, results);
+	}
+
+	/**
+	 * Saves the results of the analyzer for each indexed project
+	 *
+	 * @param analyzer
+	 * @param results
+	 */
+	public static void save(Analyzer analyzer, List<Result> results){
+		if(getIndexFingerprint() == null){
+			Log.debug("Analyzer " + analyzer.getName() + " results cannot be stored, the index is not normalized or has not been fingerprinted.");
+			return;
+		}
+		byte[] store;
+		try {
+			store = serialize(analyzer, results);
+		} catch (UnsupportedOperationException e){
+			Log.debug("Analyzer " + analyzer.getName() + " results cannot be stored: " + e.getMessage());
+			return;
+		} catch (IOException e){
+			Log.error("Error serializing " + analyzer.getName() + " analyzer results.", e);
+			return;
+		}
+		for(IProject project : getIndexedProjects()){
+			try {
+				File storeFile = getStoreFile(project, analyzer);
+				storeFile.getParentFile().mkdirs();
+				FileOutputStream output = new FileOutputStream(storeFile);
+				try {
+					output.write(store);
+				} finally {
+					output.close();
+				}
+			} catch (Exception e){
+				Log.error("Error saving " + analyzer.getName() + " analyzer results to " + project.getName() + ".", e);
+			}
+		}
+	}
+
+	/**
+	 * Loads the stored results of the analyzer for the current index or
+	 * returns null if there are no stored results that match the current
+	 * index and analyzer version. Stores that do not match are deleted.
+	 *
+	 * @param analyzer
+	 * @return
+	 */
+	public static List<Result> load(Analyzer analyzer){
+		if(!isEnabled() || isIndexing() || getIndexFingerprint() == null){
+			return null;
+		}
+		for(IProject project : getIndexedProjects()){
+			File storeFile = getStoreFile(project, analyzer);
+			if(!storeFile.exists()){
+				continue;
+			}
+			try {
+				List<Result> results = deserialize(analyzer, storeFile);
+				if(results != null){
+					return results;
+				}
+				Log.debug("Discarding stale " + analyzer.getName() + " analyzer results in " + project.getName() + ".");
+			} catch (Exception e){
+				Log.warning("Discarding unreadable " + analyzer.getName() + " analyzer results in " + project.getName() + ".", e);
+			}
+			storeFile.delete();
+		}
+		return null;
+	}
+
+	/**
+	 * Deletes the stored results of the analyzer for each indexed project
+	 * @param analyzer
+	 */
+	public static void delete(Analyzer analyzer){
+		for(IProject project : getIndexedProjects()){
+			File storeFile = getStoreFile(project, analyzer);
+			if(storeFile.exists()){
+				storeFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Returns the fingerprint of the current index or null if it has not been
+	 * computed yet (it is computed on a background job when indexing ends) or
+	 * the index is not normalized. Never scans the index.
+	 *
+	 * @return
+	 */
+	public static synchronized String getIndexFingerprint(){
+		return indexFingerprint;
+	}
+
+	/**
+	 * Computes a fingerprint of the current index. The fingerprint is an order
+	 * independent hash of the normalized address, name and source
+	 * correspondence of every normalized node and the normalized address and
+	 * endpoints of every normalized edge in the universe. Graph elements
+	 * without a normalized address (for example those created by codemap
+	 * stages that run after the normalization stage) are not part of the
+	 * fingerprint. Returns null if the index is not normalized.
+	 *
+	 * @return
+	 */
+	private static String computeIndexFingerprint(){
+		Graph universe = Query.universe().eval();
+		long nodes = 0;
+		long edges = 0;
+		long sum = 0;
+		long xor = 0;
+		for(Node node : universe.nodes()){
+			String key = getNormalizedAddress(node);
+			if(key == null){
+				continue;
+			}
+			long hash = mix(key.hashCode());
+			hash = mix(hash ^ hash(node.getAttr(XCSG.name)));
+			hash = mix(hash ^ hash(node.getAttr(XCSG.sourceCorrespondence)));
+			sum += hash;
+			xor ^= hash;
+			nodes++;
+		}
+		for(Edge edge : universe.edges()){
+			String key = getNormalizedAddress(edge);
+			if(key == null){
+				continue;
+			}
+			long hash = mix(key.hashCode() ^ EDGE_SALT);
+			hash = mix(hash ^ hash(getNormalizedAddress(edge.from())));
+			hash = mix(hash ^ (hash(getNormalizedAddress(edge.to())) << 32));
+			sum += hash;
+			xor ^= hash;
+			edges++;
+		}
+		if(nodes == 0 && edges == 0){
+			return null;
+		}
+		return Long.toHexString(nodes) + "-" + Long.toHexString(edges) + "-" + Long.toHexString(sum) + Long.toHexString(xor);
+	}
+
+	private static final long EDGE_SALT = 0x9E3779B97F4A7C15L;
+
+	private static long hash(Object value){
+		return value == null ? 0 : value.toString().hashCode();
+	}
+
+	/**
+	 * The finalizer of the SplitMix64 generator, spreads the bits of each
+	 * element hash before they are combined
+	 */
+	private static long mix(long value){
+		value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+		value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+		return value ^ (value >>> 31);
+	}
+
+	/**
+	 * Returns the normalized address of the graph element or null
+	 */
+	private static String getNormalizedAddress(GraphElement graphElement){
+		Object normalizedAddress = graphElement.getAttr(NormalizedAddress.NORMALIZED_ADDRESS_ATTRIBUTE);
+		return normalizedAddress == null ? null : normalizedAddress.toString();
+	}
+
+	private static byte[] serialize(Analyzer analyzer, List<Result> results) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(bytes)));
+		try {
+			writeHeader(output, analyzer);
+			output.writeInt(results.size());
+			for(Result result : results){
+				output.writeUTF(result.getDisplayLabel() == null ? "" : result.getDisplayLabel());
+				Graph graph = result.getQ().eval();
+				output.writeInt((int) graph.nodes().size());
+				for(Node node : graph.nodes()){
+					writeAddress(output, node);
+				}
+				output.writeInt((int) graph.edges().size());
+				for(Edge edge : graph.edges()){
+					writeAddress(output, edge);
+				}
+				writeData(output, analyzer, result.getData());
+			}
+		} finally {
+			output.close();
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void writeHeader(DataOutputStream output, Analyzer analyzer) throws IOException {
+		output.writeInt(MAGIC);
+		output.writeInt(FORMAT_VERSION);
+		output.writeUTF(getIndexFingerprint());
+		output.writeUTF(analyzer.getClass().getName());
+		output.writeUTF(analyzer.getName());
+		output.writeUTF(analyzer.getVersion());
+	}
+
+	private static void writeAddress(DataOutputStream output, GraphElement graphElement) throws IOException {
+		String normalizedAddress = getNormalizedAddress(graphElement);
+		if(normalizedAddress == null){
+			// the element could not be resolved after re-indexing
+			throw new UnsupportedOperationException("a result contains a graph element without a normalized address");
+		}
+		output.writeUTF(normalizedAddress);
+	}
+
+	private static void writeData(DataOutputStream output, Analyzer analyzer, Object data) throws IOException {
+		if(data == null){
+			output.writeByte(NULL_DATA);
+		} else if(data instanceof String){
+			output.writeByte(STRING_DATA);
+			output.writeUTF((String) data);
+		} else if(data instanceof Long){
+			output.writeByte(LONG_DATA);
+			output.writeLong((Long) data);
+		} else if(data instanceof Integer){
+			output.writeByte(INTEGER_DATA);
+			output.writeInt((Integer) data);
+		} else if(data instanceof Double){
+			output.writeByte(DOUBLE_DATA);
+			output.writeDouble((Double) data);
+		} else if(data instanceof Boolean){
+			output.writeByte(BOOLEAN_DATA);
+			output.writeBoolean((Boolean) data);
+		} else {
+			ResultDataCodec codec = analyzer.getResultDataCodec();
+			if(codec == null){
+				throw new UnsupportedOperationException("result data of type " + data.getClass().getName() + " is not supported without a result data codec");
+			}
+			output.writeByte(CODEC_DATA);
+			codec.write(data, output);
+		}
+	}
+
+	/**
+	 * Returns the stored results or null if the store does not match the
+	 * current index and analyzer
+	 */
+	private static List<Result> deserialize(Analyzer analyzer, File storeFile) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(storeFile))));
+		try {
+			if(input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION){
+				return null;
+			}
+			if(!input.readUTF().equals(getIndexFingerprint())
+					|| !input.readUTF().equals(analyzer.getClass().getName())
+					|| !input.readUTF().equals(analyzer.getName())
+					|| !input.readUTF().equals(analyzer.getVersion())){
+				return null;
+			}
+			int resultCount = input.readInt();
+			List<Result> results = new ArrayList<Result>(resultCount);
+			for(int i=0; i<resultCount; i++){
+				String label = input.readUTF();
+				AtlasSet<Node> nodes = new AtlasHashSet<Node>();
+				int nodeCount = input.readInt();
+				for(int j=0; j<nodeCount; j++){
+					GraphElement node = readAddress(input);
+					if(!(node instanceof Node)){
+						return null;
+					}
+					nodes.add((Node) node);
+				}
+				AtlasSet<Edge> edges = new AtlasHashSet<Edge>();
+				int edgeCount = input.readInt();
+				for(int j=0; j<edgeCount; j++){
+					GraphElement edge = readAddress(input);
+					if(!(edge instanceof Edge)){
+						return null;
+					}
+					edges.add((Edge) edge);
+				}
+				Result result = new Result(label, Common.toQ(edges).union(Common.toQ(nodes)));
+				result.setData(readData(input, analyzer));
+				results.add(result);
+			}
+			return results;
+		} finally {
+			input.close();
+		}
+	}
+
+	private static GraphElement readAddress(DataInputStream input) throws IOException {
+		return getNormalizedAddresses().get(input.readUTF());
+	}
+
+	private static Object readData(DataInputStream input, Analyzer analyzer) throws IOException {
+		byte kind = input.readByte();
+		switch(kind){
+			case NULL_DATA:
+				return null;
+			case STRING_DATA:
+				return input.readUTF();
+			case LONG_DATA:
+				return input.readLong();
+			case INTEGER_DATA:
+				return input.readInt();
+			case DOUBLE_DATA:
+				return input.readDouble();
+			case BOOLEAN_DATA:
+				return input.readBoolean();
+			case CODEC_DATA:
+				ResultDataCodec codec = analyzer.getResultDataCodec();
+				if(codec == null){
+					throw new IOException("Analyzer " + analyzer.getName() + " no longer provides a result data codec");
+				}
+				return codec.read(input);
+			default:
+				throw new IOException("Unknown result data kind: " + kind);
+		}
+	}
+
+	private static synchronized Map<String,GraphElement> getNormalizedAddresses(){
+		if(normalizedAddresses == null){
+			normalizedAddresses = new HashMap<String,GraphElement>();
+			Graph universe = Query.universe().eval();
+			for(Node node : universe.nodes()){
+				Object normalizedAddress = node.getAttr(NormalizedAddress.NORMALIZED_ADDRESS_ATTRIBUTE);
+				if(normalizedAddress != null){
+					normalizedAddresses.put(normalizedAddress.toString(), node);
+				}
+			}
+			for(Edge edge : universe.edges()){
+				Object normalizedAddress = edge.getAttr(NormalizedAddress.NORMALIZED_ADDRESS_ATTRIBUTE);
+				if(normalizedAddress != null){
+					normalizedAddresses.put(normalizedAddress.toString(), edge);
+				}
+			}
+		}
+		return normalizedAddresses;
+	}
+
+	private static List<IProject> getIndexedProjects(){
+		List<IProject> projects = new ArrayList<IProject>();
+		for(Node projectNode : Query.universe().nodes(XCSG.Project).eval().nodes()){
+			IProject project = WorkspaceUtils.getProject(projectNode.getAttr(XCSG.name).toString());
+			if(project.exists() && project.isOpen() && project.isAccessible()){
+				projects.add(project);
+			}
+		}
+		return projects;
+	}
+
+	private static File getStoreFile(IProject project, Analyzer analyzer){
+		String projectDirectory = project.getName().replaceAll("[^A-Za-z0-9_.-]", "_");
+		String fileName = analyzer.getName().replaceAll("[^A-Za-z0-9_.-]", "_") + STORE_EXTENSION;
+		return Activator.getDefault().getStateLocation().append(STORE_DIRECTORY).append(projectDirectory).append(fileName).toFile();
+	}
+
+}
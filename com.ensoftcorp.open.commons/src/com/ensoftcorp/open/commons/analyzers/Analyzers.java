@@ -1,11 +1,28 @@
 package com.ensoftcorp.open.commons.analyzers;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IConfigurationElement;
@@ -18,7 +35,12 @@ import com.ensoftcorp.open.commons.Activator;
 import com.ensoftcorp.open.commons.analyzers.Analyzer.Result;
 import com.ensoftcorp.open.commons.codemap.PrioritizedCodemapStage;
 import com.ensoftcorp.open.commons.log.Log;
+import com.ensoftcorp.open.commons.metrics.IndexingMetric;
+import com.ensoftcorp.open.commons.metrics.IndexingMetric.Kind;
+import com.ensoftcorp.open.commons.metrics.IndexingMetric.Status;
+import com.ensoftcorp.open.commons.metrics.IndexingMetrics;
 import com.ensoftcorp.open.commons.preferences.AnalyzerPreferences;
+import com.ensoftcorp.open.commons.preferences.CommonsPreferences;
 
 public class Analyzers extends PrioritizedCodemapStage {
 
@@ -28,7 +50,12 @@ public class Analyzers extends PrioritizedCodemapStage {
 	public static final String IDENTIFIER = "com.ensoftcorp.open.commons.analyzers";
 	
 	private static Set<Analyzer> ANALYZERS = Collections.synchronizedSet(new HashSet<Analyzer>());
-	private static Map<String, List<Result>> ANALYZER_RESULTS = new HashMap<String, List<Result>>();
+	
+	// written by the indexing thread and read by the UI
+	private static final ConcurrentHashMap<String, List<Result>> ANALYZER_RESULTS = new ConcurrentHashMap<String, List<Result>>();
+	
+	// the names of the analyzers that have been looked up in the analyzer result store for the current index
+	private static final Set<String> STORE_LOAD_ATTEMPTED = ConcurrentHashMap.newKeySet();
 	
 	@Override
 	public String getDisplayName() {
@@ -56,40 +83,257 @@ public class Analyzers extends PrioritizedCodemapStage {
 		return result;
 	}
 
+	/**
+	 * Runs each enabled analyzer against the universe and caches its results.
+	 * 
+	 * The codemap stage dependencies of the enabled analyzers are dependencies
+	 * of this stage, so they are satisfied before any analyzer runs. Graph
+	 * writing exclusive analyzers are run one at a time first, then the
+	 * remaining analyzers are run concurrently on a bounded pool (see the
+	 * analyzer parallelism preference). Results are cached and the result
+	 * changed callbacks are fired as each analyzer completes. Cached results
+	 * are persisted to the analyzer result store when indexing completes.
+	 * 
+	 * Canceling the monitor interrupts the running analyzers and skips the
+	 * analyzers that have not yet started. An analyzer that runs longer than
+	 * the analyzer timeout preference is interrupted and its results are
+	 * discarded. Analyzers that stream their results stop at their next
+	 * result once canceled or timed out. Analyzers that ignore interruption
+	 * continue on a background thread until they return, but their results are
+	 * not cached. The timeout does not apply to graph writing exclusive
+	 * analyzers, they run on the indexing thread and this stage does not
+	 * return until they have stopped.
+	 */
 	@Override
 	public boolean performIndexing(IProgressMonitor monitor) {
-		boolean logged = false;
-		ANALYZER_RESULTS.clear();
+		AnalyzerResultStore.indexingStarted();
+		clearCachedResults();
 		ANALYZERS.clear();
 		Analyzers.loadAnalyzerContributions();
 		Set<Analyzer> analyzers = Analyzers.getRegisteredAnalyzers();
-		boolean ranIndexer = false;
+		List<Analyzer> exclusiveAnalyzers = new ArrayList<Analyzer>();
+		List<Analyzer> concurrentAnalyzers = new ArrayList<Analyzer>();
 		for(Analyzer analyzer : analyzers){
-			ranIndexer = true;
 			if(AnalyzerPreferences.isAnalyzerCachingEnabled(analyzer.getName())){
-				if(!logged){
-					Log.info("Running analyzers...");
-					logged = true;
+				if(analyzer.isGraphWritingExclusive()){
+					exclusiveAnalyzers.add(analyzer);
+				} else {
+					concurrentAnalyzers.add(analyzer);
+				}
+			}
+		}
+		if(!exclusiveAnalyzers.isEmpty() || !concurrentAnalyzers.isEmpty()){
+			Log.info("Running analyzers...");
+		}
+		// exclusive analyzers write to the graph, abandoning one on a timeout would
+		// leave it writing while the next analyzers and codemap stages run, so
+		// they are run to completion (or cancellation) on the indexing thread
+		runAnalyzers(exclusiveAnalyzers, 1, 0, monitor);
+		long timeout = TimeUnit.SECONDS.toNanos(Math.max(0, CommonsPreferences.getAnalyzerTimeout()));
+		runAnalyzers(concurrentAnalyzers, CommonsPreferences.getAnalyzerParallelism(), timeout, monitor);
+		return !analyzers.isEmpty();
+	}
+	
+	/**
+	 * The poll interval in milliseconds used to check for cancellation and
+	 * timeouts while analyzers are running
+	 */
+	private static final long POLL_INTERVAL = 250;
+	
+	private static final AtomicInteger threadCounter = new AtomicInteger(0);
+	
+	/**
+	 * Runs the given analyzers with at most the given number running at once.
+	 * Analyzers are run on the calling thread if the parallelism is 1 and
+	 * there is no timeout.
+	 * 
+	 * @param analyzers
+	 * @param parallelism
+	 * @param timeout the timeout of each analyzer in nanoseconds or 0 for no timeout
+	 * @param monitor
+	 */
+	private static void runAnalyzers(List<Analyzer> analyzers, int parallelism, long timeout, IProgressMonitor monitor){
+		if(analyzers.isEmpty()){
+			return;
+		}
+		
+		if(parallelism <= 1 && timeout <= 0){
+			for(Analyzer analyzer : analyzers){
+				if(monitor.isCanceled()){
+					Log.warning("Cancelled: Running Analyzers");
+					return;
 				}
 				monitor.subTask("Analyzing " + analyzer.getName());
-				Log.info("Analyzing " + analyzer.getName());
-				
-				long elapsed = System.currentTimeMillis();
-				
-				// TODO: how to set analyzer context? via preferences maybe?
-				List<Result> results = analyzer.getResults(Query.universe());
-				
-				elapsed = System.currentTimeMillis() - elapsed;
-				Log.debug("Analyzer time: " + analyzer.getName() + " " + elapsed + "ms");
-				
-				cacheResults(analyzer, results);
-				
-				for(AnalyzerResultChangedCallback callback : CALLBACKS) {
-					callback.callback();
+				try {
+					List<Result> results = new AnalyzerTask(analyzer, monitor).call();
+					if(results != null){
+						analyzerCompleted(analyzer, results);
+					}
+				} catch (Exception e){
+					Log.error("Error running analyzer " + analyzer.getName(), e);
 				}
 			}
+			return;
+		}
+		
+		if(analyzers.size() == 1){
+			monitor.subTask("Analyzing " + analyzers.get(0).getName());
+		} else {
+			monitor.subTask("Analyzing " + analyzers.size() + " analyzers");
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, analyzers.size())), new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Analyzer Worker " + threadCounter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		CompletionService<List<Result>> completionService = new ExecutorCompletionService<List<Result>>(pool);
+		Map<Future<List<Result>>, AnalyzerTask> running = new HashMap<Future<List<Result>>, AnalyzerTask>();
+		try {
+			for(Analyzer analyzer : analyzers){
+				AnalyzerTask task = new AnalyzerTask(analyzer, monitor);
+				running.put(completionService.submit(task), task);
+			}
+			while(!running.isEmpty()){
+				if(monitor.isCanceled()){
+					Log.warning("Cancelled: Running Analyzers");
+					for(Entry<Future<List<Result>>, AnalyzerTask> entry : running.entrySet()){
+						entry.getValue().abandon();
+						entry.getKey().cancel(true);
+					}
+					running.clear();
+					break;
+				}
+				Future<List<Result>> result = completionService.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+				if(result != null){
+					// canceled tasks have already been removed
+					AnalyzerTask task = running.remove(result);
+					if(task != null){
+						try {
+							List<Result> results = result.get();
+							if(results != null){
+								analyzerCompleted(task.analyzer, results);
+							}
+						} catch (ExecutionException e){
+							Log.error("Error running analyzer " + task.analyzer.getName(), e.getCause());
+						} catch (CancellationException e){
+							// the analyzer was canceled, nothing to report
+						}
+					}
+				}
+				if(timeout > 0){
+					long now = System.nanoTime();
+					Iterator<Entry<Future<List<Result>>, AnalyzerTask>> iterator = running.entrySet().iterator();
+					while(iterator.hasNext()){
+						Entry<Future<List<Result>>, AnalyzerTask> entry = iterator.next();
+						if(entry.getValue().isTimedOut(now, timeout)){
+							Log.warning("Timed out: Analyzer " + entry.getValue().analyzer.getName() 
+									+ " did not complete within " + TimeUnit.NANOSECONDS.toSeconds(timeout) + " seconds");
+							entry.getValue().abandon();
+							entry.getKey().cancel(true);
+							iterator.remove();
+						}
+					}
+				}
+			}
+		} catch (InterruptedException e){
+			Log.warning("Interrupted: Running Analyzers", e);
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Caches the results of a completed analyzer and notifies the result
+	 * changed callbacks
+	 * @param analyzer
+	 * @param results
+	 */
+	private static void analyzerCompleted(Analyzer analyzer, List<Result> results){
+		cacheResults(analyzer, results);
+		for(AnalyzerResultChangedCallback callback : CALLBACKS) {
+			try {
+				callback.callback();
+			} catch (Throwable t){
+				Log.error("Error notifying analyzer result changed callback", t);
+			}
+		}
+	}
+	
+	/**
+	 * Runs a single analyzer against the universe and records its indexing
+	 * metrics
+	 */
+	private static class AnalyzerTask implements Callable<List<Result>> {
+		private final Analyzer analyzer;
+		private final IProgressMonitor monitor;
+		private final AtomicBoolean abandoned = new AtomicBoolean(false);
+		
+		// the time the analyzer started running, valid once started is set
+		private volatile long start;
+		private volatile boolean started = false;
+		
+		public AnalyzerTask(Analyzer analyzer, IProgressMonitor monitor){
+			this.analyzer = analyzer;
+			this.monitor = monitor;
+		}
+		
+		/**
+		 * Marks the analyzer as canceled or timed out, its results will be discarded
+		 */
+		public void abandon(){
+			abandoned.set(true);
+		}
+		
+		public boolean isTimedOut(long now, long timeout){
+			return started && (now - start) > timeout;
+		}
+		
+		/**
+		 * Returns the analyzer results or null if the analyzer was abandoned
+		 */
+		@Override
+		public List<Result> call() throws Exception {
+			if(abandoned.get() || monitor.isCanceled()){
+				return null;
+			}
+			start = System.nanoTime();
+			started = true;
+			Log.info("Analyzing " + analyzer.getName());
+			IndexingMetrics.Measurement measurement = IndexingMetrics.start(Kind.ANALYZER, analyzer.getName());
+			final List<Result> results = new ArrayList<Result>();
+			try {
+				// TODO: how to set analyzer context? via preferences maybe?
+				// streaming analyzers stop early once abandoned or canceled
+				analyzer.streamResults(Query.universe(), new ResultSink(){
+					@Override
+					public boolean accept(Result result) {
+						if(abandoned.get() || monitor.isCanceled()){
+							return false;
+						}
+						results.add(result);
+						return true;
+					}
+				});
+			} catch (RuntimeException e){
+				measurement.stop(e);
+				throw e;
+			} catch (Error e){
+				// every measurement must be stopped, see IndexingMetrics
+				measurement.stop(e);
+				throw e;
+			}
+			if(abandoned.get()){
+				measurement.stop(Status.CANCELED);
+				return null;
+			}
+			IndexingMetric metric = measurement.stop(monitor.isCanceled() ? Status.CANCELED : Status.COMPLETED);
+			Log.debug("Analyzer time: " + analyzer.getName() + " " + (metric.getWallTime() / 1000000) + "ms");
+			return results;
 		}
-		return ranIndexer;
 	}
 	
 	public static abstract class AnalyzerResultChangedCallback {
@@ -127,7 +371,7 @@ public class Analyzers extends PrioritizedCodemapStage {
 		public abstract void callback();
 	}
 	
-	private static final Set<AnalyzerResultChangedCallback> CALLBACKS = new HashSet<AnalyzerResultChangedCallback>();
+	private static final Set<AnalyzerResultChangedCallback> CALLBACKS = new CopyOnWriteArraySet<AnalyzerResultChangedCallback>();
 	
 	public static void registerAnalyzerResultChangedCallback(AnalyzerResultChangedCallback callback) {
 		CALLBACKS.add(callback);
@@ -139,26 +383,63 @@ public class Analyzers extends PrioritizedCodemapStage {
 	
 	public static void clearCachedResults(){
 		ANALYZER_RESULTS.clear();
+		STORE_LOAD_ATTEMPTED.clear();
 	}
 	
 	public static boolean hasCachedResult(Analyzer analyzer){
 		return hasCachedResult(analyzer.getName());
 	}
 	
+	/**
+	 * Caches the results of an analyzer and persists them to the analyzer
+	 * result store (if enabled)
+	 * @param analyzer
+	 * @param results
+	 */
 	public static void cacheResults(Analyzer analyzer, List<Result> results){
+		if(results == null){
+			results = Collections.emptyList();
+		}
 		ANALYZER_RESULTS.put(analyzer.getName(), results);
+		AnalyzerResultStore.resultsChanged(analyzer, results);
 	}
 	
 	public static boolean hasCachedResult(String analyzerName) {
-		return ANALYZER_RESULTS.containsKey(analyzerName);
+		return getAnalyzerResults(analyzerName) != null;
 	}
 	
 	public static List<Result> getAnalyzerResults(Analyzer analyzer){
 		return getAnalyzerResults(analyzer.getName()); 
 	}
 	
+	/**
+	 * Returns the cached results of the analyzer, loading them from the
+	 * analyzer result store on first access if they have not been computed
+	 * for the current index. Returns null if no results are available.
+	 * 
+	 * @param analyzerName
+	 * @return
+	 */
 	public static List<Result> getAnalyzerResults(String analyzerName){
-		return ANALYZER_RESULTS.get(analyzerName); 
+		List<Result> results = ANALYZER_RESULTS.get(analyzerName);
+		// stores are only read once the current index has been fingerprinted
+		if(results == null && AnalyzerResultStore.isEnabled() && !AnalyzerResultStore.isIndexing() 
+				&& AnalyzerResultStore.getIndexFingerprint() != null && STORE_LOAD_ATTEMPTED.add(analyzerName)){
+			for(Analyzer analyzer : getRegisteredAnalyzers()){
+				if(analyzer.getName().equals(analyzerName)){
+					results = AnalyzerResultStore.load(analyzer);
+					if(results != null){
+						// don't overwrite results computed while loading
+						List<Result> computedResults = ANALYZER_RESULTS.putIfAbsent(analyzerName, results);
+						if(computedResults != null){
+							results = computedResults;
+						}
+					}
+					break;
+				}
+			}
+		}
+		return results;
 	}
 
 	/**
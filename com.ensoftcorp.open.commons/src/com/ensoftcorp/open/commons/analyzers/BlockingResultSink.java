@@ -0,0 +1,94 @@
+package com.ensoftcorp.open.commons.analyzers;
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.ensoftcorp.open.commons.analyzers.Analyzer.Result;
+
+/**
+ * A bounded buffer between an analyzer streaming results on one thread and a
+ * consumer draining them in batches on another (for example the UI thread).
+ * 
+ * The analyzer blocks when the buffer is full until the consumer catches up,
+ * so at most capacity results are buffered at once. The consumer may cancel
+ * the sink at any time, which discards the buffered results and causes the
+ * analyzer's next accept to return false. The producer closes the sink when
+ * the analyzer returns.
+ * 
+ * @author Ben Holland
+ */
+public class BlockingResultSink implements ResultSink {
+
+	/**
+	 * The interval in milliseconds a blocked producer checks for cancellation
+	 */
+	private static final long CANCELLATION_POLL_INTERVAL = 100;
+	
+	private final ArrayBlockingQueue<Result> buffer;
+	private volatile boolean closed = false;
+	private volatile boolean canceled = false;
+	
+	/**
+	 * Creates a sink that buffers at most the given number of results
+	 * @param capacity
+	 */
+	public BlockingResultSink(int capacity) {
+		this.buffer = new ArrayBlockingQueue<Result>(capacity);
+	}
+	
+	@Override
+	public boolean accept(Result result) {
+		try {
+			while(!canceled){
+				if(buffer.offer(result, CANCELLATION_POLL_INTERVAL, TimeUnit.MILLISECONDS)){
+					return true;
+				}
+			}
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+	
+	/**
+	 * Moves up to the given number of buffered results to the collection
+	 * without blocking, returns the number of results moved
+	 * @param results
+	 * @param maximum
+	 * @return
+	 */
+	public int drainTo(Collection<Result> results, int maximum) {
+		return buffer.drainTo(results, maximum);
+	}
+	
+	/**
+	 * Called by the producer once the analyzer has returned
+	 */
+	public void close() {
+		closed = true;
+	}
+	
+	/**
+	 * Called by the consumer to stop the analyzer early, buffered results are
+	 * discarded
+	 */
+	public void cancel() {
+		canceled = true;
+		buffer.clear();
+	}
+	
+	public boolean isCanceled() {
+		return canceled;
+	}
+	
+	/**
+	 * Returns true if the producer has closed the sink and every buffered
+	 * result has been drained
+	 * @return
+	 */
+	public boolean isDone() {
+		return closed && buffer.isEmpty();
+	}
+	
+}
@@ -1,7 +1,6 @@
 package com.ensoftcorp.open.commons.analyzers;
 
 import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
 
 import com.ensoftcorp.atlas.core.db.graph.Graph;
@@ -37,15 +36,20 @@ public class CyclomaticComplexity extends Property {
 
 	@Override
 	public List<Result> getResults(Q context) {
+		return collectResults(context);
+	}
+	
+	@Override
+	public void streamResults(Q context, ResultSink sink) {
 		Q functions = context.nodes(XCSG.Function);
-		LinkedList<Result> results = new LinkedList<Result>();
 		for(Node function : functions.eval().nodes()){
 			Integer metric = cyclomaticComplexity(function, false);
 			Result result = new Result((RESULT_PREFIX + metric), Common.toQ(function));
 			result.setData(metric);
-			results.add(result);
+			if(!sink.accept(result)){
+				return;
+			}
 		}
-		return results;
 	}
 
 	/**
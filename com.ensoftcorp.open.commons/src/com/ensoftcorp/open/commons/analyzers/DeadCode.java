@@ -1,7 +1,9 @@
 package com.ensoftcorp.open.commons.analyzers;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
 
 import com.ensoftcorp.atlas.core.db.graph.Node;
@@ -38,10 +40,34 @@ public class DeadCode extends Property {
 		long deadCodeRoots;
 	}
 	
+	@Override
+	public ResultDataCodec getResultDataCodec(){
+		return new ResultDataCodec(){
+			@Override
+			public void write(Object data, DataOutput output) throws IOException {
+				ResultData resultData = (ResultData) data;
+				output.writeUTF(resultData.name);
+				output.writeLong(resultData.deadCodeRoots);
+			}
+
+			@Override
+			public Object read(DataInput input) throws IOException {
+				ResultData resultData = new ResultData();
+				resultData.name = input.readUTF();
+				resultData.deadCodeRoots = input.readLong();
+				return resultData;
+			}
+		};
+	}
+	
 	@Override
 	public List<Result> getResults(Q context) {
+		return collectResults(context);
+	}
+	
+	@Override
+	public void streamResults(Q context, ResultSink sink) {
 		Q functions = context.nodes(XCSG.Function);
-		LinkedList<Result> results = new LinkedList<Result>();
 		for(Node function : functions.eval().nodes()){
 			Q cfg = CommonQueries.excfg(function);
 			Q deadCode = cfg.roots().difference(cfg.nodes(XCSG.controlFlowRoot));
@@ -53,10 +79,11 @@ public class DeadCode extends Property {
 				String title = (String.format(RESULT_PREFIX, ("" + deadCodeRoots), data.name) + deadCodeRoots);
 				Result result = new Result(title, deadCode);
 				result.setData(data);
-				results.add(result);
+				if(!sink.accept(result)){
+					return;
+				}
 			}
 		}
-		return results;
 	}
 	
 	/**
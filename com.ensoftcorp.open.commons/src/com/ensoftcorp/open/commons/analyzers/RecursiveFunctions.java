@@ -1,7 +1,6 @@
 package com.ensoftcorp.open.commons.analyzers;
 
 import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
 
 import com.ensoftcorp.atlas.core.db.graph.Edge;
@@ -47,6 +46,11 @@ public class RecursiveFunctions extends Property {
 	
 	@Override
 	public List<Result> getResults(Q context) {
+		return collectResults(context);
+	}
+	
+	@Override
+	public void streamResults(Q context, ResultSink sink) {
 		// TODO: make removal of Object member overrides optional
 		// removing Object methods can improve the usability of these results for the general case
 		Q overridesEdges = Query.universe().edges(XCSG.Overrides);
@@ -59,28 +63,29 @@ public class RecursiveFunctions extends Property {
 		
 		StronglyConnectedComponents adapter = new StronglyConnectedComponents(callgraph);
 
-		LinkedList<Result> results = new LinkedList<Result>();
-		for (AtlasSet<Node> scc : adapter.findSCCs()) {
+		// only cyclic SCCs (more than one function or a self call) can be recursive
+		for (AtlasSet<Node> scc : adapter.findSCCs(false)) {
 			Q recursion = Common.toQ(scc).induce(callgraph);
 			Graph recursionGraph = recursion.eval();
 			if (recursionGraph.edges().size() > 0) {
 				// SCC must have at least one edge to be recursive
 				Result result = new Result((RESULT_PREFIX + recursionGraph.nodes().size()), Common.toQ(recursionGraph));
 				result.setData(recursionGraph.nodes().size());
-				results.add(result);
+				if (!sink.accept(result)) {
+					return;
+				}
 			}
 		}
-		
-		return results;
 	}
 
-	// jgrapht library version
+	// strongly connected components version
 	public static Q getRecursiveMethods() {
 		Q callgraph = resolve(Query.universe().nodes(XCSG.Function).induce(Query.universe().edges(XCSG.Call)));
 		StronglyConnectedComponents adapter = new StronglyConnectedComponents(callgraph);
 		AtlasSet<Node> recursionNodes = new AtlasHashSet<Node>();
 		AtlasSet<Edge> recursionEdges = new AtlasHashSet<Edge>();
-		for (AtlasSet<Node> scc : adapter.findSCCs()) {
+		// only cyclic SCCs (more than one function or a self call) can be recursive
+		for (AtlasSet<Node> scc : adapter.findSCCs(false)) {
 			Q recursion = Common.toQ(scc).induce(callgraph);
 			Graph recursionGraph = recursion.eval();
 			if (recursionGraph.edges().size() > 0) {
@@ -0,0 +1,35 @@
+package com.ensoftcorp.open.commons.analyzers;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes and reads the data of an analyzer's results so the results can be
+ * kept in the analyzer result store (see Analyzer.getResultDataCodec). A
+ * store is discarded when the analyzer's version changes, so a codec may
+ * change its format along with the analyzer version.
+ *
+ * @author Ben Holland
+ */
+public interface ResultDataCodec {
+
+	/**
+	 * Writes the (non-null) data of a result
+	 *
+	 * @param data
+	 * @param output
+	 * @throws IOException
+	 */
+	public void write(Object data, DataOutput output) throws IOException;
+
+	/**
+	 * Reads the data of a result written by {@link #write(Object, DataOutput)}
+	 *
+	 * @param input
+	 * @return
+	 * @throws IOException
+	 */
+	public Object read(DataInput input) throws IOException;
+
+}
@@ -0,0 +1,24 @@
+package com.ensoftcorp.open.commons.analyzers;
+
+import com.ensoftcorp.open.commons.analyzers.Analyzer.Result;
+
+/**
+ * A consumer of analyzer results that are streamed as they are found (see
+ * Analyzer.streamResults)
+ * 
+ * @author Ben Holland
+ */
+public interface ResultSink {
+
+	/**
+	 * Accepts the next analyzer result. A sink may block until it is ready
+	 * for more results (backpressure). Returns false if the sink will not
+	 * accept any more results, in which case the analyzer should stop
+	 * producing results and return as soon as possible.
+	 * 
+	 * @param result
+	 * @return true if the analyzer should continue producing results
+	 */
+	public boolean accept(Result result);
+	
+}
@@ -1,8 +1,6 @@
 package com.ensoftcorp.open.commons.codemap;
 
-import java.text.DecimalFormat;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -15,6 +13,8 @@ import org.eclipse.core.runtime.Platform;
 import com.ensoftcorp.atlas.core.indexing.providers.ToolboxIndexingStage;
 import com.ensoftcorp.open.commons.Activator;
 import com.ensoftcorp.open.commons.log.Log;
+import com.ensoftcorp.open.commons.metrics.IndexingMetrics;
+import com.ensoftcorp.open.commons.preferences.CommonsPreferences;
 
 public class AtlasToolboxCodemapStage implements ToolboxIndexingStage {
 
@@ -26,7 +26,6 @@ public class AtlasToolboxCodemapStage implements ToolboxIndexingStage {
 	@Override
 	public void performIndexing(IProgressMonitor monitor) {
 		try {
-			HashSet<String> completedCodemapStages = new HashSet<String>();
 			Set<PrioritizedCodemapStage> codemapStages = loadCodemapContributions();
 			
 			String message = "Loaded " + codemapStages.size() + " Prioritized Codemap Stages";
@@ -38,68 +37,15 @@ public class AtlasToolboxCodemapStage implements ToolboxIndexingStage {
 			}
 			Log.info(message);
 					
-			while(!codemapStages.isEmpty()){
-				PrioritizedCodemapStage codemapStage = getDependencySatisfiedCodemapStage(codemapStages, completedCodemapStages);
-				monitor.setTaskName(codemapStage.getDisplayName());
-				try {
-					long start = System.nanoTime();
-					if(codemapStage.performIndexing(monitor)) {
-						long stop = System.nanoTime();
-						DecimalFormat decimalFormat = new DecimalFormat("#.##");
-						double time = (stop - start)/1000.0/1000.0; // ms
-						if(time < 100) {
-							Log.info("Finished " + codemapStage.getDisplayName() + " in " + decimalFormat.format(time) + "ms");
-						} else {
-							time = (stop - start)/1000.0/1000.0/1000.0; // s
-							if(time < 60) {
-								Log.info("Finished " + codemapStage.getDisplayName() + " in " + decimalFormat.format(time) + "s");
-							} else {
-								time = (stop - start)/1000.0/1000.0/1000.0/60.0; // m
-								if(time < 60) {
-									Log.info("Finished " + codemapStage.getDisplayName() + " in " + decimalFormat.format(time) + "m");
-								} else {
-									time = (stop - start)/1000.0/1000.0/1000.0/60.0/60.0; // h
-									Log.info("Finished " + codemapStage.getDisplayName() + " in " + decimalFormat.format(time) + "h");
-								}
-							}
-						}
-					}
-				} catch (Throwable t){
-					Log.error(codemapStage.getDisplayName() + " failed.", t);
-				}
-				codemapStages.remove(codemapStage);
-				completedCodemapStages.add(codemapStage.getIdentifier());
-			}
+			CodemapStageScheduler scheduler = new CodemapStageScheduler(codemapStages);
+			IndexingMetrics.beginRun();
+			scheduler.execute(CommonsPreferences.getCodemapStageParallelism(), monitor);
+			IndexingMetrics.persist();
 		} catch (Exception e) {
 			Log.error("Error running toolbox codemap stages", e);
 		}
 	}
 	
-	/**
-	 * Returns a codemap stage that has all dependencies satisfied
-	 * @param codemapStages
-	 * @param completedCodemapStages
-	 * @return
-	 */
-	private PrioritizedCodemapStage getDependencySatisfiedCodemapStage(Set<PrioritizedCodemapStage> codemapStages, HashSet<String> completedCodemapStages){
-		HashMap<String,HashSet<String>> unastisfiedCodemapStages = new HashMap<String,HashSet<String>>();
-		for(PrioritizedCodemapStage codemapStage : codemapStages){
-			HashSet<String> dependencies = new HashSet<String>();
-			for(String dependency : codemapStage.getCodemapStageDependencies()){
-				dependencies.add(dependency);
-			}
-			dependencies.removeAll(completedCodemapStages);
-			if(dependencies.isEmpty()){
-				return codemapStage;
-			} else {
-				unastisfiedCodemapStages.put(codemapStage.getIdentifier(), dependencies);
-			}
-		}
-		throw new RuntimeException(codemapStages.size() + " unsatisfiable codemap stages!"
-			+ "\nCodemap Statges With Unsatisfied Dependencies: " + codemapStages.toString() 
-			+ "\nUnsatisfied Dependencies: " + unastisfiedCodemapStages.toString());
-	}
-	
 	/**
 	 * Returns the contributed plugin codemap stages
 	 */
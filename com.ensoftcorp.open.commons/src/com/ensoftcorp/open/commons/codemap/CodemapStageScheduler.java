@@ -0,0 +1,465 @@
+package com.ensoftcorp.open.commons.codemap;
+
+import java.text.DecimalFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+
+import com.ensoftcorp.open.commons.log.Log;
+import com.ensoftcorp.open.commons.metrics.IndexingMetric;
+import com.ensoftcorp.open.commons.metrics.IndexingMetric.Kind;
+import com.ensoftcorp.open.commons.metrics.IndexingMetric.Status;
+import com.ensoftcorp.open.commons.metrics.IndexingMetrics;
+
+/**
+ * Schedules the execution of a set of prioritized codemap stages.
+ *
+ * The dependency graph of the stages is built once from
+ * {@link PrioritizedCodemapStage#getCodemapStageDependencies()} and validated
+ * up front, missing dependencies and dependency cycles are reported before any
+ * stage is run and the stages that cannot be satisfied are skipped. Stages are
+ * then run in dependency order, stages whose
+ * dependencies are satisfied may run concurrently (up to the given
+ * parallelism) unless one of them declares itself graph writing exclusive
+ * (see {@link PrioritizedCodemapStage#isGraphWritingExclusive()}), in which
+ * case it runs alone.
+ *
+ * As before, a stage that fails is logged and treated as completed so that
+ * the stages that depend on it still run.
+ *
+ * @author Ben Holland
+ */
+public class CodemapStageScheduler {
+
+	/**
+	 * How often the scheduler checks the progress monitor for cancellation
+	 * while waiting for running stages
+	 */
+	private static final long CANCELLATION_POLL_INTERVAL = 250; // ms
+
+	/**
+	 * The stages in a deterministic topological order
+	 */
+	private List<PrioritizedCodemapStage> topologicalOrder;
+
+	/**
+	 * The stages that depend on each stage
+	 */
+	private Map<PrioritizedCodemapStage,List<PrioritizedCodemapStage>> dependents;
+
+	/**
+	 * The number of dependencies of each stage
+	 */
+	private Map<PrioritizedCodemapStage,Integer> dependencyCounts;
+
+	/**
+	 * The stages that will not be run because they depend on a stage that is
+	 * not present or on a dependency cycle
+	 */
+	private Set<PrioritizedCodemapStage> unsatisfiable;
+
+	/**
+	 * Builds and validates the dependency graph of the given codemap stages.
+	 * Stages that depend on a stage that is not present or whose dependencies
+	 * contain a cycle are logged and excluded from the schedule, the
+	 * remaining stages are still run.
+	 *
+	 * @param codemapStages
+	 */
+	public CodemapStageScheduler(Set<PrioritizedCodemapStage> codemapStages){
+		// sort by identifier so that the execution order is reproducible
+		List<PrioritizedCodemapStage> stages = new ArrayList<PrioritizedCodemapStage>(codemapStages);
+		Collections.sort(stages, new Comparator<PrioritizedCodemapStage>(){
+			@Override
+			public int compare(PrioritizedCodemapStage s1, PrioritizedCodemapStage s2) {
+				return String.valueOf(s1.getIdentifier()).compareTo(String.valueOf(s2.getIdentifier()));
+			}
+		});
+
+		Map<String,PrioritizedCodemapStage> identifiers = new HashMap<String,PrioritizedCodemapStage>();
+		for(PrioritizedCodemapStage stage : stages){
+			identifiers.put(stage.getIdentifier(), stage);
+		}
+
+		dependents = new HashMap<PrioritizedCodemapStage,List<PrioritizedCodemapStage>>();
+		dependencyCounts = new HashMap<PrioritizedCodemapStage,Integer>();
+		Map<String,Set<String>> missingDependencies = new HashMap<String,Set<String>>();
+		for(PrioritizedCodemapStage stage : stages){
+			dependents.put(stage, new ArrayList<PrioritizedCodemapStage>());
+		}
+		for(PrioritizedCodemapStage stage : stages){
+			Set<PrioritizedCodemapStage> dependencies = new HashSet<PrioritizedCodemapStage>();
+			for(String dependency : stage.getCodemapStageDependencies()){
+				PrioritizedCodemapStage dependencyStage = identifiers.get(dependency);
+				if(dependencyStage == null){
+					Set<String> missing = missingDependencies.get(stage.getIdentifier());
+					if(missing == null){
+						missing = new HashSet<String>();
+						missingDependencies.put(stage.getIdentifier(), missing);
+					}
+					missing.add(dependency);
+				} else if(dependencies.add(dependencyStage)){
+					dependents.get(dependencyStage).add(stage);
+				}
+			}
+			dependencyCounts.put(stage, dependencies.size());
+		}
+
+		// Kahn's algorithm (missing dependencies are not counted), any stage
+		// left unordered is on or behind a cycle
+		List<PrioritizedCodemapStage> order = new ArrayList<PrioritizedCodemapStage>(stages.size());
+		Map<PrioritizedCodemapStage,Integer> remaining = new HashMap<PrioritizedCodemapStage,Integer>(dependencyCounts);
+		ArrayDeque<PrioritizedCodemapStage> ready = new ArrayDeque<PrioritizedCodemapStage>();
+		for(PrioritizedCodemapStage stage : stages){
+			if(remaining.get(stage) == 0){
+				ready.add(stage);
+			}
+		}
+		while(!ready.isEmpty()){
+			PrioritizedCodemapStage stage = ready.remove();
+			order.add(stage);
+			for(PrioritizedCodemapStage dependent : dependents.get(stage)){
+				int count = remaining.get(dependent) - 1;
+				remaining.put(dependent, count);
+				if(count == 0){
+					ready.add(dependent);
+				}
+			}
+		}
+
+		// stages with a missing dependency or on a dependency cycle can never
+		// run, and neither can the stages that (transitively) depend on them
+		unsatisfiable = new HashSet<PrioritizedCodemapStage>();
+		ArrayDeque<PrioritizedCodemapStage> worklist = new ArrayDeque<PrioritizedCodemapStage>();
+		for(PrioritizedCodemapStage stage : stages){
+			if(missingDependencies.containsKey(stage.getIdentifier()) || remaining.get(stage) > 0){
+				worklist.add(stage);
+			}
+		}
+		while(!worklist.isEmpty()){
+			PrioritizedCodemapStage stage = worklist.remove();
+			if(unsatisfiable.add(stage)){
+				worklist.addAll(dependents.get(stage));
+			}
+		}
+
+		if(!unsatisfiable.isEmpty()){
+			StringBuilder message = new StringBuilder();
+			message.append(unsatisfiable.size() + " unsatisfiable codemap stages will not be run!");
+			if(!missingDependencies.isEmpty()){
+				message.append("\nMissing Dependencies: " + missingDependencies.toString());
+			}
+			if(order.size() != stages.size()){
+				List<PrioritizedCodemapStage> cycle = findCycle(stages, remaining, identifiers);
+				message.append("\nDependency Cycle: ");
+				for(PrioritizedCodemapStage stage : cycle){
+					message.append(stage.getIdentifier() + " -> ");
+				}
+				message.append(cycle.get(0).getIdentifier());
+			}
+			message.append("\nCodemap Stages With Unsatisfied Dependencies: ");
+			List<String> unsatisfied = new ArrayList<String>();
+			for(PrioritizedCodemapStage stage : stages){
+				if(unsatisfiable.contains(stage)){
+					unsatisfied.add(stage.getIdentifier());
+				}
+			}
+			message.append(unsatisfied.toString());
+			Log.error(message.toString(), null);
+		}
+
+		// schedule only the satisfiable stages, their dependencies are all satisfiable
+		topologicalOrder = new ArrayList<PrioritizedCodemapStage>(order.size());
+		for(PrioritizedCodemapStage stage : order){
+			if(!unsatisfiable.contains(stage)){
+				topologicalOrder.add(stage);
+			}
+		}
+		for(PrioritizedCodemapStage stage : topologicalOrder){
+			dependents.get(stage).removeAll(unsatisfiable);
+		}
+	}
+
+	/**
+	 * Returns one dependency cycle among the stages that could not be ordered
+	 * (each such stage has at least one unordered dependency, so following
+	 * unordered dependencies must eventually revisit a stage)
+	 */
+	private static List<PrioritizedCodemapStage> findCycle(List<PrioritizedCodemapStage> stages, Map<PrioritizedCodemapStage,Integer> remaining, Map<String,PrioritizedCodemapStage> identifiers){
+		PrioritizedCodemapStage current = null;
+		for(PrioritizedCodemapStage stage : stages){
+			if(remaining.get(stage) > 0){
+				current = stage;
+				break;
+			}
+		}
+		LinkedList<PrioritizedCodemapStage> path = new LinkedList<PrioritizedCodemapStage>();
+		Set<PrioritizedCodemapStage> visited = new HashSet<PrioritizedCodemapStage>();
+		while(visited.add(current)){
+			path.add(current);
+			for(String dependency : current.getCodemapStageDependencies()){
+				PrioritizedCodemapStage dependencyStage = identifiers.get(dependency);
+				if(dependencyStage != null && remaining.get(dependencyStage) > 0){
+					current = dependencyStage;
+					break;
+				}
+			}
+		}
+		// trim the path leading into the cycle
+		while(!path.getFirst().equals(current)){
+			path.removeFirst();
+		}
+		// the path follows dependencies, report it in execution order
+		Collections.reverse(path);
+		return path;
+	}
+
+	/**
+	 * Returns the stages that will not be run because their dependencies
+	 * cannot be satisfied
+	 * @return
+	 */
+	public Set<PrioritizedCodemapStage> getUnsatisfiableStages(){
+		return Collections.unmodifiableSet(unsatisfiable);
+	}
+
+	/**
+	 * Returns the stages in the order they would be run serially
+	 * @return
+	 */
+	public List<PrioritizedCodemapStage> getTopologicalOrder(){
+		return Collections.unmodifiableList(topologicalOrder);
+	}
+
+	/**
+	 * Runs the codemap stages
+	 *
+	 * @param parallelism the maximum number of stages to run concurrently, a
+	 *            value of 1 or less runs the stages one at a time on the
+	 *            calling thread
+	 * @param monitor
+	 */
+	public void execute(int parallelism, IProgressMonitor monitor){
+		if(parallelism <= 1 || topologicalOrder.size() <= 1){
+			executeSerially(monitor);
+		} else {
+			executeConcurrently(parallelism, monitor);
+		}
+	}
+
+	private void executeSerially(IProgressMonitor monitor){
+		for(PrioritizedCodemapStage codemapStage : topologicalOrder){
+			if(monitor.isCanceled()){
+				Log.warning("Codemap stages canceled before running " + codemapStage.getDisplayName());
+				return;
+			}
+			monitor.setTaskName(codemapStage.getDisplayName());
+			runCodemapStage(codemapStage, monitor);
+		}
+	}
+
+	private void executeConcurrently(int parallelism, IProgressMonitor monitor){
+		final Map<PrioritizedCodemapStage,Integer> remaining = new HashMap<PrioritizedCodemapStage,Integer>(dependencyCounts);
+		final LinkedList<PrioritizedCodemapStage> ready = new LinkedList<PrioritizedCodemapStage>();
+		for(PrioritizedCodemapStage stage : topologicalOrder){
+			if(remaining.get(stage) == 0){
+				ready.add(stage);
+			}
+		}
+
+		final AtomicInteger threadCounter = new AtomicInteger(0);
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, topologicalOrder.size()), new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Codemap Stage Worker " + threadCounter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		CompletionService<PrioritizedCodemapStage> completionService = new ExecutorCompletionService<PrioritizedCodemapStage>(pool);
+		Set<PrioritizedCodemapStage> running = new HashSet<PrioritizedCodemapStage>();
+		boolean exclusiveRunning = false;
+		int completed = 0;
+		try {
+			while(completed < topologicalOrder.size()){
+				// dispatch as many ready stages as the bounds allow, in topological order
+				if(!monitor.isCanceled()){
+					Iterator<PrioritizedCodemapStage> readyIterator = ready.iterator();
+					while(readyIterator.hasNext() && !exclusiveRunning && running.size() < parallelism){
+						PrioritizedCodemapStage stage = readyIterator.next();
+						if(stage.isGraphWritingExclusive()){
+							if(!running.isEmpty()){
+								// wait for the running stages to drain before starting the exclusive stage
+								break;
+							}
+							exclusiveRunning = true;
+						}
+						readyIterator.remove();
+						running.add(stage);
+						completionService.submit(new CodemapStageTask(stage, monitor));
+					}
+					List<String> runningStages = new ArrayList<String>(running.size());
+					for(PrioritizedCodemapStage runningStage : running){
+						runningStages.add(runningStage.getDisplayName());
+					}
+					monitor.setTaskName(String.join(", ", runningStages));
+				}
+
+				if(running.isEmpty()){
+					// canceled with nothing left in flight
+					Log.warning("Codemap stages canceled, " + (topologicalOrder.size() - completed) + " stages were not run");
+					return;
+				}
+
+				// wait for a stage to finish
+				Future<PrioritizedCodemapStage> result = completionService.poll(CANCELLATION_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+				if(result == null){
+					continue;
+				}
+				PrioritizedCodemapStage stage = result.get(); // task never throws, failures are logged by the task
+				running.remove(stage);
+				completed++;
+				if(stage.isGraphWritingExclusive()){
+					exclusiveRunning = false;
+				}
+				for(PrioritizedCodemapStage dependent : dependents.get(stage)){
+					int count = remaining.get(dependent) - 1;
+					remaining.put(dependent, count);
+					if(count == 0){
+						insertInTopologicalOrder(ready, dependent);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			Log.warning("Interrupted while running codemap stages", e);
+		} catch (Exception e) {
+			Log.error("Error running codemap stages", e);
+		} finally {
+			pool.shutdown();
+			try {
+				// let any running stages finish before the next indexer runs
+				while(!pool.awaitTermination(CANCELLATION_POLL_INTERVAL, TimeUnit.MILLISECONDS)){}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Keeps the ready list in topological order so that dispatching is
+	 * deterministic for a given set of completions
+	 */
+	private void insertInTopologicalOrder(LinkedList<PrioritizedCodemapStage> ready, PrioritizedCodemapStage stage){
+		int position = topologicalOrder.indexOf(stage);
+		int index = 0;
+		for(PrioritizedCodemapStage readyStage : ready){
+			if(topologicalOrder.indexOf(readyStage) > position){
+				break;
+			}
+			index++;
+		}
+		ready.add(index, stage);
+	}
+
+	/**
+	 * Runs a single codemap stage on a worker thread
+	 */
+	private static class CodemapStageTask implements Callable<PrioritizedCodemapStage> {
+		private final PrioritizedCodemapStage codemapStage;
+		private final IProgressMonitor monitor;
+
+		public CodemapStageTask(PrioritizedCodemapStage codemapStage, IProgressMonitor monitor){
+			this.codemapStage = codemapStage;
+			this.monitor = monitor;
+		}
+
+		@Override
+		public PrioritizedCodemapStage call() {
+			runCodemapStage(codemapStage, new StageProgressMonitor(monitor));
+			return codemapStage;
+		}
+	}
+
+	/**
+	 * Progress monitors are not thread safe, concurrently running stages only
+	 * observe the cancellation state of the indexing monitor
+	 */
+	private static class StageProgressMonitor extends NullProgressMonitor {
+		private final IProgressMonitor parent;
+
+		public StageProgressMonitor(IProgressMonitor parent){
+			this.parent = parent;
+		}
+
+		@Override
+		public boolean isCanceled() {
+			return super.isCanceled() || parent.isCanceled();
+		}
+	}
+
+	/**
+	 * Runs the codemap stage and logs the time it took, failures are logged
+	 * and not rethrown
+	 *
+	 * @param codemapStage
+	 * @param monitor
+	 */
+	private static void runCodemapStage(PrioritizedCodemapStage codemapStage, IProgressMonitor monitor){
+		IndexingMetrics.Measurement measurement = IndexingMetrics.start(Kind.CODEMAP_STAGE, codemapStage.getDisplayName());
+		try {
+			boolean ran = codemapStage.performIndexing(monitor);
+			IndexingMetric metric = measurement.stop(monitor.isCanceled() ? Status.CANCELED : (ran ? Status.COMPLETED : Status.SKIPPED));
+			if(ran) {
+				Log.info("Finished " + codemapStage.getDisplayName() + " in " + formatDuration(metric.getWallTime()));
+			}
+		} catch (Throwable t){
+			measurement.stop(t);
+			Log.error(codemapStage.getDisplayName() + " failed.", t);
+		}
+	}
+
+	/**
+	 * Formats a duration in nanoseconds in the most readable unit
+	 * @param nanoseconds
+	 * @return
+	 */
+	/*package*/ static String formatDuration(long nanoseconds){
+		DecimalFormat decimalFormat = new DecimalFormat("#.##");
+		double time = nanoseconds/1000.0/1000.0; // ms
+		if(time < 100) {
+			return decimalFormat.format(time) + "ms";
+		}
+		time = nanoseconds/1000.0/1000.0/1000.0; // s
+		if(time < 60) {
+			return decimalFormat.format(time) + "s";
+		}
+		time = nanoseconds/1000.0/1000.0/1000.0/60.0; // m
+		if(time < 60) {
+			return decimalFormat.format(time) + "m";
+		}
+		time = nanoseconds/1000.0/1000.0/1000.0/60.0/60.0; // h
+		return decimalFormat.format(time) + "h";
+	}
+
+}
@@ -3,13 +3,14 @@ package com.ensoftcorp.open.commons.codemap;
 import org.eclipse.core.runtime.IProgressMonitor;
 
 import com.ensoftcorp.atlas.core.db.graph.Node;
-import com.ensoftcorp.atlas.core.log.Log;
 import com.ensoftcorp.atlas.core.script.Common;
 import com.ensoftcorp.atlas.core.xcsg.XCSG;
 import com.ensoftcorp.open.commons.algorithms.ICFG;
 import com.ensoftcorp.open.commons.algorithms.ICFG.CallResolutionStrategy;
+import com.ensoftcorp.open.commons.algorithms.ICFG.ConstructionContext;
 import com.ensoftcorp.open.commons.algorithms.ICFG.DefaultCallResolutionStrategy;
 import com.ensoftcorp.open.commons.analysis.CommonQueries;
+import com.ensoftcorp.open.commons.log.Log;
 import com.ensoftcorp.open.commons.preferences.CommonsPreferences;
 
 public class ICFGConstruction extends PrioritizedCodemapStage {
@@ -30,6 +31,15 @@ public class ICFGConstruction extends PrioritizedCodemapStage {
 		// not implemented currently
 		return new String[] {};
 	}
+	
+	/**
+	 * ICFG construction creates nodes and edges in the Atlas graph, so it does
+	 * not overlap other codemap stages
+	 */
+	@Override
+	public boolean isGraphWritingExclusive() {
+		return true;
+	}
 
 	@Override
 	public boolean performIndexing(IProgressMonitor monitor) {
@@ -37,10 +47,16 @@ public class ICFGConstruction extends PrioritizedCodemapStage {
 		if(runIndexer) {
 			CallResolutionStrategy callResolutionStrategy = new DefaultCallResolutionStrategy();
 			Log.info("Constructing inter-procedural control flow graphs using " + callResolutionStrategy.getStrategyTagName() + " call resolution strategy...");
-			// construct the ICFG for the entire index
+			// construct the ICFG for the entire index, sharing the function CFG summaries
+			// and the existing ICFG edges between the ICFGs of each call graph root
+			ConstructionContext context = new ConstructionContext(callResolutionStrategy, CommonsPreferences.getICFGConstructionParallelism());
 			for(Node cgRoot : callResolutionStrategy.getCallGraphRoots()) {
+				if(monitor.isCanceled()) {
+					Log.warning("Cancelled: Interprocedural Control Flow Graph Construction");
+					break;
+				}
 				if(!CommonQueries.isEmpty(Common.toQ(cgRoot).children().nodes(XCSG.ControlFlow_Node))) {
-					new ICFG(cgRoot, Common.empty().eval().nodes(), callResolutionStrategy);
+					new ICFG(cgRoot, Common.empty().eval().nodes(), context);
 				}
 			}
 		}
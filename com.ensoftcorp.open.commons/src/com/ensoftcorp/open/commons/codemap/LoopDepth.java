@@ -9,6 +9,7 @@ import com.ensoftcorp.atlas.core.db.set.AtlasSet;
 import com.ensoftcorp.atlas.core.query.Q;
 import com.ensoftcorp.atlas.core.query.Query;
 import com.ensoftcorp.atlas.core.xcsg.XCSG;
+import com.ensoftcorp.open.commons.algorithms.LoopAnalysis;
 import com.ensoftcorp.open.commons.xcsg.Toolbox;
 
 public class LoopDepth extends PrioritizedCodemapStage {
@@ -29,16 +30,14 @@ public class LoopDepth extends PrioritizedCodemapStage {
 
 	@Override
 	public String[] getCodemapStageDependencies() {
-		
-		// TODO: Does this depend on DLI executing first??? ~BH
-		// If so this may need to be moved down to accompany loop detection algorithms
-		
-		return new String[]{};
+		// loop analysis describes the loops of functions whose front end does
+		// not (such as Jimple), so the loop depths are computed afterwards
+		return new String[]{ LoopAnalysis.IDENTIFIER };
 	}
 
 	@Override
 	public boolean performIndexing(IProgressMonitor monitor) {
-		Q loopHeaders = Query.universe().nodes(XCSG.Loop).nodes(XCSG.Language.C, XCSG.Language.CPP, XCSG.Language.Java).difference(Query.universe().nodes(XCSG.Language.Jimple));
+		Q loopHeaders = Query.universe().nodes(XCSG.Loop).nodes(XCSG.Language.C, XCSG.Language.CPP, XCSG.Language.Java, XCSG.Language.Jimple);
 		Q edges = Query.universe().edges(XCSG.LoopChild);
 		Q loops = loopHeaders.reverseStepOn(edges);
 		Q qlevel1LoopHeaders = loops.roots();
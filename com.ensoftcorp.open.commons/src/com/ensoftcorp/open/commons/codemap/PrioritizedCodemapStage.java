@@ -30,6 +30,21 @@ public abstract class PrioritizedCodemapStage {
 	 */
 	public abstract String[] getCodemapStageDependencies();
 	
+	/**
+	 * Returns true if this codemap stage must not run concurrently with any
+	 * other codemap stage, for example because it creates nodes or edges in
+	 * the Atlas graph. Stages that are not exclusive may be run concurrently
+	 * with other non-exclusive stages whose dependencies are satisfied when
+	 * the codemap stage parallelism preference is greater than 1.
+	 * 
+	 * Defaults to false.
+	 * 
+	 * @return
+	 */
+	public boolean isGraphWritingExclusive(){
+		return false;
+	}
+	
 	/**
 	 * The codemap stage indexing task to be performed. 
 	 * 
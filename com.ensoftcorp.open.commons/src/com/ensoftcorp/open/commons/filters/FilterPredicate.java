@@ -0,0 +1,129 @@
+package com.ensoftcorp.open.commons.filters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.open.commons.preferences.CommonsPreferences;
+
+/**
+ * A predicate compiled once from the parameters of a filter and evaluated
+ * over the nodes and edges of the filter input in a single pass. Filters
+ * should resolve their parameters (patterns, case folding, etc.) when the
+ * predicate is constructed so that retain(...) only reads the element.
+ *
+ * Large inputs are partitioned and evaluated on worker threads when the
+ * filter parallelism preference is greater than 1, so implementations of
+ * retain(...) must be thread safe.
+ *
+ * @author Ben Holland
+ */
+public abstract class FilterPredicate {
+
+	/**
+	 * Inputs smaller than this are always evaluated on the calling thread
+	 */
+	private static final int PARALLEL_THRESHOLD = 16384;
+
+	/**
+	 * Returns true if the given node or edge should be retained
+	 * @param element
+	 * @return
+	 */
+	public abstract boolean retain(GraphElement element);
+
+	/**
+	 * Returns the nodes and edges of the input retained by this predicate
+	 * @param input
+	 * @return
+	 */
+	public Q evaluate(Q input){
+		return evaluate(input, CommonsPreferences.getFilterParallelism());
+	}
+
+	/**
+	 * Returns the nodes and edges of the input retained by this predicate
+	 * @param input
+	 * @param parallelism
+	 * @return
+	 */
+	public Q evaluate(Q input, int parallelism){
+		Graph graph = input.eval();
+		AtlasSet<Node> nodes = retainAll(graph.nodes(), parallelism);
+		AtlasSet<Edge> edges = retainAll(graph.edges(), parallelism);
+		return Common.toQ(nodes).union(Common.toQ(edges));
+	}
+
+	/**
+	 * Returns the elements retained by this predicate
+	 * @param elements
+	 * @param parallelism
+	 * @return
+	 */
+	public <E extends GraphElement> AtlasSet<E> retainAll(AtlasSet<E> elements, int parallelism){
+		if(parallelism <= 1 || elements.size() < PARALLEL_THRESHOLD){
+			AtlasSet<E> result = new AtlasHashSet<E>();
+			for(E element : elements){
+				if(retain(element)){
+					result.add(element);
+				}
+			}
+			return result;
+		}
+
+		// partition the elements and evaluate each partition on a worker
+		final List<E> partitionable = new ArrayList<E>((int) elements.size());
+		for(E element : elements){
+			partitionable.add(element);
+		}
+		int partitions = Math.min(parallelism * 4, (partitionable.size() + PARALLEL_THRESHOLD - 1) / PARALLEL_THRESHOLD);
+		int partitionSize = (partitionable.size() + partitions - 1) / partitions;
+		ForkJoinPool workers = new ForkJoinPool(parallelism);
+		try {
+			List<Future<List<E>>> futures = new ArrayList<Future<List<E>>>(partitions);
+			for(int start=0; start<partitionable.size(); start+=partitionSize){
+				final int from = start;
+				final int to = Math.min(start + partitionSize, partitionable.size());
+				futures.add(workers.submit(new Callable<List<E>>(){
+					@Override
+					public List<E> call() throws Exception {
+						List<E> retained = new ArrayList<E>();
+						for(int i=from; i<to; i++){
+							E element = partitionable.get(i);
+							if(retain(element)){
+								retained.add(element);
+							}
+						}
+						return retained;
+					}
+				}));
+			}
+			AtlasSet<E> result = new AtlasHashSet<E>();
+			for(Future<List<E>> future : futures){
+				for(E element : future.get()){
+					result.add(element);
+				}
+			}
+			return result;
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while evaluating filter", e);
+		} catch (ExecutionException e){
+			throw new RuntimeException("Error evaluating filter", e.getCause());
+		} finally {
+			workers.shutdownNow();
+		}
+	}
+
+}
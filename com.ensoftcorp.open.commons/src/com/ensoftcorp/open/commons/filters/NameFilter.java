@@ -1,14 +1,12 @@
 package com.ensoftcorp.open.commons.filters;
 
 import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
-import com.ensoftcorp.atlas.core.db.graph.Edge;
-import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.GraphElement;
 import com.ensoftcorp.atlas.core.db.graph.Node;
-import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
-import com.ensoftcorp.atlas.core.db.set.AtlasSet;
 import com.ensoftcorp.atlas.core.query.Q;
-import com.ensoftcorp.atlas.core.script.Common;
 import com.ensoftcorp.atlas.core.xcsg.XCSG;
 
 /**
@@ -30,6 +28,7 @@ public class NameFilter extends Filter {
 	private static final String NAME_PREFIX = "NAME_PREFIX";
 	private static final String NAME_SUFFIX = "NAME_SUFFIX";
 	private static final String NAME_SUBSTRING = "NAME_SUBSTRING";
+	private static final String NAME_REGEX = "NAME_REGEX";
 
 	public NameFilter() {
 		this.addPossibleFlag(EXCLUDE_MATCHES, "Retain only nodes and edges that do not have the given name.");
@@ -41,6 +40,7 @@ public class NameFilter extends Filter {
 		this.addPossibleParameter(NAME_PREFIX, String.class, false, "Filters nodes and edges with the given name prefix.");
 		this.addPossibleParameter(NAME_SUFFIX, String.class, false, "Filters nodes and edges with the given name suffix.");
 		this.addPossibleParameter(NAME_SUBSTRING, String.class, false, "Filters nodes and edges with the given name substring.");
+		this.addPossibleParameter(NAME_REGEX, String.class, false, "Filters nodes and edges with names matching the given regular expression.");
 	}
 	
 	@Override
@@ -56,256 +56,89 @@ public class NameFilter extends Filter {
 	@Override
 	protected Q filterInput(Q input, Map<String,Object> parameters) throws InvalidFilterParameterException {
 		checkParameters(parameters);
-
-		AtlasSet<Node> nodesToSave = new AtlasHashSet<Node>();
-		AtlasSet<Edge> edgesToSave = new AtlasHashSet<Edge>();
-		if(this.isFlagSet(RETAIN_ALL_NODES, parameters)){
-			for(Node node : input.retainNodes().eval().nodes()){
-				nodesToSave.add(node);
-			}
-		}
-		if(this.isFlagSet(RETAIN_ALL_EDGES, parameters)){
-			for(Edge edge : input.retainEdges().eval().edges()){
-				edgesToSave.add(edge);
-			}
+		Q result = new NamePredicate(parameters).evaluate(input);
+		if(isFlagSet(EXCLUDE_MATCHES, parameters)){
+			return input.difference(result);
+		} else {
+			return result;
 		}
+	}
+	
+	/**
+	 * The name parameters and flags compiled into a single predicate. Named
+	 * elements matching any of the name parameters are removed, so an element
+	 * is retained if its kind is retained by a flag, if it is unnamed and
+	 * unnamed elements are retained, or if it is named and matches none of the
+	 * name parameters.
+	 */
+	private class NamePredicate extends FilterPredicate {
 		
-		Graph graph = input.eval();
-		AtlasSet<Node> nodes = new AtlasHashSet<Node>(graph.nodes());
-		AtlasSet<Edge> edges = new AtlasHashSet<Edge>(graph.edges());
+		private final boolean retainAllNodes;
+		private final boolean retainAllEdges;
+		private final boolean retainUnnamed;
+		private final boolean caseInsensitive;
 		
-		if(this.isFlagSet(RETAIN_UNAMED, parameters)){
-			// filter nodes
-			for(Node node : nodes){
-				if(node.getAttr(XCSG.name) == null){
-					nodesToSave.add(node);
-				}
-			}
-			// filter edges
-			for(Edge edge : edges){
-				if(edge.getAttr(XCSG.name) == null){
-					edgesToSave.add(edge);
-				}
-			}
-		}
-		// remove the unamed nodes and edges from the sets to filter
-		// filter nodes
-		AtlasSet<Node> nullNodesToRemove = new AtlasHashSet<Node>();
-		for(Node node : nodes){
-			if(node.getAttr(XCSG.name) == null){
-				nullNodesToRemove.add(node);
-			}
-		}
-		for(Node node : nullNodesToRemove){
-			nodes.remove(node);
-		}
-		// filter edges
-		AtlasSet<Edge> nullEdgesToRemove = new AtlasHashSet<Edge>();
-		for(Edge edge : edges){
-			if(edge.getAttr(XCSG.name) == null){
-				nullEdgesToRemove.add(edge);
-			}
-		}
-		for(Edge edge : nullEdgesToRemove){
-			edges.remove(edge);
-		}
+		// unset parameters are null, case insensitive needles are lowercased
+		private final String exactName;
+		private final String namePrefix;
+		private final String nameSuffix;
+		private final String nameSubstring;
+		private final Pattern namePattern;
 		
-		if(this.isParameterSet(EXACT_NAME, parameters)){
-			String exactName = (String) this.getParameterValue(EXACT_NAME, parameters);
-			if(this.isFlagSet(CASE_INSENSITIVE, parameters)){
-				// filter nodes
-				AtlasSet<Node> nodesToRemove = new AtlasHashSet<Node>();
-				for(Node node : nodes){
-					if(node.getAttr(XCSG.name).toString().equalsIgnoreCase(exactName)){
-						nodesToRemove.add(node);
-					}
-				}
-				for(Node node : nodesToRemove){
-					nodes.remove(node);
-				}
-				// filter edges
-				AtlasSet<Edge> edgesToRemove = new AtlasHashSet<Edge>();
-				for(Edge edge : edges){
-					if(edge.getAttr(XCSG.name).toString().equalsIgnoreCase(exactName)){
-						edgesToRemove.add(edge);
-					}
-				}
-				for(Edge edge : edgesToRemove){
-					edges.remove(edge);
+		public NamePredicate(Map<String,Object> parameters) throws InvalidFilterParameterException {
+			retainAllNodes = isFlagSet(RETAIN_ALL_NODES, parameters);
+			retainAllEdges = isFlagSet(RETAIN_ALL_EDGES, parameters);
+			retainUnnamed = isFlagSet(RETAIN_UNAMED, parameters);
+			caseInsensitive = isFlagSet(CASE_INSENSITIVE, parameters);
+			exactName = (String) getParameterValue(EXACT_NAME, parameters);
+			namePrefix = fold((String) getParameterValue(NAME_PREFIX, parameters));
+			nameSuffix = fold((String) getParameterValue(NAME_SUFFIX, parameters));
+			nameSubstring = fold((String) getParameterValue(NAME_SUBSTRING, parameters));
+			String nameRegex = (String) getParameterValue(NAME_REGEX, parameters);
+			if(nameRegex != null){
+				try {
+					namePattern = Pattern.compile(nameRegex, caseInsensitive ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+				} catch (PatternSyntaxException e){
+					throw new InvalidFilterParameterException(NAME_REGEX + " is not a valid regular expression: " + e.getDescription());
 				}
 			} else {
-				// filter nodes
-				AtlasSet<Node> nodesToRemove = new AtlasHashSet<Node>();
-				for(Node node : nodes){
-					if(node.getAttr(XCSG.name).toString().equals(exactName)){
-						nodesToRemove.add(node);
-					}
-				}
-				for(Node node : nodesToRemove){
-					nodes.remove(node);
-				}
-				// filter edges
-				AtlasSet<Edge> edgesToRemove = new AtlasHashSet<Edge>();
-				for(Edge edge : edges){
-					if(edge.getAttr(XCSG.name).toString().equals(exactName)){
-						edgesToRemove.add(edge);
-					}
-				}
-				for(Edge edge : edgesToRemove){
-					edges.remove(edge);
-				}
+				namePattern = null;
 			}
 		}
 		
-		if(this.isParameterSet(NAME_PREFIX, parameters)){
-			String namePrefix = (String) this.getParameterValue(NAME_PREFIX, parameters);
-			if(this.isFlagSet(CASE_INSENSITIVE, parameters)){
-				// filter nodes
-				AtlasSet<Node> nodesToRemove = new AtlasHashSet<Node>();
-				for(Node node : nodes){
-					if(node.getAttr(XCSG.name).toString().toLowerCase().startsWith(namePrefix.toLowerCase())){
-						nodesToRemove.add(node);
-					}
-				}
-				for(Node node : nodesToRemove){
-					nodes.remove(node);
-				}
-				// filter edges
-				AtlasSet<Edge> edgesToRemove = new AtlasHashSet<Edge>();
-				for(Edge edge : edges){
-					if(edge.getAttr(XCSG.name).toString().toLowerCase().startsWith(namePrefix.toLowerCase())){
-						edgesToRemove.add(edge);
-					}
-				}
-				for(Edge edge : edgesToRemove){
-					edges.remove(edge);
-				}
-			} else {
-				// filter nodes
-				AtlasSet<Node> nodesToRemove = new AtlasHashSet<Node>();
-				for(Node node : nodes){
-					if(node.getAttr(XCSG.name).toString().startsWith(namePrefix)){
-						nodesToRemove.add(node);
-					}
-				}
-				for(Node node : nodesToRemove){
-					nodes.remove(node);
-				}
-				// filter edges
-				AtlasSet<Edge> edgesToRemove = new AtlasHashSet<Edge>();
-				for(Edge edge : edges){
-					if(edge.getAttr(XCSG.name).toString().startsWith(namePrefix)){
-						edgesToRemove.add(edge);
-					}
-				}
-				for(Edge edge : edgesToRemove){
-					edges.remove(edge);
-				}
-			}
+		private String fold(String value){
+			return (value != null && caseInsensitive) ? value.toLowerCase() : value;
 		}
 		
-		if(this.isParameterSet(NAME_SUFFIX, parameters)){
-			String nameSuffix = (String) this.getParameterValue(NAME_SUFFIX, parameters);
-			if(this.isFlagSet(CASE_INSENSITIVE, parameters)){
-				// filter nodes
-				AtlasSet<Node> nodesToRemove = new AtlasHashSet<Node>();
-				for(Node node : nodes){
-					if(node.getAttr(XCSG.name).toString().toLowerCase().endsWith(nameSuffix.toLowerCase())){
-						nodesToRemove.add(node);
-					}
-				}
-				for(Node node : nodesToRemove){
-					nodes.remove(node);
-				}
-				// filter edges
-				AtlasSet<Edge> edgesToRemove = new AtlasHashSet<Edge>();
-				for(Edge edge : edges){
-					if(edge.getAttr(XCSG.name).toString().toLowerCase().endsWith(nameSuffix.toLowerCase())){
-						edgesToRemove.add(edge);
-					}
-				}
-				for(Edge edge : edgesToRemove){
-					edges.remove(edge);
-				}
-			} else {
-				// filter nodes
-				AtlasSet<Node> nodesToRemove = new AtlasHashSet<Node>();
-				for(Node node : nodes){
-					if(node.getAttr(XCSG.name).toString().endsWith(nameSuffix)){
-						nodesToRemove.add(node);
-					}
-				}
-				for(Node node : nodesToRemove){
-					nodes.remove(node);
-				}
-				// filter edges
-				AtlasSet<Edge> edgesToRemove = new AtlasHashSet<Edge>();
-				for(Edge edge : edges){
-					if(edge.getAttr(XCSG.name).toString().endsWith(nameSuffix)){
-						edgesToRemove.add(edge);
-					}
-				}
-				for(Edge edge : edgesToRemove){
-					edges.remove(edge);
-				}
+		@Override
+		public boolean retain(GraphElement element) {
+			if(element instanceof Node ? retainAllNodes : retainAllEdges){
+				return true;
 			}
-		}
-		
-		if(this.isParameterSet(NAME_SUBSTRING, parameters)){
-			String nameSubstring = (String) this.getParameterValue(NAME_SUBSTRING, parameters);
-			if(this.isFlagSet(CASE_INSENSITIVE, parameters)){
-				// filter nodes
-				AtlasSet<Node> nodesToRemove = new AtlasHashSet<Node>();
-				for(Node node : nodes){
-					if(node.getAttr(XCSG.name).toString().toLowerCase().contains(nameSubstring.toLowerCase())){
-						nodesToRemove.add(node);
-					}
-				}
-				for(Node node : nodesToRemove){
-					nodes.remove(node);
-				}
-				// filter edges
-				AtlasSet<Edge> edgesToRemove = new AtlasHashSet<Edge>();
-				for(Edge edge : edges){
-					if(edge.getAttr(XCSG.name).toString().toLowerCase().contains(nameSubstring.toLowerCase())){
-						edgesToRemove.add(edge);
-					}
-				}
-				for(Edge edge : edgesToRemove){
-					edges.remove(edge);
-				}
-			} else {
-				// filter nodes
-				AtlasSet<Node> nodesToRemove = new AtlasHashSet<Node>();
-				for(Node node : nodes){
-					if(node.getAttr(XCSG.name).toString().contains(nameSubstring)){
-						nodesToRemove.add(node);
-					}
-				}
-				for(Node node : nodesToRemove){
-					nodes.remove(node);
+			Object value = element.getAttr(XCSG.name);
+			if(value == null){
+				return retainUnnamed;
+			}
+			String name = value.toString();
+			if(exactName != null && (caseInsensitive ? name.equalsIgnoreCase(exactName) : name.equals(exactName))){
+				return false;
+			}
+			if(namePrefix != null || nameSuffix != null || nameSubstring != null){
+				String foldedName = fold(name);
+				if(namePrefix != null && foldedName.startsWith(namePrefix)){
+					return false;
 				}
-				// filter edges
-				AtlasSet<Edge> edgesToRemove = new AtlasHashSet<Edge>();
-				for(Edge edge : edges){
-					if(edge.getAttr(XCSG.name).toString().contains(nameSubstring)){
-						edgesToRemove.add(edge);
-					}
+				if(nameSuffix != null && foldedName.endsWith(nameSuffix)){
+					return false;
 				}
-				for(Edge edge : edgesToRemove){
-					edges.remove(edge);
+				if(nameSubstring != null && foldedName.contains(nameSubstring)){
+					return false;
 				}
 			}
-		}
-		
-		nodes.addAll(nodesToSave);
-		edges.addAll(edgesToSave);
-		Q result = Common.toQ(nodes).union(Common.toQ(edges));
-		
-		if(isFlagSet(EXCLUDE_MATCHES, parameters)){
-			return input.difference(result);
-		} else {
-			return result;
+			if(namePattern != null && namePattern.matcher(name).matches()){
+				return false;
+			}
+			return true;
 		}
 	}
 
@@ -0,0 +1,227 @@
+package com.ensoftcorp.open.commons.metrics;
+
+import org.json.simple.JSONObject;
+
+/**
+ * The measurements of a single codemap stage or analyzer run
+ *
+ * @author Ben Holland
+ */
+public class IndexingMetric {
+
+	/**
+	 * The kind of indexing task that was measured
+	 */
+	public static enum Kind {
+		CODEMAP_STAGE, ANALYZER
+	}
+
+	/**
+	 * The outcome of the measured indexing task
+	 */
+	public static enum Status {
+		/**
+		 * The task ran to completion
+		 */
+		COMPLETED,
+
+		/**
+		 * The task chose not to run (for example it is disabled by a preference)
+		 */
+		SKIPPED,
+
+		/**
+		 * The task was canceled by the user
+		 */
+		CANCELED,
+
+		/**
+		 * The task threw an exception
+		 */
+		FAILED
+	}
+
+	/**
+	 * Sentinel for a measurement that is not supported by the JVM
+	 */
+	public static final long UNAVAILABLE = -1;
+
+	private static final String RUN = "run";
+	private static final String KIND = "kind";
+	private static final String NAME = "name";
+	private static final String START = "start";
+	private static final String WALL_TIME = "wallTimeNanos";
+	private static final String CPU_TIME = "cpuTimeNanos";
+	private static final String ALLOCATED_BYTES = "allocatedBytes";
+	private static final String NODES_CREATED = "nodesCreated";
+	private static final String EDGES_CREATED = "edgesCreated";
+	private static final String STATUS = "status";
+	private static final String FAILURE = "failure";
+
+	private final long run;
+	private final Kind kind;
+	private final String name;
+	private final long start;
+	private final long wallTime;
+	private final long cpuTime;
+	private final long allocatedBytes;
+	private final long nodesCreated;
+	private final long edgesCreated;
+	private final Status status;
+	private final String failure;
+
+	public IndexingMetric(long run, Kind kind, String name, long start, long wallTime, long cpuTime, long allocatedBytes, long nodesCreated, long edgesCreated, Status status, String failure) {
+		this.run = run;
+		this.kind = kind;
+		this.name = name;
+		this.start = start;
+		this.wallTime = wallTime;
+		this.cpuTime = cpuTime;
+		this.allocatedBytes = allocatedBytes;
+		this.nodesCreated = nodesCreated;
+		this.edgesCreated = edgesCreated;
+		this.status = status;
+		this.failure = failure;
+	}
+
+	/**
+	 * Returns the id (start time in milliseconds since the epoch) of the
+	 * indexing run this measurement belongs to
+	 * @return
+	 */
+	public long getRun() {
+		return run;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * Returns the display name of the codemap stage or analyzer
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the time the task started in milliseconds since the epoch
+	 * @return
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * Returns the elapsed wall clock time in nanoseconds
+	 * @return
+	 */
+	public long getWallTime() {
+		return wallTime;
+	}
+
+	/**
+	 * Returns the CPU time in nanoseconds of the thread that ran the task or
+	 * UNAVAILABLE. Work the task delegated to other threads is not included.
+	 * @return
+	 */
+	public long getCpuTime() {
+		return cpuTime;
+	}
+
+	/**
+	 * Returns the bytes allocated by the thread that ran the task or
+	 * UNAVAILABLE. Allocations of other threads are not included.
+	 * @return
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * Returns the change in the number of nodes in the universe while the
+	 * task ran or UNAVAILABLE if a task on another thread was measured at
+	 * the same time (the universe is shared, so the change could not be
+	 * attributed to this task)
+	 * @return
+	 */
+	public long getNodesCreated() {
+		return nodesCreated;
+	}
+
+	/**
+	 * Returns the change in the number of edges in the universe while the
+	 * task ran or UNAVAILABLE if a task on another thread was measured at
+	 * the same time
+	 * @return
+	 */
+	public long getEdgesCreated() {
+		return edgesCreated;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns the failure message of a failed task or null
+	 * @return
+	 */
+	public String getFailure() {
+		return failure;
+	}
+
+	/**
+	 * Serializes this measurement as a JSON object
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public JSONObject toJSON(){
+		JSONObject json = new JSONObject();
+		json.put(RUN, run);
+		json.put(KIND, kind.name());
+		json.put(NAME, name);
+		json.put(START, start);
+		json.put(WALL_TIME, wallTime);
+		json.put(CPU_TIME, cpuTime);
+		json.put(ALLOCATED_BYTES, allocatedBytes);
+		json.put(NODES_CREATED, nodesCreated);
+		json.put(EDGES_CREATED, edgesCreated);
+		json.put(STATUS, status.name());
+		if(failure != null){
+			json.put(FAILURE, failure);
+		}
+		return json;
+	}
+
+	/**
+	 * Deserializes a measurement from a JSON object
+	 * @param json
+	 * @return
+	 */
+	public static IndexingMetric fromJSON(JSONObject json){
+		return new IndexingMetric(getLong(json, RUN),
+				Kind.valueOf((String) json.get(KIND)),
+				(String) json.get(NAME),
+				getLong(json, START),
+				getLong(json, WALL_TIME),
+				getLong(json, CPU_TIME),
+				getLong(json, ALLOCATED_BYTES),
+				getLong(json, NODES_CREATED),
+				getLong(json, EDGES_CREATED),
+				Status.valueOf((String) json.get(STATUS)),
+				(String) json.get(FAILURE));
+	}
+
+	private static long getLong(JSONObject json, String key){
+		Object value = json.get(key);
+		return (value instanceof Number) ? ((Number) value).longValue() : UNAVAILABLE;
+	}
+
+	@Override
+	public String toString() {
+		return toJSON().toJSONString();
+	}
+
+}
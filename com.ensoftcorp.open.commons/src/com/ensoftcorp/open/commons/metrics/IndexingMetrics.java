@@ -0,0 +1,334 @@
+package com.ensoftcorp.open.commons.metrics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.query.Query;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+import com.ensoftcorp.open.commons.log.Log;
+import com.ensoftcorp.open.commons.metrics.IndexingMetric.Kind;
+import com.ensoftcorp.open.commons.metrics.IndexingMetric.Status;
+import com.ensoftcorp.open.commons.utilities.WorkspaceUtils;
+
+/**
+ * Records the wall time, CPU time, allocated bytes, created nodes and edges
+ * and outcome of each codemap stage and analyzer run, and persists the
+ * measurements of each indexing run to a per-project history file (one JSON
+ * object per line) next to the project's analysis properties.
+ *
+ * Usage:
+ * <pre>
+ * IndexingMetrics.Measurement measurement = IndexingMetrics.start(Kind.ANALYZER, name);
+ * ...
+ * measurement.stop(Status.COMPLETED);
+ * </pre>
+ *
+ * CPU time and allocated bytes are measured for the thread that starts and
+ * stops the measurement only. Created nodes and edges are measured as the
+ * change in the size of the universe, so they are only reported for
+ * measurements that did not overlap a measurement on another thread (nested
+ * measurements on the same thread are fine), otherwise they are UNAVAILABLE.
+ *
+ * @author Ben Holland
+ */
+public class IndexingMetrics {
+
+	/**
+	 * The project relative path of the indexing metrics history
+	 */
+	private static final String HISTORY_PATH = "/analysis.metrics.jsonl";
+
+	private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * The measurements of the current indexing run
+	 */
+	private static final List<IndexingMetric> CURRENT_RUN = Collections.synchronizedList(new ArrayList<IndexingMetric>());
+
+	private static volatile long currentRun = System.currentTimeMillis();
+
+	/**
+	 * The measurements that have been started and not yet stopped
+	 */
+	private static final List<Measurement> ACTIVE = new ArrayList<Measurement>();
+
+	/**
+	 * Starts a new indexing run, discarding the measurements of the previous run
+	 */
+	public static void beginRun(){
+		CURRENT_RUN.clear();
+		currentRun = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns a copy of the measurements recorded so far in the current
+	 * indexing run
+	 * @return
+	 */
+	public static List<IndexingMetric> getCurrentRun(){
+		synchronized (CURRENT_RUN){
+			return new ArrayList<IndexingMetric>(CURRENT_RUN);
+		}
+	}
+
+	/**
+	 * Starts measuring a codemap stage or analyzer on the current thread
+	 * @param kind
+	 * @param name
+	 * @return
+	 */
+	public static Measurement start(Kind kind, String name){
+		return new Measurement(kind, name);
+	}
+
+	/**
+	 * An in progress measurement, must be stopped on the thread that started it
+	 * (including when the task fails)
+	 */
+	public static class Measurement {
+		private final Kind kind;
+		private final String name;
+		private final long run;
+		private final long start;
+		private final long startNanos;
+		private final long startCpuTime;
+		private final long startAllocatedBytes;
+		private final long startNodes;
+		private final long startEdges;
+		private final Thread thread;
+
+		/**
+		 * True if a measurement on another thread was active at any time
+		 * during this measurement, guarded by ACTIVE
+		 */
+		private boolean overlapped = false;
+
+		private Measurement(Kind kind, String name){
+			this.kind = kind;
+			this.name = name;
+			this.run = currentRun;
+			this.thread = Thread.currentThread();
+			synchronized (ACTIVE){
+				for(Measurement measurement : ACTIVE){
+					if(measurement.thread != thread){
+						measurement.overlapped = true;
+						overlapped = true;
+					}
+				}
+				ACTIVE.add(this);
+			}
+			this.startNodes = Graph.U.nodes().size();
+			this.startEdges = Graph.U.edges().size();
+			this.startAllocatedBytes = getCurrentThreadAllocatedBytes();
+			this.startCpuTime = getCurrentThreadCpuTime();
+			this.start = System.currentTimeMillis();
+			this.startNanos = System.nanoTime();
+		}
+
+		/**
+		 * Stops the measurement and records it in the current indexing run
+		 * @param status
+		 * @return
+		 */
+		public IndexingMetric stop(Status status){
+			return stop(status, null);
+		}
+
+		/**
+		 * Stops the measurement of a failed task and records it in the current
+		 * indexing run
+		 * @param failure
+		 * @return
+		 */
+		public IndexingMetric stop(Throwable failure){
+			return stop(Status.FAILED, failure);
+		}
+
+		private IndexingMetric stop(Status status, Throwable failure){
+			long wallTime = System.nanoTime() - startNanos;
+			long cpuTime = getCurrentThreadCpuTime();
+			long allocatedBytes = getCurrentThreadAllocatedBytes();
+			long nodesCreated = Graph.U.nodes().size() - startNodes;
+			long edgesCreated = Graph.U.edges().size() - startEdges;
+			synchronized (ACTIVE){
+				ACTIVE.remove(this);
+				if(overlapped){
+					// other tasks changed the shared universe at the same time
+					nodesCreated = IndexingMetric.UNAVAILABLE;
+					edgesCreated = IndexingMetric.UNAVAILABLE;
+				}
+			}
+			IndexingMetric metric = new IndexingMetric(run, kind, name, start, wallTime,
+					difference(startCpuTime, cpuTime),
+					difference(startAllocatedBytes, allocatedBytes),
+					nodesCreated,
+					edgesCreated,
+					status,
+					failure == null ? null : failure.toString());
+			CURRENT_RUN.add(metric);
+			return metric;
+		}
+	}
+
+	private static long difference(long start, long stop){
+		if(start == IndexingMetric.UNAVAILABLE || stop == IndexingMetric.UNAVAILABLE){
+			return IndexingMetric.UNAVAILABLE;
+		}
+		return stop - start;
+	}
+
+	private static long getCurrentThreadCpuTime(){
+		try {
+			if(THREAD_BEAN.isCurrentThreadCpuTimeSupported() && THREAD_BEAN.isThreadCpuTimeEnabled()){
+				return THREAD_BEAN.getCurrentThreadCpuTime();
+			}
+		} catch (UnsupportedOperationException e){
+			// not supported by this JVM
+		}
+		return IndexingMetric.UNAVAILABLE;
+	}
+
+	private static volatile boolean allocatedBytesSupported = true;
+
+	/**
+	 * The per thread allocation counter is a HotSpot extension of the
+	 * ThreadMXBean, it is queried through the platform MBean server so that
+	 * the bundle does not depend on the com.sun.management package
+	 */
+	private static long getCurrentThreadAllocatedBytes(){
+		if(allocatedBytesSupported){
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName threading = new ObjectName(ManagementFactory.THREAD_MXBEAN_NAME);
+				Object bytes = server.invoke(threading, "getThreadAllocatedBytes",
+						new Object[]{ Thread.currentThread().getId() },
+						new String[]{ long.class.getName() });
+				if(bytes instanceof Long && ((Long) bytes) >= 0){
+					return (Long) bytes;
+				}
+			} catch (Exception e){
+				Log.debug("Thread allocated bytes are not supported by this JVM", e);
+			}
+			allocatedBytesSupported = false;
+		}
+		return IndexingMetric.UNAVAILABLE;
+	}
+
+	/**
+	 * Appends the measurements of the current indexing run to the history of
+	 * each indexed project
+	 */
+	public static void persist(){
+		List<IndexingMetric> metrics = getCurrentRun();
+		if(metrics.isEmpty()){
+			return;
+		}
+		for(Node projectNode : Query.universe().nodes(XCSG.Project).eval().nodes()){
+			IProject project = WorkspaceUtils.getProject(projectNode.getAttr(XCSG.name).toString());
+			if(project.exists() && project.isOpen() && project.isAccessible()){
+				try {
+					appendHistory(project, metrics);
+				} catch (Exception e) {
+					Log.error("Error saving " + project.getName() + " indexing metrics.", e);
+				}
+			}
+		}
+	}
+
+	private static void appendHistory(IProject project, List<IndexingMetric> metrics) throws IOException {
+		synchronized (IndexingMetrics.class){
+			File historyFile = getHistoryFile(project);
+			Writer writer = new OutputStreamWriter(new FileOutputStream(historyFile, true), StandardCharsets.UTF_8);
+			try {
+				for(IndexingMetric metric : metrics){
+					writer.write(metric.toJSON().toJSONString());
+					writer.write("\n");
+				}
+			} finally {
+				writer.close();
+			}
+		}
+		try {
+			project.refreshLocal(IResource.DEPTH_ONE, new NullProgressMonitor());
+		} catch (Throwable t) {
+			// just a best effort, we don't really care if the UI is updated
+		}
+	}
+
+	/**
+	 * Returns the recorded indexing metrics history of the given project,
+	 * oldest first. Malformed lines are skipped.
+	 *
+	 * @param project
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<IndexingMetric> getHistory(IProject project) throws IOException {
+		List<IndexingMetric> history = new ArrayList<IndexingMetric>();
+		synchronized (IndexingMetrics.class){
+			File historyFile = getHistoryFile(project);
+			if(!historyFile.exists()){
+				return history;
+			}
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(historyFile), StandardCharsets.UTF_8));
+			try {
+				JSONParser parser = new JSONParser();
+				String line;
+				while((line = reader.readLine()) != null){
+					if(line.trim().isEmpty()){
+						continue;
+					}
+					try {
+						history.add(IndexingMetric.fromJSON((JSONObject) parser.parse(line)));
+					} catch (Exception e){
+						Log.warning("Skipping malformed indexing metric: " + line);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		return history;
+	}
+
+	/**
+	 * Deletes the recorded indexing metrics history of the given project
+	 * @param project
+	 */
+	public static void clearHistory(IProject project){
+		synchronized (IndexingMetrics.class){
+			File historyFile = getHistoryFile(project);
+			if(historyFile.exists()){
+				historyFile.delete();
+			}
+		}
+	}
+
+	private static File getHistoryFile(IProject project){
+		return new File(project.getFile(HISTORY_PATH).getLocation().toOSString());
+	}
+
+}
@@ -1,6 +1,8 @@
 package com.ensoftcorp.open.commons.preferences;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.eclipse.core.runtime.preferences.AbstractPreferenceInitializer;
 import org.eclipse.jface.preference.IPreferenceStore;
@@ -210,6 +212,116 @@ public class CommonsPreferences extends AbstractPreferenceInitializer {
 		return computeExceptionalControlFlowGraphDominanceValue;
 	}
 	
+	/**
+	 * Configures the number of prioritized codemap stages that may run concurrently
+	 */
+	public static final String CODEMAP_STAGE_PARALLELISM = "CODEMAP_STAGE_PARALLELISM";
+	public static final Integer CODEMAP_STAGE_PARALLELISM_DEFAULT = 1;
+	private static int codemapStageParallelismValue = CODEMAP_STAGE_PARALLELISM_DEFAULT;
+	
+	/**
+	 * Configures the codemap stage parallelism level, a value of 1 or less
+	 * runs the prioritized codemap stages one at a time
+	 */
+	public static void setCodemapStageParallelism(int parallelism){
+		IPreferenceStore preferences = Activator.getDefault().getPreferenceStore();
+		preferences.setValue(CODEMAP_STAGE_PARALLELISM, parallelism);
+		loadPreferences();
+	}
+	
+	/**
+	 * Returns the codemap stage parallelism level
+	 * @return
+	 */
+	public static int getCodemapStageParallelism(){
+		if(!initialized){
+			loadPreferences();
+		}
+		return codemapStageParallelismValue;
+	}
+	
+	/**
+	 * Configures the number of worker threads used to compute control flow graph dominance
+	 */
+	public static final String DOMINANCE_ANALYSIS_PARALLELISM = "DOMINANCE_ANALYSIS_PARALLELISM";
+	public static final Integer DOMINANCE_ANALYSIS_PARALLELISM_DEFAULT = 1;
+	private static int dominanceAnalysisParallelismValue = DOMINANCE_ANALYSIS_PARALLELISM_DEFAULT;
+	
+	/**
+	 * Configures the dominance analysis parallelism level, a value of 1 or less
+	 * computes dominance serially on the indexing thread
+	 */
+	public static void setDominanceAnalysisParallelism(int parallelism){
+		IPreferenceStore preferences = Activator.getDefault().getPreferenceStore();
+		preferences.setValue(DOMINANCE_ANALYSIS_PARALLELISM, parallelism);
+		loadPreferences();
+	}
+	
+	/**
+	 * Returns the dominance analysis parallelism level
+	 * @return
+	 */
+	public static int getDominanceAnalysisParallelism(){
+		if(!initialized){
+			loadPreferences();
+		}
+		return dominanceAnalysisParallelismValue;
+	}
+	
+	/**
+	 * Enable/disable computing dominance with the primitive int-indexed engine
+	 */
+	public static final String INDEXED_DOMINANCE_ENGINE = "INDEXED_DOMINANCE_ENGINE";
+	public static final Boolean INDEXED_DOMINANCE_ENGINE_DEFAULT = false;
+	private static boolean indexedDominanceEngineValue = INDEXED_DOMINANCE_ENGINE_DEFAULT;
+	
+	/**
+	 * Configures the dominance engine
+	 */
+	public static void enableIndexedDominanceEngine(boolean enabled){
+		IPreferenceStore preferences = Activator.getDefault().getPreferenceStore();
+		preferences.setValue(INDEXED_DOMINANCE_ENGINE, enabled);
+		loadPreferences();
+	}
+	
+	/**
+	 * Returns true if the primitive int-indexed dominance engine is enabled
+	 * @return
+	 */
+	public static boolean isIndexedDominanceEngineEnabled(){
+		if(!initialized){
+			loadPreferences();
+		}
+		return indexedDominanceEngineValue;
+	}
+	
+	/**
+	 * Enable/disable reusing the dominance relationships of functions whose control flow graph is unchanged
+	 */
+	public static final String INCREMENTAL_DOMINANCE_ANALYSIS = "INCREMENTAL_DOMINANCE_ANALYSIS";
+	public static final Boolean INCREMENTAL_DOMINANCE_ANALYSIS_DEFAULT = true;
+	private static boolean incrementalDominanceAnalysisValue = INCREMENTAL_DOMINANCE_ANALYSIS_DEFAULT;
+	
+	/**
+	 * Configures incremental dominance analysis
+	 */
+	public static void enableIncrementalDominanceAnalysis(boolean enabled){
+		IPreferenceStore preferences = Activator.getDefault().getPreferenceStore();
+		preferences.setValue(INCREMENTAL_DOMINANCE_ANALYSIS, enabled);
+		loadPreferences();
+	}
+	
+	/**
+	 * Returns true if incremental dominance analysis is enabled
+	 * @return
+	 */
+	public static boolean isIncrementalDominanceAnalysisEnabled(){
+		if(!initialized){
+			loadPreferences();
+		}
+		return incrementalDominanceAnalysisValue;
+	}
+	
 	/**
 	 * Enable/disable adding master entry/exit containment relationships
 	 */
@@ -233,6 +345,376 @@ public class CommonsPreferences extends AbstractPreferenceInitializer {
 		return addMasterEntryExitContainmentRelationships;
 	}
 	
+	/**
+	 * Enable/disable caching evaluated function control flow and data flow graphs
+	 */
+	public static final String FUNCTION_GRAPH_CACHE = "FUNCTION_GRAPH_CACHE";
+	public static final Boolean FUNCTION_GRAPH_CACHE_DEFAULT = false;
+	private static boolean functionGraphCacheValue = FUNCTION_GRAPH_CACHE_DEFAULT;
+	
+	/**
+	 * Configures function graph caching
+	 */
+	public static void enableFunctionGraphCache(boolean enabled){
+		IPreferenceStore preferences = Activator.getDefault().getPreferenceStore();
+		preferences.setValue(FUNCTION_GRAPH_CACHE, enabled);
+		loadPreferences();
+	}
+	
+	/**
+	 * Returns true if function graph caching is enabled
+	 * @return
+	 */
+	public static boolean isFunctionGraphCacheEnabled(){
+		if(!initialized){
+			loadPreferences();
+		}
+		return functionGraphCacheValue;
+	}
+	
+	/**
+	 * Configures the maximum total size (nodes plus edges) of the cached function graphs
+	 */
+	public static final String FUNCTION_GRAPH_CACHE_CAPACITY = "FUNCTION_GRAPH_CACHE_CAPACITY";
+	public static final Integer FUNCTION_GRAPH_CACHE_CAPACITY_DEFAULT = 1000000;
+	private static int functionGraphCacheCapacityValue = FUNCTION_GRAPH_CACHE_CAPACITY_DEFAULT;
+	
+	/**
+	 * Configures the function graph cache capacity
+	 */
+	public static void setFunctionGraphCacheCapacity(int capacity){
+		IPreferenceStore preferences = Activator.getDefault().getPreferenceStore();
+		preferences.setValue(FUNCTION_GRAPH_CACHE_CAPACITY, capacity);
+		loadPreferences();
+	}
+	
+	/**
+	 * Returns the function graph cache capacity
+	 * @return
+	 */
+	public static int getFunctionGraphCacheCapacity(){
+		if(!initialized){
+			loadPreferences();
+		}
+		return functionGraphCacheCapacityValue;
+	}
+	
+	/**
+	 * Configures the number of analyzers that may run concurrently
+	 */
+	public static final String ANALYZER_PARALLELISM = "ANALYZER_PARALLELISM";
+	public static final Integer ANALYZER_PARALLELISM_DEFAULT = 1;
+	private static int analyzerParallelismValue = ANALYZER_PARALLELISM_DEFAULT;
+	
+	/**
+	 * Configures the analyzer parallelism level, a value of 1 or less runs the
+	 * analyzers one at a time
+	 */
+	public static void setAnalyzerParallelism(int parallelism){
+		IPreferenceStore preferences = Activator.getDefault().getPreferenceStore();
+		preferences.setValue(ANALYZER_PARALLELISM, parallelism);
+		loadPreferences();
+	}
+	
+	/**
+	 * Returns the analyzer parallelism level
+	 * @return
+	 */
+	public static int getAnalyzerParallelism(){
+		if(!initialized){
+			loadPreferences();
+		}
+		return analyzerParallelismValue;
+	}
+	
+	/**
+	 * Configures the number of seconds an analyzer may run before it is canceled,
+	 * graph writing exclusive analyzers are never timed out
+	 */
+	public static final String ANALYZER_TIMEOUT = "ANALYZER_TIMEOUT";
+	public static final Integer ANALYZER_TIMEOUT_DEFAULT = 0;
+	private static int analyzerTimeoutValue = ANALYZER_TIMEOUT_DEFAULT;
+	
+	/**
+	 * Configures the analyzer timeout in seconds, a value of 0 or less disables
+	 * the timeout
+	 */
+	public static void setAnalyzerTimeout(int seconds){
+		IPreferenceStore preferences = Activator.getDefault().getPreferenceStore();
+		preferences.setValue(ANALYZER_TIMEOUT, seconds);
+		loadPreferences();
+	}
+	
+	/**
+	 * Returns the analyzer timeout in seconds
+	 * @return
+	 */
+	public static int getAnalyzerTimeout(){
+		if(!initialized){
+			loadPreferences();
+		}
+		return analyzerTimeoutValue;
+	}
+	
+	/**
+	 * Enable/disable persisting analyzer results to disk between sessions
+	 */
+	public static final String ANALYZER_RESULT_STORE = "ANALYZER_RESULT_STORE";
+	public static final Boolean ANALYZER_RESULT_STORE_DEFAULT = false;
+	private static boolean analyzerResultStoreValue = ANALYZER_RESULT_STORE_DEFAULT;
+	
+	/**
+	 * Configures persisting analyzer results to disk, results are only
+	 * persisted for indexes with normalized addresses
+	 */
+	public static void enableAnalyzerResultStore(boolean enabled){
+		IPreferenceStore preferences = Activator.getDefault().getPreferenceStore();
+		preferences.setValue(ANALYZER_RESULT_STORE, enabled);
+		loadPreferences();
+	}
+	
+	/**
+	 * Returns true if persisting analyzer results to disk is enabled
+	 * @return
+	 */
+	public static boolean isAnalyzerResultStoreEnabled(){
+		if(!initialized){
+			loadPreferences();
+		}
+		return analyzerResultStoreValue;
+	}
+	
+	/**
+	 * Enable/disable identifying the loops of each control flow graph
+	 */
+	public static final String COMPUTE_LOOP_IDENTIFICATION = "COMPUTE_LOOP_IDENTIFICATION";
+	public static final Boolean COMPUTE_LOOP_IDENTIFICATION_DEFAULT = false;
+	private static boolean computeLoopIdentificationValue = COMPUTE_LOOP_IDENTIFICATION_DEFAULT;
+	
+	/**
+	 * Configures whether or not loops should be identified for each control flow graph
+	 */
+	public static void enableComputeLoopIdentification(boolean enabled){
+		IPreferenceStore preferences = Activator.getDefault().getPreferenceStore();
+		preferences.setValue(COMPUTE_LOOP_IDENTIFICATION, enabled);
+		loadPreferences();
+	}
+	
+	/**
+	 * Returns true if loops should be identified for each control flow graph
+	 * @return
+	 */
+	public static boolean isComputeLoopIdentificationEnabled(){
+		if(!initialized){
+			loadPreferences();
+		}
+		return computeLoopIdentificationValue;
+	}
+	
+	/**
+	 * The number of worker threads used to identify loops (1 for serial)
+	 */
+	public static final String LOOP_IDENTIFICATION_PARALLELISM = "LOOP_IDENTIFICATION_PARALLELISM";
+	public static final Integer LOOP_IDENTIFICATION_PARALLELISM_DEFAULT = 1;
+	private static int loopIdentificationParallelismValue = LOOP_IDENTIFICATION_PARALLELISM_DEFAULT;
+	
+	/**
+	 * Sets the number of worker threads used to identify loops
+	 */
+	public static void setLoopIdentificationParallelism(int parallelism){
+		IPreferenceStore preferences = Activator.getDefault().getPreferenceStore();
+		preferences.setValue(LOOP_IDENTIFICATION_PARALLELISM, parallelism);
+		loadPreferences();
+	}
+	
+	/**
+	 * Returns the number of worker threads used to identify loops
+	 * @return
+	 */
+	public static int getLoopIdentificationParallelism(){
+		if(!initialized){
+			loadPreferences();
+		}
+		return loopIdentificationParallelismValue;
+	}
+	
+	/**
+	 * The number of worker threads used to extract control flow graphs during ICFG construction (1 for serial)
+	 */
+	public static final String ICFG_CONSTRUCTION_PARALLELISM = "ICFG_CONSTRUCTION_PARALLELISM";
+	public static final Integer ICFG_CONSTRUCTION_PARALLELISM_DEFAULT = 1;
+	private static int icfgConstructionParallelismValue = ICFG_CONSTRUCTION_PARALLELISM_DEFAULT;
+	
+	/**
+	 * Sets the number of worker threads used to extract control flow graphs during ICFG construction
+	 */
+	public static void setICFGConstructionParallelism(int parallelism){
+		IPreferenceStore preferences = Activator.getDefault().getPreferenceStore();
+		preferences.setValue(ICFG_CONSTRUCTION_PARALLELISM, parallelism);
+		loadPreferences();
+	}
+	
+	/**
+	 * Returns the number of worker threads used to extract control flow graphs during ICFG construction
+	 * @return
+	 */
+	public static int getICFGConstructionParallelism(){
+		if(!initialized){
+			loadPreferences();
+		}
+		return icfgConstructionParallelismValue;
+	}
+	
+	/**
+	 * Enable/disable precomputing a table of the call site targets of the index
+	 */
+	public static final String CALL_RESOLUTION_TABLE = "CALL_RESOLUTION_TABLE";
+	public static final Boolean CALL_RESOLUTION_TABLE_DEFAULT = false;
+	private static boolean callResolutionTableValue = CALL_RESOLUTION_TABLE_DEFAULT;
+	
+	/**
+	 * Configures whether or not call site targets should be resolved from a precomputed table
+	 */
+	public static void enableCallResolutionTable(boolean enabled){
+		IPreferenceStore preferences = Activator.getDefault().getPreferenceStore();
+		preferences.setValue(CALL_RESOLUTION_TABLE, enabled);
+		loadPreferences();
+	}
+	
+	/**
+	 * Returns true if call site targets should be resolved from a precomputed table
+	 * @return
+	 */
+	public static boolean isCallResolutionTableEnabled(){
+		if(!initialized){
+			loadPreferences();
+		}
+		return callResolutionTableValue;
+	}
+	
+	/**
+	 * The number of worker threads used to build the call resolution table (1 for serial)
+	 */
+	public static final String CALL_RESOLUTION_TABLE_PARALLELISM = "CALL_RESOLUTION_TABLE_PARALLELISM";
+	public static final Integer CALL_RESOLUTION_TABLE_PARALLELISM_DEFAULT = 1;
+	private static int callResolutionTableParallelismValue = CALL_RESOLUTION_TABLE_PARALLELISM_DEFAULT;
+	
+	/**
+	 * Sets the number of worker threads used to build the call resolution table
+	 */
+	public static void setCallResolutionTableParallelism(int parallelism){
+		IPreferenceStore preferences = Activator.getDefault().getPreferenceStore();
+		preferences.setValue(CALL_RESOLUTION_TABLE_PARALLELISM, parallelism);
+		loadPreferences();
+	}
+	
+	/**
+	 * Returns the number of worker threads used to build the call resolution table
+	 * @return
+	 */
+	public static int getCallResolutionTableParallelism(){
+		if(!initialized){
+			loadPreferences();
+		}
+		return callResolutionTableParallelismValue;
+	}
+	
+	/**
+	 * Enable/disable the name index
+	 */
+	public static final String COMPUTE_NAME_INDEX = "COMPUTE_NAME_INDEX";
+	public static final Boolean COMPUTE_NAME_INDEX_DEFAULT = false;
+	private static boolean computeNameIndexValue = COMPUTE_NAME_INDEX_DEFAULT;
+	
+	/**
+	 * Configures the name index
+	 */
+	public static void enableComputeNameIndex(boolean enabled){
+		IPreferenceStore preferences = Activator.getDefault().getPreferenceStore();
+		preferences.setValue(COMPUTE_NAME_INDEX, enabled);
+		loadPreferences();
+	}
+	
+	/**
+	 * Returns true if the name index is enabled
+	 * @return
+	 */
+	public static boolean isComputeNameIndexEnabled(){
+		if(!initialized){
+			loadPreferences();
+		}
+		return computeNameIndexValue;
+	}
+	
+	/**
+	 * Configure the additional node attributes to include in the name index
+	 */
+	public static final String NAME_INDEX_ATTRIBUTES = "NAME_INDEX_ATTRIBUTES";
+	public static final String NAME_INDEX_ATTRIBUTES_DEFAULT = "";
+	private static String nameIndexAttributesValue = NAME_INDEX_ATTRIBUTES_DEFAULT;
+	
+	/**
+	 * Configures the additional node attributes to include in the name index
+	 */
+	public static void setNameIndexAttributes(String... attributes){
+		IPreferenceStore preferences = Activator.getDefault().getPreferenceStore();
+		StringBuilder value = new StringBuilder();
+		for(String attribute : attributes){
+			if(value.length() > 0){
+				value.append(",");
+			}
+			value.append(attribute.trim());
+		}
+		preferences.setValue(NAME_INDEX_ATTRIBUTES, value.toString());
+		loadPreferences();
+	}
+	
+	/**
+	 * Returns the additional node attributes to include in the name index
+	 * @return
+	 */
+	public static String[] getNameIndexAttributes(){
+		if(!initialized){
+			loadPreferences();
+		}
+		List<String> attributes = new ArrayList<String>();
+		if(nameIndexAttributesValue != null){
+			for(String attribute : nameIndexAttributesValue.split(",")){
+				if(!attribute.trim().isEmpty()){
+					attributes.add(attribute.trim());
+				}
+			}
+		}
+		return attributes.toArray(new String[attributes.size()]);
+	}
+	
+	/**
+	 * Configure the number of worker threads used to evaluate filters on large inputs
+	 */
+	public static final String FILTER_PARALLELISM = "FILTER_PARALLELISM";
+	public static final Integer FILTER_PARALLELISM_DEFAULT = 1;
+	private static int filterParallelismValue = FILTER_PARALLELISM_DEFAULT;
+	
+	/**
+	 * Configures the number of worker threads used to evaluate filters on large inputs
+	 */
+	public static void setFilterParallelism(int parallelism){
+		IPreferenceStore preferences = Activator.getDefault().getPreferenceStore();
+		preferences.setValue(FILTER_PARALLELISM, parallelism);
+		loadPreferences();
+	}
+	
+	/**
+	 * Returns the number of worker threads used to evaluate filters on large inputs
+	 * @return
+	 */
+	public static int getFilterParallelism(){
+		if(!initialized){
+			loadPreferences();
+		}
+		return filterParallelismValue;
+	}
+	
 	/**
 	 * Enable/disable displaying filter view result containers
 	 */
@@ -266,7 +748,24 @@ public class CommonsPreferences extends AbstractPreferenceInitializer {
 		preferences.setDefault(CONSTRUCT_ICFG, CONSTRUCT_ICFG_DEFAULT);
 		preferences.setDefault(COMPUTE_CONTROL_FLOW_GRAPH_DOMINANCE, COMPUTE_CONTROL_FLOW_GRAPH_DOMINANCE_DEFAULT);
 		preferences.setDefault(COMPUTE_EXCEPTIONAL_CONTROL_FLOW_GRAPH_DOMINANCE_TREES, COMPUTE_EXCEPTIONAL_CONTROL_FLOW_GRAPH_DOMINANCE_TREES_DEFAULT);
+		preferences.setDefault(CODEMAP_STAGE_PARALLELISM, CODEMAP_STAGE_PARALLELISM_DEFAULT);
+		preferences.setDefault(DOMINANCE_ANALYSIS_PARALLELISM, DOMINANCE_ANALYSIS_PARALLELISM_DEFAULT);
+		preferences.setDefault(INDEXED_DOMINANCE_ENGINE, INDEXED_DOMINANCE_ENGINE_DEFAULT);
+		preferences.setDefault(INCREMENTAL_DOMINANCE_ANALYSIS, INCREMENTAL_DOMINANCE_ANALYSIS_DEFAULT);
 		preferences.setDefault(ADD_MASTER_ENTRY_EXIT_CONTAINMENT_RELATIONSHIPS, ADD_MASTER_ENTRY_EXIT_CONTAINMENT_RELATIONSHIPS_DEFAULT);
+		preferences.setDefault(FUNCTION_GRAPH_CACHE, FUNCTION_GRAPH_CACHE_DEFAULT);
+		preferences.setDefault(FUNCTION_GRAPH_CACHE_CAPACITY, FUNCTION_GRAPH_CACHE_CAPACITY_DEFAULT);
+		preferences.setDefault(ANALYZER_PARALLELISM, ANALYZER_PARALLELISM_DEFAULT);
+		preferences.setDefault(ANALYZER_TIMEOUT, ANALYZER_TIMEOUT_DEFAULT);
+		preferences.setDefault(ANALYZER_RESULT_STORE, ANALYZER_RESULT_STORE_DEFAULT);
+		preferences.setDefault(COMPUTE_LOOP_IDENTIFICATION, COMPUTE_LOOP_IDENTIFICATION_DEFAULT);
+		preferences.setDefault(LOOP_IDENTIFICATION_PARALLELISM, LOOP_IDENTIFICATION_PARALLELISM_DEFAULT);
+		preferences.setDefault(ICFG_CONSTRUCTION_PARALLELISM, ICFG_CONSTRUCTION_PARALLELISM_DEFAULT);
+		preferences.setDefault(CALL_RESOLUTION_TABLE, CALL_RESOLUTION_TABLE_DEFAULT);
+		preferences.setDefault(CALL_RESOLUTION_TABLE_PARALLELISM, CALL_RESOLUTION_TABLE_PARALLELISM_DEFAULT);
+		preferences.setDefault(COMPUTE_NAME_INDEX, COMPUTE_NAME_INDEX_DEFAULT);
+		preferences.setDefault(NAME_INDEX_ATTRIBUTES, NAME_INDEX_ATTRIBUTES_DEFAULT);
+		preferences.setDefault(FILTER_PARALLELISM, FILTER_PARALLELISM_DEFAULT);
 		preferences.setDefault(DISPLAY_FILTER_VIEW_RESULT_CONTAINERS, DISPLAY_FILTER_VIEW_RESULT_CONTAINERS_DEFAULT);
 	}
 	
@@ -282,7 +781,24 @@ public class CommonsPreferences extends AbstractPreferenceInitializer {
 		preferences.setValue(CONSTRUCT_ICFG, CONSTRUCT_ICFG_DEFAULT);
 		preferences.setValue(COMPUTE_CONTROL_FLOW_GRAPH_DOMINANCE, COMPUTE_CONTROL_FLOW_GRAPH_DOMINANCE_DEFAULT);
 		preferences.setValue(COMPUTE_EXCEPTIONAL_CONTROL_FLOW_GRAPH_DOMINANCE_TREES, COMPUTE_EXCEPTIONAL_CONTROL_FLOW_GRAPH_DOMINANCE_TREES_DEFAULT);
+		preferences.setValue(CODEMAP_STAGE_PARALLELISM, CODEMAP_STAGE_PARALLELISM_DEFAULT);
+		preferences.setValue(DOMINANCE_ANALYSIS_PARALLELISM, DOMINANCE_ANALYSIS_PARALLELISM_DEFAULT);
+		preferences.setValue(INDEXED_DOMINANCE_ENGINE, INDEXED_DOMINANCE_ENGINE_DEFAULT);
+		preferences.setValue(INCREMENTAL_DOMINANCE_ANALYSIS, INCREMENTAL_DOMINANCE_ANALYSIS_DEFAULT);
 		preferences.setValue(ADD_MASTER_ENTRY_EXIT_CONTAINMENT_RELATIONSHIPS, ADD_MASTER_ENTRY_EXIT_CONTAINMENT_RELATIONSHIPS_DEFAULT);
+		preferences.setValue(FUNCTION_GRAPH_CACHE, FUNCTION_GRAPH_CACHE_DEFAULT);
+		preferences.setValue(FUNCTION_GRAPH_CACHE_CAPACITY, FUNCTION_GRAPH_CACHE_CAPACITY_DEFAULT);
+		preferences.setValue(ANALYZER_PARALLELISM, ANALYZER_PARALLELISM_DEFAULT);
+		preferences.setValue(ANALYZER_TIMEOUT, ANALYZER_TIMEOUT_DEFAULT);
+		preferences.setValue(ANALYZER_RESULT_STORE, ANALYZER_RESULT_STORE_DEFAULT);
+		preferences.setValue(COMPUTE_LOOP_IDENTIFICATION, COMPUTE_LOOP_IDENTIFICATION_DEFAULT);
+		preferences.setValue(LOOP_IDENTIFICATION_PARALLELISM, LOOP_IDENTIFICATION_PARALLELISM_DEFAULT);
+		preferences.setValue(ICFG_CONSTRUCTION_PARALLELISM, ICFG_CONSTRUCTION_PARALLELISM_DEFAULT);
+		preferences.setValue(CALL_RESOLUTION_TABLE, CALL_RESOLUTION_TABLE_DEFAULT);
+		preferences.setValue(CALL_RESOLUTION_TABLE_PARALLELISM, CALL_RESOLUTION_TABLE_PARALLELISM_DEFAULT);
+		preferences.setValue(COMPUTE_NAME_INDEX, COMPUTE_NAME_INDEX_DEFAULT);
+		preferences.setValue(NAME_INDEX_ATTRIBUTES, NAME_INDEX_ATTRIBUTES_DEFAULT);
+		preferences.setValue(FILTER_PARALLELISM, FILTER_PARALLELISM_DEFAULT);
 		preferences.setValue(DISPLAY_FILTER_VIEW_RESULT_CONTAINERS, DISPLAY_FILTER_VIEW_RESULT_CONTAINERS_DEFAULT);
 		loadPreferences();
 	}
@@ -300,7 +816,24 @@ public class CommonsPreferences extends AbstractPreferenceInitializer {
 			constructICFGValue = preferences.getBoolean(CONSTRUCT_ICFG);
 			computeControlFlowGraphDominanceValue = preferences.getBoolean(COMPUTE_CONTROL_FLOW_GRAPH_DOMINANCE);
 			computeExceptionalControlFlowGraphDominanceValue = preferences.getBoolean(COMPUTE_EXCEPTIONAL_CONTROL_FLOW_GRAPH_DOMINANCE_TREES);
+			codemapStageParallelismValue = preferences.getInt(CODEMAP_STAGE_PARALLELISM);
+			dominanceAnalysisParallelismValue = preferences.getInt(DOMINANCE_ANALYSIS_PARALLELISM);
+			indexedDominanceEngineValue = preferences.getBoolean(INDEXED_DOMINANCE_ENGINE);
+			incrementalDominanceAnalysisValue = preferences.getBoolean(INCREMENTAL_DOMINANCE_ANALYSIS);
 			addMasterEntryExitContainmentRelationships = preferences.getBoolean(ADD_MASTER_ENTRY_EXIT_CONTAINMENT_RELATIONSHIPS);
+			functionGraphCacheValue = preferences.getBoolean(FUNCTION_GRAPH_CACHE);
+			functionGraphCacheCapacityValue = preferences.getInt(FUNCTION_GRAPH_CACHE_CAPACITY);
+			analyzerParallelismValue = preferences.getInt(ANALYZER_PARALLELISM);
+			analyzerTimeoutValue = preferences.getInt(ANALYZER_TIMEOUT);
+			analyzerResultStoreValue = preferences.getBoolean(ANALYZER_RESULT_STORE);
+			computeLoopIdentificationValue = preferences.getBoolean(COMPUTE_LOOP_IDENTIFICATION);
+			loopIdentificationParallelismValue = preferences.getInt(LOOP_IDENTIFICATION_PARALLELISM);
+			icfgConstructionParallelismValue = preferences.getInt(ICFG_CONSTRUCTION_PARALLELISM);
+			callResolutionTableValue = preferences.getBoolean(CALL_RESOLUTION_TABLE);
+			callResolutionTableParallelismValue = preferences.getInt(CALL_RESOLUTION_TABLE_PARALLELISM);
+			computeNameIndexValue = preferences.getBoolean(COMPUTE_NAME_INDEX);
+			nameIndexAttributesValue = preferences.getString(NAME_INDEX_ATTRIBUTES);
+			filterParallelismValue = preferences.getInt(FILTER_PARALLELISM);
 			displayFilterViewResultContainersValue = preferences.getBoolean(DISPLAY_FILTER_VIEW_RESULT_CONTAINERS);
 		} catch (Exception e){
 			Log.warning("Error accessing commons preferences, using defaults...", e);
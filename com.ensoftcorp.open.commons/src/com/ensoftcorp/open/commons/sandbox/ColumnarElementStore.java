@@ -0,0 +1,723 @@
+package com.ensoftcorp.open.commons.sandbox;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A compact, columnar storage of the tags and attributes of the graph
+ * elements of a compact {@link Sandbox}.
+ *
+ * Each graph element is identified by a dense int id. Tag names are interned
+ * to bit positions and each distinct combination of tags is interned as a
+ * single shared bitset, so an element's tags cost a single int. Attribute
+ * names are interned to columns. A column holds the values of the few elements
+ * that have the attribute in a small open addressed table and switches to a
+ * single array indexed by element id once enough elements have the attribute.
+ *
+ * Sandbox graph elements backed by a store do not allocate their own tag
+ * sets or attribute maps, {@link SandboxGraphElement#tags()} and
+ * {@link SandboxGraphElement#attr()} return thin views over the store.
+ *
+ * Note: null attribute values are not stored, putting a null value removes
+ * the attribute.
+ *
+ * The id of a deleted element is reused by a later allocation once the
+ * deleted element is no longer referenced (it has been garbage collected), so
+ * stale references to a deleted element, for example from the edges or
+ * graphs that still hold it, never observe the tags and attributes of
+ * another element.
+ *
+ * @author Ben Holland
+ */
+public class ColumnarElementStore {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * The interned tag set id of the empty tag set
+	 */
+	private static final int EMPTY_TAG_SET = 0;
+
+	/**
+	 * The number of allocated element ids
+	 */
+	private int size = 0;
+
+	/**
+	 * Ids of collected deleted elements available for reuse (a stack)
+	 */
+	private int[] freeIDs = new int[16];
+	private int freeCount = 0;
+
+	/**
+	 * Ids of deleted elements that are not yet reusable or are waiting to be
+	 * reused, guards against releasing the same id twice
+	 */
+	private BitSet released = new BitSet();
+
+	/**
+	 * Deleted elements that may still be referenced, their ids become
+	 * reusable once the references are enqueued (the set keeps the references
+	 * themselves reachable until then)
+	 */
+	private ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+	private Set<ReleasedElement> pending = new HashSet<ReleasedElement>();
+
+	/**
+	 * The interned tag set id of each element
+	 */
+	private int[] elementTagSets = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Interned tag names and their bit positions
+	 */
+	private Map<String,Integer> tagIds = new HashMap<String,Integer>();
+	private List<String> tagNames = new ArrayList<String>();
+
+	/**
+	 * Interned tag sets, interned bitsets must never be mutated
+	 */
+	private Map<BitSet,Integer> tagSetIds = new HashMap<BitSet,Integer>();
+	private List<BitSet> tagSets = new ArrayList<BitSet>();
+
+	/**
+	 * Interned attribute names and their columns
+	 */
+	private Map<String,Integer> attributeIds = new HashMap<String,Integer>();
+	private List<String> attributeNames = new ArrayList<String>();
+	private List<AttributeColumn> attributeColumns = new ArrayList<AttributeColumn>();
+	
+	/**
+	 * Elements whose tags or attributes have changed since they were last
+	 * marked clean
+	 */
+	private BitSet dirty = new BitSet();
+
+	public ColumnarElementStore(){
+		BitSet empty = new BitSet();
+		tagSets.add(empty);
+		tagSetIds.put(empty, EMPTY_TAG_SET);
+	}
+
+	/**
+	 * Allocates an element id with no tags or attributes, reusing a released
+	 * id if one is available
+	 * @return
+	 */
+	public int allocate(){
+		reclaim();
+		if(freeCount > 0){
+			int element = freeIDs[--freeCount];
+			released.clear(element);
+			// tags and attributes were cleared when the id was reclaimed
+			dirty.set(element);
+			return element;
+		}
+		if(size == elementTagSets.length){
+			elementTagSets = Arrays.copyOf(elementTagSets, elementTagSets.length * 2);
+		}
+		elementTagSets[size] = EMPTY_TAG_SET;
+		dirty.set(size);
+		return size++;
+	}
+
+	/**
+	 * Returns the number of allocated element ids, including released ids
+	 * that are waiting to be reused
+	 * @return
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Returns the number of released element ids that are no longer
+	 * referenced and are waiting to be reused
+	 * @return
+	 */
+	public int getReleasedCount(){
+		reclaim();
+		return freeCount;
+	}
+
+	/**
+	 * Releases the id of a deleted element. The id is reused by a later
+	 * allocation only after the given owner (the deleted element) has been
+	 * garbage collected, until then the owner's tags and attributes remain
+	 * intact. Releasing an already released id has no effect.
+	 * 
+	 * @param owner the object that accesses the store through the id
+	 * @param element
+	 */
+	public void release(Object owner, int element){
+		if(element < 0 || element >= size || released.get(element)){
+			return;
+		}
+		released.set(element);
+		pending.add(new ReleasedElement(owner, element, collected));
+	}
+
+	/**
+	 * Clears the tags and attributes of the released ids whose owners have
+	 * been collected and makes the ids available for reuse
+	 */
+	private void reclaim(){
+		Reference<?> reference;
+		while((reference = collected.poll()) != null){
+			ReleasedElement releasedElement = (ReleasedElement) reference;
+			pending.remove(releasedElement);
+			int element = releasedElement.element;
+			clear(element);
+			dirty.clear(element);
+			if(freeCount == freeIDs.length){
+				freeIDs = Arrays.copyOf(freeIDs, freeIDs.length * 2);
+			}
+			freeIDs[freeCount++] = element;
+		}
+	}
+
+	/**
+	 * Returns the number of distinct tag combinations interned by this store
+	 * @return
+	 */
+	public int getInternedTagSetCount(){
+		return tagSets.size();
+	}
+
+	/**
+	 * Returns the number of attribute columns in this store
+	 * @return
+	 */
+	public int getAttributeColumnCount(){
+		return attributeColumns.size();
+	}
+
+	/**
+	 * Removes all tags and attributes of the given element
+	 * @param element
+	 */
+	public void clear(int element){
+		dirty.set(element);
+		elementTagSets[element] = EMPTY_TAG_SET;
+		for(AttributeColumn column : attributeColumns){
+			column.remove(element);
+		}
+	}
+
+	/**
+	 * Returns true if the element's tags or attributes have changed since it
+	 * was last marked clean
+	 * @param element
+	 * @return
+	 */
+	public boolean isDirty(int element){
+		return dirty.get(element);
+	}
+	
+	/**
+	 * Marks the element as modified
+	 * @param element
+	 */
+	public void markDirty(int element){
+		dirty.set(element);
+	}
+	
+	/**
+	 * Marks the element as unmodified
+	 * @param element
+	 */
+	public void markClean(int element){
+		dirty.clear(element);
+	}
+
+	/*
+	 * Tags
+	 */
+
+	/**
+	 * Returns true if the element is tagged with the given tag
+	 * @param element
+	 * @param tag
+	 * @return
+	 */
+	public boolean hasTag(int element, String tag){
+		Integer tagID = tagIds.get(tag);
+		if(tagID == null){
+			return false;
+		}
+		return tagSets.get(elementTagSets[element]).get(tagID);
+	}
+
+	/**
+	 * Tags the element with the given tag
+	 * @param element
+	 * @param tag
+	 * @return true if the tag was not already present
+	 */
+	public boolean tag(int element, String tag){
+		Integer tagID = tagIds.get(tag);
+		if(tagID == null){
+			tagID = tagNames.size();
+			tagIds.put(tag, tagID);
+			tagNames.add(tag);
+		}
+		BitSet current = tagSets.get(elementTagSets[element]);
+		if(current.get(tagID)){
+			return false;
+		}
+		BitSet updated = (BitSet) current.clone();
+		updated.set(tagID);
+		elementTagSets[element] = intern(updated);
+		dirty.set(element);
+		return true;
+	}
+
+	/**
+	 * Removes the given tag from the element
+	 * @param element
+	 * @param tag
+	 * @return true if the tag was present
+	 */
+	public boolean untag(int element, String tag){
+		Integer tagID = tagIds.get(tag);
+		if(tagID == null){
+			return false;
+		}
+		BitSet current = tagSets.get(elementTagSets[element]);
+		if(!current.get(tagID)){
+			return false;
+		}
+		BitSet updated = (BitSet) current.clone();
+		updated.clear(tagID);
+		elementTagSets[element] = intern(updated);
+		dirty.set(element);
+		return true;
+	}
+
+	private int intern(BitSet tagSet){
+		Integer tagSetID = tagSetIds.get(tagSet);
+		if(tagSetID == null){
+			tagSetID = tagSets.size();
+			tagSets.add(tagSet);
+			tagSetIds.put(tagSet, tagSetID);
+		}
+		return tagSetID;
+	}
+
+	/**
+	 * Returns a live view of the element's tags
+	 * @param element
+	 * @return
+	 */
+	public Set<String> tags(final int element){
+		return new AbstractSet<String>(){
+			@Override
+			public boolean contains(Object o) {
+				return (o instanceof String) && hasTag(element, (String) o);
+			}
+
+			@Override
+			public boolean add(String tag) {
+				return tag(element, tag);
+			}
+
+			@Override
+			public boolean remove(Object o) {
+				return (o instanceof String) && untag(element, (String) o);
+			}
+
+			@Override
+			public int size() {
+				return tagSets.get(elementTagSets[element]).cardinality();
+			}
+
+			@Override
+			public Iterator<String> iterator() {
+				final BitSet snapshot = tagSets.get(elementTagSets[element]);
+				return new Iterator<String>(){
+					private int next = snapshot.nextSetBit(0);
+					private int last = -1;
+
+					@Override
+					public boolean hasNext() {
+						return next >= 0;
+					}
+
+					@Override
+					public String next() {
+						if(next < 0){
+							throw new NoSuchElementException();
+						}
+						last = next;
+						next = snapshot.nextSetBit(next + 1);
+						return tagNames.get(last);
+					}
+
+					@Override
+					public void remove() {
+						if(last < 0){
+							throw new IllegalStateException();
+						}
+						untag(element, tagNames.get(last));
+						last = -1;
+					}
+				};
+			}
+		};
+	}
+
+	/*
+	 * Attributes
+	 */
+
+	/**
+	 * Returns the value of the element's attribute or null if the attribute
+	 * is not present
+	 *
+	 * @param element
+	 * @param key
+	 * @return
+	 */
+	public Object getAttr(int element, String key){
+		Integer attributeID = attributeIds.get(key);
+		if(attributeID == null){
+			return null;
+		}
+		return attributeColumns.get(attributeID).get(element);
+	}
+
+	/**
+	 * Returns true if the element has the given attribute
+	 * @param element
+	 * @param key
+	 * @return
+	 */
+	public boolean hasAttr(int element, String key){
+		return getAttr(element, key) != null;
+	}
+
+	/**
+	 * Sets the value of the element's attribute
+	 *
+	 * @param element
+	 * @param key
+	 * @param value
+	 * @return the previous value or null
+	 */
+	public Object putAttr(int element, String key, Object value){
+		if(value == null){
+			return removeAttr(element, key);
+		}
+		Integer attributeID = attributeIds.get(key);
+		if(attributeID == null){
+			attributeID = attributeNames.size();
+			attributeIds.put(key, attributeID);
+			attributeNames.add(key);
+			attributeColumns.add(new AttributeColumn());
+		}
+		Object previous = attributeColumns.get(attributeID).put(element, value, size);
+		if(!value.equals(previous)){
+			dirty.set(element);
+		}
+		return previous;
+	}
+
+	/**
+	 * Removes the element's attribute
+	 * @param element
+	 * @param key
+	 * @return the previous value or null
+	 */
+	public Object removeAttr(int element, String key){
+		Integer attributeID = attributeIds.get(key);
+		if(attributeID == null){
+			return null;
+		}
+		Object previous = attributeColumns.get(attributeID).remove(element);
+		if(previous != null){
+			dirty.set(element);
+		}
+		return previous;
+	}
+
+	/**
+	 * Returns a live view of the element's attributes
+	 * @param element
+	 * @return
+	 */
+	public Map<String,Object> attr(final int element){
+		return new AbstractMap<String,Object>(){
+			@Override
+			public Object get(Object key) {
+				return (key instanceof String) ? getAttr(element, (String) key) : null;
+			}
+
+			@Override
+			public boolean containsKey(Object key) {
+				return (key instanceof String) && hasAttr(element, (String) key);
+			}
+
+			@Override
+			public Object put(String key, Object value) {
+				return putAttr(element, key, value);
+			}
+
+			@Override
+			public Object remove(Object key) {
+				return (key instanceof String) ? removeAttr(element, (String) key) : null;
+			}
+
+			@Override
+			public Set<Entry<String,Object>> entrySet() {
+				return new AbstractSet<Entry<String,Object>>(){
+					@Override
+					public int size() {
+						int count = 0;
+						for(AttributeColumn column : attributeColumns){
+							if(column.get(element) != null){
+								count++;
+							}
+						}
+						return count;
+					}
+
+					@Override
+					public Iterator<Entry<String,Object>> iterator() {
+						return new Iterator<Entry<String,Object>>(){
+							private int next = advance(0);
+							private int last = -1;
+
+							private int advance(int attributeID){
+								while(attributeID < attributeColumns.size()){
+									if(attributeColumns.get(attributeID).get(element) != null){
+										return attributeID;
+									}
+									attributeID++;
+								}
+								return -1;
+							}
+
+							@Override
+							public boolean hasNext() {
+								return next >= 0;
+							}
+
+							@Override
+							public Entry<String,Object> next() {
+								if(next < 0){
+									throw new NoSuchElementException();
+								}
+								last = next;
+								next = advance(next + 1);
+								final String key = attributeNames.get(last);
+								return new SimpleEntry<String,Object>(key, getAttr(element, key)){
+									private static final long serialVersionUID = 1L;
+
+									@Override
+									public Object setValue(Object value) {
+										super.setValue(value);
+										return putAttr(element, key, value);
+									}
+								};
+							}
+
+							@Override
+							public void remove() {
+								if(last < 0){
+									throw new IllegalStateException();
+								}
+								removeAttr(element, attributeNames.get(last));
+								last = -1;
+							}
+						};
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * A phantom reference to a deleted element that records the element's id
+	 */
+	private static class ReleasedElement extends PhantomReference<Object> {
+		private final int element;
+
+		public ReleasedElement(Object owner, int element, ReferenceQueue<Object> queue) {
+			super(owner, queue);
+			this.element = element;
+		}
+	}
+
+	/**
+	 * The values of a single attribute. Values are kept in an open addressed
+	 * (linear probing) table keyed by element id while few elements have the
+	 * attribute and in an array indexed by element id once more than a
+	 * quarter of the allocated elements have it.
+	 */
+	private static class AttributeColumn {
+
+		private static final int EMPTY = -1;
+		private static final int INITIAL_SPARSE_CAPACITY = 8;
+
+		private int[] keys = newKeys(INITIAL_SPARSE_CAPACITY);
+		private Object[] values = new Object[INITIAL_SPARSE_CAPACITY];
+		private int count = 0;
+
+		/**
+		 * The dense array of values, null while the column is sparse
+		 */
+		private Object[] dense = null;
+
+		private static int[] newKeys(int capacity){
+			int[] keys = new int[capacity];
+			Arrays.fill(keys, EMPTY);
+			return keys;
+		}
+
+		private static int slot(int element, int mask){
+			int hash = element * 0x9E3779B9;
+			return (hash ^ (hash >>> 16)) & mask;
+		}
+
+		/**
+		 * Returns the slot of the element in the sparse table or the empty
+		 * slot where it would be inserted
+		 */
+		private int find(int element){
+			int mask = keys.length - 1;
+			int slot = slot(element, mask);
+			while(keys[slot] != EMPTY && keys[slot] != element){
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		public Object get(int element){
+			if(dense != null){
+				return element < dense.length ? dense[element] : null;
+			}
+			int slot = find(element);
+			return keys[slot] == EMPTY ? null : values[slot];
+		}
+
+		/**
+		 * Sets the element's value (which must not be null)
+		 * @param element
+		 * @param value
+		 * @param size the number of allocated element ids
+		 * @return the previous value or null
+		 */
+		public Object put(int element, Object value, int size){
+			if(dense != null){
+				if(element >= dense.length){
+					dense = Arrays.copyOf(dense, Math.max(element + 1, Math.max(size, dense.length * 2)));
+				}
+				Object previous = dense[element];
+				dense[element] = value;
+				return previous;
+			}
+			int slot = find(element);
+			if(keys[slot] != EMPTY){
+				Object previous = values[slot];
+				values[slot] = value;
+				return previous;
+			}
+			keys[slot] = element;
+			values[slot] = value;
+			count++;
+			if(count * 4 > size && count >= INITIAL_SPARSE_CAPACITY){
+				densify(size);
+			} else if(count * 2 > keys.length){
+				rehash(keys.length * 2);
+			}
+			return null;
+		}
+
+		/**
+		 * Removes the element's value
+		 * @param element
+		 * @return the previous value or null
+		 */
+		public Object remove(int element){
+			if(dense != null){
+				if(element >= dense.length){
+					return null;
+				}
+				Object previous = dense[element];
+				dense[element] = null;
+				return previous;
+			}
+			int slot = find(element);
+			if(keys[slot] == EMPTY){
+				return null;
+			}
+			Object previous = values[slot];
+			// backward shift deletion, moves later entries of the probe
+			// sequence into the freed slot so lookups need no tombstones
+			int mask = keys.length - 1;
+			int next = slot;
+			while(true){
+				next = (next + 1) & mask;
+				if(keys[next] == EMPTY){
+					break;
+				}
+				int home = slot(keys[next], mask);
+				boolean inRange = (next > slot) ? (home > slot && home <= next) : (home > slot || home <= next);
+				if(!inRange){
+					keys[slot] = keys[next];
+					values[slot] = values[next];
+					slot = next;
+				}
+			}
+			keys[slot] = EMPTY;
+			values[slot] = null;
+			count--;
+			return previous;
+		}
+
+		private void rehash(int capacity){
+			int[] oldKeys = keys;
+			Object[] oldValues = values;
+			keys = newKeys(capacity);
+			values = new Object[capacity];
+			for(int i=0; i<oldKeys.length; i++){
+				if(oldKeys[i] != EMPTY){
+					int slot = find(oldKeys[i]);
+					keys[slot] = oldKeys[i];
+					values[slot] = oldValues[i];
+				}
+			}
+		}
+
+		private void densify(int size){
+			int length = size;
+			for(int i=0; i<keys.length; i++){
+				if(keys[i] != EMPTY){
+					length = Math.max(length, keys[i] + 1);
+				}
+			}
+			dense = new Object[length];
+			for(int i=0; i<keys.length; i++){
+				if(keys[i] != EMPTY){
+					dense[keys[i]] = values[i];
+				}
+			}
+			keys = null;
+			values = null;
+		}
+	}
+
+}
@@ -0,0 +1,210 @@
+package com.ensoftcorp.open.commons.sandbox;
+
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+
+/**
+ * A sandbox that may be populated by multiple threads without external
+ * locking, for example by parallel per-function analyses running in a
+ * ForkJoinPool.
+ *
+ * Addresses and instance ids are allocated atomically, the address map is a
+ * concurrent map and the universe node and edge sets (and the universe's
+ * adjacency index) are concurrent sets, so nodes and edges may be added,
+ * created and deleted concurrently. Each Atlas node and edge is mirrored
+ * exactly once: adding an element that is already in the sandbox returns the
+ * existing mirror (unlike {@link Sandbox#addNode(Node)}, which re-mirrors it),
+ * so threads that add the same element, or edges sharing an endpoint, at the
+ * same time all receive the same sandbox element.
+ *
+ * Flush contract: structural operations (add, create, delete) hold a shared
+ * lock and a flush holds the exclusive lock, so a flush waits for in progress
+ * structural operations to complete, blocks new ones until it is done, and
+ * every structural operation that completed before the flush began happens
+ * before the flush. Tag and attribute changes made directly on sandbox graph
+ * elements are not guarded by the sandbox. A thread must finish modifying an
+ * element before another thread modifies it, and all such changes must
+ * happen before the flush is started, for example by joining the forked tasks
+ * (ForkJoinTask.join or ForkJoinPool.invoke), waiting on their Futures, or
+ * awaiting the termination of their executor before calling flush.
+ *
+ * Note: a concurrent sandbox is never compact, the columnar element store is
+ * not thread safe. Iteration over the universe is weakly consistent.
+ *
+ * @author Ben Holland
+ */
+public class ConcurrentSandbox extends Sandbox {
+
+	/**
+	 * Shared by structural operations, held exclusively by flushes
+	 */
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Constructs a new thread-safe sandbox where changes are isolated from the
+	 * Atlas graph
+	 */
+	public ConcurrentSandbox(){
+		super(false, true);
+	}
+
+	/**
+	 * Returns the sandbox node mirroring the given Atlas node, mirroring the
+	 * node if it is not already in the sandbox
+	 */
+	@Override
+	public SandboxNode addNode(Node node) {
+		lock.readLock().lock();
+		try {
+			return getOrAddNode(node);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the sandbox edge mirroring the given Atlas edge, mirroring the
+	 * edge (and its endpoints) if it is not already in the sandbox
+	 */
+	@Override
+	public SandboxEdge addEdge(Edge edge) {
+		lock.readLock().lock();
+		try {
+			// endpoints are resolved before the edge's mapping is computed, a
+			// mapping function must not update the address map itself
+			SandboxNode from = getOrAddNode(edge.from());
+			SandboxNode to = getOrAddNode(edge.to());
+			return getOrAddEdge(edge, from, to);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the sandbox node mirroring the given Atlas node, mirroring the
+	 * node if it is not already in the sandbox
+	 *
+	 * @param node
+	 * @return
+	 */
+	private SandboxNode getOrAddNode(final Node node){
+		final String address = addrStr(node);
+		Map<String,SandboxGraphElement> addresses = addresses();
+		SandboxGraphElement existing = addresses.get(address);
+		if(existing instanceof SandboxNode){
+			return (SandboxNode) existing;
+		}
+		return (SandboxNode) addresses.computeIfAbsent(address, new Function<String,SandboxGraphElement>(){
+			@Override
+			public SandboxGraphElement apply(String key) {
+				SandboxNode sandboxNode = new SandboxNode(getInstanceID(), node);
+				universe().nodes().add(sandboxNode);
+				return sandboxNode;
+			}
+		});
+	}
+
+	/**
+	 * Returns the sandbox edge mirroring the given Atlas edge, mirroring the
+	 * edge between the given sandbox endpoints if it is not already in the
+	 * sandbox
+	 *
+	 * @param edge
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	private SandboxEdge getOrAddEdge(final Edge edge, final SandboxNode from, final SandboxNode to){
+		final String address = addrStr(edge);
+		Map<String,SandboxGraphElement> addresses = addresses();
+		SandboxGraphElement existing = addresses.get(address);
+		if(existing instanceof SandboxEdge){
+			return (SandboxEdge) existing;
+		}
+		return (SandboxEdge) addresses.computeIfAbsent(address, new Function<String,SandboxGraphElement>(){
+			@Override
+			public SandboxGraphElement apply(String key) {
+				SandboxEdge sandboxEdge = new SandboxEdge(getInstanceID(), edge, from, to);
+				universe().edges().add(sandboxEdge);
+				return sandboxEdge;
+			}
+		});
+	}
+
+	@Override
+	public SandboxNode createNode() {
+		lock.readLock().lock();
+		try {
+			return super.createNode();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public SandboxEdge createEdge(SandboxNode fromNode, SandboxNode toNode) {
+		lock.readLock().lock();
+		try {
+			return super.createEdge(fromNode, toNode);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void delete(SandboxGraphElement graphElement) {
+		lock.readLock().lock();
+		try {
+			super.delete(graphElement);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Flushes the changes made in the sandbox universe to the Atlas graph.
+	 *
+	 * Waits for in progress structural operations and blocks new ones until
+	 * the flush completes. Tag and attribute changes must happen before this
+	 * call (see the class documentation).
+	 *
+	 * @return The serialized Atlas graph version of the sandbox
+	 */
+	@Override
+	public Graph flush() {
+		lock.writeLock().lock();
+		try {
+			return super.flush();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Flushes the changes made in the sandbox that are restricted to the nodes
+	 * and edges in the given graph to the Atlas graph.
+	 *
+	 * Waits for in progress structural operations and blocks new ones until
+	 * the flush completes. Tag and attribute changes must happen before this
+	 * call (see the class documentation).
+	 *
+	 * @param graph the graph containing the set of nodes and edges to flush
+	 *
+	 * @return The serialized Atlas graph version of the sandbox
+	 */
+	@Override
+	public Graph flush(SandboxGraph graph) {
+		lock.writeLock().lock();
+		try {
+			return super.flush(graph);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+}
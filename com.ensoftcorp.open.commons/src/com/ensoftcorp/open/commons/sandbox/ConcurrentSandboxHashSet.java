@@ -0,0 +1,142 @@
+package com.ensoftcorp.open.commons.sandbox;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A sandbox graph element set backed by a concurrent hash set, used for the
+ * universe node and edge sets of a {@link ConcurrentSandbox}.
+ * 
+ * Elements may be added and removed by multiple threads without external
+ * locking. Iteration is weakly consistent, iterators never throw a
+ * ConcurrentModificationException and reflect some (but not necessarily all)
+ * of the modifications made after the iterator was created.
+ * 
+ * Note: the inherited HashSet storage is never used, every HashSet operation
+ * that reads the storage directly (iteration, spliterators, toArray and clone)
+ * is overridden to read the concurrent set instead. The set is not
+ * serializable.
+ * 
+ * @author Ben Holland
+ */
+/*package*/ class ConcurrentSandboxHashSet<T extends SandboxGraphElement> extends SandboxHashSet<T> {
+
+	private static final long serialVersionUID = 1L;
+	
+	private final transient Set<T> elements = ConcurrentHashMap.newKeySet();
+	
+	/*package*/ ConcurrentSandboxHashSet(int sandboxInstanceID){
+		super(sandboxInstanceID);
+	}
+	
+	@Override
+	public boolean add(T ge){
+		if(ge.getSandboxInstanceID() == getSandboxInstanceID()){
+			boolean added = elements.add(ge);
+			SandboxGraph adjacencyIndex = getAdjacencyIndex();
+			if(added && adjacencyIndex != null && ge instanceof SandboxEdge){
+				adjacencyIndex.indexEdge((SandboxEdge) ge);
+			}
+			return added;
+		} else {
+			throw new RuntimeException("SandboxGraphElement [" + ge.getAddress() + "] is not in this sandbox!");
+		}
+	}
+	
+	@Override
+	public boolean remove(Object o){
+		boolean removed = elements.remove(o);
+		SandboxGraph adjacencyIndex = getAdjacencyIndex();
+		if(removed && adjacencyIndex != null && o instanceof SandboxEdge){
+			adjacencyIndex.unindexEdge((SandboxEdge) o);
+		}
+		return removed;
+	}
+	
+	@Override
+	public boolean contains(Object o){
+		return elements.contains(o);
+	}
+	
+	@Override
+	public int size(){
+		return elements.size();
+	}
+	
+	@Override
+	public boolean isEmpty(){
+		return elements.isEmpty();
+	}
+	
+	@Override
+	public void clear(){
+		elements.clear();
+		SandboxGraph adjacencyIndex = getAdjacencyIndex();
+		if(adjacencyIndex != null){
+			adjacencyIndex.clearEdgeIndex();
+		}
+	}
+	
+	@Override
+	public Iterator<T> iterator(){
+		final Iterator<T> iterator = elements.iterator();
+		return new Iterator<T>(){
+			private T last = null;
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public T next() {
+				last = iterator.next();
+				return last;
+			}
+
+			@Override
+			public void remove() {
+				if(last == null){
+					throw new IllegalStateException();
+				}
+				ConcurrentSandboxHashSet.this.remove(last);
+				last = null;
+			}
+		};
+	}
+	
+	@Override
+	public Spliterator<T> spliterator(){
+		return elements.spliterator();
+	}
+	
+	@Override
+	public void forEach(Consumer<? super T> action){
+		elements.forEach(action);
+	}
+	
+	@Override
+	public Object[] toArray(){
+		return elements.toArray();
+	}
+	
+	@Override
+	public <E> E[] toArray(E[] a){
+		return elements.toArray(a);
+	}
+	
+	/**
+	 * Returns a concurrent copy of the elements currently in this set. The
+	 * copy is not bound to the adjacency index of a graph.
+	 */
+	@Override
+	public Object clone(){
+		ConcurrentSandboxHashSet<T> clone = new ConcurrentSandboxHashSet<T>(getSandboxInstanceID());
+		clone.elements.addAll(elements);
+		return clone;
+	}
+	
+}
@@ -2,6 +2,7 @@ package com.ensoftcorp.open.commons.sandbox;
 
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 import com.ensoftcorp.atlas.core.db.graph.Edge;
@@ -11,10 +12,49 @@ import com.ensoftcorp.atlas.core.db.graph.Node;
 import com.ensoftcorp.atlas.core.db.graph.UncheckedGraph;
 import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
 import com.ensoftcorp.atlas.core.db.set.AtlasSet;
-import com.ensoftcorp.open.commons.analysis.CommonQueries;
+import com.ensoftcorp.open.commons.log.Log;
 
 public class DefaultFlushProvider implements FlushProvider {
 
+	/**
+	 * If true, mirrored elements that have not been modified since they were
+	 * mirrored or last flushed are skipped
+	 */
+	private boolean incremental;
+	
+	/**
+	 * Statistics of the most recent flush
+	 */
+	private FlushStatistics lastFlushStatistics = null;
+	
+	/**
+	 * Constructs an incremental flush provider
+	 */
+	public DefaultFlushProvider(){
+		this(true);
+	}
+	
+	/**
+	 * Constructs a flush provider
+	 * 
+	 * @param incremental if true only new elements and the tags and attributes
+	 *            of modified (dirty) mirrored elements are flushed, otherwise
+	 *            every mirrored element is re-synchronized with the sandbox
+	 */
+	public DefaultFlushProvider(boolean incremental){
+		this.incremental = incremental;
+	}
+	
+	/**
+	 * Returns the statistics of the most recent flush or null if nothing has
+	 * been flushed
+	 * 
+	 * @return
+	 */
+	public FlushStatistics getLastFlushStatistics(){
+		return lastFlushStatistics;
+	}
+	
 	/**
 	 * Flushes the changes made in the sandbox that are restricted to the nodes
 	 * and edges in the given graph to the Atlas graph
@@ -26,7 +66,12 @@ public class DefaultFlushProvider implements FlushProvider {
 	 * 
 	 * 2) Updates (adds/removes) tags and attributes from the corresponding
 	 * Atlas graph element's to match the current sandbox tags/attributes for
-	 * each node/edge in the sandbox.
+	 * each node/edge in the sandbox that has been modified since it was
+	 * mirrored or last flushed (or for every node/edge if this provider is not
+	 * incremental).
+	 * 
+	 * Nodes are flushed as one batch before the edges, so edges are created
+	 * between the already resolved Atlas nodes.
 	 * 
 	 * @param graph the graph containing the set of nodes and edges to flush
 	 * 
@@ -34,14 +79,19 @@ public class DefaultFlushProvider implements FlushProvider {
 	 */
 	@Override
 	public Graph flush(SandboxGraph graph, Map<String,SandboxGraphElement> addresses) {
+		long start = System.nanoTime();
+		FlushStatistics statistics = new FlushStatistics();
 		AtlasSet<Node> nodes = new AtlasHashSet<Node>();
 		for(SandboxNode node : graph.nodes()){
-			nodes.add((Node) flush(node, addresses));
+			nodes.add((Node) flush(node, addresses, statistics));
 		}
 		AtlasSet<Edge> edges = new AtlasHashSet<Edge>();
 		for(SandboxEdge edge : graph.edges()){
-			edges.add((Edge) flush(edge, addresses));
+			edges.add((Edge) flush(edge, addresses, statistics));
 		}
+		statistics.setElapsedTime(System.nanoTime() - start);
+		lastFlushStatistics = statistics;
+		Log.debug(statistics.toString());
 		return new UncheckedGraph(nodes, edges);
 	}
 	
@@ -53,75 +103,84 @@ public class DefaultFlushProvider implements FlushProvider {
 	 * @return
 	 */
 	public GraphElement flush(SandboxGraphElement ge, Map<String,SandboxGraphElement> addresses) {
+		return flush(ge, addresses, new FlushStatistics());
+	}
+	
+	private GraphElement flush(SandboxGraphElement ge, Map<String,SandboxGraphElement> addresses, FlushStatistics statistics) {
+		GraphElement age;
 		if(!ge.isMirror()){
 			if(ge instanceof SandboxNode){
-				Node node = Graph.U.createNode();
-				// add all the sandbox tags
-				for(String tag : ge.tags()){
-					node.tag(tag);
-				}
-				// add all new sandbox attributes
-				for(String key : ge.attr().keySet()){
-					node.putAttr(key, ge.attr().get(key));
-				}
-				addresses.remove(ge.getAddress());
-				ge.flush(node.address().toAddressString());
-				addresses.put(ge.getAddress(), ge);
-				return node;
+				age = Graph.U.createNode();
 			} else if(ge instanceof SandboxEdge){
 				SandboxEdge sandboxEdge = (SandboxEdge) ge;
 				// assert: nodes will all have been flushed by the time we are flushing edges
-				Node from = (Node) CommonQueries.getGraphElementByAddress(sandboxEdge.from().getAddress());
-				Node to = (Node) CommonQueries.getGraphElementByAddress(sandboxEdge.to().getAddress());
-				Edge edge = Graph.U.createEdge(from, to);
-				// add all the sandbox tags
-				for(String tag : ge.tags()){
-					edge.tag(tag);
-				}
-				// add all new sandbox attributes
-				for(String key : ge.attr().keySet()){
-					edge.putAttr(key, ge.attr().get(key));
-				}
-				addresses.remove(ge.getAddress());
-				ge.flush(edge.address().toAddressString());
-				addresses.put(ge.getAddress(), ge);
-				return edge;
+				Node from = (Node) sandboxEdge.from().toAtlasGraphElement();
+				Node to = (Node) sandboxEdge.to().toAtlasGraphElement();
+				age = Graph.U.createEdge(from, to);
 			} else {
 				throw new RuntimeException("Unknown sandbox graph element type.");
 			}
+			// add all the sandbox tags
+			for(String tag : ge.tags()){
+				age.tag(tag);
+			}
+			// add all new sandbox attributes
+			for(Entry<String,Object> attribute : ge.attr().entrySet()){
+				age.putAttr(attribute.getKey(), attribute.getValue());
+			}
+			addresses.remove(ge.getAddress());
+			ge.flush(age.address().toAddressString());
+			addresses.put(ge.getAddress(), ge);
+			statistics.incrementCreated();
 		} else {
-			GraphElement age = CommonQueries.getGraphElementByAddress(ge.getAddress());
+			age = ge.toAtlasGraphElement();
+			if(incremental && !ge.isDirty()){
+				statistics.incrementSkipped();
+				return age;
+			}
 			
-			// purge all old tags
+			// purge old tags that are no longer in the sandbox
 			Set<String> tagsToRemove = new HashSet<String>();
 			for(String tag : age.tags()){
-				tagsToRemove.add(tag);
+				if(!ge.taggedWith(tag)){
+					tagsToRemove.add(tag);
+				}
 			}
 			for(String tag : tagsToRemove){
 				age.tags().remove(tag);
 			}
 			
-			// add all the sandbox tags
+			// add the new sandbox tags
 			for(String tag : ge.tags()){
-				age.tag(tag);
+				if(!age.taggedWith(tag)){
+					age.tag(tag);
+				}
 			}
 			
-			// purge all old attributes
+			// purge old attributes that are no longer in the sandbox
 			Set<String> keysToRemove = new HashSet<String>();
 			for(String key : age.attr().keys()){
-				keysToRemove.add(key);
+				if(!ge.hasAttr(key)){
+					keysToRemove.add(key);
+				}
 			}
 			for(String key : keysToRemove){
 				age.attr().remove(key);
 			}
 			
-			// add all new sandbox attributes
-			for(String key : ge.attr().keySet()){
-				age.putAttr(key, ge.attr().get(key));
+			// add the new or changed sandbox attributes
+			for(Entry<String,Object> attribute : ge.attr().entrySet()){
+				Object value = attribute.getValue();
+				Object current = age.getAttr(attribute.getKey());
+				if(value == null ? current != null : !value.equals(current)){
+					age.putAttr(attribute.getKey(), value);
+				}
 			}
-			
-			return age;
+			statistics.incrementUpdated();
 		}
+		ge.setAtlasGraphElement(age);
+		ge.markClean();
+		return age;
 	}
 
 }
@@ -0,0 +1,70 @@
+package com.ensoftcorp.open.commons.sandbox;
+
+/**
+ * Statistics describing a single sandbox flush
+ * 
+ * @author Ben Holland
+ */
+public class FlushStatistics {
+
+	private long created = 0;
+	private long updated = 0;
+	private long skipped = 0;
+	private long elapsedTime = 0;
+	
+	/*package*/ void incrementCreated(){
+		created++;
+	}
+	
+	/*package*/ void incrementUpdated(){
+		updated++;
+	}
+	
+	/*package*/ void incrementSkipped(){
+		skipped++;
+	}
+	
+	/*package*/ void setElapsedTime(long nanoseconds){
+		elapsedTime = nanoseconds;
+	}
+	
+	/**
+	 * Returns the number of Atlas graph elements created by the flush
+	 * @return
+	 */
+	public long getCreated() {
+		return created;
+	}
+
+	/**
+	 * Returns the number of existing Atlas graph elements whose tags or
+	 * attributes were updated by the flush
+	 * @return
+	 */
+	public long getUpdated() {
+		return updated;
+	}
+
+	/**
+	 * Returns the number of mirrored graph elements that were unchanged and
+	 * therefore skipped by the flush
+	 * @return
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * Returns the elapsed time of the flush in nanoseconds
+	 * @return
+	 */
+	public long getElapsedTime() {
+		return elapsedTime;
+	}
+
+	@Override
+	public String toString() {
+		return "Flushed sandbox [created=" + created + ", updated=" + updated + ", skipped=" + skipped + ", elapsed=" + (elapsedTime/1000.0/1000.0) + "ms]";
+	}
+	
+}
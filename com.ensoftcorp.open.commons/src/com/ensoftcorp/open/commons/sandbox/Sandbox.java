@@ -2,22 +2,26 @@ package com.ensoftcorp.open.commons.sandbox;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.ensoftcorp.atlas.core.db.graph.Edge;
 import com.ensoftcorp.atlas.core.db.graph.Graph;
 import com.ensoftcorp.atlas.core.db.graph.GraphElement;
+import com.ensoftcorp.atlas.core.db.graph.GraphElement.NodeDirection;
 import com.ensoftcorp.atlas.core.db.graph.Node;
 import com.ensoftcorp.atlas.core.db.set.AtlasSet;
 
 public class Sandbox {
 	
-	private static volatile int sandboxInstanceCounter = 0;
+	private static final AtomicInteger sandboxInstanceCounter = new AtomicInteger(0);
 	
 	public static final String SANDBOX_ADDRESS_PREFIX = "SANDBOX_"; //$NON-NLS-1$
-	private static volatile int sandboxAddressCounter = 0;
+	private static final AtomicLong sandboxAddressCounter = new AtomicLong(0);
 
 	private String getUniqueSandboxGraphElementAddress(){
-		return SANDBOX_ADDRESS_PREFIX + (sandboxAddressCounter++);
+		return SANDBOX_ADDRESS_PREFIX + sandboxAddressCounter.getAndIncrement();
 	}
 	
 	private int sandboxInstanceID;
@@ -41,13 +45,58 @@ public class Sandbox {
 	 */
 	private Map<String,SandboxGraphElement> addresses;
 	
+	/**
+	 * The columnar tag and attribute store of a compact sandbox, null if this
+	 * sandbox is not compact
+	 */
+	private ColumnarElementStore store;
+	
 	/**
 	 * Constructs a new sandbox where changes are isolated from the Atlas graph
 	 */
 	public Sandbox(){
-		sandboxInstanceID = (sandboxInstanceCounter++);
-		addresses = new HashMap<String,SandboxGraphElement>();
-		U = new SandboxGraph(sandboxInstanceID);
+		this(false);
+	}
+	
+	/**
+	 * Constructs a new sandbox where changes are isolated from the Atlas graph
+	 * 
+	 * @param compact if true the tags and attributes of the sandbox graph
+	 *            elements are kept in a shared columnar store (see
+	 *            {@link ColumnarElementStore}) instead of a tag set and
+	 *            attribute map per element, which greatly reduces the memory
+	 *            required to mirror large Atlas graphs
+	 */
+	public Sandbox(boolean compact){
+		this(compact, false);
+	}
+	
+	/**
+	 * Constructs a new sandbox where changes are isolated from the Atlas graph
+	 * 
+	 * @param compact see {@link #Sandbox(boolean)}
+	 * @param concurrent if true the address map and the universe's node and
+	 *            edge sets are backed by concurrent collections (see
+	 *            {@link ConcurrentSandbox})
+	 */
+	/*package*/ Sandbox(boolean compact, boolean concurrent){
+		sandboxInstanceID = sandboxInstanceCounter.getAndIncrement();
+		if(concurrent){
+			addresses = new ConcurrentHashMap<String,SandboxGraphElement>();
+		} else {
+			addresses = new HashMap<String,SandboxGraphElement>();
+		}
+		U = new SandboxGraph(sandboxInstanceID, concurrent);
+		store = compact ? new ColumnarElementStore() : null;
+	}
+	
+	/**
+	 * Returns true if this sandbox stores its graph elements' tags and
+	 * attributes in a columnar store
+	 * @return
+	 */
+	public boolean isCompact(){
+		return store != null;
 	}
 	
 	/**
@@ -243,7 +292,7 @@ public class Sandbox {
 	}
 
 	public SandboxNode addNode(Node node) {
-		SandboxNode sandboxNode = new SandboxNode(sandboxInstanceID, node);
+		SandboxNode sandboxNode = isCompact() ? new SandboxNode(sandboxInstanceID, node, store) : new SandboxNode(sandboxInstanceID, node);
 		U.nodes().add(sandboxNode);
 		addresses.put(addrStr(node), sandboxNode);
 		return sandboxNode;
@@ -272,7 +321,7 @@ public class Sandbox {
 			to = addNode(edge.to());
 		}
 		
-		SandboxEdge sandboxEdge = new SandboxEdge(sandboxInstanceID, edge, from, to);
+		SandboxEdge sandboxEdge = isCompact() ? new SandboxEdge(sandboxInstanceID, edge, from, to, store) : new SandboxEdge(sandboxInstanceID, edge, from, to);
 		U.edges().add(sandboxEdge);
 		addresses.put(addrStr(edge), sandboxEdge);
 		return sandboxEdge;
@@ -288,7 +337,8 @@ public class Sandbox {
 	 * @return
 	 */
 	public SandboxNode createNode(){
-		SandboxNode node = new SandboxNode(sandboxInstanceID, getUniqueSandboxGraphElementAddress());
+		String address = getUniqueSandboxGraphElementAddress();
+		SandboxNode node = isCompact() ? new SandboxNode(sandboxInstanceID, address, store) : new SandboxNode(sandboxInstanceID, address);
 		U.nodes().add(node);
 		addresses.put(node.getAddress(), node);
 		return node;
@@ -302,25 +352,39 @@ public class Sandbox {
 	 * @return
 	 */
 	public SandboxEdge createEdge(SandboxNode fromNode, SandboxNode toNode){
-		SandboxEdge edge = new SandboxEdge(sandboxInstanceID, getUniqueSandboxGraphElementAddress(), fromNode, toNode);
+		String address = getUniqueSandboxGraphElementAddress();
+		SandboxEdge edge = isCompact() ? new SandboxEdge(sandboxInstanceID, address, fromNode, toNode, store) : new SandboxEdge(sandboxInstanceID, address, fromNode, toNode);
 		U.edges().add(edge);
 		addresses.put(edge.getAddress(), edge);
 		return edge;
 	}
 	
 	/**
-	 * Removes the given sandbox graph element from the sandbox universe
+	 * Removes the given sandbox graph element from the sandbox universe.
+	 * Deleting a node also deletes its incident edges. The universe's
+	 * adjacency index is updated by the universe's edge set.
 	 * @param graphElement
 	 */
 	public void delete(SandboxGraphElement graphElement){
+		boolean removed = false;
 		if(graphElement instanceof SandboxNode){
 			SandboxNode node = (SandboxNode) graphElement;
-			U.nodes().remove(node);
+			for(SandboxEdge edge : U.edges(node, NodeDirection.IN)){
+				delete(edge);
+			}
+			for(SandboxEdge edge : U.edges(node, NodeDirection.OUT)){
+				delete(edge);
+			}
+			removed = U.nodes().remove(node);
 		} else if(graphElement instanceof SandboxEdge){
 			SandboxEdge edge = (SandboxEdge) graphElement;
-			U.edges().remove(edge);
+			removed = U.edges().remove(edge);
 		}
 		addresses.remove(graphElement.getAddress());
+		if(removed){
+			// the store id is only reused after the element is collected
+			graphElement.release();
+		}
 	}
 
 	/**
@@ -334,6 +398,14 @@ public class Sandbox {
 		return addresses.get(address);
 	}
 	
+	/**
+	 * Returns the address map of the universe graph
+	 * @return
+	 */
+	/*package*/ Map<String,SandboxGraphElement> addresses(){
+		return addresses;
+	}
+	
 	/**
 	 * Flushes the changes made in the sandbox universe to the Atlas graph
 	 * 
@@ -341,7 +413,9 @@ public class Sandbox {
 	 */
 	public Graph flush(){
 		// flushing the universe ;)
-		return flushProvider.flush(U, addresses);
+		Graph result = flushProvider.flush(U, addresses);
+		U.reindex();
+		return result;
 	}
 	
 	/**
@@ -362,7 +436,25 @@ public class Sandbox {
 	 * @return The serialized Atlas graph version of the sandbox
 	 */
 	public Graph flush(SandboxGraph graph){
-		return flushProvider.flush(graph, addresses);
+		Graph result = flushProvider.flush(graph, addresses);
+		graph.reindex();
+		if(graph != U){
+			U.reindex();
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the statistics of the most recent flush or null if nothing has
+	 * been flushed or the flush provider does not record statistics
+	 * 
+	 * @return
+	 */
+	public FlushStatistics getLastFlushStatistics(){
+		if(flushProvider instanceof DefaultFlushProvider){
+			return ((DefaultFlushProvider) flushProvider).getLastFlushStatistics();
+		}
+		return null;
 	}
 	
 	/**
@@ -21,6 +21,8 @@ public class SandboxEdge extends SandboxGraphElement {
 		for(String key : edge.attr().keys()){
 			attr().put(key, edge.getAttr(key));
 		}
+		setAtlasGraphElement(edge);
+		markClean();
 	}
 	
 	/**
@@ -34,6 +36,35 @@ public class SandboxEdge extends SandboxGraphElement {
 		TO = to;
 	}
 
+	/**
+	 * Constructs a mirrored sandbox edge of the given Atlas edge whose tags and
+	 * attributes are stored in the given columnar store
+	 * @param edge
+	 */
+	public SandboxEdge(int sandboxInstanceID, Edge edge, SandboxNode from, SandboxNode to, ColumnarElementStore store) {
+		this(sandboxInstanceID, Sandbox.addrStr(edge), from, to, store);
+		for(String tag : edge.tags()){
+			tag(tag);
+		}
+		for(String key : edge.attr().keys()){
+			putAttr(key, edge.getAttr(key));
+		}
+		setAtlasGraphElement(edge);
+		markClean();
+	}
+	
+	/**
+	 * Constructs a new SandboxEdge directed from the "from" node to the "to"
+	 * node whose tags and attributes are stored in the given columnar store
+	 * @param from
+	 * @param to
+	 */
+	public SandboxEdge(int sandboxInstanceID, String address, SandboxNode from, SandboxNode to, ColumnarElementStore store) {
+		super(sandboxInstanceID, address, store);
+		FROM = from;
+		TO = to;
+	}
+
 	/**
 	 * Returns the node this edge is directed from
 	 * @return
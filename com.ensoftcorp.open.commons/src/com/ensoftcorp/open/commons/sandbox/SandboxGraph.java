@@ -1,6 +1,12 @@
 package com.ensoftcorp.open.commons.sandbox;
 
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.ensoftcorp.atlas.core.db.graph.GraphElement.NodeDirection;
 
@@ -10,12 +16,55 @@ public class SandboxGraph {
 	private SandboxHashSet<SandboxNode> nodes;
 	private SandboxHashSet<SandboxEdge> edges;
 	
+	/**
+	 * Adjacency index of the incoming edges of each node, kept consistent
+	 * with the edge set by the edge set's add/remove operations
+	 */
+	private Map<SandboxNode,Set<SandboxEdge>> inEdges;
+	
+	/**
+	 * Adjacency index of the outgoing edges of each node, kept consistent
+	 * with the edge set by the edge set's add/remove operations
+	 */
+	private Map<SandboxNode,Set<SandboxEdge>> outEdges;
+	
+	/**
+	 * True if this graph's node set, edge set and adjacency index may be
+	 * modified concurrently
+	 */
+	private final boolean concurrent;
+	
 	/**
 	 * Creates an empty sandbox graph
 	 */
 	// clients should not instantiate, use Sandbox to get an instance
 	/*package*/ SandboxGraph(int sandboxInstanceID) {
-		this(sandboxInstanceID, new SandboxHashSet<SandboxNode>(sandboxInstanceID), new SandboxHashSet<SandboxEdge>(sandboxInstanceID));
+		this(sandboxInstanceID, false);
+	}
+	
+	/**
+	 * Creates an empty sandbox graph
+	 * 
+	 * @param concurrent if true the node set, edge set and adjacency index of
+	 *            this graph are backed by concurrent collections so that nodes
+	 *            and edges may be added and removed by multiple threads
+	 */
+	// clients should not instantiate, use Sandbox to get an instance
+	/*package*/ SandboxGraph(int sandboxInstanceID, boolean concurrent) {
+		this.sandboxInstanceID = sandboxInstanceID;
+		this.concurrent = concurrent;
+		if(concurrent){
+			this.nodes = new ConcurrentSandboxHashSet<SandboxNode>(sandboxInstanceID);
+			this.edges = new ConcurrentSandboxHashSet<SandboxEdge>(sandboxInstanceID);
+			this.inEdges = new ConcurrentHashMap<SandboxNode,Set<SandboxEdge>>();
+			this.outEdges = new ConcurrentHashMap<SandboxNode,Set<SandboxEdge>>();
+		} else {
+			this.nodes = new SandboxHashSet<SandboxNode>(sandboxInstanceID);
+			this.edges = new SandboxHashSet<SandboxEdge>(sandboxInstanceID);
+			this.inEdges = new HashMap<SandboxNode,Set<SandboxEdge>>();
+			this.outEdges = new HashMap<SandboxNode,Set<SandboxEdge>>();
+		}
+		this.edges.setAdjacencyIndex(this);
 	}
 	
 	/**
@@ -24,9 +73,7 @@ public class SandboxGraph {
 	 */
 	// clients should not instantiate, use Sandbox to get an instance
 	/*package*/ SandboxGraph(int sandboxInstanceID, Set<SandboxNode> nodes, Set<SandboxEdge> edges) {
-		this.sandboxInstanceID = sandboxInstanceID;
-		this.nodes = new SandboxHashSet<SandboxNode>(sandboxInstanceID);
-		this.edges = new SandboxHashSet<SandboxEdge>(sandboxInstanceID);
+		this(sandboxInstanceID, false);
 		this.nodes.addAll(nodes);
 		for(SandboxEdge edge : edges){
 			this.nodes.add(edge.from());
@@ -75,17 +122,7 @@ public class SandboxGraph {
 	 */
 	public SandboxHashSet<SandboxEdge> edges(SandboxNode node, NodeDirection direction){
 		SandboxHashSet<SandboxEdge> result = new SandboxHashSet<SandboxEdge>(this);
-		for(SandboxEdge edge : edges){
-			if(direction == NodeDirection.IN){
-				if(edge.to().equals(node)){
-					result.add(edge);
-				}
-			} else {
-				if(edge.from().equals(node)){
-					result.add(edge);
-				}
-			}
-		}
+		result.addAll(indexedEdges(node, direction));
 		return result;
 	}
 	
@@ -97,8 +134,7 @@ public class SandboxGraph {
 	public SandboxHashSet<SandboxNode> limit(NodeDirection direction){
 		SandboxHashSet<SandboxNode> result = new SandboxHashSet<SandboxNode>(this);
 		for(SandboxNode node : nodes()){
-			Set<SandboxEdge> connections = edges(node, direction);
-			if(connections.isEmpty()){
+			if(indexedEdges(node, direction).isEmpty()){
 				result.add(node);
 			}
 		}
@@ -239,10 +275,8 @@ public class SandboxGraph {
 	 */
 	public SandboxHashSet<SandboxNode> predecessors(SandboxNode node){
 		SandboxHashSet<SandboxNode> result = new SandboxHashSet<SandboxNode>(this);
-		for(SandboxEdge edge : edges){
-			if(edge.to().equals(node)){
-				result.add(edge.from());
-			}
+		for(SandboxEdge edge : indexedEdges(node, NodeDirection.IN)){
+			result.add(edge.from());
 		}
 		return result;
 	}
@@ -254,10 +288,8 @@ public class SandboxGraph {
 	 */
 	public SandboxHashSet<SandboxNode> successors(SandboxNode node){
 		SandboxHashSet<SandboxNode> result = new SandboxHashSet<SandboxNode>(this);
-		for(SandboxEdge edge : edges){
-			if(edge.from().equals(node)){
-				result.add(edge.to());
-			}
+		for(SandboxEdge edge : indexedEdges(node, NodeDirection.OUT)){
+			result.add(edge.to());
 		}
 		return result;
 	}
@@ -291,8 +323,7 @@ public class SandboxGraph {
 	public SandboxGraph forwardStep(SandboxHashSet<SandboxNode> origin){
 		SandboxGraph result = new SandboxGraph(this);
 		for(SandboxNode node : origin){
-			SandboxHashSet<SandboxEdge> outEdges = getOutEdgesFromNode(node);
-			for(SandboxEdge edge : outEdges){
+			for(SandboxEdge edge : indexedEdges(node, NodeDirection.OUT)){
 				result.nodes().add(edge.from());
 				result.nodes().add(edge.to());
 				result.edges().add(edge);
@@ -330,8 +361,7 @@ public class SandboxGraph {
 	public SandboxGraph reverseStep(SandboxHashSet<SandboxNode> origin){
 		SandboxGraph result = new SandboxGraph(this);
 		for(SandboxNode node : origin){
-			SandboxHashSet<SandboxEdge> inEdges = getInEdgesToNode(node);
-			for(SandboxEdge edge : inEdges){
+			for(SandboxEdge edge : indexedEdges(node, NodeDirection.IN)){
 				result.nodes().add(edge.from());
 				result.nodes().add(edge.to());
 				result.edges().add(edge);
@@ -526,12 +556,10 @@ public class SandboxGraph {
 	public SandboxGraph forward(SandboxHashSet<SandboxNode> origin){
 		SandboxGraph result = new SandboxGraph(this);
 		result.nodes().addAll(origin);
-		SandboxHashSet<SandboxNode> frontier = new SandboxHashSet<SandboxNode>(this);
-		frontier.addAll(origin);
+		ArrayDeque<SandboxNode> frontier = new ArrayDeque<SandboxNode>(origin);
 		while(!frontier.isEmpty()){
-			SandboxNode next = frontier.one();
-			frontier.remove(next);
-			for(SandboxEdge edge : forwardStep(next).edges()){
+			SandboxNode next = frontier.poll();
+			for(SandboxEdge edge : indexedEdges(next, NodeDirection.OUT)){
 				if(result.nodes().add(edge.to())){
 					frontier.add(edge.to());
 				}
@@ -564,12 +592,10 @@ public class SandboxGraph {
 	public SandboxGraph reverse(SandboxHashSet<SandboxNode> origin){
 		SandboxGraph result = new SandboxGraph(this);
 		result.nodes().addAll(origin);
-		SandboxHashSet<SandboxNode> frontier = new SandboxHashSet<SandboxNode>(this);
-		frontier.addAll(origin);
+		ArrayDeque<SandboxNode> frontier = new ArrayDeque<SandboxNode>(origin);
 		while(!frontier.isEmpty()){
-			SandboxNode next = frontier.one();
-			frontier.remove(next);
-			for(SandboxEdge edge : reverseStep(next).edges()){
+			SandboxNode next = frontier.poll();
+			for(SandboxEdge edge : indexedEdges(next, NodeDirection.IN)){
 				if(result.nodes().add(edge.from())){
 					frontier.add(edge.from());
 				}
@@ -580,33 +606,86 @@ public class SandboxGraph {
 	}
 	
 	/**
-	 * Gets incoming edges to node
+	 * Returns an unmodifiable view of the indexed incoming or outgoing edges of
+	 * the given node
+	 * 
 	 * @param node
-	 * @return The set of incoming edges to the given node
+	 * @param direction
+	 * @return
 	 */
-	private SandboxHashSet<SandboxEdge> getInEdgesToNode(SandboxNode node){
-		SandboxHashSet<SandboxEdge> inEdges = new SandboxHashSet<SandboxEdge>(this);
-		for(SandboxEdge edge : edges){
-			if(edge.to().equals(node)){
-				inEdges.add(edge);
-			}
+	private Set<SandboxEdge> indexedEdges(SandboxNode node, NodeDirection direction){
+		Set<SandboxEdge> result = (direction == NodeDirection.IN) ? inEdges.get(node) : outEdges.get(node);
+		if(result == null){
+			return Collections.emptySet();
 		}
-		return inEdges;
+		return Collections.unmodifiableSet(result);
 	}
 	
 	/**
-	 * Gets out-coming edges from node
-	 * @param node
-	 * @return The set of out-coming edges from the given node
+	 * Adds the given edge to the adjacency index, called by the edge set
+	 * @param edge
+	 */
+	/*package*/ void indexEdge(SandboxEdge edge){
+		index(inEdges, edge.to(), edge);
+		index(outEdges, edge.from(), edge);
+	}
+	
+	/**
+	 * Removes the given edge from the adjacency index, called by the edge set
+	 * @param edge
+	 */
+	/*package*/ void unindexEdge(SandboxEdge edge){
+		unindex(inEdges, edge.to(), edge);
+		unindex(outEdges, edge.from(), edge);
+	}
+	
+	/**
+	 * Clears the adjacency index, called by the edge set
+	 */
+	/*package*/ void clearEdgeIndex(){
+		inEdges.clear();
+		outEdges.clear();
+	}
+	
+	/**
+	 * Rebuilds the adjacency index from the current edge set. Flushing a
+	 * sandbox element changes its address (and therefore its hash), so the
+	 * index is rebuilt after a flush.
 	 */
-	private SandboxHashSet<SandboxEdge> getOutEdgesFromNode(SandboxNode node){
-		SandboxHashSet<SandboxEdge> outEdges = new SandboxHashSet<SandboxEdge>(this);
+	/*package*/ void reindex(){
+		clearEdgeIndex();
 		for(SandboxEdge edge : edges){
-			if(edge.from().equals(node)){
-				outEdges.add(edge);
+			indexEdge(edge);
+		}
+	}
+	
+	private void index(Map<SandboxNode,Set<SandboxEdge>> index, SandboxNode node, SandboxEdge edge){
+		Set<SandboxEdge> indexedEdges = index.get(node);
+		if(indexedEdges == null){
+			if(concurrent){
+				indexedEdges = ConcurrentHashMap.newKeySet();
+				Set<SandboxEdge> existing = index.putIfAbsent(node, indexedEdges);
+				if(existing != null){
+					indexedEdges = existing;
+				}
+			} else {
+				indexedEdges = new HashSet<SandboxEdge>();
+				index.put(node, indexedEdges);
+			}
+		}
+		indexedEdges.add(edge);
+	}
+	
+	private void unindex(Map<SandboxNode,Set<SandboxEdge>> index, SandboxNode node, SandboxEdge edge){
+		Set<SandboxEdge> indexedEdges = index.get(node);
+		if(indexedEdges != null){
+			indexedEdges.remove(edge);
+			// a concurrent index keeps empty entries, removing them could race
+			// with another thread indexing an edge of the same node
+			if(!concurrent && indexedEdges.isEmpty()){
+				index.remove(node);
 			}
 		}
-		return outEdges;
 	}
 
 }
@@ -1,7 +1,10 @@
 package com.ensoftcorp.open.commons.sandbox;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
@@ -15,6 +18,25 @@ public abstract class SandboxGraphElement {
 
 	private final Set<String> tags;
 	private final Map<String, Object> attributes;
+	
+	/**
+	 * The columnar store holding the tags and attributes of this element if
+	 * this element belongs to a compact sandbox, null otherwise
+	 */
+	private final ColumnarElementStore store;
+	private final int storeID;
+	
+	/**
+	 * True if the tags or attributes of this element have changed since it
+	 * was mirrored or last flushed (compact elements track this in the store)
+	 */
+	private boolean dirty = true;
+	
+	/**
+	 * The Atlas graph element this element mirrors or was flushed to, cached
+	 * to avoid re-resolving the address on each flush
+	 */
+	private GraphElement atlasGraphElement = null;
 
 	protected SandboxGraphElement(int sandboxInstanceID, String address) {
 		this(sandboxInstanceID, address, new HashSet<String>(), new HashMap<String, Object>());
@@ -23,8 +45,27 @@ public abstract class SandboxGraphElement {
 	protected SandboxGraphElement(int sandboxInstanceID, String address, Set<String> tags, Map<String, Object> attributes) {
 		this.sandboxInstanceID = sandboxInstanceID;
 		this.address = address;
-		this.tags = tags;
-		this.attributes = attributes;
+		this.tags = new DirtyTrackingSet(tags);
+		this.attributes = new DirtyTrackingMap(attributes);
+		this.store = null;
+		this.storeID = -1;
+	}
+	
+	/**
+	 * Constructs a flyweight graph element whose tags and attributes are
+	 * stored in the given columnar store
+	 * 
+	 * @param sandboxInstanceID
+	 * @param address
+	 * @param store
+	 */
+	protected SandboxGraphElement(int sandboxInstanceID, String address, ColumnarElementStore store) {
+		this.sandboxInstanceID = sandboxInstanceID;
+		this.address = address;
+		this.tags = null;
+		this.attributes = null;
+		this.store = store;
+		this.storeID = store.allocate();
 	}
 
 	/**
@@ -46,11 +87,71 @@ public abstract class SandboxGraphElement {
 	
 	public GraphElement toAtlasGraphElement(){
 		if(isMirror()){
-			return CommonQueries.getGraphElementByAddress(address);
+			if(atlasGraphElement == null){
+				atlasGraphElement = CommonQueries.getGraphElementByAddress(address);
+			}
+			return atlasGraphElement;
 		} else {
 			return null;
 		}
 	}
+	
+	/**
+	 * Records the Atlas graph element this element mirrors or was flushed to
+	 * @param atlasGraphElement
+	 */
+	/*package*/ void setAtlasGraphElement(GraphElement atlasGraphElement){
+		this.atlasGraphElement = atlasGraphElement;
+	}
+	
+	/**
+	 * Returns true if the tags or attributes of this element have been
+	 * modified since it was mirrored or last flushed. Elements that are not
+	 * yet mirrors of an Atlas graph element are always considered dirty.
+	 * 
+	 * @return
+	 */
+	public boolean isDirty(){
+		if(!isMirror()){
+			return true;
+		}
+		if(store != null){
+			return store.isDirty(storeID);
+		}
+		return dirty;
+	}
+	
+	/**
+	 * Marks this element as modified
+	 */
+	/*package*/ void markDirty(){
+		if(store != null){
+			store.markDirty(storeID);
+		} else {
+			dirty = true;
+		}
+	}
+	
+	/**
+	 * Releases the columnar store id of a deleted compact element, the id is
+	 * reused once this element is no longer referenced
+	 */
+	/*package*/ void release(){
+		if(store != null){
+			store.release(this, storeID);
+		}
+	}
+	
+	/**
+	 * Marks this element as synchronized with its Atlas graph element
+	 */
+	/*package*/ void markClean(){
+		if(store != null){
+			store.markClean(storeID);
+		} else {
+			dirty = false;
+		}
+	}
 
 	/**
 	 * Returns whether or not this sandbox graph element was originally a mirror
@@ -78,6 +179,9 @@ public abstract class SandboxGraphElement {
 	 * @return
 	 */
 	public Set<String> tags() {
+		if(store != null){
+			return store.tags(storeID);
+		}
 		return tags;
 	}
 	
@@ -87,7 +191,10 @@ public abstract class SandboxGraphElement {
 	 * @return
 	 */
 	public boolean tag(String tag){
-		return tags().add(tag);
+		if(store != null){
+			return store.tag(storeID, tag);
+		}
+		return tags.add(tag); // marks this element dirty
 	}
 	
 	/**
@@ -96,7 +203,10 @@ public abstract class SandboxGraphElement {
 	 * @return
 	 */
 	public boolean taggedWith(String tag) {
-		return tags().contains(tag);
+		if(store != null){
+			return store.hasTag(storeID, tag);
+		}
+		return tags.contains(tag);
 	}
 
 	/**
@@ -106,6 +216,9 @@ public abstract class SandboxGraphElement {
 	 * @return
 	 */
 	public Map<String, Object> attr() {
+		if(store != null){
+			return store.attr(storeID);
+		}
 		return attributes;
 	}
 	
@@ -116,7 +229,10 @@ public abstract class SandboxGraphElement {
 	 * @return
 	 */
 	public Object putAttr(String key, Object value){
-		return attr().put(key, value);
+		if(store != null){
+			return store.putAttr(storeID, key, value);
+		}
+		return attributes.put(key, value); // marks this element dirty
 	}
 	
 	/**
@@ -125,7 +241,10 @@ public abstract class SandboxGraphElement {
 	 * @return
 	 */
 	public Object getAttr(String key){
-		return attr().get(key);
+		if(store != null){
+			return store.getAttr(storeID, key);
+		}
+		return attributes.get(key);
 	}
 	
 	/**
@@ -134,16 +253,20 @@ public abstract class SandboxGraphElement {
 	 * @return
 	 */
 	public boolean hasAttr(String key){
-		return attr().containsKey(key);
+		if(store != null){
+			return store.hasAttr(storeID, key);
+		}
+		return attributes.containsKey(key);
 	}
 	
 	@Override
 	public String toString() {
 		StringBuilder tagsToString = new StringBuilder();
-		for(String tag : tags){
+		for(String tag : tags()){
 			tagsToString.append(tag + "\n");
 		}
 		StringBuilder atrributesToString = new StringBuilder();
+		Map<String, Object> attributes = attr();
 		for(String key : attributes.keySet()){
 			atrributesToString.append(key + ": " + attributes.get(key).toString() + "\n");
 		}
@@ -182,4 +305,151 @@ public abstract class SandboxGraphElement {
 		return true;
 	}
 
+	/**
+	 * A view of a tag set that marks this element dirty on any modification.
+	 * All mutations of an AbstractSet are routed through add or the
+	 * iterator's remove.
+	 */
+	private class DirtyTrackingSet extends AbstractSet<String> {
+		private final Set<String> set;
+		
+		public DirtyTrackingSet(Set<String> set){
+			this.set = set;
+		}
+		
+		@Override
+		public boolean add(String e) {
+			boolean added = set.add(e);
+			if(added){
+				markDirty();
+			}
+			return added;
+		}
+		
+		@Override
+		public boolean remove(Object o) {
+			boolean removed = set.remove(o);
+			if(removed){
+				markDirty();
+			}
+			return removed;
+		}
+		
+		@Override
+		public boolean contains(Object o) {
+			return set.contains(o);
+		}
+
+		@Override
+		public int size() {
+			return set.size();
+		}
+
+		@Override
+		public Iterator<String> iterator() {
+			final Iterator<String> iterator = set.iterator();
+			return new Iterator<String>(){
+				@Override
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+
+				@Override
+				public String next() {
+					return iterator.next();
+				}
+
+				@Override
+				public void remove() {
+					iterator.remove();
+					markDirty();
+				}
+			};
+		}
+	}
+	
+	/**
+	 * A view of an attribute map that marks this element dirty on any
+	 * modification. All mutations of an AbstractMap are routed through put,
+	 * remove, the entry set iterator's remove or an entry's setValue.
+	 */
+	private class DirtyTrackingMap extends AbstractMap<String,Object> {
+		private final Map<String,Object> map;
+		
+		public DirtyTrackingMap(Map<String,Object> map){
+			this.map = map;
+		}
+		
+		@Override
+		public Object get(Object key) {
+			return map.get(key);
+		}
+		
+		@Override
+		public boolean containsKey(Object key) {
+			return map.containsKey(key);
+		}
+		
+		@Override
+		public int size() {
+			return map.size();
+		}
+		
+		@Override
+		public Object put(String key, Object value) {
+			markDirty();
+			return map.put(key, value);
+		}
+		
+		@Override
+		public Object remove(Object key) {
+			if(map.containsKey(key)){
+				markDirty();
+			}
+			return map.remove(key);
+		}
+
+		@Override
+		public Set<Entry<String,Object>> entrySet() {
+			return new AbstractSet<Entry<String,Object>>(){
+				@Override
+				public int size() {
+					return map.size();
+				}
+
+				@Override
+				public Iterator<Entry<String,Object>> iterator() {
+					final Iterator<Entry<String,Object>> iterator = map.entrySet().iterator();
+					return new Iterator<Entry<String,Object>>(){
+						@Override
+						public boolean hasNext() {
+							return iterator.hasNext();
+						}
+
+						@Override
+						public Entry<String,Object> next() {
+							final Entry<String,Object> entry = iterator.next();
+							return new SimpleEntry<String,Object>(entry){
+								private static final long serialVersionUID = 1L;
+
+								@Override
+								public Object setValue(Object value) {
+									markDirty();
+									super.setValue(value);
+									return entry.setValue(value);
+								}
+							};
+						}
+
+						@Override
+						public void remove() {
+							iterator.remove();
+							markDirty();
+						}
+					};
+				}
+			};
+		}
+	}
+
 }
@@ -1,6 +1,7 @@
 package com.ensoftcorp.open.commons.sandbox;
 
 import java.util.HashSet;
+import java.util.Iterator;
 
 public class SandboxHashSet<T extends SandboxGraphElement> extends HashSet<T> {
 
@@ -8,6 +9,12 @@ public class SandboxHashSet<T extends SandboxGraphElement> extends HashSet<T> {
 	
 	private final int sandboxInstanceID;
 	
+	/**
+	 * The graph whose adjacency index must be kept consistent with this set,
+	 * null if this set is not the edge set of a graph
+	 */
+	private transient SandboxGraph adjacencyIndex = null;
+	
 	public SandboxHashSet(int sandboxInstanceID){
 		this.sandboxInstanceID = sandboxInstanceID;
 	}
@@ -28,15 +35,98 @@ public class SandboxHashSet<T extends SandboxGraphElement> extends HashSet<T> {
 		return sandboxInstanceID;
 	}
 	
+	/**
+	 * Binds this set to the adjacency index of the given graph
+	 * @param graph
+	 */
+	/*package*/ void setAdjacencyIndex(SandboxGraph graph){
+		this.adjacencyIndex = graph;
+	}
+	
+	/**
+	 * Returns the graph whose adjacency index is bound to this set or null
+	 * @return
+	 */
+	/*package*/ SandboxGraph getAdjacencyIndex(){
+		return adjacencyIndex;
+	}
+	
 	@Override
 	public boolean add(T ge){
 		if(ge.getSandboxInstanceID() == sandboxInstanceID){
-			return super.add(ge);
+			boolean added = super.add(ge);
+			if(added && adjacencyIndex != null && ge instanceof SandboxEdge){
+				adjacencyIndex.indexEdge((SandboxEdge) ge);
+			}
+			return added;
 		} else {
 			throw new RuntimeException("SandboxGraphElement [" + ge.getAddress() + "] is not in this sandbox!");
 		}
 	}
 	
+	@Override
+	public boolean remove(Object o){
+		boolean removed = super.remove(o);
+		if(removed && adjacencyIndex != null && o instanceof SandboxEdge){
+			adjacencyIndex.unindexEdge((SandboxEdge) o);
+		}
+		return removed;
+	}
+	
+	/**
+	 * Returns a shallow copy of this set that is not bound to an adjacency
+	 * index, changes to the copy do not affect the graph this set belongs to
+	 */
+	@Override
+	public Object clone(){
+		@SuppressWarnings("unchecked")
+		SandboxHashSet<T> clone = (SandboxHashSet<T>) super.clone();
+		clone.adjacencyIndex = null;
+		return clone;
+	}
+	
+	@Override
+	public void clear(){
+		super.clear();
+		if(adjacencyIndex != null){
+			adjacencyIndex.clearEdgeIndex();
+		}
+	}
+	
+	/**
+	 * Returns an iterator whose remove operation keeps the adjacency index
+	 * consistent (removeAll, retainAll and removeIf remove through the iterator)
+	 */
+	@Override
+	public Iterator<T> iterator(){
+		final Iterator<T> iterator = super.iterator();
+		if(adjacencyIndex == null){
+			return iterator;
+		}
+		return new Iterator<T>(){
+			private T last = null;
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public T next() {
+				last = iterator.next();
+				return last;
+			}
+
+			@Override
+			public void remove() {
+				iterator.remove();
+				if(last instanceof SandboxEdge){
+					adjacencyIndex.unindexEdge((SandboxEdge) last);
+				}
+			}
+		};
+	}
+	
 	/**
 	 * Returns one item from the set
 	 * @return
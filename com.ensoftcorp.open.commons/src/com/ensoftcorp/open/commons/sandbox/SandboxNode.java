@@ -13,12 +13,44 @@ public class SandboxNode extends SandboxGraphElement {
 		for(String key : node.attr().keys()){
 			attr().put(key, node.getAttr(key));
 		}
+		setAtlasGraphElement(node);
+		markClean();
 	}
 
 	public SandboxNode(int sandboxInstanceID, String address) {
 		super(sandboxInstanceID, address);
 	}
 	
+	/**
+	 * Constructs a mirrored sandbox node of the given Atlas node whose tags
+	 * and attributes are stored in the given columnar store
+	 * @param sandboxInstanceID
+	 * @param node
+	 * @param store
+	 */
+	public SandboxNode(int sandboxInstanceID, Node node, ColumnarElementStore store) {
+		super(sandboxInstanceID, Sandbox.addrStr(node), store);
+		for(String tag : node.tags()){
+			tag(tag);
+		}
+		for(String key : node.attr().keys()){
+			putAttr(key, node.getAttr(key));
+		}
+		setAtlasGraphElement(node);
+		markClean();
+	}
+	
+	/**
+	 * Constructs a new sandbox node whose tags and attributes are stored in
+	 * the given columnar store
+	 * @param sandboxInstanceID
+	 * @param address
+	 * @param store
+	 */
+	public SandboxNode(int sandboxInstanceID, String address, ColumnarElementStore store) {
+		super(sandboxInstanceID, address, store);
+	}
+	
 	public Node toAtlasNode(){
 		if(isMirror()){
 			return CommonQueries.getNodeByAddress(address);
@@ -2,7 +2,7 @@ package com.ensoftcorp.open.commons.utilities;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -12,9 +12,6 @@ import java.util.Map.Entry;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
-import org.eclipse.core.resources.IFile;
-import org.eclipse.core.resources.IProject;
-
 import com.ensoftcorp.atlas.core.db.graph.Edge;
 import com.ensoftcorp.atlas.core.db.graph.Graph;
 import com.ensoftcorp.atlas.core.db.graph.GraphElement;
@@ -32,11 +29,7 @@ import com.ensoftcorp.open.commons.analysis.CommonQueries;
  */
 public class FormattedSourceCorrespondence implements Comparable<FormattedSourceCorrespondence> {
 	
-	// on demand cache of relative file paths -> character ranges for each line number
-	// a line number is represented by the index of the linked list
-	private static final HashMap<String, LinkedList<Long>> cache = new HashMap<String, LinkedList<Long>>();
-	
-	// index listener clears cache on index change
+	// index listener clears the source line index on index change
 	private static final IIndexListener indexListener = new IIndexListener(){
 		@Override
 		public void indexOperationCancelled(IndexOperation op) {}
@@ -52,9 +45,7 @@ public class FormattedSourceCorrespondence implements Comparable<FormattedSource
 	
 		@Override
 		public void indexOperationStarted(IndexOperation op) {
-			if(cache != null) {
-				cache.clear();
-			}
+			SourceLineIndex.clear();
 		}
 	};
 	
@@ -208,32 +199,6 @@ public class FormattedSourceCorrespondence implements Comparable<FormattedSource
 		return sc.length;
 	}
 	
-	/**
-	 * Builds a private static cache of of the new line boundaries for a given source file
-	 * @param sourceFile
-	 * @return
-	 * @throws IOException
-	 */
-	private static LinkedList<Long> cacheFile(IFile sourceFile) throws IOException {
-		IProject project = sourceFile.getProject();
-		File baseDirectory = project.getLocation().toFile();
-		File file = sourceFile.getLocation().toFile();
-		String relativeFilePath = OSUtils.ResourceUtils.getRelativePath(file.getCanonicalPath(), baseDirectory.getParent(), File.separator);
-		LinkedList<Long> fileCache;
-		if(cache.containsKey(relativeFilePath)){
-			fileCache = cache.get(relativeFilePath);
-		} else {
-			fileCache = new LinkedList<Long>();
-			RandomAccessFile raf = new RandomAccessFile(file, "r");
-			while (raf.getFilePointer() < raf.length()) {
-				raf.readLine();
-				fileCache.add(new Long(raf.getFilePointer()));
-			}
-			raf.close();
-		}
-		return fileCache;
-	}
-	
 	/**
 	 * Gets a line number range for a given source correspondent
 	 * @param sc
@@ -241,20 +206,14 @@ public class FormattedSourceCorrespondence implements Comparable<FormattedSource
 	 * @throws IOException
 	 */
 	public static LineNumberRange getLineNumberRange(SourceCorrespondence sc) throws IOException {
-		LinkedList<Long> newLineBoundaries = cacheFile(sc.sourceFile);
+		return getLineNumberRange(SourceLineIndex.getLineTable(sc.sourceFile.getLocation().toFile()), sc);
+	}
+	
+	// helper function for resolving a line number range with a loaded line table
+	private static LineNumberRange getLineNumberRange(SourceLineIndex.LineTable lineTable, SourceCorrespondence sc) {
 		long startChar = sc.offset;
 		long endChar = (sc.offset + sc.length);
-		int startLine = 1;
-		int endLine = 1;
-		for(long newLineCharBoundary : newLineBoundaries){
-			if(startChar >= newLineCharBoundary){
-				startLine++;
-			}
-			if(newLineCharBoundary <= endChar){
-				endLine++;
-			}
-		}
-		return new LineNumberRange(startLine, endLine);
+		return new LineNumberRange(lineTable.getLineNumber(startChar), lineTable.getLineNumber(endChar));
 	}
 
 	@Override
@@ -290,6 +249,42 @@ public class FormattedSourceCorrespondence implements Comparable<FormattedSource
 		return sourceCorrespondents;
 	}
 
+	/**
+	 * Returns the source correspondents of a Q grouped by source file. The line
+	 * number ranges of the correspondents are resolved in bulk, each source
+	 * file is read at most once.
+	 * 
+	 * @param q
+	 * @return
+	 * @throws IOException
+	 */
+	public static Map<File, List<FormattedSourceCorrespondence>> getSourceCorrespondentsByFile(Q q) throws IOException {
+		return resolveLineNumberRanges(getSourceCorrespondents(q));
+	}
+	
+	// helper function for resolving the line number ranges of source correspondents grouped by file
+	private static Map<File, List<FormattedSourceCorrespondence>> resolveLineNumberRanges(Collection<FormattedSourceCorrespondence> sourceCorrespondents) throws IOException {
+		Map<File, List<FormattedSourceCorrespondence>> filesToSourceCorrespondents = new HashMap<File, List<FormattedSourceCorrespondence>>();
+		for (FormattedSourceCorrespondence fsc : sourceCorrespondents) {
+			File file = fsc.getFile();
+			List<FormattedSourceCorrespondence> fileSourceCorrespondents = filesToSourceCorrespondents.get(file);
+			if (fileSourceCorrespondents == null) {
+				fileSourceCorrespondents = new ArrayList<FormattedSourceCorrespondence>();
+				filesToSourceCorrespondents.put(file, fileSourceCorrespondents);
+			}
+			fileSourceCorrespondents.add(fsc);
+		}
+		for (Entry<File, List<FormattedSourceCorrespondence>> entry : filesToSourceCorrespondents.entrySet()) {
+			SourceLineIndex.LineTable lineTable = SourceLineIndex.getLineTable(entry.getKey());
+			for (FormattedSourceCorrespondence fsc : entry.getValue()) {
+				if (fsc.lineNumberRange == null) {
+					fsc.lineNumberRange = getLineNumberRange(lineTable, fsc.sc);
+				}
+			}
+		}
+		return filesToSourceCorrespondents;
+	}
+
 	/**
 	 * Returns a formatted source correspondent given a GraphElement
 	 * Returns null if no source correspondents are found.
@@ -333,7 +328,9 @@ public class FormattedSourceCorrespondence implements Comparable<FormattedSource
 	public static String summarize(Q q, boolean includeFunctionNames) throws IOException {
 		// get the files and the line numbers in the source correspondents
 		Map<String, SortedSet<LineNumberRange>> filesToLineNumbers = new HashMap<String, SortedSet<LineNumberRange>>();
-		for (FormattedSourceCorrespondence fsc : getSourceCorrespondents(q)) {
+		Collection<FormattedSourceCorrespondence> sourceCorrespondents = getSourceCorrespondents(q);
+		resolveLineNumberRanges(sourceCorrespondents);
+		for (FormattedSourceCorrespondence fsc : sourceCorrespondents) {
 			if (filesToLineNumbers.containsKey(fsc.getRelativeFile())) {
 				LineNumberRange line = new LineNumberRange(fsc.getLineNumbers());
 				filesToLineNumbers.get(fsc.getRelativeFile()).add(line);
@@ -424,7 +421,9 @@ public class FormattedSourceCorrespondence implements Comparable<FormattedSource
 	 * @throws IOException 
 	 */
 	public static Map<File, SortedSet<LineNumberRange>> summarize(Q q) throws IOException {
-		return summarize(getSourceCorrespondents(q));
+		Collection<FormattedSourceCorrespondence> sourceCorrespondents = getSourceCorrespondents(q);
+		resolveLineNumberRanges(sourceCorrespondents);
+		return summarize(sourceCorrespondents);
 	}
 
 	// helper function for summarizing source correspondents
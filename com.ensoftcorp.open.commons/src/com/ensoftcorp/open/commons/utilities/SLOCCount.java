@@ -7,28 +7,65 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.SubMonitor;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
 import com.ensoftcorp.atlas.core.index.common.SourceCorrespondence;
+import com.ensoftcorp.atlas.core.query.Query;
 import com.ensoftcorp.atlas.core.xcsg.XCSG;
 import com.ensoftcorp.open.commons.analysis.CommonQueries;
+import com.ensoftcorp.open.commons.log.Log;
 import com.ensoftcorp.open.commons.preferences.CommonsPreferences;
+import com.ensoftcorp.open.commons.xcsg.XCSG_Extension;
 
 /**
  * Counts source lines of code as logical lines of code, differentiating between blank lines, comments, and code
  * 
- * Jimple is counted manually, assuming comments do no exist, and a non blank line is code
- * All other language delagate line counting to the cloc tool: https://github.com/AlDanial/cloc
+ * Lines are counted in-process by the SLOCLexer, which scans each source file once, so the
+ * functions of a file (or of the entire universe) can be counted in bulk. Counting with the
+ * cloc tool (https://github.com/AlDanial/cloc) remains available as a cross-check.
  * 
  * @author Ben Holland
  */
 public class SLOCCount {
 
+	/**
+	 * Attribute applied to functions recording the number of blank lines
+	 */
+	@XCSG_Extension
+	public static final String SLOC_BLANK = "sloc-blank";
+	
+	/**
+	 * Attribute applied to functions recording the number of comment lines
+	 */
+	@XCSG_Extension
+	public static final String SLOC_COMMENT = "sloc-comment";
+	
+	/**
+	 * Attribute applied to functions recording the number of code lines
+	 */
+	@XCSG_Extension
+	public static final String SLOC_CODE = "sloc-code";
+
 	public static class LinesOfCode {
 		private String language;
 		private long blank;
@@ -64,7 +101,191 @@ public class SLOCCount {
 		}
 	}
 	
+	/**
+	 * Counts the lines of code of a function
+	 * 
+	 * Note: lines are no longer counted with cloc, so a ParseException is
+	 * never thrown. It remains declared so that existing callers compile.
+	 * 
+	 * @param function
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
 	public static LinesOfCode count(Node function) throws IOException, ParseException {
+		LinesOfCode result = count(Collections.singletonList(function)).get(function);
+		if(result == null) {
+			throw new RuntimeException("Unsupported Language Type");
+		}
+		return result;
+	}
+	
+	/**
+	 * Counts the lines of code of each function, each source file is scanned
+	 * once regardless of how many of the functions it contains. Functions
+	 * without a source correspondence or of an unsupported language are not
+	 * included in the result.
+	 * 
+	 * @param functions
+	 * @return
+	 * @throws IOException
+	 */
+	public static Map<Node, LinesOfCode> count(Collection<Node> functions) throws IOException {
+		Map<Node, LinesOfCode> result = new HashMap<Node, LinesOfCode>();
+		for(Entry<File, List<Node>> entry : groupByFile(functions).entrySet()) {
+			result.putAll(countFile(entry.getKey(), entry.getValue()));
+		}
+		return result;
+	}
+	
+	/**
+	 * Counts the lines of code of every function in the universe in parallel
+	 * and records the counts as the SLOC_BLANK, SLOC_COMMENT and SLOC_CODE
+	 * attributes of each function. Attributes are written on the calling
+	 * thread.
+	 * 
+	 * @param parallelism the number of source files to count concurrently
+	 * @param monitor
+	 * @return the number of functions counted
+	 */
+	public static int countAll(int parallelism, final IProgressMonitor monitor) {
+		AtlasSet<Node> functions = Query.universe().nodes(XCSG.Function).eval().nodes();
+		List<Node> functionList = new ArrayList<Node>((int) functions.size());
+		for(Node function : functions) {
+			functionList.add(function);
+		}
+		Map<File, List<Node>> filesToFunctions = groupByFile(functionList);
+		SubMonitor task = SubMonitor.convert(monitor, filesToFunctions.size());
+		ForkJoinPool workers = new ForkJoinPool(Math.max(1, parallelism));
+		CompletionService<Map<Node, LinesOfCode>> completions = new ExecutorCompletionService<Map<Node, LinesOfCode>>(workers);
+		int functionsCounted = 0;
+		try {
+			for(final Entry<File, List<Node>> entry : filesToFunctions.entrySet()) {
+				completions.submit(new Callable<Map<Node, LinesOfCode>>() {
+					@Override
+					public Map<Node, LinesOfCode> call() throws Exception {
+						if(monitor.isCanceled()) {
+							return Collections.emptyMap();
+						}
+						return countFile(entry.getKey(), entry.getValue());
+					}
+				});
+			}
+			for(int filesCompleted=0; filesCompleted<filesToFunctions.size(); filesCompleted++) {
+				if(monitor.isCanceled()) {
+					Log.warning("Cancelled: Counting Source Lines of Code");
+					break;
+				}
+				try {
+					for(Entry<Node, LinesOfCode> count : completions.take().get().entrySet()) {
+						Node function = count.getKey();
+						function.putAttr(SLOC_BLANK, count.getValue().getBlank());
+						function.putAttr(SLOC_COMMENT, count.getValue().getComment());
+						function.putAttr(SLOC_CODE, count.getValue().getCode());
+						functionsCounted++;
+					}
+				} catch (ExecutionException e) {
+					Log.error("Error counting source lines of code", e.getCause());
+				}
+				task.worked(1);
+			}
+		} catch (InterruptedException e) {
+			Log.warning("Interrupted: Counting Source Lines of Code", e);
+			Thread.currentThread().interrupt();
+		} finally {
+			workers.shutdownNow();
+			try {
+				workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return functionsCounted;
+	}
+	
+	/**
+	 * Groups the functions with a source correspondence and a supported
+	 * language by source file
+	 * @param functions
+	 * @return
+	 */
+	private static Map<File, List<Node>> groupByFile(Collection<Node> functions) {
+		Map<File, List<Node>> filesToFunctions = new HashMap<File, List<Node>>();
+		for(Node function : functions) {
+			Object sc = function.getAttr(XCSG.sourceCorrespondence);
+			if(!(sc instanceof SourceCorrespondence) || ((SourceCorrespondence) sc).sourceFile == null || getLanguage(function) == null) {
+				continue;
+			}
+			File sourceFile = ((SourceCorrespondence) sc).sourceFile.getLocation().toFile();
+			List<Node> fileFunctions = filesToFunctions.get(sourceFile);
+			if(fileFunctions == null) {
+				fileFunctions = new LinkedList<Node>();
+				filesToFunctions.put(sourceFile, fileFunctions);
+			}
+			fileFunctions.add(function);
+		}
+		return filesToFunctions;
+	}
+	
+	/**
+	 * Counts the lines of code of the functions of a single source file in one pass over the file
+	 * @param sourceFile
+	 * @param functions
+	 * @return
+	 * @throws IOException
+	 */
+	private static Map<Node, LinesOfCode> countFile(File sourceFile, List<Node> functions) throws IOException {
+		Map<Node, LinesOfCode> result = new HashMap<Node, LinesOfCode>();
+		SLOCLexer.LineClassification lines = SLOCLexer.classify(sourceFile, getLanguage(functions.get(0)));
+		for(Node function : functions) {
+			SourceCorrespondence sc = (SourceCorrespondence) function.getAttr(XCSG.sourceCorrespondence);
+			long startOffset = sc.offset;
+			long endOffset = sc.offset + sc.length;
+			// the function ends with the last control flow statement of the function
+			boolean hasStatements = false;
+			for(Node cfgNode : CommonQueries.cfg(function).eval().nodes()) {
+				Object cfgNodeSC = cfgNode.getAttr(XCSG.sourceCorrespondence);
+				if(cfgNodeSC instanceof SourceCorrespondence && sc.sourceFile.equals(((SourceCorrespondence) cfgNodeSC).sourceFile)) {
+					long cfgNodeEndOffset = ((SourceCorrespondence) cfgNodeSC).offset + ((SourceCorrespondence) cfgNodeSC).length;
+					endOffset = hasStatements ? Math.max(endOffset, cfgNodeEndOffset) : cfgNodeEndOffset;
+					hasStatements = true;
+				}
+			}
+			result.put(function, lines.count(startOffset, endOffset));
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the lexer language of the function or null if the language is not supported
+	 * @param function
+	 * @return
+	 */
+	private static SLOCLexer.Language getLanguage(Node function) {
+		if(function.taggedWith(XCSG.Language.Jimple)) {
+			return SLOCLexer.Language.JIMPLE;
+		} else if(function.taggedWith(XCSG.Language.CPP)) {
+			return SLOCLexer.Language.CPP;
+		} else if(function.taggedWith(XCSG.Language.C)) {
+			return SLOCLexer.Language.C;
+		} else if(function.taggedWith(XCSG.Language.Java)) {
+			return SLOCLexer.Language.JAVA;
+		}
+		return null;
+	}
+	
+	/**
+	 * Counts the lines of code of a function by delegating to the cloc tool
+	 * (Jimple is counted manually, assuming comments do no exist, and a non
+	 * blank line is code). Spawns a cloc process per function, useful as a
+	 * cross-check of the in-process count.
+	 * 
+	 * @param function
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static LinesOfCode countWithCloc(Node function) throws IOException, ParseException {
 		// sort the cfg nodes of the function by source correspondence
 		ArrayList<Node> cfgNodes = new ArrayList<Node>();
 		for(Node cfgNode : CommonQueries.cfg(function).eval().nodes()) {
@@ -0,0 +1,306 @@
+package com.ensoftcorp.open.commons.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An in-process lexer that classifies each line of a C, C++, Java or Jimple
+ * source file as blank, comment or code, following the same rules as cloc: a
+ * line containing only whitespace is blank, a line containing only comments
+ * (and whitespace) is a comment line and any other line is a code line.
+ *
+ * The lexer understands line and block comments, string and character
+ * literals (so comment delimiters inside literals are code) and Java text
+ * blocks. Files are scanned as bytes, which is sufficient for any ASCII
+ * compatible encoding.
+ *
+ * @author Ben Holland
+ */
+public final class SLOCLexer {
+
+	/**
+	 * The languages understood by the lexer
+	 */
+	public static enum Language {
+		C("C"), CPP("C++"), JAVA("Java"), JIMPLE("Jimple");
+
+		private final String name;
+
+		private Language(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Returns the display name of the language (matches cloc's language names)
+		 * @return
+		 */
+		public String getName() {
+			return name;
+		}
+	}
+
+	private static final byte BLANK = 0;
+	private static final byte COMMENT = 1;
+	private static final byte CODE = 2;
+
+	// lexer states
+	private static final int NORMAL = 0;
+	private static final int LINE_COMMENT = 1;
+	private static final int BLOCK_COMMENT = 2;
+	private static final int STRING = 3;
+	private static final int CHARACTER = 4;
+	private static final int TEXT_BLOCK = 5;
+
+	// hide constructor
+	private SLOCLexer() {}
+
+	/**
+	 * The line classifications of a source file, with prefix sums so that the
+	 * blank, comment and code line counts of any line range are constant time
+	 */
+	public static final class LineClassification {
+		private final Language language;
+
+		// the offsets immediately following each line (same semantics as SourceLineIndex)
+		private final int[] boundaries;
+
+		// the number of blank, comment and code lines before each line index
+		private final int[] blankPrefix;
+		private final int[] commentPrefix;
+		private final int[] codePrefix;
+
+		private LineClassification(Language language, int[] boundaries, byte[] classes) {
+			this.language = language;
+			this.boundaries = boundaries;
+			this.blankPrefix = new int[boundaries.length + 1];
+			this.commentPrefix = new int[boundaries.length + 1];
+			this.codePrefix = new int[boundaries.length + 1];
+			for (int line = 0; line < boundaries.length; line++) {
+				blankPrefix[line + 1] = blankPrefix[line] + (classes[line] == BLANK ? 1 : 0);
+				commentPrefix[line + 1] = commentPrefix[line] + (classes[line] == COMMENT ? 1 : 0);
+				codePrefix[line + 1] = codePrefix[line] + (classes[line] == CODE ? 1 : 0);
+			}
+		}
+
+		public Language getLanguage() {
+			return language;
+		}
+
+		/**
+		 * Returns the number of lines in the file
+		 * @return
+		 */
+		public int getLineCount() {
+			return boundaries.length;
+		}
+
+		/**
+		 * Returns the 0-based index of the line containing the given offset
+		 * @param offset
+		 * @return
+		 */
+		public int getLineIndex(long offset) {
+			int low = 0;
+			int high = boundaries.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (boundaries[mid] <= offset) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Counts the lines that start before the end offset, beginning with the
+		 * line containing the start offset
+		 *
+		 * @param startOffset
+		 * @param endOffset
+		 * @return
+		 */
+		public SLOCCount.LinesOfCode count(long startOffset, long endOffset) {
+			int first = Math.min(getLineIndex(startOffset), boundaries.length);
+			int last = endOffset <= startOffset ? first : Math.min(getLineIndex(endOffset - 1), boundaries.length - 1);
+			if (last < first) {
+				return new SLOCCount.LinesOfCode(language.getName(), 0, 0, 0);
+			}
+			return new SLOCCount.LinesOfCode(language.getName(),
+					blankPrefix[last + 1] - blankPrefix[first],
+					commentPrefix[last + 1] - commentPrefix[first],
+					codePrefix[last + 1] - codePrefix[first]);
+		}
+
+		/**
+		 * Counts all the lines of the file
+		 * @return
+		 */
+		public SLOCCount.LinesOfCode count() {
+			return new SLOCCount.LinesOfCode(language.getName(),
+					blankPrefix[boundaries.length],
+					commentPrefix[boundaries.length],
+					codePrefix[boundaries.length]);
+		}
+	}
+
+	/**
+	 * Classifies each line of the given source file
+	 * @param file
+	 * @param language
+	 * @return
+	 * @throws IOException
+	 */
+	public static LineClassification classify(File file, Language language) throws IOException {
+		return classify(SourceLineIndex.readContents(file), language);
+	}
+
+	/**
+	 * Classifies each line of the given source contents
+	 * @param contents
+	 * @param language
+	 * @return
+	 */
+	public static LineClassification classify(ByteBuffer contents, Language language) {
+		int size = contents.limit();
+		int capacity = Math.max(16, size / 32);
+		int[] boundaries = new int[capacity];
+		byte[] classes = new byte[capacity];
+		int lines = 0;
+
+		int state = NORMAL;
+		boolean code = false;
+		boolean comment = false;
+		boolean textBlocks = language == Language.JAVA;
+
+		int i = 0;
+		while (i < size) {
+			byte b = contents.get(i);
+
+			// end of line
+			if (b == '\n' || b == '\r') {
+				if (b == '\r' && i + 1 < size && contents.get(i + 1) == '\n') {
+					i++;
+				}
+				i++;
+				if (lines == boundaries.length) {
+					boundaries = Arrays.copyOf(boundaries, lines * 2);
+					classes = Arrays.copyOf(classes, lines * 2);
+				}
+				boundaries[lines] = i;
+				classes[lines] = code ? CODE : (comment ? COMMENT : BLANK);
+				lines++;
+				code = false;
+				comment = false;
+				// line comments and unterminated literals end with the line
+				if (state == LINE_COMMENT || state == STRING || state == CHARACTER) {
+					state = NORMAL;
+				}
+				continue;
+			}
+
+			switch (state) {
+			case NORMAL:
+				if (b == '/' && i + 1 < size && contents.get(i + 1) == '/') {
+					comment = true;
+					state = LINE_COMMENT;
+					i += 2;
+				} else if (b == '/' && i + 1 < size && contents.get(i + 1) == '*') {
+					comment = true;
+					state = BLOCK_COMMENT;
+					i += 2;
+				} else if (b == '"') {
+					code = true;
+					if (textBlocks && i + 2 < size && contents.get(i + 1) == '"' && contents.get(i + 2) == '"') {
+						state = TEXT_BLOCK;
+						i += 3;
+					} else {
+						state = STRING;
+						i++;
+					}
+				} else if (b == '\'') {
+					code = true;
+					state = CHARACTER;
+					i++;
+				} else {
+					if (!isWhitespace(b)) {
+						code = true;
+					}
+					i++;
+				}
+				break;
+			case LINE_COMMENT:
+				i++;
+				break;
+			case BLOCK_COMMENT:
+				if (!isWhitespace(b)) {
+					comment = true;
+				}
+				if (b == '*' && i + 1 < size && contents.get(i + 1) == '/') {
+					state = NORMAL;
+					i += 2;
+				} else {
+					i++;
+				}
+				break;
+			case STRING:
+			case CHARACTER:
+				code = true;
+				if (b == '\\') {
+					// skip the escaped character (unless it is a line terminator,
+					// which is handled as the end of the line)
+					i++;
+					if (i < size && contents.get(i) != '\n' && contents.get(i) != '\r') {
+						i++;
+					}
+				} else {
+					if ((state == STRING && b == '"') || (state == CHARACTER && b == '\'')) {
+						state = NORMAL;
+					}
+					i++;
+				}
+				break;
+			case TEXT_BLOCK:
+				if (!isWhitespace(b)) {
+					code = true;
+				}
+				if (b == '\\') {
+					i++;
+					if (i < size && contents.get(i) != '\n' && contents.get(i) != '\r') {
+						i++;
+					}
+				} else if (b == '"' && i + 2 < size && contents.get(i + 1) == '"' && contents.get(i + 2) == '"') {
+					state = NORMAL;
+					i += 3;
+				} else {
+					i++;
+				}
+				break;
+			default:
+				i++;
+				break;
+			}
+		}
+
+		// the last line ends at the end of the file
+		if (size > 0 && (lines == 0 || boundaries[lines - 1] != size)) {
+			if (lines == boundaries.length) {
+				boundaries = Arrays.copyOf(boundaries, lines + 1);
+				classes = Arrays.copyOf(classes, lines + 1);
+			}
+			boundaries[lines] = size;
+			classes[lines] = code ? CODE : (comment ? COMMENT : BLANK);
+			lines++;
+		}
+
+		return new LineClassification(language, Arrays.copyOf(boundaries, lines), Arrays.copyOf(classes, lines));
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\f' || b == 0x0B;
+	}
+
+}
@@ -0,0 +1,235 @@
+package com.ensoftcorp.open.commons.utilities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread-safe, bounded cache of the line boundaries of source files.
+ *
+ * Each file is read once (large files are memory mapped) and its line
+ * boundaries are stored in a compact sorted int array, so resolving a
+ * character offset to a line number is a binary search. Source correspondence
+ * offsets are ints, so an int table is sufficient for any indexed file.
+ *
+ * A cached table is discarded if the file's length or modification time has
+ * changed since it was built. The cache is a least recently used cache bounded
+ * by the total number of cached line boundaries.
+ *
+ * @author Ben Holland
+ */
+public final class SourceLineIndex {
+
+	/**
+	 * Files smaller than this are read into a heap buffer instead of being
+	 * memory mapped, mapping has a higher fixed cost than a single read
+	 */
+	private static final long MEMORY_MAP_THRESHOLD = 64 * 1024;
+
+	/**
+	 * The maximum total number of line boundaries cached (4 bytes each)
+	 */
+	private static final long MAXIMUM_CACHED_BOUNDARIES = 16 * 1024 * 1024;
+
+	/**
+	 * Access ordered map of absolute file paths to line tables, the first
+	 * entry is the least recently used
+	 */
+	private static final LinkedHashMap<String,LineTable> CACHE = new LinkedHashMap<String,LineTable>(16, 0.75f, true);
+
+	/**
+	 * The total number of cached line boundaries
+	 */
+	private static long cachedBoundaries = 0;
+
+	// hide constructor
+	private SourceLineIndex() {}
+
+	/**
+	 * The line boundaries of a source file
+	 */
+	public static final class LineTable {
+		private final long length;
+		private final long lastModified;
+
+		// the offsets immediately following each line terminator (\n, \r\n or
+		// a lone \r), plus the end of the file if the last line is not
+		// terminated, in ascending order
+		private final int[] boundaries;
+
+		private LineTable(long length, long lastModified, int[] boundaries) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.boundaries = boundaries;
+		}
+
+		/**
+		 * Returns the 1-based line number containing the given character offset
+		 * @param offset
+		 * @return
+		 */
+		public int getLineNumber(long offset) {
+			// the line number is one more than the number of line boundaries at
+			// or before the offset
+			int low = 0;
+			int high = boundaries.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (boundaries[mid] <= offset) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low + 1;
+		}
+
+		/**
+		 * Returns the number of line boundaries in the file
+		 * @return
+		 */
+		public int getLineCount() {
+			return boundaries.length;
+		}
+	}
+
+	/**
+	 * Returns the line table for the given file, reading the file if the
+	 * table is not cached or the file has changed since it was cached
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static LineTable getLineTable(File file) throws IOException {
+		String key = file.getAbsolutePath();
+		long length = file.length();
+		long lastModified = file.lastModified();
+		synchronized (CACHE) {
+			LineTable table = CACHE.get(key);
+			if (table != null) {
+				if (table.length == length && table.lastModified == lastModified) {
+					return table;
+				}
+				CACHE.remove(key);
+				cachedBoundaries -= table.boundaries.length;
+			}
+		}
+		// read outside of the lock, concurrent misses on the same file read
+		// the same table and the last one wins
+		LineTable table = new LineTable(length, lastModified, readBoundaries(file));
+		if (table.boundaries.length <= MAXIMUM_CACHED_BOUNDARIES) {
+			synchronized (CACHE) {
+				LineTable previous = CACHE.put(key, table);
+				if (previous != null) {
+					cachedBoundaries -= previous.boundaries.length;
+				}
+				cachedBoundaries += table.boundaries.length;
+				Iterator<Map.Entry<String,LineTable>> lru = CACHE.entrySet().iterator();
+				while (cachedBoundaries > MAXIMUM_CACHED_BOUNDARIES && lru.hasNext()) {
+					Map.Entry<String,LineTable> eldest = lru.next();
+					if (eldest.getValue() == table) {
+						continue;
+					}
+					cachedBoundaries -= eldest.getValue().boundaries.length;
+					lru.remove();
+				}
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Removes all cached line tables
+	 */
+	public static void clear() {
+		synchronized (CACHE) {
+			CACHE.clear();
+			cachedBoundaries = 0;
+		}
+	}
+
+	/**
+	 * Reads the line boundaries of the given file
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static int[] readBoundaries(File file) throws IOException {
+		return scan(readContents(file));
+	}
+
+	/**
+	 * Returns the contents of the given file, memory mapped if the file is
+	 * large and read into a heap buffer otherwise
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	/*package*/ static ByteBuffer readContents(File file) throws IOException {
+		FileInputStream input = new FileInputStream(file);
+		try {
+			FileChannel channel = input.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("File is too large to index: " + file.getAbsolutePath());
+			}
+			ByteBuffer buffer;
+			if (size < MEMORY_MAP_THRESHOLD) {
+				buffer = ByteBuffer.allocate((int) size);
+				while (buffer.hasRemaining() && channel.read(buffer) != -1) {}
+				buffer.flip();
+			} else {
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+			return buffer;
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Scans the buffer for line terminators, matching the line semantics of
+	 * RandomAccessFile.readLine
+	 * @param buffer
+	 * @return
+	 */
+	private static int[] scan(ByteBuffer buffer) {
+		int size = buffer.limit();
+		int[] boundaries = new int[Math.max(16, size / 32)];
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			byte b = buffer.get(i);
+			int boundary;
+			if (b == '\n') {
+				boundary = i + 1;
+			} else if (b == '\r') {
+				if (i + 1 < size && buffer.get(i + 1) == '\n') {
+					i++;
+				}
+				boundary = i + 1;
+			} else {
+				continue;
+			}
+			if (count == boundaries.length) {
+				boundaries = Arrays.copyOf(boundaries, boundaries.length * 2);
+			}
+			boundaries[count++] = boundary;
+		}
+		// the last line ends at the end of the file
+		if (size > 0 && (count == 0 || boundaries[count - 1] != size)) {
+			if (count == boundaries.length) {
+				boundaries = Arrays.copyOf(boundaries, boundaries.length + 1);
+			}
+			boundaries[count++] = size;
+		}
+		return Arrays.copyOf(boundaries, count);
+	}
+
+}